@@ -0,0 +1,589 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.material.Material;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Vector3f;
+import com.jme3.math.Vector4f;
+import com.jme3.post.SceneProcessor;
+import com.jme3.renderer.Caps;
+import com.jme3.renderer.Limits;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.Renderer;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.shader.VarType;
+import com.jme3.system.Timer;
+import com.jme3.texture.FrameBuffer;
+import com.jme3.texture.Texture2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A SceneProcessor that renders animated TextureProjectors several per pass. 
+ * Projectors are grouped by their projective texture, the sprite sheet, and 
+ * all projectors of a pass share its sampler. Each slot selects its own tile, 
+ * so N projectors on one sheet are rendered in ceil(N / slots) passes.
+ * Animations are set up like for the AnimatedTextureProjectorRenderer: a 
+ * TileAnimation as TILE_ANIMATION parameter of the projector, or the default 
+ * animation of this renderer.
+ * 
+ * @author survivor
+ * @see AnimatedTextureProjectorRenderer
+ * @see MultiTextureProjectorRenderer
+ */
+public class AnimatedMultiTextureProjectorRenderer implements SceneProcessor 
+{
+  private static final String TEMPLATE_NAME = "ProjectiveAnimatedMultiTextureMapping";
+  private static final int VARYING_VECTORS_GL2 = 8;
+  private static final int VARYING_VECTORS_GL3 = 15;
+  private static final int RESERVED_VERTEX_UNIFORM_VECTORS = 12;
+  private static final int VERTEX_UNIFORM_VECTORS_PER_PROJECTOR = 5;
+  private static final int FRAGMENT_UNIFORM_VECTORS_PER_PROJECTOR = 2;
+  
+  private final AssetManager assetManager;
+  private final Timer timer;
+  private final TileAnimation defaultAnimation;
+  private final ProjectorRegistry projectorRegistry;
+  private final List<TextureProjector> textureProjectors;
+  private final ArrayList<TextureProjector> pendingProjectors;
+  private final TargetGeometryCuller targetGeometryCuller;
+  private final ProjectorRenderStats stats;
+  private ProjectorLodPolicy lodPolicy;
+  private int maxPasses;
+  private RenderManager renderManager;
+  private ViewPort viewPort;
+  private Material textureMat;
+  private int numProjectorsPerPass;
+  private float polyOffsetFactor;
+  private float polyOffsetUnits;
+  private Matrix4f[] projectorViewProjectionMatrices;
+  private Vector4f[] projectorLocations;
+  private Vector4f[] projectorParams;
+  private Vector4f[] projectorTileRects;
+  private TextureProjector[] slotProjectors;
+  private int[] slotVersions;
+
+  /**
+   * Creates a new instance with DEFAULT_PROJECTORS_PER_PASS slots.
+   * @param assetManager The AssetManager.
+   * @param timer The Timer driving the animations.
+   * @param numTilesU The number of tile columns of the default animation.
+   * @param numTilesV The number of tile rows of the default animation.
+   * @param speed The frames per second of the default animation.
+   */  
+  public AnimatedMultiTextureProjectorRenderer(AssetManager assetManager, 
+    Timer timer, int numTilesU, int numTilesV, int speed) 
+  { 
+    this(assetManager, timer, numTilesU, numTilesV, speed, 
+      MultiTextureProjectorRenderer.DEFAULT_PROJECTORS_PER_PASS);
+  }
+  
+  /**
+   * Creates a new instance rendering up to numProjectorsPerPass projectors 
+   * per pass.
+   * @param assetManager The AssetManager.
+   * @param timer The Timer driving the animations.
+   * @param numTilesU The number of tile columns of the default animation.
+   * @param numTilesV The number of tile rows of the default animation.
+   * @param speed The frames per second of the default animation.
+   * @param numProjectorsPerPass The number of projector slots per pass or 
+   * MultiTextureProjectorRenderer.AUTO_PROJECTORS_PER_PASS to find it from 
+   * the Renderer's limits.
+   * @see #getMaxProjectorsPerPass(com.jme3.renderer.Renderer) 
+   */  
+  public AnimatedMultiTextureProjectorRenderer(AssetManager assetManager, 
+    Timer timer, int numTilesU, int numTilesV, int speed, int numProjectorsPerPass) 
+  { 
+    if (numProjectorsPerPass < 0)
+    {
+      throw new IllegalArgumentException("numProjectorsPerPass must not be negative");
+    }
+    
+    this.assetManager = assetManager;
+    this.timer = timer;
+    defaultAnimation = new TileAnimation(numTilesU, numTilesV, speed);
+    projectorRegistry = new ProjectorRegistry();
+    textureProjectors = projectorRegistry.getSnapshot();
+    pendingProjectors = new ArrayList<TextureProjector>();
+    targetGeometryCuller = new TargetGeometryCuller();
+    stats = new ProjectorRenderStats();
+    lodPolicy = null;
+    maxPasses = Integer.MAX_VALUE;
+    renderManager = null;
+    viewPort = null;
+    textureMat = null;
+    setPolyOffset(-0.1f, -0.1f);
+    
+    if (numProjectorsPerPass != MultiTextureProjectorRenderer.AUTO_PROJECTORS_PER_PASS)
+    {
+      createMaterial(numProjectorsPerPass);
+    }
+  }
+  
+  /**
+   * Estimates the number of projectors that fit into one pass from the 
+   * Renderer's uniform limits and its varying limit. All slots share one 
+   * sampler, so the texture units don't limit the slots.
+   * @param renderer The Renderer.
+   * @return The maximum number of projectors per pass, at least 1.
+   */  
+  public static int getMaxProjectorsPerPass(Renderer renderer)
+  {
+    Map<Limits, Integer> limits = renderer.getLimits();
+    int maxProjectors = renderer.getCaps().contains(Caps.OpenGL30) ? 
+      VARYING_VECTORS_GL3 : VARYING_VECTORS_GL2;
+    Integer vertexUniformVectors = limits.get(Limits.VertexUniformVectors);
+    Integer fragmentUniformVectors = limits.get(Limits.FragmentUniformVectors);
+    
+    if (vertexUniformVectors != null)
+    {
+      maxProjectors = Math.min(maxProjectors, 
+        (vertexUniformVectors - RESERVED_VERTEX_UNIFORM_VECTORS) / VERTEX_UNIFORM_VECTORS_PER_PROJECTOR);
+    }
+    
+    if (fragmentUniformVectors != null)
+    {
+      maxProjectors = Math.min(maxProjectors, 
+        fragmentUniformVectors / FRAGMENT_UNIFORM_VECTORS_PER_PROJECTOR);
+    }
+    
+    return Math.max(1, maxProjectors);
+  }
+  
+  private void createMaterial(int numProjectorsPerPass)
+  {
+    this.numProjectorsPerPass = numProjectorsPerPass;
+    projectorViewProjectionMatrices = new Matrix4f[numProjectorsPerPass];
+    projectorLocations = new Vector4f[numProjectorsPerPass];
+    projectorParams = new Vector4f[numProjectorsPerPass];
+    projectorTileRects = new Vector4f[numProjectorsPerPass];
+    slotProjectors = new TextureProjector[numProjectorsPerPass];
+    slotVersions = new int[numProjectorsPerPass];
+    
+    for (int i = 0; i < numProjectorsPerPass; i++)
+    {
+      projectorViewProjectionMatrices[i] = new Matrix4f();
+      projectorLocations[i] = new Vector4f();
+      projectorParams[i] = new Vector4f();
+      projectorTileRects[i] = new Vector4f();
+    }
+    
+    SlotTemplateLocator.register(assetManager);
+    textureMat = new Material(assetManager, SlotTemplateLocator.getAssetName(
+      TEMPLATE_NAME, numProjectorsPerPass, "j3md"));
+    textureMat.getAdditionalRenderState().setPolyOffset(polyOffsetFactor, polyOffsetUnits);
+    textureMat.setInt("NumProjectors", numProjectorsPerPass);
+  }
+  
+  /**
+   * @return The number of projector slots per pass, 0 if it is found when 
+   * this instance is initialized.
+   */  
+  public int getNumProjectorsPerPass()
+  {
+    return numProjectorsPerPass;
+  }
+  
+  /**
+   * @return The animation of projectors without a TILE_ANIMATION parameter.
+   */  
+  public TileAnimation getDefaultAnimation()
+  {
+    return defaultAnimation;
+  }
+  
+  /**
+   * @return The number of TextureProjectors that were refreshed in the last 
+   * frame, because they are new or changed.
+   */  
+  public int getNumRefreshedProjectors()
+  {
+    return targetGeometryCuller.getNumRefreshedProjectors();
+  }
+  
+  /**
+   * @return The metrics of the last frame rendered by this instance.
+   */  
+  public ProjectorRenderStats getStats()
+  {
+    return stats;
+  }
+  
+  /**
+   * @return A list of TextureProjectors rendered by this instance, a 
+   * ProjectorRegistry. It may be changed from any thread. Changes are taken 
+   * over by the next preFrame(), so a change made while a frame renders shows 
+   * one frame later. While another thread holds the registry's lock, they 
+   * may be deferred by up to getMaxDeferredSnapshots() more frames.
+   * @see ProjectorRegistry#setMaxDeferredSnapshots(int)
+   */  
+  public List<TextureProjector> getTextureProjectors()
+  {
+    return projectorRegistry;
+  }
+  
+  /**
+   * Sets the spatial index used to find the receivers of TextureProjectors 
+   * without a target GeometryList. The index may be shared by several renderers.
+   * @param receiverIndex The receiver index or null to use the visible geometry of the ViewPort.
+   */  
+  public void setReceiverIndex(ReceiverBVH receiverIndex)
+  {
+    targetGeometryCuller.setReceiverIndex(receiverIndex);
+  }
+  
+  /**
+   * @return The receiver index or null, if the visible geometry of the ViewPort is used.
+   */  
+  public ReceiverBVH getReceiverIndex()
+  {
+    return targetGeometryCuller.getReceiverIndex();
+  }
+  
+  /**
+   * Sets the maximum number of passes per frame. Projectors that do not fit 
+   * are skipped. With a level of detail policy, the budget is spent on the 
+   * projectors with the highest priority, otherwise on the first ones in the 
+   * list. The default is Integer.MAX_VALUE.
+   * @param maxPasses The maximum number of passes.
+   */  
+  public void setMaxPasses(int maxPasses)
+  {
+    this.maxPasses = maxPasses;
+  }
+  
+  /**
+   * @return The maximum number of passes per frame.
+   */  
+  public int getMaxPasses()
+  {
+    return maxPasses;
+  }
+  
+  /**
+   * Sets the policy that skips small TextureProjectors. Projectors at reduced 
+   * quality are drawn like the others, as the shader serves all projectors 
+   * of a pass alike.
+   * @param lodPolicy The level of detail policy or null to draw all projectors.
+   */  
+  public void setLodPolicy(ProjectorLodPolicy lodPolicy)
+  {
+    this.lodPolicy = lodPolicy;
+  }
+  
+  /**
+   * @return The level of detail policy or null.
+   */  
+  public ProjectorLodPolicy getLodPolicy()
+  {
+    return lodPolicy;
+  }
+  
+  /**
+   * Offsets the on-screen z-order of the texture material's polygons.
+   * The default values are (-0.1f, -0.1f).
+   * @param factor scales the maximum Z slope, with respect to X or Y of the polygon
+   * @param units scales the minimum resolvable depth buffer value
+   * @see TextureProjectorRenderer#setPolyOffset(float, float) 
+   */
+  public final void setPolyOffset(float factor, float units)
+  {
+    polyOffsetFactor = factor;
+    polyOffsetUnits = units;
+    
+    if (textureMat != null)
+    {
+      textureMat.getAdditionalRenderState().setPolyOffset(factor, units);
+    }
+  }
+  
+  /**
+   * Initializes this instance and compiles the shader.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void initialize(RenderManager rm, ViewPort vp) 
+  {
+    renderManager = rm;
+    viewPort = vp;
+    
+    if (textureMat == null)
+    {
+      createMaterial(getMaxProjectorsPerPass(rm.getRenderer()));
+    }
+    
+    textureMat.preload(rm);
+  }
+
+  /**
+   * @return true, if this instance is initialized, false otherwise.
+   * @see SceneProcessor
+   */  
+  @Override
+  public boolean isInitialized() 
+  {
+    return viewPort != null;
+  }
+
+  /**
+   * Takes the snapshot of the TextureProjectors rendered in this frame and 
+   * selects the current frame of each projector's animation. 
+   * Called before the a frame is rendered.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void preFrame(float tpf) 
+  { 
+    stats.beginFrame();
+    projectorRegistry.updateSnapshot();
+    float time = timer.getTimeInSeconds();
+    defaultAnimation.update(time);
+    
+    for (int i = 0, n = textureProjectors.size(); i < n; i++)
+    {
+      getTileAnimation(textureProjectors.get(i)).update(time);
+    }
+    
+    stats.pauseFrame();
+  }
+  
+  private TileAnimation getTileAnimation(TextureProjector textureProjector)
+  {
+    Object animation = textureProjector.getParameter(AnimatedTextureProjectorRenderer.TILE_ANIMATION);
+    return (animation instanceof TileAnimation) ? (TileAnimation) animation : defaultAnimation;
+  }
+  
+  /**
+   * Called before the render queue is flushed.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void postQueue(RenderQueue rq) { }
+
+  /**
+   * Renders the TextureProjectors sheet by sheet, filling the slots of each 
+   * pass with projectors of the same sheet. Projectors whose frustum 
+   * intersects none of their target geometry or misses the view frustum 
+   * don't occupy a slot.
+   * Called after a frame has been rendered. 
+   * @see SceneProcessor
+   */  
+  @Override
+  public void postFrame(FrameBuffer out) 
+  { 
+    stats.beginDraws();
+    targetGeometryCuller.beginFrame(viewPort);
+    targetGeometryCuller.clearUnion();
+    pendingProjectors.clear();
+    
+    if (lodPolicy != null)
+    {
+      // A partial pass per texture may leave slots unused, so the projector 
+      // budget is an upper bound.
+      int projectorBudget = (maxPasses > Integer.MAX_VALUE / numProjectorsPerPass) ? 
+        Integer.MAX_VALUE : maxPasses * numProjectorsPerPass;
+      lodPolicy.update(viewPort.getCamera(), textureProjectors, targetGeometryCuller, projectorBudget);
+    }
+    
+    for (int i = 0, n = textureProjectors.size(); i < n; i++)
+    {
+      ProjectorLodPolicy.Level level = (lodPolicy != null) ? lodPolicy.getLevel(i) : null;
+      
+      if (level == ProjectorLodPolicy.Level.SKIPPED)
+      {
+        stats.onProjectorSkipped();
+        continue;
+      }
+      
+      // The level of detail policy already culled the invisible projectors.
+      if ((level == ProjectorLodPolicy.Level.CULLED) || 
+          ((level == null) && !targetGeometryCuller.isVisible(textureProjectors.get(i))))
+      {
+        stats.onProjectorCulled();
+        continue;
+      }
+      
+      pendingProjectors.add(textureProjectors.get(i));
+    }
+    
+    // Nothing is submitted, if no projector can reach the rendered image.
+    if (pendingProjectors.isEmpty())
+    {
+      stats.endFrame();
+      return;
+    }
+    
+    // Another processor's postFrame() may have left its own frame buffer bound.
+    renderManager.getRenderer().setFrameBuffer(out);
+    renderManager.setForcedMaterial(textureMat);
+    
+    // Each round renders the projectors of the first pending sheet and 
+    // compacts the others to the front of the list.
+    while (!pendingProjectors.isEmpty())
+    {
+      Texture2D sheet = pendingProjectors.get(0).getProjectiveTexture();
+      int numProjectorsThisPass = 0;
+      int numPending = 0;
+      
+      for (int p = 0, n = pendingProjectors.size(); p < n; p++)
+      {
+        TextureProjector textureProjector = pendingProjectors.get(p);
+        
+        if (textureProjector.getProjectiveTexture() != sheet)
+        {
+          pendingProjectors.set(numPending++, textureProjector);
+          continue;
+        }
+        
+        if (stats.getNumPasses() == maxPasses)
+        {
+          stats.onProjectorSkipped();
+          continue;
+        }
+        
+        GeometryList culledGeometryList = targetGeometryCuller.cull(textureProjector);
+        
+        if (culledGeometryList.size() == 0)
+        {
+          stats.onProjectorCulled();
+          continue;
+        }
+        
+        targetGeometryCuller.addToUnion(culledGeometryList);
+        setProjectorParams(numProjectorsThisPass, textureProjector);
+        stats.onProjectorDrawn();
+        numProjectorsThisPass++;
+        
+        if (numProjectorsThisPass == numProjectorsPerPass)
+        {
+          renderPass(numProjectorsThisPass, sheet);
+          numProjectorsThisPass = 0;
+        }
+      }
+      
+      if (numProjectorsThisPass > 0)
+      {
+        renderPass(numProjectorsThisPass, sheet);
+      }
+      
+      for (int p = pendingProjectors.size() - 1; p >= numPending; p--)
+      {
+        pendingProjectors.remove(p);
+      }
+    }
+    
+    renderManager.setForcedMaterial(null);
+    stats.endFrame();
+  }
+  
+  private void setProjectorParams(int i, TextureProjector textureProjector)
+  {
+    // Tiles change every frame, the other uniforms of a slot only if another 
+    // projector took the slot or the projector changed.
+    projectorTileRects[i].set(getTileAnimation(textureProjector).getTileRect());
+    int version = targetGeometryCuller.getProjectorState(textureProjector).getVersion();
+    
+    if ((slotProjectors[i] == textureProjector) && (slotVersions[i] == version))
+    {
+      return;
+    }
+    
+    slotProjectors[i] = textureProjector;
+    slotVersions[i] = version;
+    int combineMode = 0;
+    Object combineModeParameter = textureProjector.getParameter("CombineMode");
+    if (combineModeParameter instanceof MultiTextureProjectorRenderer.CombineMode)
+    {
+      combineMode = ((MultiTextureProjectorRenderer.CombineMode) combineModeParameter).ordinal();
+    }
+    
+    projectorViewProjectionMatrices[i].set(textureProjector.getProjectorViewProjectionMatrix());
+    
+    if (textureProjector.isParallelProjection())
+    {
+      Vector3f direction = textureProjector.getProjectorDirection();
+      projectorLocations[i].set(-direction.x, -direction.y, -direction.z, 0f);
+    }
+    else
+    {
+      Vector3f location = textureProjector.getProjectorLocation();
+      projectorLocations[i].set(location.x, location.y, location.z, 1f);
+    }
+    
+    projectorParams[i].set(
+      textureProjector.getFallOffDistance(), 
+      textureProjector.getFallOffPower(), 
+      0f, 
+      combineMode);
+  }
+  
+  private void renderPass(int numProjectorsThisPass, Texture2D sheet)
+  {
+    // Unused slots get a zero matrix, which the shader skips because of the 
+    // zero w coordinate.
+    for (int i = numProjectorsThisPass; i < numProjectorsPerPass; i++)
+    {
+      projectorViewProjectionMatrices[i].zero();
+      projectorLocations[i].set(0f, 0f, 1f, 0f);
+      slotProjectors[i] = null;
+    }
+    
+    textureMat.setTexture("ProjectiveMap", sheet);
+    textureMat.setParam("ProjectorViewProjectionMatrices", VarType.Matrix4Array, projectorViewProjectionMatrices);
+    textureMat.setParam("ProjectorLocations", VarType.Vector4Array, projectorLocations);
+    textureMat.setParam("ProjectorParams", VarType.Vector4Array, projectorParams);
+    textureMat.setParam("ProjectorTileRects", VarType.Vector4Array, projectorTileRects);
+    stats.onParamUpdates(5);
+    stats.onPass(targetGeometryCuller.getUnion().size());
+    renderManager.renderGeometryList(targetGeometryCuller.getUnion());
+    targetGeometryCuller.clearUnion();
+  }
+
+  /**
+   * Cleans up this instance.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void cleanup() { }
+
+  /**
+   * Called if the shape of the ViewPort changed.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void reshape(ViewPort vp, int w, int h) { }
+}
@@ -31,7 +31,6 @@
  */
 package com.jme3.ext.projectivetexturemapping;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import com.jme3.asset.AssetManager;
@@ -48,20 +47,39 @@ import com.jme3.texture.FrameBuffer;
 /**
  * A SceneProcessor that renders TextureProjectors, which means it projects 
  * textures on scene geometry. The textures can have a tile animation.
+ * Each projector can have its own TileAnimation, set as its TILE_ANIMATION 
+ * parameter. Projectors without one use the default animation of this 
+ * renderer. The animations are updated once per frame in preFrame().
  * 
  * @author survivor, H
  */
 public class AnimatedTextureProjectorRenderer implements SceneProcessor 
 {
+  /**
+   * The TextureProjector parameter key of a projector's TileAnimation.
+   */  
+  public static final String TILE_ANIMATION = "TileAnimation";
+  
   private RenderManager renderManager;
   private ViewPort viewPort;
-  private final Material textureMat;
-  private final ArrayList<TextureProjector> textureProjectors;
+  private final ProjectorMaterialVariants materialVariants;
+  private final ProjectorRegistry projectorRegistry;
+  private final List<TextureProjector> textureProjectors;
+  private final TargetGeometryCuller targetGeometryCuller;
+  private final ProjectorRenderStats stats;
   private final Timer timer;
-  private int numTilesU;  
-  private int numTilesV;  
-  private int speed;  
+  private final TileAnimation defaultAnimation;
+  private ProjectorLodPolicy lodPolicy;
+  private int[] signatures;
 
+  /**
+   * Creates a new instance.
+   * @param assetManager The AssetManager.
+   * @param timer The Timer driving the animations.
+   * @param numTilesU The number of tile columns of the default animation.
+   * @param numTilesV The number of tile rows of the default animation.
+   * @param speed The frames per second of the default animation.
+   */  
   public AnimatedTextureProjectorRenderer(final AssetManager assetManager, 
     final Timer timer, final int numTilesU, final int numTilesV, final int speed)
   {
@@ -72,29 +90,95 @@ public class AnimatedTextureProjectorRenderer implements SceneProcessor
     final Timer timer, final int numTilesU, final int numTilesV, final int speed, 
     final ColorRGBA color) 
   {
-    this.numTilesU = numTilesU;
-    this.numTilesV = numTilesV;
-    this.speed = speed;
     this.timer = timer;
-    this.textureMat = new Material(assetManager, "com/jme3/ext/projectivetexturemapping/assets/ProjectiveAnimatedTextureMapping.j3md");
-    this.textureMat.setInt("NumTilesU", numTilesU);
-    this.textureMat.setInt("NumTilesV", numTilesV);
-    this.textureMat.setInt("SelectedTileU", 0);
-    this.textureMat.setInt("SelectedTileV", 0);
-    this.textureProjectors = new ArrayList<TextureProjector>();
+    this.defaultAnimation = new TileAnimation(numTilesU, numTilesV, speed);
+    this.materialVariants = new ProjectorMaterialVariants(assetManager, "com/jme3/ext/projectivetexturemapping/assets/ProjectiveAnimatedTextureMapping.j3md");
+    this.projectorRegistry = new ProjectorRegistry();
+    this.textureProjectors = this.projectorRegistry.getSnapshot();
+    this.targetGeometryCuller = new TargetGeometryCuller();
+    this.stats = new ProjectorRenderStats();
+    this.lodPolicy = null;
+    this.signatures = new int[16];
     this.renderManager = null;
     this.viewPort = null;
     setPolyOffset(-0.1f, -0.1f);
   }
   
   /**
-   * @return A list of TextureProjectors rendered by this instance.
+   * @return The number of TextureProjectors that were refreshed in the last 
+   * frame, because they are new or changed.
+   */  
+  public int getNumRefreshedProjectors()
+  {
+    return this.targetGeometryCuller.getNumRefreshedProjectors();
+  }
+  
+  /**
+   * @return The metrics of the last frame rendered by this instance.
+   */  
+  public ProjectorRenderStats getStats()
+  {
+    return this.stats;
+  }
+  
+  /**
+   * @return The animation of projectors without a TILE_ANIMATION parameter.
+   */  
+  public TileAnimation getDefaultAnimation()
+  {
+    return this.defaultAnimation;
+  }
+  
+  /**
+   * @return A list of TextureProjectors rendered by this instance, a 
+   * ProjectorRegistry. It may be changed from any thread. Changes are taken 
+   * over by the next preFrame(), so a change made while a frame renders shows 
+   * one frame later. While another thread holds the registry's lock, they 
+   * may be deferred by up to getMaxDeferredSnapshots() more frames.
+   * @see ProjectorRegistry#setMaxDeferredSnapshots(int)
    */  
   public List<TextureProjector> getTextureProjectors()
   {
-    return textureProjectors;
+    return this.projectorRegistry;
   }
 
+  /**
+   * Sets the spatial index used to find the receivers of TextureProjectors 
+   * without a target GeometryList. The index may be shared by several renderers.
+   * @param receiverIndex The receiver index or null to use the visible geometry of the ViewPort.
+   */  
+  public void setReceiverIndex(final ReceiverBVH receiverIndex)
+  {
+    this.targetGeometryCuller.setReceiverIndex(receiverIndex);
+  }
+  
+  /**
+   * @return The receiver index or null, if the visible geometry of the ViewPort is used.
+   */  
+  public ReceiverBVH getReceiverIndex()
+  {
+    return this.targetGeometryCuller.getReceiverIndex();
+  }
+  
+  /**
+   * Sets the policy that skips small TextureProjectors and draws mid-sized 
+   * ones with a cheaper shader variant.
+   * @param lodPolicy The level of detail policy or null to draw all 
+   * projectors at full quality.
+   */  
+  public void setLodPolicy(final ProjectorLodPolicy lodPolicy)
+  {
+    this.lodPolicy = lodPolicy;
+  }
+  
+  /**
+   * @return The level of detail policy or null.
+   */  
+  public ProjectorLodPolicy getLodPolicy()
+  {
+    return this.lodPolicy;
+  }
+  
   /**
    * Offsets the on-screen z-order of the texture material's polygons, 
    * to combat visual artefacts like stitching, bleeding and z-fighting 
@@ -112,11 +196,11 @@ public class AnimatedTextureProjectorRenderer implements SceneProcessor
    */
   public final void setPolyOffset(float factor, float units)
   {
-    textureMat.getAdditionalRenderState().setPolyOffset(factor, units);
+    materialVariants.setPolyOffset(factor, units);
   }
   
   /**
-   * Initializes this instance.
+   * Initializes this instance and compiles the shader variants.
    * @see SceneProcessor
    */  
   @Override
@@ -124,6 +208,7 @@ public class AnimatedTextureProjectorRenderer implements SceneProcessor
   {
     renderManager = rm;
     viewPort = vp;
+    materialVariants.preload(rm);
   }
 
   /**
@@ -137,11 +222,29 @@ public class AnimatedTextureProjectorRenderer implements SceneProcessor
   }
 
   /**
+   * Takes the snapshot of the TextureProjectors rendered in this frame and 
+   * selects the current frame of each projector's animation. 
    * Called before the a frame is rendered.
    * @see SceneProcessor
    */  
   @Override
-  public void preFrame(float tpf) { }
+  public void preFrame(float tpf) {
+    this.stats.beginFrame();
+    this.projectorRegistry.updateSnapshot();
+    final float time = this.timer.getTimeInSeconds();
+    this.defaultAnimation.update(time);
+
+    for (int i = 0, n = this.textureProjectors.size(); i < n; i++) {
+      getTileAnimation(this.textureProjectors.get(i)).update(time);
+    }
+
+    this.stats.pauseFrame();
+  }
+
+  private TileAnimation getTileAnimation(final TextureProjector textureProjector) {
+    final Object animation = textureProjector.getParameter(TILE_ANIMATION);
+    return (animation instanceof TileAnimation) ? (TileAnimation) animation : this.defaultAnimation;
+  }
   
   /**
    * Called before the render queue is flushed.
@@ -152,52 +255,116 @@ public class AnimatedTextureProjectorRenderer implements SceneProcessor
 
   /**
    * Renders each TextureProjector with its corresponding material parameters.
+   * Projectors are rendered grouped by their define signature, which the 
+   * level of detail policy may reduce.
+   * Projectors outside the view frustum are dropped before their receivers 
+   * are culled, and nothing is submitted if none is left.
+   * Only the target geometry intersecting a projector's frustum is submitted.
    * Called after a frame has been rendered. 
    * @see SceneProcessor
    */  
   @Override
   public void postFrame(final FrameBuffer out) {
-    this.renderManager.setForcedMaterial(this.textureMat);
-    this.renderManager.getRenderer().setFrameBuffer(out); // ToDo: check if needed
+    this.stats.beginDraws();
+    this.targetGeometryCuller.beginFrame(this.viewPort);
+    final int numProjectors = this.textureProjectors.size();
 
-    for (final TextureProjector textureProjector : this.textureProjectors) {
-      final float fallOffDistance = textureProjector.getFallOffDistance();
-      this.textureMat.setTexture("ProjectiveMap", textureProjector.getProjectiveTexture());
-      this.textureMat.setMatrix4("ProjectorViewProjectionMatrix",
-              textureProjector.getProjectorViewProjectionMatrix());
-
-      //this.textureMat.setFloat("Time", this.timer.getTimeInSeconds());
-      float now = this.timer.getTimeInSeconds() * this.speed;
-      int selectedTileU = (int) (now % numTilesU);
-      int selectedTileV = (int) (now % numTilesV);
-      this.textureMat.setInt("SelectedTileU", selectedTileU);
-      this.textureMat.setInt("SelectedTileV", selectedTileV);
-
-      if (textureProjector.isParallelProjection()) {
-        this.textureMat.clearParam("ProjectorLocation");
-        this.textureMat.setVector3("ProjectorDirection", textureProjector.getProjectorDirection());
-      } else {
-        this.textureMat.clearParam("ProjectorDirection");
-        this.textureMat.setVector3("ProjectorLocation", textureProjector.getProjectorLocation());
+    if (this.lodPolicy != null) {
+      this.lodPolicy.update(this.viewPort.getCamera(), this.textureProjectors, this.targetGeometryCuller);
+    }
+
+    if (this.signatures.length < numProjectors) {
+      this.signatures = new int[Math.max(numProjectors, this.signatures.length * 2)];
+    }
+
+    int numVisibleProjectors = 0;
+
+    for (int i = 0; i < numProjectors; i++) {
+      this.signatures[i] = getSignature(i);
+
+      if (this.signatures[i] < 0) {
+        continue;
       }
 
-      if (fallOffDistance != Float.MAX_VALUE) {
-        this.textureMat.setFloat("FallOffDistance", textureProjector.getFallOffDistance());
-        this.textureMat.setFloat("FallOffPower", textureProjector.getFallOffPower());
-      } else {
-        this.textureMat.clearParam("FallOffDistance");
-        this.textureMat.clearParam("FallOffPower");
+      // The level of detail policy already culled the invisible projectors.
+      if ((this.lodPolicy == null) && !this.targetGeometryCuller.isVisible(this.textureProjectors.get(i))) {
+        this.signatures[i] = -1;
+        this.stats.onProjectorCulled();
+        continue;
       }
 
-      final GeometryList targetGeometryList = textureProjector.getTargetGeometryList();
-      if (targetGeometryList != null) {
-        this.renderManager.renderGeometryList(targetGeometryList);
-      } else {
-        this.renderManager.renderViewPortRaw(this.viewPort);
+      numVisibleProjectors++;
+    }
+
+    // Nothing is submitted, if no projector can reach the rendered image.
+    if (numVisibleProjectors == 0) {
+      this.stats.endFrame();
+      return;
+    }
+
+    this.renderManager.getRenderer().setFrameBuffer(out); // ToDo: check if needed
+
+    // Projectors are grouped by define signature, so the shader changes at 
+    // most once per signature and frame.
+    for (int signature = 0; signature < ProjectorMaterialVariants.NUM_SIGNATURES; signature++) {
+      for (int i = 0; i < numProjectors; i++) {
+        if (this.signatures[i] != signature) {
+          continue;
+        }
+
+        final TextureProjector textureProjector = this.textureProjectors.get(i);
+        final GeometryList culledGeometryList = this.targetGeometryCuller.cull(textureProjector);
+        if (culledGeometryList.size() == 0) {
+          this.stats.onProjectorCulled();
+          continue;
+        }
+
+        if ((signature & ProjectorMaterialVariants.HARD_EDGE) != 0) {
+          this.stats.onProjectorReduced();
+        }
+
+        final Material textureMat = this.materialVariants.apply(textureProjector, signature, null);
+        textureMat.setVector4("TileRect", getTileAnimation(textureProjector).getTileRect());
+
+        this.renderManager.setForcedMaterial(textureMat);
+        this.renderManager.renderGeometryList(culledGeometryList);
+        this.stats.onProjectorDrawn();
+        this.stats.onParamUpdates(ProjectorMaterialVariants.getNumAppliedParams(signature) + 1);
+        this.stats.onPass(culledGeometryList.size());
       }
     }
 
     this.renderManager.setForcedMaterial(null);
+    this.stats.endFrame();
+  }
+
+  /**
+   * @param index The index of a TextureProjector.
+   * @return The signature the TextureProjector is drawn with in the current 
+   * frame, or -1 if it is culled or skipped.
+   */  
+  private int getSignature(final int index) {
+    final int signature = ProjectorMaterialVariants.getSignature(this.textureProjectors.get(index));
+
+    if (this.lodPolicy != null) {
+      final ProjectorLodPolicy.Level level = this.lodPolicy.getLevel(index);
+
+      if (level == ProjectorLodPolicy.Level.CULLED) {
+        this.stats.onProjectorCulled();
+        return -1;
+      }
+
+      if (level == ProjectorLodPolicy.Level.SKIPPED) {
+        this.stats.onProjectorSkipped();
+        return -1;
+      }
+
+      if (level == ProjectorLodPolicy.Level.REDUCED) {
+        return ProjectorMaterialVariants.getReducedSignature(signature);
+      }
+    }
+
+    return signature;
   }
 
   /**
@@ -0,0 +1,540 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.material.Material;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Vector3f;
+import com.jme3.math.Vector4f;
+import com.jme3.post.SceneProcessor;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.Caps;
+import com.jme3.renderer.Limits;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.shader.VarType;
+import com.jme3.texture.FrameBuffer;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import com.jme3.texture.image.ColorSpace;
+import com.jme3.util.BufferUtils;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A SceneProcessor that renders any number of TextureProjectors in a single 
+ * pass over their receivers. The screen is divided into tiles, each holding 
+ * a list of the projectors touching it, and the fragment shader only loops 
+ * over the projectors of its tile. Projector data and tile lists are 
+ * uploaded as float textures, the projective textures are packed into a 
+ * TextureArray, so they must have the same size and format. Projectors 
+ * with a mismatching texture are rejected when they are added. The 
+ * projector data texture is one row per projector, so no more projectors 
+ * than Limits.TextureSize are drawn per frame, the others are skipped.
+ * Requires Caps.TextureArray and Caps.FloatTexture.
+ * 
+ * @author survivor
+ * @see ProjectorTileGrid
+ */
+public class ClusteredTextureProjectorRenderer implements SceneProcessor 
+{
+  /**
+   * The tile edge length in pixels used by the default constructor.
+   */  
+  public static final int DEFAULT_TILE_SIZE = 32;
+  
+  /**
+   * The number of projectors per tile used by the default constructor.
+   */  
+  public static final int DEFAULT_MAX_PROJECTORS_PER_TILE = 32;
+  
+  private static final Logger logger = Logger.getLogger(ClusteredTextureProjectorRenderer.class.getName());
+  private static final int INITIAL_PROJECTOR_CAPACITY = 64;
+  // Used if the renderer does not report Limits.TextureSize, the minimum of 
+  // OpenGL 3.0, which texture arrays require anyway.
+  private static final int DEFAULT_MAX_PROJECTORS = 1024;
+  private static final int TEXELS_PER_PROJECTOR = 6;
+  private static final int BYTES_PER_TEXEL = 16;
+  
+  private RenderManager renderManager;
+  private ViewPort viewPort;
+  private final Material textureMat;
+  private final ProjectorRegistry projectorRegistry;
+  private final List<TextureProjector> textureProjectors;
+  private final TargetGeometryCuller targetGeometryCuller;
+  private final ProjectorRenderStats stats;
+  private ProjectorLodPolicy lodPolicy;
+  private final ProjectorTextureArray projectorTextureArray;
+  private final ProjectorTileGrid tileGrid;
+  private final Vector4f tileParams;
+  private final Vector4f dataParams;
+  private final Texture2D projectorDataTexture;
+  private final Texture2D tileDataTexture;
+  private FloatBuffer projectorData;
+  private FloatBuffer tileData;
+  private int projectorCapacity;
+  private int maxProjectors;
+  private boolean overflowLogged;
+  private int numProjectorsThisFrame;
+
+  public ClusteredTextureProjectorRenderer(AssetManager assetManager) 
+  { 
+    this(assetManager, DEFAULT_TILE_SIZE, DEFAULT_MAX_PROJECTORS_PER_TILE);
+  }
+  
+  /**
+   * Creates a new instance.
+   * @param assetManager The AssetManager.
+   * @param tileSize The tile edge length in pixels.
+   * @param maxProjectorsPerTile The number of projectors a tile can hold, 
+   * further projectors touching a full tile are not rendered in it.
+   */  
+  public ClusteredTextureProjectorRenderer(AssetManager assetManager, int tileSize, int maxProjectorsPerTile) 
+  { 
+    textureMat = new Material(assetManager, "com/jme3/ext/projectivetexturemapping/assets/ProjectiveClusteredTextureMapping.j3md");
+    textureMat.setInt("MaxProjectorsPerTile", maxProjectorsPerTile);
+    projectorRegistry = new ProjectorRegistry();
+    textureProjectors = projectorRegistry.getSnapshot();
+    targetGeometryCuller = new TargetGeometryCuller();
+    stats = new ProjectorRenderStats();
+    lodPolicy = null;
+    projectorTextureArray = new ProjectorTextureArray();
+    projectorRegistry.setValidator(projectorTextureArray);
+    tileGrid = new ProjectorTileGrid(tileSize, maxProjectorsPerTile);
+    tileParams = new Vector4f();
+    dataParams = new Vector4f();
+    projectorDataTexture = createDataTexture();
+    tileDataTexture = createDataTexture();
+    renderManager = null;
+    viewPort = null;
+    maxProjectors = DEFAULT_MAX_PROJECTORS;
+    overflowLogged = false;
+    setProjectorCapacity(INITIAL_PROJECTOR_CAPACITY);
+    setPolyOffset(-0.1f, -0.1f);
+  }
+  
+  private static Texture2D createDataTexture()
+  {
+    Texture2D texture = new Texture2D();
+    texture.setMagFilter(Texture.MagFilter.Nearest);
+    texture.setMinFilter(Texture.MinFilter.NearestNoMipMaps);
+    texture.setWrap(Texture.WrapMode.EdgeClamp);
+    return texture;
+  }
+  
+  private void setProjectorCapacity(int projectorCapacity)
+  {
+    ByteBuffer buffer = BufferUtils.createByteBuffer(projectorCapacity * TEXELS_PER_PROJECTOR * BYTES_PER_TEXEL);
+    FloatBuffer newProjectorData = buffer.asFloatBuffer();
+    
+    if (projectorData != null)
+    {
+      projectorData.clear();
+      newProjectorData.put(projectorData);
+      newProjectorData.clear();
+    }
+    
+    this.projectorCapacity = projectorCapacity;
+    projectorData = newProjectorData;
+    projectorDataTexture.setImage(new Image(Image.Format.RGBA32F, TEXELS_PER_PROJECTOR, projectorCapacity, buffer, ColorSpace.Linear));
+    dataParams.x = 1f / projectorCapacity;
+  }
+  
+  private void resize(int width, int height)
+  {
+    tileGrid.resize(width, height);
+    int tileDataWidth = tileGrid.getNumTilesX() * tileGrid.getTexelsPerTile();
+    int tileDataHeight = tileGrid.getNumTilesY();
+    ByteBuffer buffer = BufferUtils.createByteBuffer(tileDataWidth * tileDataHeight * BYTES_PER_TEXEL);
+    tileData = buffer.asFloatBuffer();
+    tileDataTexture.setImage(new Image(Image.Format.RGBA32F, tileDataWidth, tileDataHeight, buffer, ColorSpace.Linear));
+    dataParams.y = 1f / tileDataWidth;
+    dataParams.z = 1f / tileDataHeight;
+    tileParams.z = 1f / tileGrid.getTileSize();
+    tileParams.w = tileGrid.getTexelsPerTile();
+  }
+  
+  /**
+   * @return The metrics of the last frame rendered by this instance.
+   */  
+  public ProjectorRenderStats getStats()
+  {
+    return stats;
+  }
+  
+  /**
+   * @return A list of TextureProjectors rendered by this instance, a 
+   * ProjectorRegistry. It may be changed from any thread. Changes are taken 
+   * over by the next preFrame(), so a change made while a frame renders shows 
+   * one frame later. While another thread holds the registry's lock, they 
+   * may be deferred by up to getMaxDeferredSnapshots() more frames.
+   * @see ProjectorRegistry#setMaxDeferredSnapshots(int)
+   */  
+  public List<TextureProjector> getTextureProjectors()
+  {
+    return projectorRegistry;
+  }
+
+  /**
+   * Sets the spatial index used to find the receivers of TextureProjectors 
+   * without a target GeometryList. The index may be shared by several renderers.
+   * @param receiverIndex The receiver index or null to use the visible geometry of the ViewPort.
+   */  
+  public void setReceiverIndex(ReceiverBVH receiverIndex)
+  {
+    targetGeometryCuller.setReceiverIndex(receiverIndex);
+  }
+  
+  /**
+   * @return The receiver index or null, if the visible geometry of the ViewPort is used.
+   */  
+  public ReceiverBVH getReceiverIndex()
+  {
+    return targetGeometryCuller.getReceiverIndex();
+  }
+  
+  /**
+   * Sets the policy that skips small TextureProjectors. Projectors at reduced 
+   * quality are drawn like the others, as the shader serves all projectors 
+   * of a pass alike.
+   * @param lodPolicy The level of detail policy or null to draw all projectors.
+   */  
+  public void setLodPolicy(ProjectorLodPolicy lodPolicy)
+  {
+    this.lodPolicy = lodPolicy;
+  }
+  
+  /**
+   * @return The level of detail policy or null.
+   */  
+  public ProjectorLodPolicy getLodPolicy()
+  {
+    return lodPolicy;
+  }
+  
+  /**
+   * @return The tile grid of the last frame.
+   */  
+  public ProjectorTileGrid getTileGrid()
+  {
+    return tileGrid;
+  }
+  
+  /**
+   * @return The TextureArray packing the projective textures.
+   */  
+  public ProjectorTextureArray getProjectorTextureArray()
+  {
+    return projectorTextureArray;
+  }
+  
+  /**
+   * @return The maximum number of TextureProjectors drawn per frame, 
+   * Limits.TextureSize of the renderer once initialized.
+   */  
+  public int getMaxProjectors()
+  {
+    return maxProjectors;
+  }
+  
+  /**
+   * @return The number of TextureProjectors rendered in the last frame.
+   */  
+  public int getNumProjectorsThisFrame()
+  {
+    return numProjectorsThisFrame;
+  }
+  
+  /**
+   * @return The number of TextureProjectors that were refreshed in the last 
+   * frame, because they are new or changed.
+   */  
+  public int getNumRefreshedProjectors()
+  {
+    return targetGeometryCuller.getNumRefreshedProjectors();
+  }
+  
+  /**
+   * Offsets the on-screen z-order of the texture material's polygons, 
+   * to combat visual artefacts like stitching, bleeding and z-fighting 
+   * for overlapping polygons.
+   * Factor and units are summed to produce the depth offset.
+   * This offset is applied in screen space,
+   * typically with positive Z pointing into the screen.
+   * Typical values are (1.0f, 1.0f) or (-1.0f, -1.0f).
+   * The default values are (-0.1f, -0.1f).
+   *
+   * @see com.jme3.material.RenderState
+   * @see <a href="http://www.opengl.org/resources/faq/technical/polygonoffset.htm" rel="nofollow">http://www.opengl.org/resources/faq/technical/polygonoffset.htm</a>
+   * @param factor scales the maximum Z slope, with respect to X or Y of the polygon
+   * @param units scales the minimum resolvable depth buffer value
+   */
+  public final void setPolyOffset(float factor, float units)
+  {
+    textureMat.getAdditionalRenderState().setPolyOffset(factor, units);
+  }
+  
+  /**
+   * Initializes this instance and compiles the shader.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void initialize(RenderManager rm, ViewPort vp) 
+  {
+    if (!rm.getRenderer().getCaps().contains(Caps.TextureArray) || 
+        !rm.getRenderer().getCaps().contains(Caps.FloatTexture))
+    {
+      throw new UnsupportedOperationException("The renderer does not support texture arrays or float textures");
+    }
+    
+    Integer textureSize = rm.getRenderer().getLimits().get(Limits.TextureSize);
+    
+    if (textureSize != null)
+    {
+      maxProjectors = textureSize;
+    }
+    
+    if (projectorCapacity > maxProjectors)
+    {
+      setProjectorCapacity(maxProjectors);
+    }
+    
+    renderManager = rm;
+    viewPort = vp;
+    Camera camera = vp.getCamera();
+    reshape(vp, camera.getWidth(), camera.getHeight());
+    textureMat.preload(rm);
+  }
+
+  /**
+   * @return true, if this instance is initialized, false otherwise.
+   * @see SceneProcessor
+   */  
+  @Override
+  public boolean isInitialized() 
+  {
+    return viewPort != null;
+  }
+
+  /**
+   * Takes the snapshot of the TextureProjectors rendered in this frame.
+   * Called before the a frame is rendered.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void preFrame(float tpf) 
+  { 
+    stats.beginFrame();
+    projectorRegistry.updateSnapshot();
+    stats.pauseFrame();
+  }
+  
+  /**
+   * Called before the render queue is flushed.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void postQueue(RenderQueue rq) { }
+
+  /**
+   * Assigns the TextureProjectors to the screen tiles they touch and renders 
+   * the union of their receivers once.
+   * Called after a frame has been rendered. 
+   * @see SceneProcessor
+   */  
+  @Override
+  public void postFrame(FrameBuffer out) 
+  { 
+    stats.beginDraws();
+    Camera camera = viewPort.getCamera();
+    targetGeometryCuller.beginFrame(viewPort);
+    targetGeometryCuller.clearUnion();
+    tileGrid.clear();
+    projectorTextureArray.beginFrame();
+    numProjectorsThisFrame = 0;
+    
+    if (lodPolicy != null)
+    {
+      lodPolicy.update(viewPort.getCamera(), textureProjectors, targetGeometryCuller);
+    }
+    
+    for (int i = 0, n = textureProjectors.size(); i < n; i++)
+    {
+      TextureProjector textureProjector = textureProjectors.get(i);
+      ProjectorLodPolicy.Level level = (lodPolicy != null) ? lodPolicy.getLevel(i) : null;
+      
+      if (level == ProjectorLodPolicy.Level.SKIPPED)
+      {
+        stats.onProjectorSkipped();
+        continue;
+      }
+      
+      // The level of detail policy already culled the invisible projectors.
+      if ((level == ProjectorLodPolicy.Level.CULLED) || 
+          ((level == null) && !targetGeometryCuller.isVisible(textureProjector)))
+      {
+        stats.onProjectorCulled();
+        continue;
+      }
+      
+      GeometryList culledGeometryList = targetGeometryCuller.cull(textureProjector);
+      
+      if (culledGeometryList.size() == 0)
+      {
+        stats.onProjectorCulled();
+        continue;
+      }
+      
+      if (numProjectorsThisFrame == projectorCapacity)
+      {
+        if (projectorCapacity == maxProjectors)
+        {
+          if (!overflowLogged)
+          {
+            logger.log(Level.WARNING, "More than {0} visible projectors, the others are skipped", maxProjectors);
+            overflowLogged = true;
+          }
+          
+          stats.onProjectorSkipped();
+          continue;
+        }
+        
+        setProjectorCapacity(Math.min(projectorCapacity * 2, maxProjectors));
+      }
+      
+      // All projectors are drawn in one pass, so no more textures than 
+      // layers can be drawn per frame.
+      int layer = projectorTextureArray.getLayer(textureProjector.getProjectiveTexture());
+      
+      if (layer < 0)
+      {
+        stats.onProjectorSkipped();
+        continue;
+      }
+      
+      targetGeometryCuller.addToUnion(culledGeometryList);
+      writeProjectorData(numProjectorsThisFrame, textureProjector, layer);
+      tileGrid.add(numProjectorsThisFrame, textureProjector, camera);
+      stats.onProjectorDrawn();
+      numProjectorsThisFrame++;
+    }
+    
+    if (numProjectorsThisFrame == 0)
+    {
+      stats.endFrame();
+      return;
+    }
+    
+    projectorData.clear();
+    projectorDataTexture.getImage().setUpdateNeeded();
+    tileGrid.write(tileData);
+    tileDataTexture.getImage().setUpdateNeeded();
+    tileParams.x = camera.getViewPortLeft() * camera.getWidth();
+    tileParams.y = camera.getViewPortBottom() * camera.getHeight();
+    
+    textureMat.setParam("ProjectiveMapArray", VarType.TextureArray, projectorTextureArray.getTextureArray());
+    textureMat.setTexture("ProjectorData", projectorDataTexture);
+    textureMat.setTexture("TileData", tileDataTexture);
+    textureMat.setVector4("TileParams", tileParams);
+    textureMat.setVector4("DataParams", dataParams);
+    stats.onParamUpdates(5);
+    
+    // Another processor's postFrame() may have left its own frame buffer bound.
+    renderManager.getRenderer().setFrameBuffer(out);
+    renderManager.setForcedMaterial(textureMat);
+    renderManager.renderGeometryList(targetGeometryCuller.getUnion());
+    renderManager.setForcedMaterial(null);
+    stats.onPass(targetGeometryCuller.getUnion().size());
+    stats.endFrame();
+  }
+  
+  /**
+   * Writes the rows of the biased view projection matrix, the location and 
+   * the parameters of a projector as six RGBA texels.
+   */  
+  private void writeProjectorData(int index, TextureProjector textureProjector, int layer)
+  {
+    int combineMode = 0;
+    Object combineModeParameter = textureProjector.getParameter("CombineMode");
+    if (combineModeParameter instanceof MultiTextureProjectorRenderer.CombineMode)
+    {
+      combineMode = ((MultiTextureProjectorRenderer.CombineMode) combineModeParameter).ordinal();
+    }
+    
+    Matrix4f matrix = textureProjector.getProjectorViewProjectionMatrix();
+    projectorData.position(index * TEXELS_PER_PROJECTOR * 4);
+    matrix.fillFloatBuffer(projectorData, false);
+    
+    if (textureProjector.isParallelProjection())
+    {
+      Vector3f direction = textureProjector.getProjectorDirection();
+      projectorData.put(-direction.x).put(-direction.y).put(-direction.z).put(0f);
+    }
+    else
+    {
+      Vector3f location = textureProjector.getProjectorLocation();
+      projectorData.put(location.x).put(location.y).put(location.z).put(1f);
+    }
+    
+    projectorData.put(textureProjector.getFallOffDistance());
+    projectorData.put(textureProjector.getFallOffPower());
+    projectorData.put(layer);
+    projectorData.put(combineMode);
+  }
+
+  /**
+   * Cleans up this instance.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void cleanup() { }
+
+  /**
+   * Called if the shape of the ViewPort changed.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void reshape(ViewPort vp, int w, int h) 
+  { 
+    Camera camera = vp.getCamera();
+    resize(
+      (int) (w * (camera.getViewPortRight() - camera.getViewPortLeft())), 
+      (int) (h * (camera.getViewPortTop() - camera.getViewPortBottom())));
+  }
+}
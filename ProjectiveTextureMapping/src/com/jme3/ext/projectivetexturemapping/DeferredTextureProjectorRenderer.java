@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.material.Material;
+import com.jme3.material.RenderState;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.math.Vector4f;
+import com.jme3.post.FilterPostProcessor;
+import com.jme3.post.SceneProcessor;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.Caps;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.Renderer;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.texture.FrameBuffer;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import com.jme3.util.SafeArrayList;
+import java.util.List;
+
+/**
+ * A SceneProcessor that renders TextureProjectors as deferred decals. The 
+ * scene is rendered into a FrameBuffer with a depth texture, whose color is 
+ * copied to the ViewPort's output. Then the back faces of each projector's 
+ * frustum are drawn as a volume, whose fragments reconstruct the world 
+ * position from the depth texture and project the texture onto it. The cost 
+ * depends on the pixels covered by the projectors, not on the triangles of 
+ * the scene.
+ * All geometry visible in a projector's frustum receives the projection, 
+ * target GeometryLists are ignored. The surface normal for the angle fade 
+ * is derived from the reconstructed positions. Pixels where nothing was 
+ * drawn, e.g. the sky, receive no projection.
+ * Requires Caps.FrameBufferBlit. This processor redirects the output 
+ * FrameBuffer of the ViewPort, so it cannot share a ViewPort with another 
+ * processor doing the same, like a FilterPostProcessor. Such a combination 
+ * throws an IllegalStateException in initialize() or the next preFrame().
+ * 
+ * @author survivor
+ */
+public class DeferredTextureProjectorRenderer implements SceneProcessor 
+{
+  // Unit cube in biased projector space. The transformation to world space 
+  // flips the handedness, so the triangles are wound clockwise from outside 
+  // here and counter clockwise in world space.
+  private static final short[] VOLUME_INDICES = 
+  {
+    0, 6, 4,  0, 2, 6,    // x = 0
+    1, 7, 3,  1, 5, 7,    // x = 1
+    0, 5, 1,  0, 4, 5,    // y = 0
+    2, 7, 6,  2, 3, 7,    // y = 1
+    0, 3, 2,  0, 1, 3,    // z = 0
+    4, 7, 5,  4, 6, 7     // z = 1
+  };
+  
+  private RenderManager renderManager;
+  private ViewPort viewPort;
+  private final Material decalMat;
+  private final Geometry volumeGeometry;
+  private final ProjectorRegistry projectorRegistry;
+  private final List<TextureProjector> textureProjectors;
+  private final Matrix4f inverseProjectorMatrix;
+  private final Vector4f projectorLocation;
+  private final Vector4f projectorParams;
+  private final Vector4f corner;
+  private final Vector3f boundMin;
+  private final Vector3f boundMax;
+  private final BoundingBox volumeBound;
+  private final ProjectorRenderStats stats;
+  private FrameBuffer sceneFrameBuffer;
+  private FrameBuffer outputFrameBuffer;
+  private Texture2D depthTexture;
+  private int numVisibleProjectors;
+
+  public DeferredTextureProjectorRenderer(AssetManager assetManager) 
+  { 
+    decalMat = new Material(assetManager, "com/jme3/ext/projectivetexturemapping/assets/ProjectiveDeferredTextureMapping.j3md");
+    decalMat.getAdditionalRenderState().setFaceCullMode(RenderState.FaceCullMode.Front);
+    decalMat.getAdditionalRenderState().setDepthWrite(false);
+    // The output has no copy of the scene depth, its format may differ. 
+    // The shader discards the fragments outside of the volume instead.
+    decalMat.getAdditionalRenderState().setDepthTest(false);
+    volumeGeometry = new Geometry("ProjectorVolume", createVolumeMesh());
+    volumeGeometry.setMaterial(decalMat);
+    volumeGeometry.updateGeometricState();
+    projectorRegistry = new ProjectorRegistry();
+    textureProjectors = projectorRegistry.getSnapshot();
+    inverseProjectorMatrix = new Matrix4f();
+    projectorLocation = new Vector4f();
+    projectorParams = new Vector4f();
+    corner = new Vector4f();
+    boundMin = new Vector3f();
+    boundMax = new Vector3f();
+    volumeBound = new BoundingBox();
+    stats = new ProjectorRenderStats();
+    renderManager = null;
+    viewPort = null;
+  }
+  
+  private static Mesh createVolumeMesh()
+  {
+    float[] positions = new float[8 * 3];
+    
+    for (int i = 0; i < 8; i++)
+    {
+      positions[i * 3] = i & 1;
+      positions[i * 3 + 1] = (i >> 1) & 1;
+      positions[i * 3 + 2] = (i >> 2) & 1;
+    }
+    
+    Mesh mesh = new Mesh();
+    mesh.setBuffer(VertexBuffer.Type.Position, 3, positions);
+    mesh.setBuffer(VertexBuffer.Type.Index, 3, VOLUME_INDICES);
+    mesh.updateBound();
+    mesh.setStatic();
+    return mesh;
+  }
+  
+  /**
+   * @return The metrics of the last frame rendered by this instance.
+   */  
+  public ProjectorRenderStats getStats()
+  {
+    return stats;
+  }
+  
+  /**
+   * @return A list of TextureProjectors rendered by this instance, a 
+   * ProjectorRegistry. It may be changed from any thread. Changes are taken 
+   * over by the next preFrame(), so a change made while a frame renders shows 
+   * one frame later. While another thread holds the registry's lock, they 
+   * may be deferred by up to getMaxDeferredSnapshots() more frames.
+   * @see ProjectorRegistry#setMaxDeferredSnapshots(int)
+   */  
+  public List<TextureProjector> getTextureProjectors()
+  {
+    return projectorRegistry;
+  }
+  
+  /**
+   * @return The number of TextureProjectors whose volume was visible and 
+   * rendered in the last frame.
+   */  
+  public int getNumVisibleProjectors()
+  {
+    return numVisibleProjectors;
+  }
+  
+  /**
+   * @return The depth texture of the scene, null if not initialized.
+   */  
+  public Texture2D getDepthTexture()
+  {
+    return depthTexture;
+  }
+  
+  /**
+   * Initializes this instance and redirects the ViewPort's output into 
+   * the scene FrameBuffer.
+   * @throws IllegalStateException If the ViewPort has a FilterPostProcessor.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void initialize(RenderManager rm, ViewPort vp) 
+  {
+    if (!rm.getRenderer().getCaps().contains(Caps.FrameBufferBlit))
+    {
+      throw new UnsupportedOperationException("The renderer does not support frame buffer blits");
+    }
+    
+    SafeArrayList<SceneProcessor> processors = vp.getProcessors();
+    
+    for (int i = 0, n = processors.size(); i < n; i++)
+    {
+      if (processors.get(i) instanceof FilterPostProcessor)
+      {
+        throw new IllegalStateException("A DeferredTextureProjectorRenderer cannot share a ViewPort with a FilterPostProcessor");
+      }
+    }
+    
+    renderManager = rm;
+    viewPort = vp;
+    outputFrameBuffer = vp.getOutputFrameBuffer();
+    sceneFrameBuffer = null;
+    Camera camera = vp.getCamera();
+    reshape(vp, camera.getWidth(), camera.getHeight());
+    decalMat.preload(rm);
+  }
+
+  /**
+   * @return true, if this instance is initialized, false otherwise.
+   * @see SceneProcessor
+   */  
+  @Override
+  public boolean isInitialized() 
+  {
+    return viewPort != null;
+  }
+
+  /**
+   * Takes the snapshot of the TextureProjectors rendered in this frame.
+   * Called before the a frame is rendered.
+   * @throws IllegalStateException If another processor replaced the output 
+   * FrameBuffer of the ViewPort.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void preFrame(float tpf) 
+  { 
+    if (viewPort.getOutputFrameBuffer() != sceneFrameBuffer)
+    {
+      throw new IllegalStateException("Another processor replaced the output FrameBuffer of the ViewPort, " + 
+        "a DeferredTextureProjectorRenderer cannot share a ViewPort with a FilterPostProcessor");
+    }
+    
+    stats.beginFrame();
+    projectorRegistry.updateSnapshot();
+    stats.pauseFrame();
+  }
+  
+  /**
+   * Called before the render queue is flushed.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void postQueue(RenderQueue rq) { }
+
+  /**
+   * Copies the scene to the output and renders the volume of each 
+   * TextureProjector that intersects the view frustum.
+   * Called after a frame has been rendered. 
+   * @see SceneProcessor
+   */  
+  @Override
+  public void postFrame(FrameBuffer out) 
+  { 
+    stats.beginDraws();
+    Renderer renderer = renderManager.getRenderer();
+    Camera camera = viewPort.getCamera();
+    renderer.copyFrameBuffer(sceneFrameBuffer, outputFrameBuffer, false);
+    renderer.setFrameBuffer(outputFrameBuffer);
+    decalMat.setTexture("DepthTexture", depthTexture);
+    stats.onParamUpdates(1);
+    numVisibleProjectors = 0;
+    
+    for (int i = 0, n = textureProjectors.size(); i < n; i++)
+    {
+      TextureProjector textureProjector = textureProjectors.get(i);
+      Matrix4f projectorMatrix = textureProjector.getProjectorViewProjectionMatrix();
+      inverseProjectorMatrix.set(projectorMatrix).invertLocal();
+      
+      if (!isVolumeVisible(camera))
+      {
+        stats.onProjectorCulled();
+        continue;
+      }
+      
+      if (textureProjector.isParallelProjection())
+      {
+        Vector3f direction = textureProjector.getProjectorDirection();
+        projectorLocation.set(-direction.x, -direction.y, -direction.z, 0f);
+      }
+      else
+      {
+        Vector3f location = textureProjector.getProjectorLocation();
+        projectorLocation.set(location.x, location.y, location.z, 1f);
+      }
+      
+      projectorParams.set(textureProjector.getFallOffDistance(), textureProjector.getFallOffPower(), 0f, 0f);
+      decalMat.setTexture("ProjectiveMap", textureProjector.getProjectiveTexture());
+      decalMat.setMatrix4("ProjectorViewProjectionMatrix", projectorMatrix);
+      decalMat.setMatrix4("ProjectorViewProjectionMatrixInverse", inverseProjectorMatrix);
+      decalMat.setVector4("ProjectorLocation", projectorLocation);
+      decalMat.setVector4("ProjectorParams", projectorParams);
+      renderManager.renderGeometry(volumeGeometry);
+      numVisibleProjectors++;
+      stats.onProjectorDrawn();
+      stats.onParamUpdates(5);
+      stats.onPass(1);
+    }
+    
+    stats.endFrame();
+  }
+  
+  /**
+   * Tests the world bounding box of the volume's corners against the camera.
+   */  
+  private boolean isVolumeVisible(Camera camera)
+  {
+    boundMin.set(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
+    boundMax.set(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+    
+    for (int i = 0; i < 8; i++)
+    {
+      corner.set(i & 1, (i >> 1) & 1, (i >> 2) & 1, 1f);
+      inverseProjectorMatrix.mult(corner, corner);
+      float w = 1f / corner.w;
+      boundMin.set(Math.min(boundMin.x, corner.x * w), Math.min(boundMin.y, corner.y * w), Math.min(boundMin.z, corner.z * w));
+      boundMax.set(Math.max(boundMax.x, corner.x * w), Math.max(boundMax.y, corner.y * w), Math.max(boundMax.z, corner.z * w));
+    }
+    
+    volumeBound.setMinMax(boundMin, boundMax);
+    camera.setPlaneState(0);
+    return camera.contains(volumeBound) != Camera.FrustumIntersect.Outside;
+  }
+
+  /**
+   * Restores the ViewPort's output FrameBuffer, unless another processor 
+   * replaced it.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void cleanup() 
+  { 
+    if (viewPort != null)
+    {
+      if (viewPort.getOutputFrameBuffer() == sceneFrameBuffer)
+      {
+        viewPort.setOutputFrameBuffer(outputFrameBuffer);
+      }
+      
+      viewPort = null;
+    }
+  }
+
+  /**
+   * Recreates the scene FrameBuffer for the new size. The ViewPort's output 
+   * is only replaced, if it is still the previous scene FrameBuffer.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void reshape(ViewPort vp, int w, int h) 
+  { 
+    boolean redirected = (vp.getOutputFrameBuffer() == sceneFrameBuffer) || (sceneFrameBuffer == null);
+    depthTexture = new Texture2D(w, h, Image.Format.Depth24);
+    depthTexture.setMagFilter(Texture.MagFilter.Nearest);
+    depthTexture.setMinFilter(Texture.MinFilter.NearestNoMipMaps);
+    sceneFrameBuffer = new FrameBuffer(w, h, 1);
+    sceneFrameBuffer.setDepthTexture(depthTexture);
+    sceneFrameBuffer.setColorBuffer(Image.Format.RGBA8);
+    decalMat.setVector2("DepthTexelSize", new Vector2f(1f / w, 1f / h));
+    
+    if (redirected)
+    {
+      vp.setOutputFrameBuffer(sceneFrameBuffer);
+    }
+  }
+}
@@ -32,49 +32,310 @@
 package com.jme3.ext.projectivetexturemapping;
 
 import com.jme3.material.Material;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Vector3f;
+import com.jme3.math.Vector4f;
 import com.jme3.renderer.queue.RenderQueue;
 import com.jme3.asset.AssetManager;
 import com.jme3.post.SceneProcessor;
-import com.jme3.post.SceneProcessor;
+import com.jme3.renderer.Caps;
+import com.jme3.renderer.Limits;
 import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.Renderer;
 import com.jme3.renderer.ViewPort;
 import com.jme3.renderer.queue.GeometryList;
+import com.jme3.shader.VarType;
 import com.jme3.texture.FrameBuffer;
-import java.util.ArrayList;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A SceneProcessor that renders TextureProjectors, which means it projects 
  * textures on scene geometry.
+ * Several projectors are rendered per pass. By default, each projector of a 
+ * pass binds its own sampler. In texture array mode, the projective textures 
+ * are packed into the layers of one TextureArray, so one sampler serves all 
+ * projectors of a pass and far more projectors fit into a pass. The textures 
+ * must then have the same size and format, projectors with a mismatching 
+ * texture are rejected when they are added.
+ * <p>
+ * Projectors are assigned to the slots in list order by default. With 
+ * PackingStrategy.BY_TEXTURE, projectors sharing a texture are packed into 
+ * the same slots of consecutive passes, so their sampler is not bound again.
  * 
  * @author survivor
  */
 public class MultiTextureProjectorRenderer implements SceneProcessor 
 {
-  private static final int numProjectorsPerPass = 8; // ToDo: variable
+  /**
+   * The number of projectors per pass used by the default constructor.
+   */  
+  public static final int DEFAULT_PROJECTORS_PER_PASS = 8;
+  
+  /**
+   * Pass this to the constructor to find the number of projectors per pass 
+   * from the Renderer's limits when this instance is initialized.
+   */  
+  public static final int AUTO_PROJECTORS_PER_PASS = 0;
   
+  private static final String TEMPLATE_NAME = "ProjectiveMultiTextureMapping";
+  private static final String ARRAY_TEMPLATE_NAME = "ProjectiveArrayTextureMapping";
+  private static final int MAX_ARRAY_PROJECTORS_PER_PASS = 64;
+  private static final int RESERVED_FRAGMENT_UNIFORM_VECTORS = 16;
+  private static final int ARRAY_FRAGMENT_UNIFORM_VECTORS_PER_PROJECTOR = 6;
+  private static final int VARYING_VECTORS_GL2 = 8;
+  private static final int VARYING_VECTORS_GL3 = 15;
+  private static final int RESERVED_VERTEX_UNIFORM_VECTORS = 12;
+  private static final int VERTEX_UNIFORM_VECTORS_PER_PROJECTOR = 5;
+  private static final int FRAGMENT_UNIFORM_VECTORS_PER_PROJECTOR = 1;
+  
+  private final AssetManager assetManager;
+  private final boolean useTextureArray;
   private RenderManager renderManager;
   private ViewPort viewPort;
   private Material textureMat;
-  private ArrayList<TextureProjector> textureProjectors;
+  private final ProjectorRegistry projectorRegistry;
+  private final List<TextureProjector> textureProjectors;
   private GeometryList targetGeometryList;
+  private TargetGeometryCuller targetGeometryCuller;
+  private ProjectorRenderStats stats;
+  private ProjectorLodPolicy lodPolicy;
+  private PackingStrategy packingStrategy;
+  private int maxPasses;
+  private int numProjectorsPerPass;
+  private float polyOffsetFactor;
+  private float polyOffsetUnits;
+  private String[] projectiveMapNames;
+  private final ProjectorTextureArray projectorTextureArray;
+  private Matrix4f[] projectorViewProjectionMatrices;
+  private Vector4f[] projectorLocations;
+  private Vector4f[] projectorParams;
+  private TextureProjector[] slotProjectors;
+  private int[] slotVersions;
+  private Texture[] slotTextures;
+  private Texture[] listOrderSlotTextures;
+  private int[] packedIndices;
+  private int[] pendingIndices;
+  private int[] packingKeys;
+  private boolean[] drawnFlags;
 
   public MultiTextureProjectorRenderer(AssetManager assetManager) 
   { 
-    textureMat = new Material(assetManager, "com/jme3/ext/projectivetexturemapping/assets/ProjectiveMultiTextureMapping.j3md");
-    textureProjectors = new ArrayList<TextureProjector>();
+    this(assetManager, DEFAULT_PROJECTORS_PER_PASS);
+  }
+  
+  /**
+   * Creates a new instance rendering up to numProjectorsPerPass projectors 
+   * per pass. The material definition and shaders are generated to match.
+   * @param assetManager The AssetManager.
+   * @param numProjectorsPerPass The number of projector slots per pass or 
+   * AUTO_PROJECTORS_PER_PASS to find it from the Renderer's limits.
+   * @see #getMaxProjectorsPerPass(com.jme3.renderer.Renderer) 
+   */  
+  public MultiTextureProjectorRenderer(AssetManager assetManager, int numProjectorsPerPass) 
+  { 
+    this(assetManager, numProjectorsPerPass, false);
+  }
+  
+  /**
+   * Creates a new instance rendering up to numProjectorsPerPass projectors 
+   * per pass. The material definition and shaders are generated to match.
+   * @param assetManager The AssetManager.
+   * @param numProjectorsPerPass The number of projector slots per pass or 
+   * AUTO_PROJECTORS_PER_PASS to find it from the Renderer's limits.
+   * @param useTextureArray true, to pack the projective textures into a 
+   * TextureArray. Requires Caps.TextureArray and textures of equal size and format.
+   * @see #getMaxProjectorsPerPass(com.jme3.renderer.Renderer, boolean) 
+   */  
+  public MultiTextureProjectorRenderer(AssetManager assetManager, int numProjectorsPerPass, 
+    boolean useTextureArray) 
+  { 
+    if (numProjectorsPerPass < 0)
+    {
+      throw new IllegalArgumentException("numProjectorsPerPass must not be negative");
+    }
+    
+    this.assetManager = assetManager;
+    this.useTextureArray = useTextureArray;
+    projectorRegistry = new ProjectorRegistry();
+    textureProjectors = projectorRegistry.getSnapshot();
+    targetGeometryCuller = new TargetGeometryCuller();
+    stats = new ProjectorRenderStats();
+    lodPolicy = null;
+    packingStrategy = PackingStrategy.LIST_ORDER;
+    packedIndices = new int[0];
+    pendingIndices = new int[0];
+    packingKeys = new int[0];
+    drawnFlags = new boolean[0];
+    maxPasses = Integer.MAX_VALUE;
     renderManager = null;
     viewPort = null;
     targetGeometryList = null;
+    textureMat = null;
+    projectorTextureArray = useTextureArray ? new ProjectorTextureArray() : null;
+    projectorRegistry.setValidator(projectorTextureArray);
     setPolyOffset(-0.1f, -0.1f);
+    
+    if (numProjectorsPerPass != AUTO_PROJECTORS_PER_PASS)
+    {
+      createMaterial(numProjectorsPerPass);
+    }
+  }
+  
+  /**
+   * Estimates the number of projectors that fit into one pass from the 
+   * Renderer's texture unit and uniform limits and its varying limit, 
+   * which is not reported by jME and derived from the OpenGL version.
+   * @param renderer The Renderer.
+   * @return The maximum number of projectors per pass, at least 1.
+   */  
+  public static int getMaxProjectorsPerPass(Renderer renderer)
+  {
+    return getMaxProjectorsPerPass(renderer, false);
   }
   
   /**
-   * @return A list of TextureProjectors rendered by this instance.
+   * Estimates the number of projectors that fit into one pass. In texture 
+   * array mode, this only depends on the fragment uniform limit, capped at 64.
+   * @param renderer The Renderer.
+   * @param useTextureArray true, if a TextureArray is used.
+   * @return The maximum number of projectors per pass, at least 1.
+   * @see #getMaxProjectorsPerPass(com.jme3.renderer.Renderer) 
+   */  
+  public static int getMaxProjectorsPerPass(Renderer renderer, boolean useTextureArray)
+  {
+    if (useTextureArray)
+    {
+      Integer fragmentUniformVectors = renderer.getLimits().get(Limits.FragmentUniformVectors);
+      int maxProjectors = MAX_ARRAY_PROJECTORS_PER_PASS;
+      
+      if (fragmentUniformVectors != null)
+      {
+        maxProjectors = Math.min(maxProjectors, 
+          (fragmentUniformVectors - RESERVED_FRAGMENT_UNIFORM_VECTORS) / ARRAY_FRAGMENT_UNIFORM_VECTORS_PER_PROJECTOR);
+      }
+      
+      return Math.max(1, maxProjectors);
+    }
+    
+    Map<Limits, Integer> limits = renderer.getLimits();
+    int maxProjectors = renderer.getCaps().contains(Caps.OpenGL30) ? 
+      VARYING_VECTORS_GL3 : VARYING_VECTORS_GL2;
+    Integer textureUnits = limits.get(Limits.FragmentTextureUnits);
+    Integer vertexUniformVectors = limits.get(Limits.VertexUniformVectors);
+    Integer fragmentUniformVectors = limits.get(Limits.FragmentUniformVectors);
+    
+    if (textureUnits != null)
+    {
+      maxProjectors = Math.min(maxProjectors, textureUnits);
+    }
+    
+    if (vertexUniformVectors != null)
+    {
+      maxProjectors = Math.min(maxProjectors, 
+        (vertexUniformVectors - RESERVED_VERTEX_UNIFORM_VECTORS) / VERTEX_UNIFORM_VECTORS_PER_PROJECTOR);
+    }
+    
+    if (fragmentUniformVectors != null)
+    {
+      maxProjectors = Math.min(maxProjectors, 
+        fragmentUniformVectors / FRAGMENT_UNIFORM_VECTORS_PER_PROJECTOR);
+    }
+    
+    return Math.max(1, maxProjectors);
+  }
+  
+  private void createMaterial(int numProjectorsPerPass)
+  {
+    this.numProjectorsPerPass = numProjectorsPerPass;
+    projectorViewProjectionMatrices = new Matrix4f[numProjectorsPerPass];
+    projectorLocations = new Vector4f[numProjectorsPerPass];
+    projectorParams = new Vector4f[numProjectorsPerPass];
+    slotProjectors = new TextureProjector[numProjectorsPerPass];
+    slotVersions = new int[numProjectorsPerPass];
+    slotTextures = new Texture[numProjectorsPerPass];
+    listOrderSlotTextures = new Texture[numProjectorsPerPass];
+    
+    for (int i = 0; i < numProjectorsPerPass; i++)
+    {
+      projectorViewProjectionMatrices[i] = new Matrix4f();
+      projectorLocations[i] = new Vector4f();
+      projectorParams[i] = new Vector4f();
+    }
+    
+    if (!useTextureArray)
+    {
+      projectiveMapNames = new String[numProjectorsPerPass];
+      
+      for (int i = 0; i < numProjectorsPerPass; i++)
+      {
+        projectiveMapNames[i] = "ProjectiveMap" + i;
+      }
+    }
+    
+    SlotTemplateLocator.register(assetManager);
+    textureMat = new Material(assetManager, SlotTemplateLocator.getAssetName(
+      useTextureArray ? ARRAY_TEMPLATE_NAME : TEMPLATE_NAME, numProjectorsPerPass, "j3md"));
+    textureMat.getAdditionalRenderState().setPolyOffset(polyOffsetFactor, polyOffsetUnits);
+    textureMat.setInt("NumProjectors", numProjectorsPerPass);
+  }
+  
+  /**
+   * @return The number of projector slots per pass, 0 if it is found when 
+   * this instance is initialized and this has not happened yet.
+   */  
+  public int getNumProjectorsPerPass()
+  {
+    return numProjectorsPerPass;
+  }
+  
+  /**
+   * @return true, if the projective textures are packed into a TextureArray.
+   */  
+  public boolean isUsingTextureArray()
+  {
+    return useTextureArray;
+  }
+  
+  /**
+   * @return The TextureArray packing the projective textures, null if this 
+   * instance does not use one.
+   */  
+  public ProjectorTextureArray getProjectorTextureArray()
+  {
+    return projectorTextureArray;
+  }
+  
+  /**
+   * @return The number of TextureProjectors that were refreshed in the last 
+   * frame, because they are new or changed.
+   */  
+  public int getNumRefreshedProjectors()
+  {
+    return targetGeometryCuller.getNumRefreshedProjectors();
+  }
+  
+  /**
+   * @return The metrics of the last frame rendered by this instance.
+   */  
+  public ProjectorRenderStats getStats()
+  {
+    return stats;
+  }
+  
+  /**
+   * @return A list of TextureProjectors rendered by this instance, a 
+   * ProjectorRegistry. It may be changed from any thread. Changes are taken 
+   * over by the next preFrame(), so a change made while a frame renders shows 
+   * one frame later. While another thread holds the registry's lock, they 
+   * may be deferred by up to getMaxDeferredSnapshots() more frames.
+   * @see ProjectorRegistry#setMaxDeferredSnapshots(int)
    */  
   public List<TextureProjector> getTextureProjectors()
   {
-    return textureProjectors;
+    return projectorRegistry;
   }
 
   /**
@@ -97,6 +358,90 @@ public class MultiTextureProjectorRenderer implements SceneProcessor
     this.targetGeometryList = targetGeometryList;
   }
   
+  /**
+   * Sets the spatial index used to find the receivers of TextureProjectors, 
+   * if neither this renderer nor the TextureProjector has a target GeometryList. 
+   * The index may be shared by several renderers.
+   * @param receiverIndex The receiver index or null to use the visible geometry of the ViewPort.
+   */  
+  public void setReceiverIndex(ReceiverBVH receiverIndex)
+  {
+    targetGeometryCuller.setReceiverIndex(receiverIndex);
+  }
+  
+  /**
+   * @return The receiver index or null, if the visible geometry of the ViewPort is used.
+   */  
+  public ReceiverBVH getReceiverIndex()
+  {
+    return targetGeometryCuller.getReceiverIndex();
+  }
+  
+  /**
+   * Sets the maximum number of passes per frame. Projectors that do not fit 
+   * are skipped. With a level of detail policy, the budget is spent on the 
+   * projectors with the highest priority, otherwise on the first ones in 
+   * packing order. The default is Integer.MAX_VALUE.
+   * @param maxPasses The maximum number of passes.
+   */  
+  public void setMaxPasses(int maxPasses)
+  {
+    this.maxPasses = maxPasses;
+  }
+  
+  /**
+   * @return The maximum number of passes per frame.
+   */  
+  public int getMaxPasses()
+  {
+    return maxPasses;
+  }
+  
+  /**
+   * Sets the policy that skips small TextureProjectors. Projectors at reduced 
+   * quality are drawn like the others, as the shader serves all projectors 
+   * of a pass alike.
+   * @param lodPolicy The level of detail policy or null to draw all projectors.
+   */  
+  public void setLodPolicy(ProjectorLodPolicy lodPolicy)
+  {
+    this.lodPolicy = lodPolicy;
+  }
+  
+  /**
+   * @return The level of detail policy or null.
+   */  
+  public ProjectorLodPolicy getLodPolicy()
+  {
+    return lodPolicy;
+  }
+  
+  /**
+   * Sets how projectors are assigned to the slots of the passes. The number 
+   * of texture binds saved compared to list order is reported by the stats. 
+   * In texture array mode, all projectors of a pass share one sampler and the 
+   * strategy has no effect on binds. The default is PackingStrategy.LIST_ORDER.
+   * @param packingStrategy The packing strategy.
+   * @see ProjectorRenderStats#getNumTextureBindsSaved() 
+   */  
+  public void setPackingStrategy(PackingStrategy packingStrategy)
+  {
+    if (packingStrategy == null)
+    {
+      throw new IllegalArgumentException("packingStrategy must not be null");
+    }
+    
+    this.packingStrategy = packingStrategy;
+  }
+  
+  /**
+   * @return The packing strategy.
+   */  
+  public PackingStrategy getPackingStrategy()
+  {
+    return packingStrategy;
+  }
+  
   /**
    * Offsets the on-screen z-order of the texture material's polygons, 
    * to combat visual artefacts like stitching, bleeding and z-fighting 
@@ -114,11 +459,17 @@ public class MultiTextureProjectorRenderer implements SceneProcessor
    */
   public final void setPolyOffset(float factor, float units)
   {
-    textureMat.getAdditionalRenderState().setPolyOffset(factor, units);
+    polyOffsetFactor = factor;
+    polyOffsetUnits = units;
+    
+    if (textureMat != null)
+    {
+      textureMat.getAdditionalRenderState().setPolyOffset(factor, units);
+    }
   }
   
   /**
-   * Initializes this instance.
+   * Initializes this instance and compiles the shader.
    * @see SceneProcessor
    */  
   @Override
@@ -126,6 +477,18 @@ public class MultiTextureProjectorRenderer implements SceneProcessor
   {
     renderManager = rm;
     viewPort = vp;
+    
+    if (useTextureArray && !rm.getRenderer().getCaps().contains(Caps.TextureArray))
+    {
+      throw new UnsupportedOperationException("The renderer does not support texture arrays");
+    }
+    
+    if (textureMat == null)
+    {
+      createMaterial(getMaxProjectorsPerPass(rm.getRenderer(), useTextureArray));
+    }
+    
+    textureMat.preload(rm);
   }
 
   /**
@@ -139,11 +502,17 @@ public class MultiTextureProjectorRenderer implements SceneProcessor
   }
 
   /**
+   * Takes the snapshot of the TextureProjectors rendered in this frame.
    * Called before the a frame is rendered.
    * @see SceneProcessor
    */  
   @Override
-  public void preFrame(float tpf) { }
+  public void preFrame(float tpf) 
+  { 
+    stats.beginFrame();
+    projectorRegistry.updateSnapshot();
+    stats.pauseFrame();
+  }
   
   /**
    * Called before the render queue is flushed.
@@ -156,93 +525,344 @@ public class MultiTextureProjectorRenderer implements SceneProcessor
 
   /**
    * Renders each TextureProjector with its corresponding material parameters.
+   * Projectors whose frustum intersects none of the target geometry or 
+   * misses the view frustum don't occupy a slot, and each pass only submits 
+   * the geometry reached by the projectors it contains. Nothing is 
+   * submitted, if no projector is left.
    * Called after a frame has been rendered. 
    * @see SceneProcessor
    */  
   @Override
   public void postFrame(FrameBuffer out) 
   { 
-    renderManager.getRenderer().setFrameBuffer(out); // ToDo: check if needed
-    renderManager.setForcedMaterial(textureMat);
+    stats.beginDraws();
+    targetGeometryCuller.beginFrame(viewPort);
+    targetGeometryCuller.clearUnion();
+    
+    if (useTextureArray)
+    {
+      projectorTextureArray.beginFrame();
+    }
+    
+    if (lodPolicy != null)
+    {
+      int projectorBudget = (maxPasses > Integer.MAX_VALUE / numProjectorsPerPass) ? 
+        Integer.MAX_VALUE : maxPasses * numProjectorsPerPass;
+      lodPolicy.update(viewPort.getCamera(), textureProjectors, targetGeometryCuller, 
+        targetGeometryList, projectorBudget);
+    }
+    
     int numProjectors = textureProjectors.size();
-    int numPasses = (numProjectors + numProjectorsPerPass - 1) / numProjectorsPerPass;
-    int numProjectorsThisPass;
-    int currentProjector = 0;
     
-    for (int pass = 0; pass < numPasses; pass++)
+    if (packedIndices.length < numProjectors)
+    {
+      int capacity = Math.max(numProjectors, 2 * packedIndices.length);
+      packedIndices = new int[capacity];
+      pendingIndices = new int[capacity];
+      packingKeys = new int[capacity];
+      drawnFlags = new boolean[capacity];
+    }
+    
+    // The cheap tests run first, so only the projectors that may be drawn are 
+    // packed. The exact cull follows in packing order.
+    int numPacked = 0;
+    
+    for (int p = 0; p < numProjectors; p++)
     {
-      if (pass < (numPasses-1))
+      TextureProjector textureProjector = textureProjectors.get(p);
+      drawnFlags[p] = false;
+      
+      ProjectorLodPolicy.Level level = (lodPolicy != null) ? lodPolicy.getLevel(p) : null;
+      
+      if (level == ProjectorLodPolicy.Level.SKIPPED)
+      {
+        stats.onProjectorSkipped();
+        continue;
+      }
+      
+      boolean visible;
+      
+      if (level != null)
       {
-        numProjectorsThisPass = numProjectorsPerPass;
+        // The level of detail policy already culled the invisible projectors.
+        visible = (level != ProjectorLodPolicy.Level.CULLED);
       }
       else
       {
-        numProjectorsThisPass = numProjectors - currentProjector;
+        visible = (targetGeometryList != null) ? 
+          targetGeometryCuller.isVisible(textureProjector, targetGeometryList) : 
+          targetGeometryCuller.isVisible(textureProjector);
       }
-
-      textureMat.setInt("NumProjectors", numProjectorsThisPass);
+      
+      if (!visible)
+      {
+        stats.onProjectorCulled();
+        continue;
+      }
+      
+      // All layers are assigned before the first pass, so the texture array 
+      // is uploaded at most once per frame.
+      if (useTextureArray && (projectorTextureArray.getLayer(textureProjector.getProjectiveTexture()) < 0))
+      {
+        stats.onProjectorSkipped();
+        continue;
+      }
+      
+      packedIndices[numPacked++] = p;
+    }
+    
+    if (packingStrategy == PackingStrategy.BY_TEXTURE)
+    {
+      packByTexture(numPacked);
+    }
+    
+    int numProjectorsThisPass = 0;
+    
+    for (int k = 0; k < numPacked; k++)
+    {
+      int p = packedIndices[k];
+      TextureProjector textureProjector = textureProjectors.get(p);
+      
+      if (stats.getNumPasses() == maxPasses)
+      {
+        stats.onProjectorSkipped();
+        continue;
+      }
+      
+      GeometryList culledGeometryList = (targetGeometryList != null) ? 
+        targetGeometryCuller.cull(textureProjector, targetGeometryList) : 
+        targetGeometryCuller.cull(textureProjector);
+      
+      if (culledGeometryList.size() == 0)
+      {
+        stats.onProjectorCulled();
+        continue;
+      }
+      
+      targetGeometryCuller.addToUnion(culledGeometryList);
+      setProjectorParams(numProjectorsThisPass, textureProjector);
+      drawnFlags[p] = true;
+      stats.onProjectorDrawn();
+      numProjectorsThisPass++;
+      
+      if (numProjectorsThisPass == numProjectorsPerPass)
+      {
+        renderPass(numProjectorsThisPass, out);
+        numProjectorsThisPass = 0;
+      }
+    }
+    
+    if (numProjectorsThisPass > 0)
+    {
+      renderPass(numProjectorsThisPass, out);
+    }
+    
+    if (stats.getNumPasses() > 0)
+    {
+      renderManager.setForcedMaterial(null);
+    }
+    
+    if (!useTextureArray && (packingStrategy != PackingStrategy.LIST_ORDER))
+    {
+      stats.onTextureBindsSaved(countListOrderBinds(numProjectors) - stats.getNumTextureBinds());
+    }
+    
+    stats.endFrame();
+  }
+  
+  // Groups the packed projectors by texture and, within a texture, by 
+  // signature. Like the sheets of the AnimatedMultiTextureProjectorRenderer, 
+  // each round moves one group from the pending indices to the packed ones 
+  // and compacts the rest. The next round prefers the texture of the last 
+  // one, so all signatures of a texture end up next to each other.
+  private void packByTexture(int numPacked)
+  {
+    for (int k = 0; k < numPacked; k++)
+    {
+      int p = packedIndices[k];
+      pendingIndices[k] = p;
+      packingKeys[p] = getPackingKey(textureProjectors.get(p));
+    }
+    
+    int numPending = numPacked;
+    int numSorted = 0;
+    Texture lastTexture = null;
+    
+    while (numPending > 0)
+    {
+      int first = 0;
+      
+      for (int k = 0; k < numPending; k++)
+      {
+        if (textureProjectors.get(pendingIndices[k]).getProjectiveTexture() == lastTexture)
+        {
+          first = k;
+          break;
+        }
+      }
+      
+      Texture texture = textureProjectors.get(pendingIndices[first]).getProjectiveTexture();
+      int key = packingKeys[pendingIndices[first]];
+      int numRemaining = 0;
+      
+      for (int k = 0; k < numPending; k++)
+      {
+        int p = pendingIndices[k];
         
-      for (int i = 0; i < numProjectorsPerPass; i++, currentProjector++)
-      {      
-        if (i < numProjectorsThisPass)
+        if ((packingKeys[p] == key) && (textureProjectors.get(p).getProjectiveTexture() == texture))
         {
-          TextureProjector textureProjector = textureProjectors.get(currentProjector);
-          float fallOffDistance = textureProjector.getFallOffDistance();
-          
-          Object combineMode = textureProjector.getParameter("CombineMode");
-          if ((combineMode != null) && (combineMode instanceof CombineMode))
-          {
-            textureMat.setInt("CombineMode" + i, ((CombineMode) combineMode).ordinal());
-          }
-
-          textureMat.setTexture("ProjectiveMap" + i, textureProjector.getProjectiveTexture());
-          textureMat.setMatrix4("ProjectorViewProjectionMatrix" + i, textureProjector.getProjectorViewProjectionMatrix());
-
-          if (textureProjector.isParallelProjection())
-          {
-            textureMat.clearParam("ProjectorLocation" + i);
-            textureMat.setVector3("ProjectorDirection" + i, textureProjector.getProjectorDirection());
-          }
-          else
-          {
-            textureMat.clearParam("ProjectorDirection" + i);
-            textureMat.setVector3("ProjectorLocation" + i, textureProjector.getProjectorLocation());
-          }
-
-          if (fallOffDistance != Float.MAX_VALUE)
-          {
-            textureMat.setFloat("FallOffDistance" + i, textureProjector.getFallOffDistance());
-            textureMat.setFloat("FallOffPower" + i, textureProjector.getFallOffPower());          
-          }
-          else
-          {
-            textureMat.clearParam("FallOffDistance" + i);        
-            textureMat.clearParam("FallOffPower" + i);
-          }
+          packedIndices[numSorted++] = p;
         }
         else
         {
-          textureMat.clearParam("ProjectiveMap" + i);
-          textureMat.clearParam("ProjectorViewProjectionMatrix" + i);
-          textureMat.clearParam("ProjectorLocation" + i);
-          textureMat.clearParam("ProjectorDirection" + i);
-          textureMat.clearParam("FallOffDistance" + i);        
-          textureMat.clearParam("FallOffPower" + i);          
-          textureMat.clearParam("CombineMode" + i);
+          pendingIndices[numRemaining++] = p;
         }
       }
-
-      if (targetGeometryList != null)
+      
+      numPending = numRemaining;
+      lastTexture = texture;
+    }
+  }
+  
+  // The projection type and fall off of the material variants, combined with 
+  // the CombineMode.
+  private static int getPackingKey(TextureProjector textureProjector)
+  {
+    return ProjectorMaterialVariants.getSignature(textureProjector) + 
+      getCombineMode(textureProjector) * ProjectorMaterialVariants.NUM_SIGNATURES;
+  }
+  
+  private static int getCombineMode(TextureProjector textureProjector)
+  {
+    Object combineModeParameter = textureProjector.getParameter("CombineMode");
+    
+    if (combineModeParameter instanceof CombineMode)
+    {
+      return ((CombineMode) combineModeParameter).ordinal();
+    }
+    
+    return 0;
+  }
+  
+  // Replays the slot assignment of list order packing for the projectors 
+  // drawn in this frame and counts the texture binds it would have needed.
+  private int countListOrderBinds(int numProjectors)
+  {
+    int numBinds = 0;
+    int slot = 0;
+    
+    for (int p = 0; p < numProjectors; p++)
+    {
+      if (!drawnFlags[p])
+      {
+        continue;
+      }
+      
+      Texture2D texture = textureProjectors.get(p).getProjectiveTexture();
+      
+      if (listOrderSlotTextures[slot] != texture)
+      {
+        listOrderSlotTextures[slot] = texture;
+        numBinds++;
+      }
+      
+      slot = (slot + 1 == numProjectorsPerPass) ? 0 : slot + 1;
+    }
+    
+    return numBinds;
+  }
+  
+  private void setProjectorParams(int i, TextureProjector textureProjector)
+  {
+    // The uniforms of a slot are only rewritten if another projector took the 
+    // slot or the projector changed since it was written.
+    int version = targetGeometryCuller.getProjectorState(textureProjector).getVersion();
+    
+    if ((slotProjectors[i] != textureProjector) || (slotVersions[i] != version))
+    {
+      slotProjectors[i] = textureProjector;
+      slotVersions[i] = version;
+      int combineMode = getCombineMode(textureProjector);
+      
+      projectorViewProjectionMatrices[i].set(textureProjector.getProjectorViewProjectionMatrix());
+      
+      if (textureProjector.isParallelProjection())
       {
-        renderManager.renderGeometryList(targetGeometryList);
+        Vector3f direction = textureProjector.getProjectorDirection();
+        projectorLocations[i].set(-direction.x, -direction.y, -direction.z, 0f);
       }
       else
       {
-        renderManager.renderViewPortRaw(viewPort);
+        Vector3f location = textureProjector.getProjectorLocation();
+        projectorLocations[i].set(location.x, location.y, location.z, 1f);
       }
+      
+      projectorParams[i].set(
+        textureProjector.getFallOffDistance(), 
+        textureProjector.getFallOffPower(), 
+        0f, 
+        combineMode);
     }
     
-    renderManager.setForcedMaterial(null);
+    if (useTextureArray)
+    {
+      // The layer was assigned in postFrame(), before the first pass.
+      projectorParams[i].z = projectorTextureArray.getLayer(textureProjector.getProjectiveTexture());
+    }
+    else if (slotTextures[i] != textureProjector.getProjectiveTexture())
+    {
+      // The sampler of a slot is only bound again, if its texture changed.
+      slotTextures[i] = textureProjector.getProjectiveTexture();
+      textureMat.setTexture(projectiveMapNames[i], slotTextures[i]);
+      stats.onParamUpdates(1);
+      stats.onTextureBinds(1);
+    }
+  }
+  
+  private void renderPass(int numProjectorsThisPass, FrameBuffer out)
+  {
+    // The render state is only touched once a pass is actually drawn, so a 
+    // frame without visible projectors submits nothing.
+    if (stats.getNumPasses() == 0)
+    {
+      renderManager.getRenderer().setFrameBuffer(out); // ToDo: check if needed
+      renderManager.setForcedMaterial(textureMat);
+    }
+    
+    // NUM_PROJECTORS stays at the slot count, so a partial pass uses the same 
+    // shader as a full one. Unused slots get a zero matrix, which the shader 
+    // skips because of the zero w coordinate. Their samplers keep the texture 
+    // of the previous pass, clearing them would allocate new material 
+    // parameters when the slots are filled again.
+    for (int i = numProjectorsThisPass; i < numProjectorsPerPass; i++)
+    {
+      projectorViewProjectionMatrices[i].zero();
+      projectorLocations[i].set(0f, 0f, 1f, 0f);
+      slotProjectors[i] = null;
+      
+      if (!useTextureArray && (textureMat.getParam(projectiveMapNames[i]) == null))
+      {
+        slotTextures[i] = slotTextures[0];
+        textureMat.setParam(projectiveMapNames[i], VarType.Texture2D, slotTextures[i]);
+        stats.onParamUpdates(1);
+        stats.onTextureBinds(1);
+      }
+    }
+    
+    if (useTextureArray)
+    {
+      textureMat.setParam("ProjectiveMapArray", VarType.TextureArray, projectorTextureArray.getTextureArray());
+      stats.onParamUpdates(1);
+    }
+    
+    // All per projector data of the pass is uploaded with three array uniforms.
+    textureMat.setParam("ProjectorViewProjectionMatrices", VarType.Matrix4Array, projectorViewProjectionMatrices);
+    textureMat.setParam("ProjectorLocations", VarType.Vector4Array, projectorLocations);
+    textureMat.setParam("ProjectorParams", VarType.Vector4Array, projectorParams);
+    stats.onParamUpdates(3);
+    stats.onPass(targetGeometryCuller.getUnion().size());
+    renderManager.renderGeometryList(targetGeometryCuller.getUnion());
+    targetGeometryCuller.clearUnion();
   }
 
   /**
@@ -268,4 +888,21 @@ public class MultiTextureProjectorRenderer implements SceneProcessor
     BLEND_COLOR_ADD_ALPHA,
     BLEND_ALL
   }
+  
+  /**
+   * How projectors are assigned to the slots of the passes.
+   */  
+  public enum PackingStrategy
+  {
+    /**
+     * In the order of the projector list.
+     */  
+    LIST_ORDER,
+    
+    /**
+     * Grouped by projective texture, then by projection type, fall off and 
+     * CombineMode, each group in the order it first appears in the list.
+     */  
+    BY_TEXTURE
+  }
 }
@@ -0,0 +1,449 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.ViewPort;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepares the TextureProjectors of a renderer on a ForkJoinPool, so the 
+ * rendering thread only has to submit geometry. Each projector is prepared 
+ * independently: its matrices and frustum planes are refreshed, it is scored 
+ * by the level of detail policy and its receivers are culled. The results 
+ * are kept in one ProjectorDrawPacket per projector.
+ * <p>
+ * The work runs in two parallel phases, as the level of detail policy can 
+ * only choose the skipped projectors once all of them are scored. Projectors 
+ * are split into chunks of at least getMinProjectorsPerTask() projectors, 
+ * which the rendering thread and up to one task per thread of the pool take 
+ * in turn. The rendering thread only waits for the tasks that took a chunk. 
+ * A task the pool has not started by then does not get one later, as each 
+ * phase has a generation of its own, so the rendering thread takes over its 
+ * share. The pool should still be dedicated to the preparer, as tasks 
+ * queued behind unrelated work do not help. The tasks are reused from frame 
+ * to frame, so preparing allocates nothing on the rendering thread once the 
+ * number of projectors is stable and the pool keeps up.
+ * <p>
+ * While a frame is prepared, the TextureProjectors, the target geometry and 
+ * the receiver index must not be modified, and a projector must not be 
+ * listed twice. Custom TextureProjector and ProjectorPriority 
+ * implementations must be safe to call from the threads of the pool.
+ * 
+ * @author survivor
+ * @see TextureProjectorRenderer#setForkJoinPool(java.util.concurrent.ForkJoinPool) 
+ */
+public class ParallelProjectorPreparer 
+{
+  /**
+   * The smallest number of projectors per task used by default.
+   */  
+  public static final int DEFAULT_MIN_PROJECTORS_PER_TASK = 32;
+  
+  private static final int CHUNKS_PER_THREAD = 4;
+  // Tasks still queued from an earlier phase are not submitted again, so a 
+  // few more than one per thread may exist.
+  private static final int MAX_TASKS_PER_THREAD = 2;
+  private static final int SCORE_PHASE = 0;
+  private static final int CULL_PHASE = 1;
+  
+  private final ForkJoinPool pool;
+  private final ArrayList<ProjectorDrawPacket> packets;
+  private final ArrayList<HelperTask> helperTasks;
+  private final ArrayList<HelperTask> submittedTasks;
+  // The generation in the upper, the next chunk in the lower 32 bits, so a 
+  // chunk can only be taken in the phase it belongs to.
+  private final AtomicLong nextChunk;
+  private int generation;
+  private float[] distance;
+  private int minProjectorsPerTask;
+  private int numPackets;
+  private int numChunks;
+  private int phase;
+  private Camera camera;
+  private TargetGeometryCuller targetGeometryCuller;
+  private ProjectorLodPolicy lodPolicy;
+  private long prepareNanos;
+  
+  /**
+   * Creates a new instance.
+   * @param pool The pool to prepare the projectors on.
+   */  
+  public ParallelProjectorPreparer(ForkJoinPool pool)
+  {
+    if (pool == null)
+    {
+      throw new IllegalArgumentException("pool must not be null");
+    }
+    
+    this.pool = pool;
+    packets = new ArrayList<ProjectorDrawPacket>();
+    helperTasks = new ArrayList<HelperTask>();
+    submittedTasks = new ArrayList<HelperTask>();
+    nextChunk = new AtomicLong();
+    generation = 0;
+    distance = new float[0];
+    minProjectorsPerTask = DEFAULT_MIN_PROJECTORS_PER_TASK;
+    numPackets = 0;
+    numChunks = 0;
+    phase = SCORE_PHASE;
+    camera = null;
+    targetGeometryCuller = null;
+    lodPolicy = null;
+    prepareNanos = 0;
+  }
+  
+  /**
+   * @return The pool the projectors are prepared on.
+   */  
+  public ForkJoinPool getPool()
+  {
+    return pool;
+  }
+  
+  /**
+   * Sets the smallest number of projectors a task prepares. Fewer projectors 
+   * than this are prepared on the calling thread. The default is 
+   * DEFAULT_MIN_PROJECTORS_PER_TASK.
+   * @param minProjectorsPerTask The number of projectors, at least 1.
+   */  
+  public void setMinProjectorsPerTask(int minProjectorsPerTask)
+  {
+    if (minProjectorsPerTask < 1)
+    {
+      throw new IllegalArgumentException("minProjectorsPerTask must be at least 1");
+    }
+    
+    this.minProjectorsPerTask = minProjectorsPerTask;
+  }
+  
+  /**
+   * @return The smallest number of projectors a task prepares.
+   */  
+  public int getMinProjectorsPerTask()
+  {
+    return minProjectorsPerTask;
+  }
+  
+  /**
+   * Starts a new frame of the culler and prepares all TextureProjectors.
+   * Must be called from the rendering thread, after the scene was updated.
+   * @param viewPort The ViewPort that is being rendered.
+   * @param textureProjectors The TextureProjectors of the renderer.
+   * @param targetGeometryCuller The culler of the renderer.
+   * @param lodPolicy The level of detail policy or null.
+   * @param rendererBudget The maximum number of projectors the renderer can 
+   * draw in this frame, passed to the level of detail policy.
+   */  
+  public void prepare(ViewPort viewPort, List<TextureProjector> textureProjectors, 
+    TargetGeometryCuller targetGeometryCuller, ProjectorLodPolicy lodPolicy, int rendererBudget)
+  {
+    long start = System.nanoTime();
+    targetGeometryCuller.beginFrame(viewPort);
+    numPackets = textureProjectors.size();
+    
+    while (packets.size() < numPackets)
+    {
+      packets.add(new ProjectorDrawPacket());
+    }
+    
+    // Whatever the culler creates on first use is created here, on the 
+    // rendering thread.
+    for (int i = 0; i < numPackets; i++)
+    {
+      TextureProjector textureProjector = textureProjectors.get(i);
+      packets.get(i).reset(textureProjector, targetGeometryCuller.prepareConcurrentCull(textureProjector));
+    }
+    
+    // Each thread culls with a distance array of its own, sized here.
+    int scratchSize = targetGeometryCuller.getConcurrentCullScratchSize();
+    
+    if (distance.length < scratchSize)
+    {
+      distance = new float[scratchSize];
+    }
+    
+    for (int h = 0; h < helperTasks.size(); h++)
+    {
+      helperTasks.get(h).ensureScratchSize(scratchSize);
+    }
+    
+    this.camera = viewPort.getCamera();
+    this.targetGeometryCuller = targetGeometryCuller;
+    this.lodPolicy = lodPolicy;
+    
+    if (lodPolicy != null)
+    {
+      lodPolicy.beginUpdate(numPackets);
+    }
+    
+    run(SCORE_PHASE);
+    
+    if (lodPolicy != null)
+    {
+      lodPolicy.endUpdate(rendererBudget);
+    }
+    
+    run(CULL_PHASE);
+    int numRefreshedProjectors = 0;
+    int numRebuiltReceiverSets = 0;
+    int numUpdatedPairs = 0;
+    
+    for (int i = 0; i < numPackets; i++)
+    {
+      ProjectorDrawPacket packet = packets.get(i);
+      numRefreshedProjectors += packet.getState().isRefreshed() ? 1 : 0;
+      numRebuiltReceiverSets += packet.isReceiverSetRebuilt() ? 1 : 0;
+      numUpdatedPairs += packet.getNumUpdatedPairs();
+    }
+    
+    targetGeometryCuller.onConcurrentCulls(numRefreshedProjectors, numRebuiltReceiverSets, numUpdatedPairs);
+    this.camera = null;
+    this.targetGeometryCuller = null;
+    this.lodPolicy = null;
+    prepareNanos = System.nanoTime() - start;
+  }
+  
+  private void run(int phase)
+  {
+    this.phase = phase;
+    int parallelism = pool.getParallelism();
+    numChunks = Math.min(numPackets / minProjectorsPerTask, CHUNKS_PER_THREAD * (parallelism + 1));
+    
+    if (numChunks <= 1)
+    {
+      prepare(0, numPackets, distance);
+      return;
+    }
+    
+    // Helpers of earlier phases that start late find no chunk of this one.
+    generation++;
+    nextChunk.set((long) generation << 32);
+    int numHelpers = Math.min(numChunks - 1, parallelism);
+    submittedTasks.clear();
+    
+    for (int h = 0; (h < helperTasks.size()) && (submittedTasks.size() < numHelpers); h++)
+    {
+      HelperTask helperTask = helperTasks.get(h);
+      
+      if (helperTask.isIdle())
+      {
+        submittedTasks.add(helperTask);
+      }
+    }
+    
+    while ((submittedTasks.size() < numHelpers) && 
+           (helperTasks.size() < MAX_TASKS_PER_THREAD * parallelism))
+    {
+      HelperTask helperTask = new HelperTask();
+      helperTask.ensureScratchSize(distance.length);
+      helperTasks.add(helperTask);
+      submittedTasks.add(helperTask);
+    }
+    
+    for (int h = 0; h < submittedTasks.size(); h++)
+    {
+      submittedTasks.get(h).submit(generation);
+    }
+    
+    prepareChunks(generation, distance);
+    
+    // All chunks are taken now. Only the helpers that started may still work 
+    // on one, the others will find none and are not waited for. A running 
+    // helper is done within a chunk, join() would allocate while waiting.
+    for (int h = 0; h < submittedTasks.size(); h++)
+    {
+      HelperTask helperTask = submittedTasks.get(h);
+      
+      if (!helperTask.isStarted())
+      {
+        continue;
+      }
+      
+      while (!helperTask.isDone())
+      {
+        Thread.yield();
+      }
+      
+      if (helperTask.isCompletedAbnormally())
+      {
+        helperTask.join();
+      }
+    }
+  }
+  
+  private void prepareChunks(int generation, float[] distance)
+  {
+    for (int c = takeChunk(generation); c >= 0; c = takeChunk(generation))
+    {
+      prepare((int) ((long) numPackets * c / numChunks), (int) ((long) numPackets * (c + 1) / numChunks), distance);
+    }
+  }
+  
+  /**
+   * @return The index of the next chunk or -1, if all chunks are taken or 
+   * the generation is over.
+   */  
+  private int takeChunk(int generation)
+  {
+    while (true)
+    {
+      long current = nextChunk.get();
+      int chunk = (int) current;
+      
+      if (((int) (current >>> 32) != generation) || (chunk >= numChunks))
+      {
+        return -1;
+      }
+      
+      if (nextChunk.compareAndSet(current, current + 1))
+      {
+        return chunk;
+      }
+    }
+  }
+  
+  private void prepare(int start, int end, float[] distance)
+  {
+    for (int i = start; i < end; i++)
+    {
+      ProjectorDrawPacket packet = packets.get(i);
+      
+      if (phase == SCORE_PHASE)
+      {
+        targetGeometryCuller.refreshConcurrently(packet.getState());
+        
+        if (lodPolicy != null)
+        {
+          // Only projectors that can reach the image compete for the budget.
+          lodPolicy.score(i, camera, packet.getTextureProjector(), packet.getState(), 
+            targetGeometryCuller.isVisibleConcurrently(packet.getState()));
+        }
+      }
+      else
+      {
+        if (lodPolicy != null)
+        {
+          packet.setLevel(lodPolicy.getLevel(i));
+        }
+        
+        if ((packet.getLevel() != ProjectorLodPolicy.Level.SKIPPED) && 
+            (packet.getLevel() != ProjectorLodPolicy.Level.CULLED))
+        {
+          targetGeometryCuller.cullConcurrently(packet, distance);
+        }
+      }
+    }
+  }
+  
+  /**
+   * @return The number of packets prepared for the current frame.
+   */  
+  public int getNumPackets()
+  {
+    return numPackets;
+  }
+  
+  /**
+   * @param index The index of a TextureProjector in the list given to prepare().
+   * @return The packet of the TextureProjector in the current frame.
+   */  
+  public ProjectorDrawPacket getPacket(int index)
+  {
+    return packets.get(index);
+  }
+  
+  /**
+   * @return The wall clock time the last call to prepare() took in nanoseconds.
+   */  
+  public long getPrepareNanos()
+  {
+    return prepareNanos;
+  }
+  
+  private class HelperTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+    
+    private float[] distance = new float[0];
+    private int generation;
+    private boolean submitted;
+    private volatile boolean started;
+    
+    /**
+     * @return true, if this task can be submitted, because it never was or 
+     * its last run is complete.
+     */  
+    boolean isIdle()
+    {
+      return !submitted || isDone();
+    }
+    
+    void submit(int generation)
+    {
+      reinitialize();
+      this.generation = generation;
+      submitted = true;
+      started = false;
+      pool.execute(this);
+    }
+    
+    /**
+     * @return true, if the pool started this task, so it may hold a chunk.
+     */  
+    boolean isStarted()
+    {
+      return started;
+    }
+    
+    void ensureScratchSize(int scratchSize)
+    {
+      if (distance.length < scratchSize)
+      {
+        distance = new float[scratchSize];
+      }
+    }
+    
+    @Override
+    protected void compute()
+    {
+      // Set before the first chunk is taken, so the rendering thread sees it 
+      // once all chunks are gone.
+      started = true;
+      prepareChunks(generation, distance);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.light.Light;
+import com.jme3.light.LightList;
+import com.jme3.material.RenderState;
+import com.jme3.material.logic.TechniqueDefLogic;
+import com.jme3.renderer.Caps;
+import com.jme3.renderer.RenderManager;
+import com.jme3.scene.Geometry;
+import com.jme3.shader.DefineList;
+import com.jme3.shader.Shader;
+import com.jme3.shader.VarType;
+import java.util.EnumSet;
+
+/**
+ * A TechniqueDefLogic wrapping the SinglePass lighting logic of an injected 
+ * receiver technique. SinglePass lighting draws a geometry once per batch of 
+ * RenderManager.getSinglePassLightBatchSize() lights and adds the batches 
+ * after the first one. Blending the projection in every batch would add it 
+ * once per batch, so this logic draws the first batch with the projection 
+ * and the further batches with the m_ProjectiveAdditiveBatch uniform set, 
+ * for which ProjectiveReceiver.glsllib only darkens the lighting by the 
+ * projection's alpha.
+ * 
+ * @author survivor
+ * @see ProjectiveReceiverLocator
+ */
+public class ProjectiveReceiverLightingLogic implements TechniqueDefLogic
+{
+  /**
+   * The name of the uniform set in all but the first light batch.
+   */  
+  public static final String ADDITIVE_BATCH_UNIFORM = "m_ProjectiveAdditiveBatch";
+  
+  private static final RenderState ADDITIVE_LIGHT = new RenderState();
+  
+  static
+  {
+    ADDITIVE_LIGHT.setBlendMode(RenderState.BlendMode.AlphaAdditive);
+    ADDITIVE_LIGHT.setDepthWrite(false);
+  }
+  
+  private final TechniqueDefLogic logic;
+  private final LightList firstBatch;
+  private final LightList remainingBatches;
+  
+  /**
+   * Creates a new instance.
+   * @param logic The SinglePass lighting logic of the technique.
+   */  
+  public ProjectiveReceiverLightingLogic(TechniqueDefLogic logic)
+  {
+    this.logic = logic;
+    firstBatch = new LightList(null);
+    remainingBatches = new LightList(null);
+  }
+  
+  /**
+   * @return The wrapped logic.
+   */  
+  public TechniqueDefLogic getLogic()
+  {
+    return logic;
+  }
+
+  @Override
+  public Shader makeCurrent(AssetManager assetManager, RenderManager renderManager, 
+    EnumSet<Caps> rendererCaps, LightList lights, DefineList defines) 
+  {
+    return logic.makeCurrent(assetManager, renderManager, rendererCaps, lights, defines);
+  }
+
+  @Override
+  public void render(RenderManager renderManager, Shader shader, Geometry geometry, LightList lights) 
+  {
+    int batchSize = renderManager.getSinglePassLightBatchSize();
+    int numLights = 0;
+    
+    for (int i = 0, n = lights.size(); i < n; i++)
+    {
+      if (lights.get(i).getType() != Light.Type.Ambient)
+      {
+        numLights++;
+      }
+    }
+    
+    shader.getUniform(ADDITIVE_BATCH_UNIFORM).setValue(VarType.Boolean, Boolean.FALSE);
+    
+    if (numLights <= batchSize)
+    {
+      logic.render(renderManager, shader, geometry, lights);
+      return;
+    }
+    
+    // The ambient lights go to the first batch, the wrapped logic leaves 
+    // the ambient color black for the following ones.
+    int numFirstBatchLights = 0;
+    
+    for (int i = 0, n = lights.size(); i < n; i++)
+    {
+      Light light = lights.get(i);
+      
+      if (light.getType() == Light.Type.Ambient)
+      {
+        firstBatch.add(light);
+      }
+      else if (numFirstBatchLights < batchSize)
+      {
+        firstBatch.add(light);
+        numFirstBatchLights++;
+      }
+      else
+      {
+        remainingBatches.add(light);
+      }
+    }
+    
+    logic.render(renderManager, shader, geometry, firstBatch);
+    shader.getUniform(ADDITIVE_BATCH_UNIFORM).setValue(VarType.Boolean, Boolean.TRUE);
+    renderManager.getRenderer().applyRenderState(ADDITIVE_LIGHT);
+    logic.render(renderManager, shader, geometry, remainingBatches);
+    firstBatch.clear();
+    remainingBatches.clear();
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetLoadException;
+import com.jme3.asset.AssetLocator;
+import com.jme3.asset.AssetManager;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An AssetLocator injecting projective texture mapping into existing 
+ * material definitions, e.g. "Common/MatDefs/Light/Lighting.j3md" or 
+ * "Common/MatDefs/Misc/Unshaded.j3md". A request for 
+ * "assets/ProjectiveReceiver4/Common/MatDefs/Light/Lighting.j3md" is answered 
+ * with a copy of the original definition that samples up to 4 projectors in 
+ * its own shaders:
+ * <ul>
+ * <li>The projector parameters are added to the MaterialParameters.</li>
+ * <li>The default techniques get the WorldMatrix and a NUM_PROJECTORS define. 
+ * Their shaders are replaced by generated wrappers, which import the 
+ * original shader with its main() renamed and call it before the projective 
+ * sampling of ProjectiveReceiver.glsllib.</li>
+ * <li>MultiPass techniques are dropped, as the projection would be blended 
+ * once per light. Material then falls back to the SinglePass technique, so 
+ * injected receivers are lit in SinglePass mode whatever the preferred 
+ * light mode of the RenderManager is. SinglePass lighting still draws once 
+ * per batch of RenderManager.getSinglePassLightBatchSize() lights, which 
+ * ProjectiveReceiverLightingLogic takes care of.</li>
+ * </ul>
+ * Named techniques, like PreShadow or Glow, are left unchanged. The original 
+ * vertex shader must import Common/ShaderLib/Instancing.glsllib, as all 
+ * stock shaders of jMonkeyEngine do.
+ * 
+ * @author survivor
+ * @see SinglePassTextureProjectorRenderer
+ * @see ProjectiveReceiverLightingLogic
+ */
+public class ProjectiveReceiverLocator implements AssetLocator
+{
+  private static final String PREFIX = SlotTemplateLocator.ASSET_FOLDER + "ProjectiveReceiver";
+  private static final Pattern ASSET_NAME_PATTERN = Pattern.compile(
+    "^/?" + Pattern.quote(PREFIX) + "([0-9]+)/(.+\\.(j3md|vert|frag))(\\.glsllib)?$");
+  private static final Pattern DEFAULT_TECHNIQUE_PATTERN = Pattern.compile("^\\s*Technique\\s*\\{\\s*$");
+  private static final Pattern MATERIAL_PARAMETERS_PATTERN = Pattern.compile("^\\s*MaterialParameters\\s*\\{\\s*$");
+  private static final Pattern SHADER_PATTERN = Pattern.compile(
+    "^(\\s*(?:VertexShader|FragmentShader)\\s+\\w+\\s*:\\s*)(\\S+)\\s*$");
+  private static final Pattern MULTI_PASS_PATTERN = Pattern.compile("^\\s*LightMode\\s+MultiPass\\s*$");
+  private static final String RENAMED_MAIN = "projectiveReceiverMain";
+  
+  /**
+   * Registers this locator and the SlotTemplateLocator with the AssetManager, 
+   * if not yet done.
+   * @param assetManager The AssetManager.
+   */  
+  public static void register(AssetManager assetManager)
+  {
+    SlotTemplateLocator.register(assetManager);
+    assetManager.unregisterLocator("/", ProjectiveReceiverLocator.class);
+    assetManager.registerLocator("/", ProjectiveReceiverLocator.class);
+  }
+  
+  /**
+   * @param materialDefName The asset name of the original material definition.
+   * @param numSlots The number of projectors a geometry can receive.
+   * @return The asset name of the injected material definition.
+   */  
+  public static String getMaterialDefName(String materialDefName, int numSlots)
+  {
+    return getAssetName(materialDefName, numSlots);
+  }
+  
+  private static String getAssetName(String originalName, int numSlots)
+  {
+    return PREFIX + numSlots + "/" + (originalName.startsWith("/") ? originalName.substring(1) : originalName);
+  }
+  
+  /**
+   * Injects the projector parameters, defines and wrapped shaders into the 
+   * source of a material definition.
+   * @param source The original material definition.
+   * @param numSlots The number of projectors a geometry can receive.
+   * @return The injected material definition.
+   */  
+  public static String injectMaterialDef(String source, int numSlots)
+  {
+    StringBuilder result = new StringBuilder(source.length() + 1024);
+    StringBuilder technique = null;
+    boolean multiPass = false;
+    int depth = 0;
+    String[] lines = source.split("\r?\n", -1);
+    
+    for (int l = 0; l < lines.length; l++)
+    {
+      String line = lines[l];
+      int lineDepth = depth;
+      depth += countBraces(line);
+      
+      if (technique != null)
+      {
+        Matcher shaderMatcher = SHADER_PATTERN.matcher(line);
+        multiPass |= MULTI_PASS_PATTERN.matcher(line).matches();
+        
+        if (shaderMatcher.matches())
+        {
+          line = shaderMatcher.group(1) + getAssetName(shaderMatcher.group(2), numSlots);
+        }
+        
+        technique.append(line).append('\n');
+        
+        if (depth == 1)
+        {
+          // Dropped, so Material falls back to another default technique.
+          if (!multiPass)
+          {
+            result.append(technique);
+          }
+          
+          technique = null;
+        }
+      }
+      else if ((lineDepth == 1) && DEFAULT_TECHNIQUE_PATTERN.matcher(line).matches())
+      {
+        technique = new StringBuilder();
+        multiPass = false;
+        technique.append(line).append('\n');
+        technique.append("        // Injected by ProjectiveReceiverLocator\n");
+        technique.append("        WorldParameters {\n            WorldMatrix\n        }\n\n");
+        technique.append("        Defines {\n            NUM_PROJECTORS : NumProjectors\n        }\n\n");
+      }
+      else
+      {
+        result.append(line).append('\n');
+        
+        if ((lineDepth == 1) && MATERIAL_PARAMETERS_PATTERN.matcher(line).matches())
+        {
+          result.append("        // Injected by ProjectiveReceiverLocator\n");
+          result.append("        Int NumProjectors\n");
+          
+          for (int i = 0; i < numSlots; i++)
+          {
+            result.append("        Texture2D ProjectiveMap").append(i).append('\n');
+          }
+          
+          result.append("        Matrix4Array ProjectorViewProjectionMatrices\n");
+          result.append("        Vector4Array ProjectorLocations\n");
+          result.append("        Vector4Array ProjectorParams\n\n");
+        }
+      }
+    }
+    
+    return result.toString();
+  }
+  
+  private static int countBraces(String line)
+  {
+    int count = 0;
+    int end = line.indexOf("//");
+    
+    if (end < 0)
+    {
+      end = line.length();
+    }
+    
+    for (int i = 0; i < end; i++)
+    {
+      char c = line.charAt(i);
+      
+      if (c == '{')
+      {
+        count++;
+      }
+      else if (c == '}')
+      {
+        count--;
+      }
+    }
+    
+    return count;
+  }
+  
+  /**
+   * Creates a shader calling the original shader and the projective sampling.
+   * @param shaderName The asset name of the original shader.
+   * @param source The source of the original shader.
+   * @param numSlots The number of projectors a geometry can receive.
+   * @return The source of the wrapping shader.
+   */  
+  public static String wrapShader(String shaderName, String source, int numSlots)
+  {
+    boolean vertexShader = shaderName.endsWith(".vert");
+    StringBuilder result = new StringBuilder(512);
+    result.append("// Generated by ProjectiveReceiverLocator from ").append(shaderName).append('\n');
+    result.append("#define main ").append(RENAMED_MAIN).append('\n');
+    result.append("#import \"").append(getAssetName(shaderName, numSlots)).append(".glsllib\"\n");
+    result.append("#undef main\n");
+    
+    if (vertexShader && !source.contains("inNormal"))
+    {
+      result.append("attribute vec3 inNormal;\n");
+    }
+    
+    result.append("#import \"").append(
+      SlotTemplateLocator.getAssetName("ProjectiveReceiver", numSlots, "glsllib")).append("\"\n\n");
+    result.append("void main()\n{\n  ").append(RENAMED_MAIN).append("();\n");
+    
+    if (vertexShader)
+    {
+      result.append("  projectiveVertex(inPosition, inNormal);\n");
+    }
+    else
+    {
+      result.append("  gl_FragColor = projectiveFragment(gl_FragColor);\n");
+    }
+    
+    return result.append("}\n").toString();
+  }
+  
+  @Override
+  public void setRootPath(String rootPath) { }
+
+  @Override
+  public AssetInfo locate(AssetManager manager, AssetKey key) 
+  {
+    Matcher matcher = ASSET_NAME_PATTERN.matcher(key.getName());
+    
+    if (!matcher.matches())
+    {
+      return null;
+    }
+    
+    int numSlots = Integer.parseInt(matcher.group(1));
+    String originalName = matcher.group(2);
+    AssetInfo originalInfo = manager.locateAsset(new AssetKey<Object>(originalName));
+    
+    if (originalInfo == null)
+    {
+      return null;
+    }
+    
+    try
+    {
+      String source = SlotTemplateLocator.readFully(originalInfo.openStream());
+      
+      // With the .glsllib suffix, the original shader is returned unchanged 
+      // for the wrapper to import it.
+      if (matcher.group(4) == null)
+      {
+        if (matcher.group(3).equals("j3md"))
+        {
+          source = injectMaterialDef(source, numSlots);
+        }
+        else
+        {
+          source = wrapShader(originalName, source, numSlots);
+        }
+      }
+      
+      final byte[] bytes = source.getBytes("UTF-8");
+      
+      return new AssetInfo(manager, key) 
+      {
+        @Override
+        public InputStream openStream() 
+        {
+          return new ByteArrayInputStream(bytes);
+        }
+      };
+    }
+    catch (IOException ex)
+    {
+      throw new AssetLoadException("Failed to inject " + originalName, ex);
+    }
+  }
+}
@@ -0,0 +1,580 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.material.Material;
+import com.jme3.math.Vector4f;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.Renderer;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.renderer.queue.OpaqueComparator;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.texture.FrameBuffer;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A depth texture shared by shadowed TextureProjectors. The texture is split 
+ * into square tiles and each projector gets a tile holding the depth of the 
+ * occluders seen from the projector, so the projection does not reach through 
+ * them. Occluders are the geometries of the ViewPort's scenes with the shadow 
+ * mode Cast or CastAndReceive.
+ * <p>
+ * The atlas is a cache with a fixed memory size, keyed on the projector and 
+ * the version of its view projection state. Depth maps are reused while a 
+ * projector does not change. A map is rendered again, if its projector 
+ * changed or if it is older than the refresh interval, so moving occluders 
+ * are picked up eventually. Changed projectors are refreshed first, in 
+ * round-robin order across frames. At least one map is rendered per frame, 
+ * further ones only while neither the refresh budget nor the maximum number 
+ * of refreshes per frame is used up. A projector whose changed map is 
+ * pending keeps its old map until then.
+ * <p>
+ * The maps of projectors not updated anymore stay cached, until their tile 
+ * is needed by another projector. Then the least recently updated map is 
+ * evicted. Projectors that find no tile, because all maps are in use, are 
+ * not shadowed.
+ * 
+ * @author survivor
+ */
+public class ProjectorDepthAtlas 
+{
+  private static final int NEW_OR_CHANGED = 0;
+  private static final int STALE = 1;
+  
+  private final int atlasSize;
+  private final int tileSize;
+  private final int numTilesPerRow;
+  private final Texture2D depthTexture;
+  private final FrameBuffer frameBuffer;
+  private final Material depthMat;
+  private final Tile[] tiles;
+  private final int[] freeTiles;
+  private int numFreeTiles;
+  private final IdentityHashMap<TextureProjector, Tile> tileMap;
+  private final ArrayList<Tile> cachedTiles;
+  private final ProjectorFrustum frustum;
+  private final GeometryList occluders;
+  private long refreshBudgetNanos;
+  private int maxRefreshesPerFrame;
+  private long refreshIntervalNanos;
+  private float shadowBias;
+  private int frame;
+  private int cursor;
+  private int numRefreshedMaps;
+  private int numEvictedMaps;
+  
+  /**
+   * Creates the atlas and its FrameBuffer.
+   * @param assetManager The AssetManager.
+   * @param atlasSize The width and height of the depth texture in pixels.
+   * @param tileSize The width and height of a projector's depth map in pixels.
+   */  
+  public ProjectorDepthAtlas(AssetManager assetManager, int atlasSize, int tileSize)
+  {
+    if (tileSize <= 0 || tileSize > atlasSize)
+    {
+      throw new IllegalArgumentException("The tile size must be in [1.." + atlasSize + "]");
+    }
+    
+    this.atlasSize = atlasSize;
+    this.tileSize = tileSize;
+    numTilesPerRow = atlasSize / tileSize;
+    
+    depthTexture = new Texture2D(atlasSize, atlasSize, Image.Format.Depth24);
+    depthTexture.setMinFilter(Texture.MinFilter.NearestNoMipMaps);
+    depthTexture.setMagFilter(Texture.MagFilter.Nearest);
+    depthTexture.setWrap(Texture.WrapMode.EdgeClamp);
+    frameBuffer = new FrameBuffer(atlasSize, atlasSize, 1);
+    frameBuffer.setDepthTexture(depthTexture);
+    
+    depthMat = new Material(assetManager, "com/jme3/ext/projectivetexturemapping/assets/ProjectorDepth.j3md");
+    depthMat.getAdditionalRenderState().setColorWrite(false);
+    depthMat.getAdditionalRenderState().setPolyOffset(2f, 4f);
+    
+    int numTiles = numTilesPerRow * numTilesPerRow;
+    tiles = new Tile[numTiles];
+    freeTiles = new int[numTiles];
+    float scale = 1f / atlasSize;
+    
+    for (int i = 0; i < numTiles; i++)
+    {
+      int x = (i % numTilesPerRow) * tileSize;
+      int y = (i / numTilesPerRow) * tileSize;
+      tiles[i] = new Tile(i, x, y, new Vector4f(x * scale, y * scale, tileSize * scale, tileSize * scale));
+      // Handed out in index order.
+      freeTiles[i] = numTiles - 1 - i;
+    }
+    
+    numFreeTiles = numTiles;
+    tileMap = new IdentityHashMap<TextureProjector, Tile>();
+    cachedTiles = new ArrayList<Tile>();
+    frustum = new ProjectorFrustum();
+    occluders = new GeometryList(new OpaqueComparator());
+    refreshBudgetNanos = 2000000L;
+    maxRefreshesPerFrame = 4;
+    refreshIntervalNanos = 1000000000L;
+    shadowBias = 0.0005f;
+    frame = 0;
+    cursor = 0;
+    numRefreshedMaps = 0;
+    numEvictedMaps = 0;
+  }
+  
+  /**
+   * @return The depth texture holding the depth maps of all projectors.
+   */  
+  public Texture2D getDepthTexture()
+  {
+    return depthTexture;
+  }
+  
+  /**
+   * @return The width and height of the depth texture in pixels.
+   */  
+  public int getAtlasSize()
+  {
+    return atlasSize;
+  }
+  
+  /**
+   * @return The width and height of a projector's depth map in pixels.
+   */  
+  public int getTileSize()
+  {
+    return tileSize;
+  }
+  
+  /**
+   * @return The maximum number of cached depth maps.
+   */  
+  public int getNumTiles()
+  {
+    return tiles.length;
+  }
+  
+  /**
+   * @return The number of cached depth maps.
+   */  
+  public int getNumCachedMaps()
+  {
+    return cachedTiles.size();
+  }
+  
+  /**
+   * @return The video memory of the depth texture in bytes, assuming 
+   * 32 bits per pixel, as depth is commonly stored.
+   */  
+  public long getMemorySize()
+  {
+    return 4L * atlasSize * atlasSize;
+  }
+  
+  /**
+   * Sets the CPU time per frame after which no further depth maps are 
+   * rendered. The default is 2 ms.
+   * @param nanos The budget in nanoseconds.
+   */  
+  public void setRefreshBudget(long nanos)
+  {
+    refreshBudgetNanos = nanos;
+  }
+  
+  /**
+   * @return The CPU time per frame after which no further depth maps are 
+   * rendered in nanoseconds.
+   */  
+  public long getRefreshBudget()
+  {
+    return refreshBudgetNanos;
+  }
+  
+  /**
+   * Sets the maximum number of depth maps rendered per frame. The default is 4.
+   * @param maxRefreshesPerFrame The maximum number of refreshes, at least 1.
+   */  
+  public void setMaxRefreshesPerFrame(int maxRefreshesPerFrame)
+  {
+    if (maxRefreshesPerFrame < 1)
+    {
+      throw new IllegalArgumentException("At least one depth map must be rendered per frame");
+    }
+    
+    this.maxRefreshesPerFrame = maxRefreshesPerFrame;
+  }
+  
+  /**
+   * @return The maximum number of depth maps rendered per frame.
+   */  
+  public int getMaxRefreshesPerFrame()
+  {
+    return maxRefreshesPerFrame;
+  }
+  
+  /**
+   * Sets the age after which the depth map of an unchanged projector is 
+   * rendered again. The default is 1 second.
+   * @param seconds The interval in seconds or a negative value to render maps 
+   * of unchanged projectors only once, if no occluder ever moves.
+   */  
+  public void setRefreshInterval(float seconds)
+  {
+    refreshIntervalNanos = (seconds < 0f) ? -1L : (long) (seconds * 1e9);
+  }
+  
+  /**
+   * @return The age in seconds after which the depth map of an unchanged 
+   * projector is rendered again, negative if never.
+   */  
+  public float getRefreshInterval()
+  {
+    return (refreshIntervalNanos < 0L) ? -1f : refreshIntervalNanos * 1e-9f;
+  }
+  
+  /**
+   * Sets the bias subtracted from a receiver's depth before it is compared 
+   * with the depth map, to combat shadow acne. The default is 0.0005.
+   * @param shadowBias The bias in depth buffer units.
+   */  
+  public void setShadowBias(float shadowBias)
+  {
+    this.shadowBias = shadowBias;
+  }
+  
+  /**
+   * @return The bias subtracted from a receiver's depth.
+   */  
+  public float getShadowBias()
+  {
+    return shadowBias;
+  }
+  
+  /**
+   * @return The number of depth maps rendered in the last update.
+   */  
+  public int getNumRefreshedMaps()
+  {
+    return numRefreshedMaps;
+  }
+  
+  /**
+   * @return The number of depth maps evicted in the last update.
+   */  
+  public int getNumEvictedMaps()
+  {
+    return numEvictedMaps;
+  }
+  
+  /**
+   * @param textureProjector A TextureProjector.
+   * @return The tile of the projector's depth map as offset u, offset v, 
+   * size u and size v, or null if the projector has no rendered depth map.
+   */  
+  public Vector4f getShadowRect(TextureProjector textureProjector)
+  {
+    Tile tile = tileMap.get(textureProjector);
+    return (tile != null && tile.rendered) ? tile.rect : null;
+  }
+  
+  /**
+   * Compiles the shader of the depth material.
+   * @param renderManager The RenderManager.
+   */  
+  public void preload(RenderManager renderManager)
+  {
+    depthMat.preload(renderManager);
+  }
+  
+  /**
+   * Looks up the depth maps of the given projectors, assigns a free or the 
+   * least recently updated tile to projectors without a map and renders the 
+   * maps due within the refresh budget. Called before the projectors are 
+   * drawn, the output FrameBuffer and the camera of the ViewPort are restored 
+   * afterwards.
+   * @param renderManager The RenderManager.
+   * @param viewPort The ViewPort whose scenes contain the occluders.
+   * @param textureProjectors The shadowed projectors drawn in this frame. 
+   * Culled or skipped projectors should be left out, so their maps neither 
+   * take tiles nor refreshes from the drawn ones.
+   */  
+  public void update(RenderManager renderManager, ViewPort viewPort, List<TextureProjector> textureProjectors)
+  {
+    frame++;
+    numRefreshedMaps = 0;
+    numEvictedMaps = 0;
+    
+    // All hits are marked first, so no map requested in this frame is evicted.
+    for (int i = 0, n = textureProjectors.size(); i < n; i++)
+    {
+      Tile tile = tileMap.get(textureProjectors.get(i));
+      if (tile != null)
+      {
+        tile.frame = frame;
+      }
+    }
+    
+    for (int i = 0, n = textureProjectors.size(); i < n; i++)
+    {
+      TextureProjector textureProjector = textureProjectors.get(i);
+      if (tileMap.containsKey(textureProjector))
+      {
+        continue;
+      }
+      
+      Tile tile = acquireTile();
+      if (tile == null)
+      {
+        break;
+      }
+      
+      tile.textureProjector = textureProjector;
+      tile.rendered = false;
+      tile.frame = frame;
+      tileMap.put(textureProjector, tile);
+    }
+    
+    int n = cachedTiles.size();
+    if (n == 0)
+    {
+      return;
+    }
+    
+    long now = System.nanoTime();
+    long deadline = now + refreshBudgetNanos;
+    int next = cursor;
+    
+    // Starts where the last update stopped, so no projector starves if the 
+    // budget is too small for all of them.
+    refresh:
+    for (int priority = NEW_OR_CHANGED; priority <= STALE; priority++)
+    {
+      for (int k = 0; k < n; k++)
+      {
+        int i = (cursor + k) % n;
+        Tile tile = cachedTiles.get(i);
+        if (tile.frame != frame || !isDue(tile, priority, now))
+        {
+          continue;
+        }
+        
+        if (numRefreshedMaps == maxRefreshesPerFrame || 
+            (numRefreshedMaps > 0 && System.nanoTime() >= deadline))
+        {
+          break refresh;
+        }
+        
+        if (numRefreshedMaps == 0)
+        {
+          renderManager.getRenderer().setFrameBuffer(frameBuffer);
+          renderManager.setForcedMaterial(depthMat);
+        }
+        
+        render(renderManager, viewPort, tile, now);
+        numRefreshedMaps++;
+        next = i + 1;
+      }
+    }
+    
+    cursor = next % n;
+    
+    if (numRefreshedMaps > 0)
+    {
+      Renderer renderer = renderManager.getRenderer();
+      renderer.clearClipRect();
+      renderManager.setForcedMaterial(null);
+      renderer.setFrameBuffer(viewPort.getOutputFrameBuffer());
+      renderManager.setCamera(viewPort.getCamera(), false);
+    }
+  }
+  
+  /**
+   * Evicts the depth map of a TextureProjector.
+   * @param textureProjector The TextureProjector.
+   */  
+  public void remove(TextureProjector textureProjector)
+  {
+    Tile tile = tileMap.remove(textureProjector);
+    if (tile != null)
+    {
+      tile.textureProjector = null;
+      cachedTiles.remove(tile);
+      freeTiles[numFreeTiles++] = tile.index;
+    }
+  }
+  
+  /**
+   * Evicts all depth maps, so every map is rendered again.
+   */  
+  public void clear()
+  {
+    for (int i = 0, n = cachedTiles.size(); i < n; i++)
+    {
+      Tile tile = cachedTiles.get(i);
+      tile.textureProjector = null;
+      freeTiles[numFreeTiles++] = tile.index;
+    }
+    
+    tileMap.clear();
+    cachedTiles.clear();
+    cursor = 0;
+  }
+  
+  /**
+   * @return A free tile, the evicted tile least recently updated, or null if 
+   * all tiles were requested in the current frame.
+   */  
+  private Tile acquireTile()
+  {
+    if (numFreeTiles > 0)
+    {
+      Tile tile = tiles[freeTiles[--numFreeTiles]];
+      cachedTiles.add(tile);
+      return tile;
+    }
+    
+    Tile lruTile = null;
+    for (int i = 0, n = cachedTiles.size(); i < n; i++)
+    {
+      Tile tile = cachedTiles.get(i);
+      if (tile.frame != frame && (lruTile == null || tile.frame < lruTile.frame))
+      {
+        lruTile = tile;
+      }
+    }
+    
+    if (lruTile != null)
+    {
+      tileMap.remove(lruTile.textureProjector);
+      numEvictedMaps++;
+    }
+    
+    return lruTile;
+  }
+  
+  private boolean isDue(Tile tile, int priority, long now)
+  {
+    boolean changed = !tile.rendered || tile.version != tile.textureProjector.getVersion();
+    
+    if (priority == NEW_OR_CHANGED)
+    {
+      return changed;
+    }
+    
+    return !changed && refreshIntervalNanos >= 0L && now - tile.renderTime >= refreshIntervalNanos;
+  }
+  
+  private void render(RenderManager renderManager, ViewPort viewPort, Tile tile, long now)
+  {
+    TextureProjector textureProjector = tile.textureProjector;
+    tile.version = textureProjector.getVersion();
+    tile.renderTime = now;
+    tile.rendered = true;
+    
+    frustum.update(textureProjector);
+    occluders.clear();
+    List<Spatial> scenes = viewPort.getScenes();
+    
+    for (int i = 0, n = scenes.size(); i < n; i++)
+    {
+      collectOccluders(scenes.get(i));
+    }
+    
+    Renderer renderer = renderManager.getRenderer();
+    renderer.setViewPort(tile.x, tile.y, tileSize, tileSize);
+    renderer.setClipRect(tile.x, tile.y, tileSize, tileSize);
+    renderer.clearBuffers(false, true, false);
+    depthMat.setMatrix4("ProjectorViewProjectionMatrix", textureProjector.getProjectorViewProjectionMatrix());
+    renderManager.renderGeometryList(occluders);
+  }
+  
+  private void collectOccluders(Spatial spatial)
+  {
+    if (spatial.getCullHint() == Spatial.CullHint.Always)
+    {
+      return;
+    }
+    
+    BoundingVolume bound = spatial.getWorldBound();
+    if (bound != null && !frustum.intersects(bound))
+    {
+      return;
+    }
+    
+    if (spatial instanceof Node)
+    {
+      List<Spatial> children = ((Node) spatial).getChildren();
+      for (int i = 0, n = children.size(); i < n; i++)
+      {
+        collectOccluders(children.get(i));
+      }
+    }
+    else if (spatial instanceof Geometry)
+    {
+      RenderQueue.ShadowMode shadowMode = spatial.getShadowMode();
+      if (shadowMode == RenderQueue.ShadowMode.Cast || shadowMode == RenderQueue.ShadowMode.CastAndReceive)
+      {
+        occluders.add((Geometry) spatial);
+      }
+    }
+  }
+  
+  private static class Tile
+  {
+    final int index;
+    final int x;
+    final int y;
+    final Vector4f rect;
+    TextureProjector textureProjector;
+    boolean rendered;
+    int version;
+    long renderTime;
+    int frame;
+    
+    Tile(int index, int x, int y, Vector4f rect)
+    {
+      this.index = index;
+      this.x = x;
+      this.y = y;
+      this.rect = rect;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.renderer.queue.OpaqueComparator;
+
+/**
+ * What a renderer needs to draw one TextureProjector in the current frame, 
+ * as found by a ParallelProjectorPreparer. Packets are only written while 
+ * the frame is prepared and are read only afterwards, so the thread that 
+ * submits the geometry needs no further projector or culling work.
+ * 
+ * @author survivor
+ * @see ParallelProjectorPreparer#getPacket(int)
+ */
+public class ProjectorDrawPacket 
+{
+  private final GeometryList receivers;
+  private TextureProjector textureProjector;
+  private ProjectorState state;
+  private ProjectorLodPolicy.Level level;
+  private boolean visible;
+  private boolean receiverSetRebuilt;
+  private int numUpdatedPairs;
+  
+  ProjectorDrawPacket()
+  {
+    receivers = new GeometryList(new OpaqueComparator());
+    textureProjector = null;
+    state = null;
+    level = ProjectorLodPolicy.Level.FULL;
+    visible = false;
+    receiverSetRebuilt = false;
+    numUpdatedPairs = 0;
+  }
+  
+  void reset(TextureProjector textureProjector, ProjectorState state)
+  {
+    this.textureProjector = textureProjector;
+    this.state = state;
+    level = ProjectorLodPolicy.Level.FULL;
+    visible = false;
+    receiverSetRebuilt = false;
+    numUpdatedPairs = 0;
+    receivers.clear();
+  }
+  
+  /**
+   * @return The TextureProjector.
+   */  
+  public TextureProjector getTextureProjector()
+  {
+    return textureProjector;
+  }
+  
+  /**
+   * @return The state of the TextureProjector, refreshed for this frame.
+   */  
+  public ProjectorState getState()
+  {
+    return state;
+  }
+  
+  /**
+   * @return The level of detail of the TextureProjector, FULL if the 
+   * renderer has no level of detail policy.
+   */  
+  public ProjectorLodPolicy.Level getLevel()
+  {
+    return level;
+  }
+  
+  void setLevel(ProjectorLodPolicy.Level level)
+  {
+    this.level = level;
+  }
+  
+  /**
+   * @return true, if the TextureProjector is not skipped and reaches at 
+   * least one receiver that may be on screen.
+   */  
+  public boolean isVisible()
+  {
+    return visible;
+  }
+  
+  void setVisible(boolean visible)
+  {
+    this.visible = visible;
+  }
+  
+  /**
+   * @return The culled receivers of the TextureProjector, empty if it is 
+   * not visible. The list must not be modified.
+   */  
+  public GeometryList getReceivers()
+  {
+    return receivers;
+  }
+  
+  void onReceiverSetUpdated(boolean rebuilt, int numUpdatedPairs)
+  {
+    receiverSetRebuilt = rebuilt;
+    this.numUpdatedPairs = numUpdatedPairs;
+  }
+  
+  boolean isReceiverSetRebuilt()
+  {
+    return receiverSetRebuilt;
+  }
+  
+  int getNumUpdatedPairs()
+  {
+    return numUpdatedPairs;
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Plane;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera.FrustumIntersect;
+
+/**
+ * The six world space planes enclosing the volume a TextureProjector can 
+ * reach. The planes are extracted from the (biased) projector view projection 
+ * matrix, so any TextureProjector implementation can be culled against, not 
+ * only those backed by a Camera. All plane normals point inwards.
+ * 
+ * @author survivor
+ */
+public class ProjectorFrustum 
+{
+  public static final int LEFT_PLANE = 0;
+  public static final int RIGHT_PLANE = 1;
+  public static final int BOTTOM_PLANE = 2;
+  public static final int TOP_PLANE = 3;
+  public static final int NEAR_PLANE = 4;
+  public static final int FAR_PLANE = 5;
+  public static final int NUM_PLANES = 6;
+  
+  private final Plane[] planes;
+
+  public ProjectorFrustum()
+  {
+    planes = new Plane[NUM_PLANES];
+    
+    for (int i = 0; i < NUM_PLANES; i++)
+    {
+      planes[i] = new Plane();
+    }
+  }
+  
+  /**
+   * Updates the frustum planes from the given TextureProjector.
+   * @param textureProjector The TextureProjector providing the view projection matrix.
+   */  
+  public void update(TextureProjector textureProjector)
+  {
+    update(textureProjector.getProjectorViewProjectionMatrix());
+  }
+  
+  /**
+   * Updates the frustum planes from a projector view projection matrix as 
+   * returned by TextureProjector.getProjectorViewProjectionMatrix(). 
+   * The matrix includes the bias mapping clip space to [0..w], so a point 
+   * is inside if 0 &lt;= x, y, z &lt;= w.
+   * @param m The biased projector view projection matrix.
+   */  
+  public void update(Matrix4f m)
+  {
+    setPlane(LEFT_PLANE,   m.m00,         m.m01,         m.m02,         m.m03);
+    setPlane(RIGHT_PLANE,  m.m30 - m.m00, m.m31 - m.m01, m.m32 - m.m02, m.m33 - m.m03);
+    setPlane(BOTTOM_PLANE, m.m10,         m.m11,         m.m12,         m.m13);
+    setPlane(TOP_PLANE,    m.m30 - m.m10, m.m31 - m.m11, m.m32 - m.m12, m.m33 - m.m13);
+    setPlane(NEAR_PLANE,   m.m20,         m.m21,         m.m22,         m.m23);
+    setPlane(FAR_PLANE,    m.m30 - m.m20, m.m31 - m.m21, m.m32 - m.m22, m.m33 - m.m23);
+  }
+  
+  private void setPlane(int index, float a, float b, float c, float d)
+  {
+    float length = (float) Math.sqrt(a * a + b * b + c * c);
+    
+    if (length > 0f)
+    {
+      float invLength = 1f / length;
+      a *= invLength;
+      b *= invLength;
+      c *= invLength;
+      d *= invLength;
+    }
+    
+    Plane plane = planes[index];
+    plane.getNormal().set(a, b, c);
+    plane.setConstant(-d);
+  }
+  
+  /**
+   * @param index One of the *_PLANE constants.
+   * @return The world space plane, normal pointing inwards.
+   */  
+  public Plane getPlane(int index)
+  {
+    return planes[index];
+  }
+  
+  /**
+   * Tests a bounding volume against this frustum.
+   * @param bound The bounding volume to test, null is treated as intersecting.
+   * @return Outside, Inside or Intersects.
+   */  
+  public FrustumIntersect contains(BoundingVolume bound)
+  {
+    if (bound == null)
+    {
+      return FrustumIntersect.Intersects;
+    }
+    
+    FrustumIntersect result = FrustumIntersect.Inside;
+    
+    for (int i = 0; i < NUM_PLANES; i++)
+    {
+      Plane.Side side = bound.whichSide(planes[i]);
+      
+      if (side == Plane.Side.Negative)
+      {
+        return FrustumIntersect.Outside;
+      }
+      else if (side == Plane.Side.None)
+      {
+        result = FrustumIntersect.Intersects;
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Tests an axis aligned box, given by its corners, against this frustum.
+   * @return Outside, Inside or Intersects.
+   */  
+  public FrustumIntersect contains(float minX, float minY, float minZ, 
+                                   float maxX, float maxY, float maxZ)
+  {
+    float centerX = (minX + maxX) * 0.5f;
+    float centerY = (minY + maxY) * 0.5f;
+    float centerZ = (minZ + maxZ) * 0.5f;
+    float extentX = (maxX - minX) * 0.5f;
+    float extentY = (maxY - minY) * 0.5f;
+    float extentZ = (maxZ - minZ) * 0.5f;
+    FrustumIntersect result = FrustumIntersect.Inside;
+    
+    for (int i = 0; i < NUM_PLANES; i++)
+    {
+      Plane plane = planes[i];
+      Vector3f normal = plane.getNormal();
+      float radius = Math.abs(extentX * normal.x) + 
+                     Math.abs(extentY * normal.y) + 
+                     Math.abs(extentZ * normal.z);
+      float distance = normal.x * centerX + normal.y * centerY + normal.z * centerZ - 
+                       plane.getConstant();
+      
+      if (distance < -radius)
+      {
+        return FrustumIntersect.Outside;
+      }
+      else if (distance <= radius)
+      {
+        result = FrustumIntersect.Intersects;
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * @param bound The bounding volume to test, null is treated as intersecting.
+   * @return true, if the bounding volume is at least partially inside this frustum.
+   */  
+  public boolean intersects(BoundingVolume bound)
+  {
+    return contains(bound) != FrustumIntersect.Outside;
+  }
+}
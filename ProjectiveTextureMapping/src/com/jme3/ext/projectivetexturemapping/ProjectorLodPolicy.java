@@ -0,0 +1,503 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.queue.GeometryList;
+import java.util.List;
+
+/**
+ * Chooses a level of detail for each TextureProjector of a renderer once per 
+ * frame, from the screen size of the sphere enclosing the projector frustum. 
+ * The screen size is the diameter of the sphere as a fraction of the 
+ * viewport height. Projectors smaller than the minimum screen size are 
+ * skipped, projectors smaller than the reduced screen size are drawn with a 
+ * cheaper shader variant without fall off and soft edge. Projectors that 
+ * cannot reach the rendered image are culled first, see 
+ * TargetGeometryCuller.isVisible(), so they never take a place in the 
+ * budget. If more projectors remain than the projector budget of the frame 
+ * allows, only those with the highest ProjectorPriority are drawn, by 
+ * default the largest ones. The budget is the maximum number of 
+ * projectors, further limited by the renderer, e.g. by its maximum number 
+ * of passes.
+ * <p>
+ * Renderers drawing several projectors per pass only skip projectors, as 
+ * their shaders handle all projectors of a pass alike.
+ * <p>
+ * The projectors can be scored in parallel, see ParallelProjectorPreparer. 
+ * The ProjectorPriority must then be safe to call from several threads.
+ * <p>
+ * An instance holds the levels of the last update() until the renderer has 
+ * drawn the frame, so it must not be shared between renderers, nor by one 
+ * renderer added to several ViewPorts. Give each of them its own policy 
+ * with the same settings instead.
+ * 
+ * @author survivor
+ */
+public class ProjectorLodPolicy 
+{
+  /**
+   * The level of detail of a TextureProjector.
+   */  
+  public enum Level
+  {
+    /**
+     * The projector is drawn with all its features.
+     */  
+    FULL,
+    
+    /**
+     * The projector is drawn without fall off and soft edge.
+     */  
+    REDUCED,
+    
+    /**
+     * The projector is not drawn.
+     */  
+    SKIPPED,
+    
+    /**
+     * The projector cannot reach the rendered image and is not drawn. 
+     * It does not compete for the budget.
+     */  
+    CULLED
+  }
+  
+  private float minScreenSize;
+  private float reducedScreenSize;
+  private int maxProjectors;
+  private ProjectorPriority priority;
+  private float[] screenSizes;
+  private float[] priorities;
+  private float[] rankedPriorities;
+  private boolean[] visible;
+  private Level[] levels;
+  private int numProjectors;
+  private int numSkipped;
+  private int numReduced;
+  private int numCulled;
+  
+  public ProjectorLodPolicy()
+  {
+    minScreenSize = 0.02f;
+    reducedScreenSize = 0.15f;
+    maxProjectors = Integer.MAX_VALUE;
+    priority = ProjectorPriority.SCREEN_SIZE;
+    screenSizes = new float[16];
+    priorities = new float[16];
+    rankedPriorities = new float[16];
+    visible = new boolean[16];
+    levels = new Level[16];
+    numProjectors = 0;
+    numSkipped = 0;
+    numReduced = 0;
+    numCulled = 0;
+  }
+  
+  /**
+   * Sets the screen size below which projectors are skipped. The default is 0.02.
+   * @param minScreenSize The screen size as a fraction of the viewport height.
+   */  
+  public void setMinScreenSize(float minScreenSize)
+  {
+    this.minScreenSize = minScreenSize;
+  }
+  
+  /**
+   * @return The screen size below which projectors are skipped.
+   */  
+  public float getMinScreenSize()
+  {
+    return minScreenSize;
+  }
+  
+  /**
+   * Sets the screen size below which projectors are drawn at reduced quality. 
+   * The default is 0.15.
+   * @param reducedScreenSize The screen size as a fraction of the viewport height.
+   */  
+  public void setReducedScreenSize(float reducedScreenSize)
+  {
+    this.reducedScreenSize = reducedScreenSize;
+  }
+  
+  /**
+   * @return The screen size below which projectors are drawn at reduced quality.
+   */  
+  public float getReducedScreenSize()
+  {
+    return reducedScreenSize;
+  }
+  
+  /**
+   * Sets the maximum number of projectors drawn per frame. The projectors 
+   * with the highest priority are kept. The default is Integer.MAX_VALUE.
+   * @param maxProjectors The maximum number of projectors.
+   */  
+  public void setMaxProjectors(int maxProjectors)
+  {
+    this.maxProjectors = maxProjectors;
+  }
+  
+  /**
+   * @return The maximum number of projectors drawn per frame.
+   */  
+  public int getMaxProjectors()
+  {
+    return maxProjectors;
+  }
+  
+  /**
+   * Sets the function ranking the projectors, if the budget of a frame does 
+   * not suffice for all of them. The default is ProjectorPriority.SCREEN_SIZE.
+   * @param priority The priority function.
+   */  
+  public void setPriority(ProjectorPriority priority)
+  {
+    this.priority = priority;
+  }
+  
+  /**
+   * @return The priority function.
+   */  
+  public ProjectorPriority getPriority()
+  {
+    return priority;
+  }
+  
+  /**
+   * Chooses the level of each TextureProjector for the current frame.
+   * @param camera The camera of the ViewPort.
+   * @param textureProjectors The TextureProjectors of the renderer.
+   * @param targetGeometryCuller The culler holding the projector states.
+   */  
+  public void update(Camera camera, List<TextureProjector> textureProjectors, 
+    TargetGeometryCuller targetGeometryCuller)
+  {
+    update(camera, textureProjectors, targetGeometryCuller, Integer.MAX_VALUE);
+  }
+  
+  /**
+   * Chooses the level of each TextureProjector for the current frame.
+   * @param camera The camera of the ViewPort.
+   * @param textureProjectors The TextureProjectors of the renderer.
+   * @param targetGeometryCuller The culler holding the projector states.
+   * @param rendererBudget The maximum number of projectors the renderer can 
+   * draw in this frame, applied in addition to the maximum number of projectors.
+   */  
+  public void update(Camera camera, List<TextureProjector> textureProjectors, 
+    TargetGeometryCuller targetGeometryCuller, int rendererBudget)
+  {
+    update(camera, textureProjectors, targetGeometryCuller, null, rendererBudget);
+  }
+  
+  /**
+   * Chooses the level of each TextureProjector for the current frame, 
+   * replacing the levels of the last frame.
+   * @param camera The camera of the ViewPort.
+   * @param textureProjectors The TextureProjectors of the renderer.
+   * @param targetGeometryCuller The culler holding the projector states.
+   * @param sourceGeometryList The geometry the renderer culls instead of the 
+   * receivers chosen by TargetGeometryCuller.cull(TextureProjector), or null.
+   * @param rendererBudget The maximum number of projectors the renderer can 
+   * draw in this frame, applied in addition to the maximum number of projectors.
+   */  
+  public void update(Camera camera, List<TextureProjector> textureProjectors, 
+    TargetGeometryCuller targetGeometryCuller, GeometryList sourceGeometryList, int rendererBudget)
+  {
+    beginUpdate(textureProjectors.size());
+    
+    for (int i = 0; i < numProjectors; i++)
+    {
+      TextureProjector textureProjector = textureProjectors.get(i);
+      boolean visible = (sourceGeometryList != null) ? 
+        targetGeometryCuller.isVisible(textureProjector, sourceGeometryList) : 
+        targetGeometryCuller.isVisible(textureProjector);
+      score(i, camera, textureProjector, targetGeometryCuller.getProjectorState(textureProjector), visible);
+    }
+    
+    endUpdate(rendererBudget);
+  }
+  
+  /**
+   * Starts an update split into score() and endUpdate() calls.
+   * @param numProjectors The number of TextureProjectors of the renderer.
+   */  
+  void beginUpdate(int numProjectors)
+  {
+    this.numProjectors = numProjectors;
+    numSkipped = 0;
+    numReduced = 0;
+    numCulled = 0;
+    
+    if (numProjectors > levels.length)
+    {
+      int capacity = Math.max(numProjectors, levels.length * 2);
+      screenSizes = new float[capacity];
+      priorities = new float[capacity];
+      rankedPriorities = new float[capacity];
+      visible = new boolean[capacity];
+      levels = new Level[capacity];
+    }
+  }
+  
+  /**
+   * Scores one TextureProjector. Different projectors may be scored from 
+   * different threads.
+   * @param index The index of the TextureProjector.
+   * @param camera The camera of the ViewPort.
+   * @param textureProjector The TextureProjector.
+   * @param projectorState Its refreshed state.
+   * @param visible false, if the TextureProjector cannot reach the rendered image.
+   */  
+  void score(int index, Camera camera, TextureProjector textureProjector, ProjectorState projectorState, 
+    boolean visible)
+  {
+    float screenSize = getScreenSize(camera, projectorState.getBoundCenter(), projectorState.getBoundRadius());
+    screenSizes[index] = screenSize;
+    this.visible[index] = visible;
+    priorities[index] = (visible && (screenSize >= minScreenSize)) ? 
+      priority.getPriority(textureProjector, projectorState, camera, screenSize) : 
+      Float.NEGATIVE_INFINITY;
+  }
+  
+  /**
+   * Chooses the levels of the scored TextureProjectors.
+   * @param rendererBudget The maximum number of projectors the renderer can 
+   * draw in this frame.
+   */  
+  void endUpdate(int rendererBudget)
+  {
+    int budget = Math.min(maxProjectors, rendererBudget);
+    int numVisible = 0;
+    
+    for (int i = 0; i < numProjectors; i++)
+    {
+      if (visible[i] && (screenSizes[i] >= minScreenSize))
+      {
+        rankedPriorities[numVisible++] = priorities[i];
+      }
+    }
+    
+    // Projectors below the priority of the budget-th most important one are 
+    // skipped, ties are kept in list order.
+    float cutOffPriority = Float.NEGATIVE_INFINITY;
+    int numAtCutOff = Integer.MAX_VALUE;
+    
+    if (budget <= 0)
+    {
+      cutOffPriority = Float.POSITIVE_INFINITY;
+      numAtCutOff = 0;
+    }
+    else if (numVisible > budget)
+    {
+      cutOffPriority = select(rankedPriorities, numVisible, numVisible - budget);
+      numAtCutOff = budget;
+      
+      for (int i = 0; i < numVisible; i++)
+      {
+        if (rankedPriorities[i] > cutOffPriority)
+        {
+          numAtCutOff--;
+        }
+      }
+    }
+    
+    for (int i = 0; i < numProjectors; i++)
+    {
+      if (!visible[i])
+      {
+        levels[i] = Level.CULLED;
+        numCulled++;
+        continue;
+      }
+      
+      float screenSize = screenSizes[i];
+      boolean kept = (screenSize >= minScreenSize) && ((priorities[i] > cutOffPriority) || 
+        (priorities[i] == cutOffPriority && numAtCutOff-- > 0));
+      
+      if (!kept)
+      {
+        levels[i] = Level.SKIPPED;
+        numSkipped++;
+      }
+      else if (screenSize < reducedScreenSize)
+      {
+        levels[i] = Level.REDUCED;
+        numReduced++;
+      }
+      else
+      {
+        levels[i] = Level.FULL;
+      }
+    }
+  }
+  
+  /**
+   * @param index The index of a TextureProjector in the list given to update().
+   * @return The level of the TextureProjector in the current frame.
+   */  
+  public Level getLevel(int index)
+  {
+    return levels[index];
+  }
+  
+  /**
+   * @param index The index of a TextureProjector in the list given to update().
+   * @return The screen size of the TextureProjector in the current frame.
+   */  
+  public float getScreenSize(int index)
+  {
+    return screenSizes[index];
+  }
+  
+  /**
+   * @param index The index of a TextureProjector in the list given to update().
+   * @return The priority of the TextureProjector in the current frame, 
+   * negative infinity if it is culled or skipped for its screen size.
+   */  
+  public float getPriority(int index)
+  {
+    return priorities[index];
+  }
+  
+  /**
+   * @return The number of projectors skipped in the current frame.
+   */  
+  public int getNumSkipped()
+  {
+    return numSkipped;
+  }
+  
+  /**
+   * @return The number of projectors at reduced quality in the current frame.
+   */  
+  public int getNumReduced()
+  {
+    return numReduced;
+  }
+  
+  /**
+   * @return The number of projectors culled in the current frame.
+   */  
+  public int getNumCulled()
+  {
+    return numCulled;
+  }
+  
+  /**
+   * @param camera The camera.
+   * @param center The center of a sphere.
+   * @param radius The radius of the sphere.
+   * @return The diameter of the sphere on screen as a fraction of the 
+   * viewport height, 1 or more if the camera is inside the sphere.
+   */  
+  public float getScreenSize(Camera camera, Vector3f center, float radius)
+  {
+    float frustumHeight = camera.getFrustumTop() - camera.getFrustumBottom();
+    
+    if (camera.isParallelProjection())
+    {
+      return 2f * radius / frustumHeight;
+    }
+    
+    // No temporary vector, so the screen size can be found from any thread.
+    Vector3f location = camera.getLocation();
+    float dx = center.x - location.x;
+    float dy = center.y - location.y;
+    float dz = center.z - location.z;
+    float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    
+    if (distance <= radius)
+    {
+      return Float.MAX_VALUE;
+    }
+    
+    // Height of the viewport at the distance of the sphere.
+    return 2f * radius * camera.getFrustumNear() / (distance * frustumHeight);
+  }
+  
+  /**
+   * Partially sorts the first n values, so the k-th smallest value is at 
+   * index k, and returns it.
+   */  
+  private static float select(float[] values, int n, int k)
+  {
+    int left = 0;
+    int right = n - 1;
+    
+    while (left < right)
+    {
+      float pivot = values[(left + right) >>> 1];
+      int i = left;
+      int j = right;
+      
+      while (i <= j)
+      {
+        while (values[i] < pivot)
+        {
+          i++;
+        }
+        
+        while (values[j] > pivot)
+        {
+          j--;
+        }
+        
+        if (i <= j)
+        {
+          float value = values[i];
+          values[i] = values[j];
+          values[j] = value;
+          i++;
+          j--;
+        }
+      }
+      
+      if (k <= j)
+      {
+        right = j;
+      }
+      else if (k >= i)
+      {
+        left = i;
+      }
+      else
+      {
+        break;
+      }
+    }
+    
+    return values[k];
+  }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetManager;
+import com.jme3.material.Material;
+import com.jme3.material.MaterialDef;
+import com.jme3.material.RenderState;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.math.Vector4f;
+import com.jme3.renderer.RenderManager;
+import com.jme3.shader.VarType;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture2D;
+
+/**
+ * Holds one Material per define signature of a projective texture mapping 
+ * material definition, so the IS_PARALLEL_PROJECTION, FALL_OFF, SHADOW and 
+ * HARD_EDGE defines of a Material never change. Switching between parallel and 
+ * perspective projectors, or projectors with and without fall off, then 
+ * selects another Material instead of recomputing the defines and shader of a 
+ * shared one. Materials are only created for the signatures a projector can 
+ * be drawn with, see isSupported().
+ * 
+ * @author survivor
+ */
+public class ProjectorMaterialVariants 
+{
+  /**
+   * Set in the signature of parallel projectors.
+   */  
+  public static final int PARALLEL_PROJECTION = 1;
+  
+  /**
+   * Set in the signature of projectors with a fall off distance.
+   */  
+  public static final int FALL_OFF = 2;
+  
+  /**
+   * Set in the signature of projectors with a depth map in a ProjectorDepthAtlas.
+   */  
+  public static final int SHADOW = 4;
+  
+  /**
+   * Set in the signature of projectors drawn at reduced quality, without 
+   * the soft edge at grazing angles.
+   */  
+  public static final int HARD_EDGE = 8;
+  
+  /**
+   * The number of define signatures.
+   */  
+  public static final int NUM_SIGNATURES = 16;
+  
+  private final AssetManager assetManager;
+  private final String materialDefName;
+  private final Material[] materials;
+  private final Vector2f fallOff;
+  private final boolean shadowSupported;
+  private final RenderState renderState;
+  private Texture2D shadowMapPlaceholder;
+  private Float shadowBias;
+  
+  /**
+   * Creates a new instance. The Material of a signature is created when it 
+   * is first used or preloaded.
+   * @param assetManager The AssetManager.
+   * @param materialDefName The material definition, which needs the parameters 
+   * of ProjectiveTextureMapping.j3md. The shadow parameters are optional.
+   */  
+  public ProjectorMaterialVariants(AssetManager assetManager, String materialDefName)
+  {
+    this.assetManager = assetManager;
+    this.materialDefName = materialDefName;
+    materials = new Material[NUM_SIGNATURES];
+    fallOff = new Vector2f();
+    MaterialDef materialDef = assetManager.loadAsset(new AssetKey<MaterialDef>(materialDefName));
+    shadowSupported = materialDef.getMaterialParam("ProjectorShadowMap") != null;
+    renderState = new RenderState();
+    shadowMapPlaceholder = null;
+    shadowBias = null;
+  }
+  
+  /**
+   * @param signature A define signature.
+   * @return true, if a projector can be drawn with the signature, i.e. the 
+   * material definition has the shadow parameters if the SHADOW bit is set, 
+   * and the signature is not a reduced one with a fall off.
+   * @see #getReducedSignature(int)
+   */  
+  public boolean isSupported(int signature)
+  {
+    if ((signature & (HARD_EDGE | FALL_OFF)) == (HARD_EDGE | FALL_OFF))
+    {
+      return false;
+    }
+    
+    return shadowSupported || ((signature & SHADOW) == 0);
+  }
+  
+  private Material createMaterial(int signature)
+  {
+    if (!isSupported(signature))
+    {
+      throw new IllegalArgumentException("Signature " + signature + " is not supported by " + materialDefName);
+    }
+    
+    Material material = new Material(assetManager, materialDefName);
+    material.getAdditionalRenderState().set(renderState);
+    
+    if ((signature & PARALLEL_PROJECTION) != 0)
+    {
+      material.setVector3("ProjectorDirection", new Vector3f(Vector3f.UNIT_Z));
+    }
+    else
+    {
+      material.setVector3("ProjectorLocation", new Vector3f());
+    }
+    
+    if ((signature & FALL_OFF) != 0)
+    {
+      material.setVector2("FallOff", new Vector2f());
+    }
+    
+    if ((signature & HARD_EDGE) != 0)
+    {
+      material.setBoolean("HardEdge", true);
+    }
+    
+    if ((signature & SHADOW) != 0)
+    {
+      if (shadowMapPlaceholder == null)
+      {
+        shadowMapPlaceholder = new Texture2D(1, 1, Image.Format.Depth24);
+      }
+      
+      material.setTexture("ProjectorShadowMap", shadowMapPlaceholder);
+      material.setVector4("ProjectorShadowRect", new Vector4f());
+      material.setFloat("ShadowBias", 0f);
+    }
+    
+    return material;
+  }
+  
+  /**
+   * @param textureProjector A TextureProjector.
+   * @return The define signature of the TextureProjector without the SHADOW bit.
+   */  
+  public static int getSignature(TextureProjector textureProjector)
+  {
+    int signature = 0;
+    
+    if (textureProjector.isParallelProjection())
+    {
+      signature |= PARALLEL_PROJECTION;
+    }
+    
+    if (textureProjector.getFallOffDistance() != Float.MAX_VALUE)
+    {
+      signature |= FALL_OFF;
+    }
+    
+    return signature;
+  }
+  
+  /**
+   * @param textureProjector A TextureProjector.
+   * @param depthAtlas The ProjectorDepthAtlas or null.
+   * @return The define signature of the TextureProjector, including the 
+   * SHADOW bit if the atlas holds a depth map of the projector.
+   */  
+  public static int getSignature(TextureProjector textureProjector, ProjectorDepthAtlas depthAtlas)
+  {
+    int signature = getSignature(textureProjector);
+    
+    if (depthAtlas != null && depthAtlas.getShadowRect(textureProjector) != null)
+    {
+      signature |= SHADOW;
+    }
+    
+    return signature;
+  }
+  
+  /**
+   * @param signature A define signature.
+   * @return The signature of the cheaper variant used for projectors at 
+   * reduced quality, which has no fall off and a hard edge.
+   * @see ProjectorLodPolicy
+   */  
+  public static int getReducedSignature(int signature)
+  {
+    return (signature & ~FALL_OFF) | HARD_EDGE;
+  }
+  
+  /**
+   * @param signature A define signature.
+   * @return The number of Material parameters apply() sets for the signature.
+   */  
+  public static int getNumAppliedParams(int signature)
+  {
+    int numParams = ((signature & FALL_OFF) != 0) ? 4 : 3;
+    return ((signature & SHADOW) != 0) ? numParams + 3 : numParams;
+  }
+  
+  /**
+   * @param signature A supported define signature.
+   * @return The Material for the signature, created on first use.
+   * @throws IllegalArgumentException If the signature is not supported.
+   * @see #isSupported(int)
+   */  
+  public Material getMaterial(int signature)
+  {
+    Material material = materials[signature];
+    
+    if (material == null)
+    {
+      material = createMaterial(signature);
+      materials[signature] = material;
+    }
+    
+    return material;
+  }
+  
+  /**
+   * Sets the parameters of the TextureProjector on the Material matching its 
+   * signature.
+   * @param textureProjector The TextureProjector.
+   * @return The Material for the TextureProjector.
+   */  
+  public Material apply(TextureProjector textureProjector)
+  {
+    return apply(textureProjector, null);
+  }
+  
+  /**
+   * Sets the parameters of the TextureProjector and its depth map on the 
+   * Material matching its signature.
+   * @param textureProjector The TextureProjector.
+   * @param depthAtlas The ProjectorDepthAtlas or null.
+   * @return The Material for the TextureProjector.
+   */  
+  public Material apply(TextureProjector textureProjector, ProjectorDepthAtlas depthAtlas)
+  {
+    return apply(textureProjector, getSignature(textureProjector, depthAtlas), depthAtlas);
+  }
+  
+  /**
+   * Sets the parameters of the TextureProjector and its depth map on the 
+   * Material of the given signature.
+   * @param textureProjector The TextureProjector.
+   * @param signature The signature of the TextureProjector, possibly reduced.
+   * @param depthAtlas The ProjectorDepthAtlas, or null if the signature has 
+   * no SHADOW bit.
+   * @return The Material for the signature.
+   */  
+  public Material apply(TextureProjector textureProjector, int signature, ProjectorDepthAtlas depthAtlas)
+  {
+    Material material = getMaterial(signature);
+    material.setTexture("ProjectiveMap", textureProjector.getProjectiveTexture());
+    material.setMatrix4("ProjectorViewProjectionMatrix", textureProjector.getProjectorViewProjectionMatrix());
+    
+    if ((signature & PARALLEL_PROJECTION) != 0)
+    {
+      material.setVector3("ProjectorDirection", textureProjector.getProjectorDirection());
+    }
+    else
+    {
+      material.setVector3("ProjectorLocation", textureProjector.getProjectorLocation());
+    }
+    
+    if ((signature & FALL_OFF) != 0)
+    {
+      // One reused Vector2f instead of two boxed Floats per projector.
+      fallOff.set(textureProjector.getFallOffDistance(), textureProjector.getFallOffPower());
+      material.setVector2("FallOff", fallOff);
+    }
+    
+    if ((signature & SHADOW) != 0)
+    {
+      material.setTexture("ProjectorShadowMap", depthAtlas.getDepthTexture());
+      material.setVector4("ProjectorShadowRect", depthAtlas.getShadowRect(textureProjector));
+      // Boxed again only if the bias changed.
+      if (shadowBias == null || shadowBias.floatValue() != depthAtlas.getShadowBias())
+      {
+        shadowBias = Float.valueOf(depthAtlas.getShadowBias());
+      }
+      
+      material.setParam("ShadowBias", VarType.Float, shadowBias);
+    }
+    
+    return material;
+  }
+  
+  /**
+   * Sets the polygon offset of all Materials.
+   * @param factor scales the maximum Z slope, with respect to X or Y of the polygon
+   * @param units scales the minimum resolvable depth buffer value
+   * @see com.jme3.material.RenderState#setPolyOffset(float, float) 
+   */  
+  public void setPolyOffset(float factor, float units)
+  {
+    renderState.setPolyOffset(factor, units);
+    
+    for (int i = 0; i < NUM_SIGNATURES; i++)
+    {
+      if (materials[i] != null)
+      {
+        materials[i].getAdditionalRenderState().setPolyOffset(factor, units);
+      }
+    }
+  }
+  
+  /**
+   * Creates the Materials of all supported signatures and compiles their 
+   * shaders, so no variant is compiled while rendering.
+   * @param renderManager The RenderManager.
+   */  
+  public void preload(RenderManager renderManager)
+  {
+    for (int i = 0; i < NUM_SIGNATURES; i++)
+    {
+      if (isSupported(i))
+      {
+        getMaterial(i).preload(renderManager);
+      }
+    }
+  }
+}
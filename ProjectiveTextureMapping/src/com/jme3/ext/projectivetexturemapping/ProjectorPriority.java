@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.renderer.Camera;
+
+/**
+ * Ranks TextureProjectors when a ProjectorLodPolicy has to choose which of 
+ * them are drawn within the projector budget of a frame. Projectors with a 
+ * higher priority are drawn first.
+ * 
+ * @author survivor
+ * @see ProjectorLodPolicy#setPriority(ProjectorPriority) 
+ */
+public interface ProjectorPriority 
+{
+  /**
+   * Prefers projectors covering more of the screen.
+   */  
+  public static final ProjectorPriority SCREEN_SIZE = new ProjectorPriority()
+  {
+    public float getPriority(TextureProjector textureProjector, ProjectorState projectorState, 
+      Camera camera, float screenSize)
+    {
+      return screenSize;
+    }
+  };
+  
+  /**
+   * Prefers projectors closer to the camera.
+   */  
+  public static final ProjectorPriority DISTANCE = new ProjectorPriority()
+  {
+    public float getPriority(TextureProjector textureProjector, ProjectorState projectorState, 
+      Camera camera, float screenSize)
+    {
+      return -projectorState.getBoundCenter().distance(camera.getLocation());
+    }
+  };
+  
+  /**
+   * Called once per frame for each projector that is not skipped for its 
+   * screen size.
+   * @param textureProjector The TextureProjector.
+   * @param projectorState The state of the TextureProjector.
+   * @param camera The camera of the ViewPort.
+   * @param screenSize The screen size of the projector as a fraction of the 
+   * viewport height.
+   * @return The priority of the projector, higher is more important.
+   */  
+  public float getPriority(TextureProjector textureProjector, ProjectorState projectorState, 
+    Camera camera, float screenSize);
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.renderer.queue.OpaqueComparator;
+import com.jme3.scene.Geometry;
+import java.util.IdentityHashMap;
+
+/**
+ * The receivers of one TextureProjector, kept in sync with a ReceiverBVH. 
+ * The set is only queried from scratch when the projector changed or the 
+ * index discarded the changes it missed. Otherwise only the geometry added, 
+ * removed or refitted since the last update is tested against the projector 
+ * frustum. If more receivers changed than a query would visit, the set is 
+ * queried from scratch as well.
+ * <p>
+ * The set is conservative: it holds the receivers whose enlarged leaf box 
+ * intersects the frustum, the exact test against the world bound is left 
+ * to the caller.
+ * 
+ * @author survivor
+ * @see ProjectorState#getReceiverSet()
+ */
+public class ProjectorReceiverSet 
+{
+  private static final int MAX_CHANGES_PER_RECEIVER = 4;
+  private static final int MIN_CHANGES = 64;
+  
+  private final IdentityHashMap<Geometry, Boolean> receiverSet;
+  private GeometryList receiverList;
+  private GeometryList spareList;
+  private ReceiverBVH receiverIndex;
+  private int indexVersion;
+  private int projectorVersion;
+  private int numUpdatedPairs;
+  
+  ProjectorReceiverSet()
+  {
+    receiverSet = new IdentityHashMap<Geometry, Boolean>();
+    receiverList = new GeometryList(new OpaqueComparator());
+    spareList = new GeometryList(new OpaqueComparator());
+    receiverIndex = null;
+    indexVersion = 0;
+    projectorVersion = 0;
+    numUpdatedPairs = 0;
+  }
+  
+  /**
+   * Brings the set up to date with the receiver index.
+   * @param receiverIndex The receiver index, already updated for this frame.
+   * @param state The state of the TextureProjector.
+   * @return true, if the set had to be queried from scratch.
+   */  
+  public boolean update(ReceiverBVH receiverIndex, ProjectorState state)
+  {
+    ProjectorFrustum frustum = state.getProjectorFrustum();
+    int version = receiverIndex.getVersion();
+    int maxChanges = MIN_CHANGES + MAX_CHANGES_PER_RECEIVER * receiverList.size();
+    
+    if ((receiverIndex != this.receiverIndex) || (state.getVersion() != projectorVersion) || 
+        (indexVersion < receiverIndex.getChangeLogStart()) || (version - indexVersion > maxChanges))
+    {
+      this.receiverIndex = receiverIndex;
+      projectorVersion = state.getVersion();
+      indexVersion = version;
+      receiverSet.clear();
+      receiverList.clear();
+      receiverIndex.queryLeaves(frustum, receiverList);
+      
+      for (int i = 0, n = receiverList.size(); i < n; i++)
+      {
+        receiverSet.put(receiverList.get(i), Boolean.TRUE);
+      }
+      
+      numUpdatedPairs = receiverList.size();
+      return true;
+    }
+    
+    boolean removed = false;
+    numUpdatedPairs = version - indexVersion;
+    
+    for (int v = indexVersion; v < version; v++)
+    {
+      Geometry geometry = receiverIndex.getChange(v);
+      
+      if (receiverIndex.intersectsLeaf(frustum, geometry))
+      {
+        if (receiverSet.put(geometry, Boolean.TRUE) == null)
+        {
+          receiverList.add(geometry);
+        }
+      }
+      else if (receiverSet.remove(geometry) != null)
+      {
+        removed = true;
+      }
+    }
+    
+    indexVersion = version;
+    
+    if (removed)
+    {
+      compact();
+    }
+    
+    return false;
+  }
+  
+  // GeometryList can not remove single entries, so the remaining receivers 
+  // are copied to the spare list, which then takes the place of the old one.
+  private void compact()
+  {
+    spareList.clear();
+    
+    for (int i = 0, n = receiverList.size(); i < n; i++)
+    {
+      Geometry geometry = receiverList.get(i);
+      
+      if (receiverSet.containsKey(geometry))
+      {
+        spareList.add(geometry);
+      }
+    }
+    
+    GeometryList swap = receiverList;
+    receiverList = spareList;
+    spareList = swap;
+  }
+  
+  /**
+   * @return The receivers, as of the last update. The list must not be modified.
+   */  
+  public GeometryList getReceivers()
+  {
+    return receiverList;
+  }
+  
+  /**
+   * @param geometry The geometry.
+   * @return true, if the geometry is a receiver.
+   */  
+  public boolean contains(Geometry geometry)
+  {
+    return receiverSet.containsKey(geometry);
+  }
+  
+  /**
+   * @return The number of projector/receiver pairs evaluated by the last 
+   * update. A query from scratch counts the receivers it found.
+   */  
+  public int getNumUpdatedPairs()
+  {
+    return numUpdatedPairs;
+  }
+}
@@ -0,0 +1,553 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The TextureProjectors of a renderer, a list that may be changed from any 
+ * thread, for instance by gameplay or network code, while a frame renders.
+ * <p>
+ * Changes are made under a lock and advance an epoch. The renderer does not 
+ * iterate the list itself but a snapshot, which updateSnapshot() copies at 
+ * the start of a frame, only if the epoch advanced. So a change made while 
+ * a frame renders is drawn from the next frame on. If another thread holds 
+ * the lock, the rendering thread does not wait but keeps the snapshot of the 
+ * last frame, for at most getMaxDeferredSnapshots() frames in a row. Then it 
+ * waits for the lock, so a thread changing the list all the time cannot 
+ * hold back the snapshot indefinitely. 
+ * A burst of changes costs one copy, however many projectors were added. 
+ * Use addAll() to add many projectors at once under one lock.
+ * <p>
+ * iterator() and listIterator() walk a copy, like those of 
+ * CopyOnWriteArrayList, and do not support remove(). Projectors removed 
+ * during a frame may still be drawn in that frame.
+ * <p>
+ * A renderer can set a Validator, which rejects projectors it cannot draw 
+ * when they are added, on the thread adding them.
+ * 
+ * @author survivor
+ */
+public class ProjectorRegistry extends AbstractList<TextureProjector>
+{
+  /**
+   * The default number of frames the snapshot may be kept while another 
+   * thread holds the lock.
+   */  
+  public static final int DEFAULT_MAX_DEFERRED_SNAPSHOTS = 2;
+  
+  private final ReentrantLock lock;
+  private final ArrayList<TextureProjector> projectors;
+  private volatile int epoch;
+  private final ArrayList<TextureProjector> snapshot;
+  private final List<TextureProjector> snapshotView;
+  private int snapshotEpoch;
+  private int maxDeferredSnapshots;
+  private int numDeferredSnapshots;
+  private volatile Validator validator;
+  
+  public ProjectorRegistry()
+  {
+    lock = new ReentrantLock();
+    projectors = new ArrayList<TextureProjector>();
+    epoch = 0;
+    snapshot = new ArrayList<TextureProjector>();
+    snapshotView = Collections.unmodifiableList(snapshot);
+    snapshotEpoch = 0;
+    maxDeferredSnapshots = DEFAULT_MAX_DEFERRED_SNAPSHOTS;
+    numDeferredSnapshots = 0;
+    validator = null;
+  }
+  
+  /**
+   * Sets how many frames in a row updateSnapshot() may keep the old snapshot, 
+   * because another thread holds the lock. The next update waits for it.
+   * Must only be called from the rendering thread.
+   * @param maxDeferredSnapshots The number of frames, 0 to always wait.
+   */  
+  public void setMaxDeferredSnapshots(int maxDeferredSnapshots)
+  {
+    if (maxDeferredSnapshots < 0)
+    {
+      throw new IllegalArgumentException("The number of deferred snapshots must not be negative");
+    }
+    
+    this.maxDeferredSnapshots = maxDeferredSnapshots;
+  }
+  
+  /**
+   * @return The number of frames the snapshot may be kept while another 
+   * thread holds the lock.
+   */  
+  public int getMaxDeferredSnapshots()
+  {
+    return maxDeferredSnapshots;
+  }
+  
+  /**
+   * Sets the check applied to the projectors passed to add(), addAll() 
+   * and set(). Projectors already registered are not checked.
+   * @param validator The validator or null to accept any projector.
+   */  
+  public void setValidator(Validator validator)
+  {
+    this.validator = validator;
+  }
+  
+  /**
+   * @return The validator or null.
+   */  
+  public Validator getValidator()
+  {
+    return validator;
+  }
+  
+  private void validate(TextureProjector textureProjector)
+  {
+    Validator currentValidator = validator;
+    
+    if (currentValidator != null)
+    {
+      currentValidator.validate(textureProjector);
+    }
+  }
+  
+  private List<TextureProjector> validate(Collection<? extends TextureProjector> textureProjectors)
+  {
+    TextureProjector[] validated = textureProjectors.toArray(new TextureProjector[0]);
+    
+    for (int i = 0; i < validated.length; i++)
+    {
+      validate(validated[i]);
+    }
+    
+    return Arrays.asList(validated);
+  }
+  
+  /**
+   * Copies the registered projectors into the snapshot, if they changed 
+   * since the last copy and no other thread is changing them right now, or 
+   * the copy was deferred in the last getMaxDeferredSnapshots() frames.
+   * Must only be called from the rendering thread, once per frame.
+   * @return true, if the snapshot was updated.
+   */  
+  public boolean updateSnapshot()
+  {
+    if (epoch == snapshotEpoch)
+    {
+      numDeferredSnapshots = 0;
+      return false;
+    }
+    
+    if (numDeferredSnapshots < maxDeferredSnapshots)
+    {
+      if (!lock.tryLock())
+      {
+        numDeferredSnapshots++;
+        return false;
+      }
+    }
+    else
+    {
+      lock.lock();
+    }
+    
+    numDeferredSnapshots = 0;
+    
+    try
+    {
+      int size = projectors.size();
+      snapshot.clear();
+      snapshot.ensureCapacity(size);
+      
+      for (int i = 0; i < size; i++)
+      {
+        snapshot.add(projectors.get(i));
+      }
+      
+      snapshotEpoch = epoch;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+    
+    return true;
+  }
+  
+  /**
+   * Returns the projectors as of the last updateSnapshot(). The list is 
+   * read-only, always the same object and must only be read from the 
+   * rendering thread.
+   * @return The snapshot.
+   */  
+  public List<TextureProjector> getSnapshot()
+  {
+    return snapshotView;
+  }
+  
+  /**
+   * @return The number of changes made to the registry so far.
+   */  
+  public int getEpoch()
+  {
+    return epoch;
+  }
+  
+  @Override
+  public TextureProjector get(int index)
+  {
+    lock.lock();
+    
+    try
+    {
+      return projectors.get(index);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public int size()
+  {
+    lock.lock();
+    
+    try
+    {
+      return projectors.size();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public TextureProjector set(int index, TextureProjector textureProjector)
+  {
+    validate(textureProjector);
+    lock.lock();
+    
+    try
+    {
+      TextureProjector previous = projectors.set(index, textureProjector);
+      epoch++;
+      return previous;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public boolean add(TextureProjector textureProjector)
+  {
+    validate(textureProjector);
+    lock.lock();
+    
+    try
+    {
+      projectors.add(textureProjector);
+      epoch++;
+      return true;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public void add(int index, TextureProjector textureProjector)
+  {
+    validate(textureProjector);
+    lock.lock();
+    
+    try
+    {
+      projectors.add(index, textureProjector);
+      epoch++;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public boolean addAll(Collection<? extends TextureProjector> textureProjectors)
+  {
+    // All projectors are checked before any is added.
+    List<TextureProjector> validated = validate(textureProjectors);
+    lock.lock();
+    
+    try
+    {
+      boolean changed = projectors.addAll(validated);
+      epoch++;
+      return changed;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public boolean addAll(int index, Collection<? extends TextureProjector> textureProjectors)
+  {
+    List<TextureProjector> validated = validate(textureProjectors);
+    lock.lock();
+    
+    try
+    {
+      boolean changed = projectors.addAll(index, validated);
+      epoch++;
+      return changed;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public TextureProjector remove(int index)
+  {
+    lock.lock();
+    
+    try
+    {
+      TextureProjector removed = projectors.remove(index);
+      epoch++;
+      return removed;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public boolean remove(Object textureProjector)
+  {
+    lock.lock();
+    
+    try
+    {
+      boolean removed = projectors.remove(textureProjector);
+      
+      if (removed)
+      {
+        epoch++;
+      }
+      
+      return removed;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public boolean removeAll(Collection<?> textureProjectors)
+  {
+    // Copied first, the collection may be this registry.
+    Object[] removed = textureProjectors.toArray();
+    lock.lock();
+    
+    try
+    {
+      boolean changed = projectors.removeAll(Arrays.asList(removed));
+      
+      if (changed)
+      {
+        epoch++;
+      }
+      
+      return changed;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public boolean retainAll(Collection<?> textureProjectors)
+  {
+    Object[] retained = textureProjectors.toArray();
+    lock.lock();
+    
+    try
+    {
+      boolean changed = projectors.retainAll(Arrays.asList(retained));
+      
+      if (changed)
+      {
+        epoch++;
+      }
+      
+      return changed;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public void clear()
+  {
+    lock.lock();
+    
+    try
+    {
+      projectors.clear();
+      epoch++;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public int indexOf(Object textureProjector)
+  {
+    lock.lock();
+    
+    try
+    {
+      return projectors.indexOf(textureProjector);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public int lastIndexOf(Object textureProjector)
+  {
+    lock.lock();
+    
+    try
+    {
+      return projectors.lastIndexOf(textureProjector);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public boolean contains(Object textureProjector)
+  {
+    return indexOf(textureProjector) >= 0;
+  }
+  
+  @Override
+  public Object[] toArray()
+  {
+    lock.lock();
+    
+    try
+    {
+      return projectors.toArray();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public <T> T[] toArray(T[] array)
+  {
+    lock.lock();
+    
+    try
+    {
+      return projectors.toArray(array);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public Iterator<TextureProjector> iterator()
+  {
+    return listIterator(0);
+  }
+  
+  @Override
+  public ListIterator<TextureProjector> listIterator()
+  {
+    return listIterator(0);
+  }
+  
+  @Override
+  public ListIterator<TextureProjector> listIterator(int index)
+  {
+    TextureProjector[] copy = toArray(new TextureProjector[0]);
+    return Collections.unmodifiableList(Arrays.asList(copy)).listIterator(index);
+  }
+  
+  /**
+   * Checks TextureProjectors before they are added to a ProjectorRegistry.
+   */  
+  public interface Validator
+  {
+    /**
+     * May be called from any thread.
+     * @param textureProjector The projector to be added.
+     * @throws IllegalArgumentException If the projector cannot be rendered.
+     */  
+    void validate(TextureProjector textureProjector);
+  }
+}
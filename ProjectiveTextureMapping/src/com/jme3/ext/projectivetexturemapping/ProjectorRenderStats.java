@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import java.util.ArrayList;
+
+/**
+ * Per frame metrics of a projector renderer, similar to jME's Statistics. 
+ * The values describe the last frame rendered and are reset when the next 
+ * frame starts. Listeners are notified at the end of each frame.
+ * 
+ * @author survivor
+ * @see com.jme3.renderer.Statistics
+ */
+public class ProjectorRenderStats 
+{
+  private final ArrayList<ProjectorRenderListener> listeners;
+  private ProjectorGpuTimer gpuTimer;
+  private int numPasses;
+  private int numProjectorsDrawn;
+  private int numProjectorsCulled;
+  private int numProjectorsSkipped;
+  private int numProjectorsReduced;
+  private int numGeometriesSubmitted;
+  private int numParamUpdates;
+  private int numTextureBinds;
+  private int numTextureBindsSaved;
+  private long cpuTimeNanos;
+  private long gpuTimeNanos;
+  private long frameCpuTimeNanos;
+  private long sectionStartNanos;
+  
+  public ProjectorRenderStats()
+  {
+    listeners = new ArrayList<ProjectorRenderListener>();
+    gpuTimer = null;
+    gpuTimeNanos = -1;
+  }
+  
+  /**
+   * @return The labels of the values returned by getData().
+   */  
+  public String[] getLabels()
+  {
+    return new String[] 
+    { 
+      "Passes", 
+      "ProjectorsDrawn", 
+      "ProjectorsCulled", 
+      "ProjectorsSkipped", 
+      "ProjectorsReduced", 
+      "GeometriesSubmitted", 
+      "ParamUpdates", 
+      "TextureBinds", 
+      "TextureBindsSaved", 
+      "CpuTimeNanos", 
+      "GpuTimeNanos" 
+    };
+  }
+  
+  /**
+   * Copies the values of the last frame in the order of getLabels().
+   * @param data An array with at least as many elements as labels.
+   */  
+  public void getData(long[] data)
+  {
+    data[0] = numPasses;
+    data[1] = numProjectorsDrawn;
+    data[2] = numProjectorsCulled;
+    data[3] = numProjectorsSkipped;
+    data[4] = numProjectorsReduced;
+    data[5] = numGeometriesSubmitted;
+    data[6] = numParamUpdates;
+    data[7] = numTextureBinds;
+    data[8] = numTextureBindsSaved;
+    data[9] = cpuTimeNanos;
+    data[10] = gpuTimeNanos;
+  }
+  
+  /**
+   * @return The number of render passes, i.e. submitted GeometryLists or 
+   * projector volumes.
+   */  
+  public int getNumPasses()
+  {
+    return numPasses;
+  }
+  
+  /**
+   * @return The number of TextureProjectors that were drawn.
+   */  
+  public int getNumProjectorsDrawn()
+  {
+    return numProjectorsDrawn;
+  }
+  
+  /**
+   * @return The number of TextureProjectors that were skipped, because they 
+   * reach no receivers or are outside the view.
+   */  
+  public int getNumProjectorsCulled()
+  {
+    return numProjectorsCulled;
+  }
+  
+  /**
+   * @return The number of TextureProjectors that were skipped by the 
+   * ProjectorLodPolicy.
+   */  
+  public int getNumProjectorsSkipped()
+  {
+    return numProjectorsSkipped;
+  }
+  
+  /**
+   * @return The number of TextureProjectors that were drawn at reduced 
+   * quality by the ProjectorLodPolicy.
+   */  
+  public int getNumProjectorsReduced()
+  {
+    return numProjectorsReduced;
+  }
+  
+  /**
+   * @return The number of geometries submitted over all passes.
+   */  
+  public int getNumGeometriesSubmitted()
+  {
+    return numGeometriesSubmitted;
+  }
+  
+  /**
+   * @return The number of Material parameters set.
+   */  
+  public int getNumParamUpdates()
+  {
+    return numParamUpdates;
+  }
+  
+  /**
+   * @return The number of times a projector slot was given another texture, 
+   * i.e. a texture unit had to be bound again. Only counted by renderers 
+   * binding one sampler per slot.
+   */  
+  public int getNumTextureBinds()
+  {
+    return numTextureBinds;
+  }
+  
+  /**
+   * @return The number of texture binds saved by the packing strategy, 
+   * compared to packing the drawn projectors in list order. Negative, if 
+   * the strategy needed more binds.
+   */  
+  public int getNumTextureBindsSaved()
+  {
+    return numTextureBindsSaved;
+  }
+  
+  /**
+   * @return The CPU time spent in preFrame(), postQueue() and postFrame() in 
+   * nanoseconds. The rendering of the ViewPort's queue in between is not 
+   * included.
+   */  
+  public long getCpuTimeNanos()
+  {
+    return cpuTimeNanos;
+  }
+  
+  /**
+   * @return The latest GPU time reported by the ProjectorGpuTimer in 
+   * nanoseconds, or -1 if no timer is set or no result is available.
+   */  
+  public long getGpuTimeNanos()
+  {
+    return gpuTimeNanos;
+  }
+  
+  /**
+   * Sets the timer measuring the GPU time of the draw calls.
+   * @param gpuTimer The timer or null to disable GPU timing.
+   */  
+  public void setGpuTimer(ProjectorGpuTimer gpuTimer)
+  {
+    this.gpuTimer = gpuTimer;
+    gpuTimeNanos = -1;
+  }
+  
+  /**
+   * @return The timer measuring the GPU time or null.
+   */  
+  public ProjectorGpuTimer getGpuTimer()
+  {
+    return gpuTimer;
+  }
+  
+  /**
+   * @param listener A listener to be notified after each frame.
+   */  
+  public void addListener(ProjectorRenderListener listener)
+  {
+    listeners.add(listener);
+  }
+  
+  /**
+   * @param listener A listener added before.
+   */  
+  public void removeListener(ProjectorRenderListener listener)
+  {
+    listeners.remove(listener);
+  }
+  
+  void beginFrame()
+  {
+    numPasses = 0;
+    numProjectorsDrawn = 0;
+    numProjectorsCulled = 0;
+    numProjectorsSkipped = 0;
+    numProjectorsReduced = 0;
+    numGeometriesSubmitted = 0;
+    numParamUpdates = 0;
+    numTextureBinds = 0;
+    numTextureBindsSaved = 0;
+    frameCpuTimeNanos = 0;
+    sectionStartNanos = System.nanoTime();
+  }
+  
+  void pauseFrame()
+  {
+    frameCpuTimeNanos += System.nanoTime() - sectionStartNanos;
+  }
+  
+  void resumeFrame()
+  {
+    sectionStartNanos = System.nanoTime();
+  }
+  
+  void beginDraws()
+  {
+    resumeFrame();
+    
+    if (gpuTimer != null)
+    {
+      gpuTimer.begin();
+    }
+  }
+  
+  void endFrame()
+  {
+    if (gpuTimer != null)
+    {
+      gpuTimer.end();
+      gpuTimeNanos = gpuTimer.getElapsedNanos();
+    }
+    
+    pauseFrame();
+    cpuTimeNanos = frameCpuTimeNanos;
+    
+    for (int i = 0, n = listeners.size(); i < n; i++)
+    {
+      listeners.get(i).frameRendered(this);
+    }
+  }
+  
+  void onPass(int numGeometries)
+  {
+    numPasses++;
+    numGeometriesSubmitted += numGeometries;
+  }
+  
+  void onProjectorDrawn()
+  {
+    numProjectorsDrawn++;
+  }
+  
+  void onProjectorCulled()
+  {
+    numProjectorsCulled++;
+  }
+  
+  void onProjectorSkipped()
+  {
+    numProjectorsSkipped++;
+  }
+  
+  void onProjectorReduced()
+  {
+    numProjectorsReduced++;
+  }
+  
+  void onParamUpdates(int count)
+  {
+    numParamUpdates += count;
+  }
+  
+  void onTextureBinds(int count)
+  {
+    numTextureBinds += count;
+  }
+  
+  void onTextureBindsSaved(int count)
+  {
+    numTextureBindsSaved += count;
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Vector3f;
+import com.jme3.math.Vector4f;
+
+/**
+ * Per frame state a renderer keeps for one of its TextureProjectors. The 
+ * state is only refreshed when the version of the TextureProjector changed.
+ * 
+ * @author survivor
+ * @see ProjectorStateCache
+ */
+public class ProjectorState 
+{
+  private final TextureProjector textureProjector;
+  private final ProjectorFrustum projectorFrustum;
+  private final Vector3f boundCenter;
+  private float boundRadius;
+  private boolean boundValid;
+  private Matrix4f inverseMatrix;
+  private Vector4f corner;
+  private ProjectorReceiverSet receiverSet;
+  private int version;
+  private int frame;
+  private boolean refreshed;
+  
+  ProjectorState(TextureProjector textureProjector)
+  {
+    this.textureProjector = textureProjector;
+    this.projectorFrustum = new ProjectorFrustum();
+    this.boundCenter = new Vector3f();
+    this.boundRadius = 0f;
+    this.boundValid = false;
+    this.inverseMatrix = null;
+    this.corner = null;
+    this.receiverSet = null;
+    this.version = 0;
+    this.frame = -1;
+    this.refreshed = false;
+  }
+  
+  /**
+   * Refreshes this state once per frame, if the TextureProjector changed.
+   * @param frame The current frame.
+   * @param force true, to refresh regardless of the version.
+   * @return true, if this state was refreshed.
+   */  
+  boolean update(int frame, boolean force)
+  {
+    if (this.frame == frame)
+    {
+      return false;
+    }
+    
+    this.frame = frame;
+    int projectorVersion = textureProjector.getVersion();
+    refreshed = force || (projectorVersion != version);
+    
+    if (refreshed)
+    {
+      version = projectorVersion;
+      projectorFrustum.update(textureProjector);
+      boundValid = false;
+    }
+    
+    return refreshed;
+  }
+  
+  int getFrame()
+  {
+    return frame;
+  }
+  
+  /**
+   * @return The TextureProjector.
+   */  
+  public TextureProjector getTextureProjector()
+  {
+    return textureProjector;
+  }
+  
+  /**
+   * @return The frustum of the TextureProjector, as of its current version.
+   */  
+  public ProjectorFrustum getProjectorFrustum()
+  {
+    return projectorFrustum;
+  }
+  
+  /**
+   * @return The center of a sphere enclosing the frustum of the 
+   * TextureProjector, as of its current version.
+   */  
+  public Vector3f getBoundCenter()
+  {
+    updateBound();
+    return boundCenter;
+  }
+  
+  /**
+   * @return The radius of a sphere enclosing the frustum of the 
+   * TextureProjector, as of its current version.
+   */  
+  public float getBoundRadius()
+  {
+    updateBound();
+    return boundRadius;
+  }
+  
+  private void updateBound()
+  {
+    if (boundValid)
+    {
+      return;
+    }
+    
+    if (inverseMatrix == null)
+    {
+      inverseMatrix = new Matrix4f();
+      corner = new Vector4f();
+    }
+    
+    // The frustum corners are the unit cube corners of the biased projector 
+    // space. The sphere is centered on their average.
+    textureProjector.getProjectorViewProjectionMatrix().invert(inverseMatrix);
+    boundCenter.set(0f, 0f, 0f);
+    
+    for (int i = 0; i < 8; i++)
+    {
+      transformCorner(i);
+      boundCenter.addLocal(corner.x, corner.y, corner.z);
+    }
+    
+    boundCenter.multLocal(0.125f);
+    float maxDistanceSquared = 0f;
+    
+    for (int i = 0; i < 8; i++)
+    {
+      transformCorner(i);
+      float dx = corner.x - boundCenter.x;
+      float dy = corner.y - boundCenter.y;
+      float dz = corner.z - boundCenter.z;
+      maxDistanceSquared = Math.max(maxDistanceSquared, dx * dx + dy * dy + dz * dz);
+    }
+    
+    boundRadius = (float) Math.sqrt(maxDistanceSquared);
+    boundValid = true;
+  }
+  
+  private void transformCorner(int i)
+  {
+    corner.set(i & 1, (i >> 1) & 1, (i >> 2) & 1, 1f);
+    inverseMatrix.mult(corner, corner);
+    corner.multLocal(1f / corner.w);
+  }
+  
+  /**
+   * @return The receivers of the TextureProjector, as found in the receiver 
+   * index of the renderer. The set is created on first use.
+   */  
+  public ProjectorReceiverSet getReceiverSet()
+  {
+    if (receiverSet == null)
+    {
+      receiverSet = new ProjectorReceiverSet();
+    }
+    
+    return receiverSet;
+  }
+  
+  /**
+   * @return The version of the TextureProjector this state was refreshed for.
+   */  
+  public int getVersion()
+  {
+    return version;
+  }
+  
+  /**
+   * @return true, if this state was refreshed in the current frame.
+   */  
+  public boolean isRefreshed()
+  {
+    return refreshed;
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Keeps a ProjectorState per TextureProjector and counts the projectors 
+ * whose state had to be refreshed in the current frame. States of projectors 
+ * that were not requested during the previous frame are dropped.
+ * 
+ * @author survivor
+ */
+public class ProjectorStateCache 
+{
+  private final IdentityHashMap<TextureProjector, ProjectorState> stateMap;
+  private final ArrayList<ProjectorState> stateList;
+  private int frame;
+  private int numRefreshedProjectors;
+  
+  public ProjectorStateCache()
+  {
+    stateMap = new IdentityHashMap<TextureProjector, ProjectorState>();
+    stateList = new ArrayList<ProjectorState>();
+    frame = 0;
+    numRefreshedProjectors = 0;
+  }
+  
+  /**
+   * Starts a new frame and drops the states not requested in the last one.
+   */  
+  public void beginFrame()
+  {
+    for (int i = stateList.size() - 1; i >= 0; i--)
+    {
+      ProjectorState state = stateList.get(i);
+      
+      if (state.getFrame() != frame)
+      {
+        stateMap.remove(state.getTextureProjector());
+        int last = stateList.size() - 1;
+        stateList.set(i, stateList.get(last));
+        stateList.remove(last);
+      }
+    }
+    
+    frame++;
+    numRefreshedProjectors = 0;
+  }
+  
+  /**
+   * Returns the state of the TextureProjector, refreshed if the projector 
+   * changed since the last frame.
+   * @param textureProjector The TextureProjector.
+   * @return Its state.
+   */  
+  public ProjectorState get(TextureProjector textureProjector)
+  {
+    ProjectorState state = acquire(textureProjector);
+    
+    if (refresh(state))
+    {
+      numRefreshedProjectors++;
+    }
+    
+    return state;
+  }
+  
+  /**
+   * Returns the state of the TextureProjector without refreshing it, so the 
+   * refresh can run on another thread.
+   * @param textureProjector The TextureProjector.
+   * @return Its state, which must be passed to refresh() in this frame.
+   */  
+  ProjectorState acquire(TextureProjector textureProjector)
+  {
+    ProjectorState state = stateMap.get(textureProjector);
+    
+    if (state == null)
+    {
+      state = new ProjectorState(textureProjector);
+      stateMap.put(textureProjector, state);
+      stateList.add(state);
+    }
+    
+    return state;
+  }
+  
+  /**
+   * Refreshes a state returned by acquire(). The states of different 
+   * projectors may be refreshed from different threads. The refreshed 
+   * states are not counted, see onRefreshed().
+   * @param state The state.
+   * @return true, if the state was refreshed, which a new state always is.
+   */  
+  boolean refresh(ProjectorState state)
+  {
+    return state.update(frame, state.getFrame() < 0);
+  }
+  
+  void onRefreshed(int count)
+  {
+    numRefreshedProjectors += count;
+  }
+  
+  /**
+   * @return The number of TextureProjectors refreshed in the current frame.
+   */  
+  public int getNumRefreshedProjectors()
+  {
+    return numRefreshedProjectors;
+  }
+  
+  /**
+   * @return The number of cached states.
+   */  
+  public int size()
+  {
+    return stateList.size();
+  }
+  
+  /**
+   * Drops all states, so every TextureProjector is refreshed again.
+   */  
+  public void clear()
+  {
+    stateMap.clear();
+    stateList.clear();
+  }
+}
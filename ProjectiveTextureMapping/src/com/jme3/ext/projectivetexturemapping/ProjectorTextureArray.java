@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import com.jme3.texture.TextureArray;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Packs the textures of TextureProjectors into the layers of a single 
+ * TextureArray, so one sampler can serve any number of projectors.
+ * All textures must have the same size and format. Filtering and wrap mode 
+ * are taken from the first texture added.
+ * <p>
+ * The number of layers is capped by setMaxLayers(). Once all layers are 
+ * taken, a new texture replaces the one least recently used, but never one 
+ * used in the current frame, see beginFrame(). The TextureArray grows by 
+ * doubling, a new texture only replaces the data of its layer. jME uploads 
+ * the whole array after any change, so the changes of a frame should be 
+ * made before its first pass.
+ * <p>
+ * As a ProjectorRegistry.Validator, this rejects projectors whose texture 
+ * does not match when they are added to a renderer. A texture that does 
+ * not match at render time gets no layer and is logged once.
+ * 
+ * @author survivor
+ */
+public class ProjectorTextureArray implements ProjectorRegistry.Validator
+{
+  /**
+   * The layer cap used by default, the minimum GL_MAX_ARRAY_TEXTURE_LAYERS 
+   * of OpenGL 3.0. jME does not report the actual limit.
+   */  
+  public static final int DEFAULT_MAX_LAYERS = 256;
+  
+  private static final Logger logger = Logger.getLogger(ProjectorTextureArray.class.getName());
+  private static final int NO_LAYER = -1;
+  
+  private final IdentityHashMap<Texture2D, Integer> layers;
+  private Texture2D[] layerTextures;
+  private int[] layerFrames;
+  private int numLayers;
+  private int maxLayers;
+  private int frame;
+  private TextureArray textureArray;
+  private volatile Texture2D firstTexture;
+  private boolean dirty;
+  
+  public ProjectorTextureArray()
+  {
+    layers = new IdentityHashMap<Texture2D, Integer>();
+    layerTextures = new Texture2D[0];
+    layerFrames = new int[0];
+    numLayers = 0;
+    maxLayers = DEFAULT_MAX_LAYERS;
+    frame = 0;
+    textureArray = null;
+    firstTexture = null;
+    dirty = false;
+  }
+  
+  /**
+   * Sets the maximum number of layers. Lowering it below the number of 
+   * layers in use removes all textures.
+   * @param maxLayers The maximum number of layers, at least 1.
+   */  
+  public void setMaxLayers(int maxLayers)
+  {
+    if (maxLayers < 1)
+    {
+      throw new IllegalArgumentException("maxLayers must be at least 1");
+    }
+    
+    if (maxLayers < numLayers)
+    {
+      clear();
+    }
+    
+    this.maxLayers = maxLayers;
+  }
+  
+  /**
+   * @return The maximum number of layers.
+   */  
+  public int getMaxLayers()
+  {
+    return maxLayers;
+  }
+  
+  /**
+   * Starts a new frame. Layers used from now on are not replaced until 
+   * the next call.
+   */  
+  public void beginFrame()
+  {
+    frame++;
+  }
+  
+  /**
+   * Checks that the texture of a projector matches the textures of this 
+   * array. The first texture checked or added sets size and format.
+   * May be called from any thread.
+   * @param textureProjector The projector to be added to a renderer.
+   * @throws IllegalArgumentException If the texture's size or format differs.
+   */  
+  @Override
+  public void validate(TextureProjector textureProjector)
+  {
+    Texture2D texture = textureProjector.getProjectiveTexture();
+    
+    if (!matches(texture))
+    {
+      throw new IllegalArgumentException("Projective texture " + texture.getName() + 
+        " does not match the size and format of " + firstTexture.getName());
+    }
+  }
+  
+  private synchronized boolean matches(Texture2D texture)
+  {
+    if (firstTexture == null)
+    {
+      firstTexture = texture;
+      return true;
+    }
+    
+    Image image = texture.getImage();
+    Image firstImage = firstTexture.getImage();
+    return (image.getWidth() == firstImage.getWidth()) && 
+           (image.getHeight() == firstImage.getHeight()) && 
+           (image.getFormat() == firstImage.getFormat());
+  }
+  
+  /**
+   * Returns the layer of the texture, adding it if necessary, and marks the 
+   * layer as used in the current frame.
+   * @param texture A projective texture.
+   * @return The layer index of the texture or -1, if the texture does not 
+   * match the others or all layers are used in the current frame.
+   */  
+  public int getLayer(Texture2D texture)
+  {
+    Integer layer = layers.get(texture);
+    
+    if (layer != null)
+    {
+      if (layer != NO_LAYER)
+      {
+        layerFrames[layer] = frame;
+      }
+      
+      return layer;
+    }
+    
+    if (!matches(texture))
+    {
+      logger.log(Level.WARNING, "Projective texture {0} does not match the size and format of {1}", 
+        new Object[] { texture.getName(), firstTexture.getName() });
+      layers.put(texture, NO_LAYER);
+      return NO_LAYER;
+    }
+    
+    int newLayer;
+    
+    if (numLayers < maxLayers)
+    {
+      newLayer = numLayers++;
+      
+      if (newLayer == layerTextures.length)
+      {
+        grow();
+      }
+    }
+    else
+    {
+      newLayer = findLeastRecentlyUsedLayer();
+      
+      if (newLayer == NO_LAYER)
+      {
+        return NO_LAYER;
+      }
+      
+      layers.remove(layerTextures[newLayer]);
+    }
+    
+    layerTextures[newLayer] = texture;
+    layerFrames[newLayer] = frame;
+    layers.put(texture, newLayer);
+    
+    // The image of a TextureArray has one data buffer per layer, its depth 
+    // is not set.
+    if ((textureArray != null) && (newLayer < textureArray.getImage().getData().size()))
+    {
+      textureArray.getImage().setData(newLayer, texture.getImage().getData(0));
+    }
+    else
+    {
+      textureArray = null;
+    }
+    
+    dirty = true;
+    return newLayer;
+  }
+  
+  private void grow()
+  {
+    int capacity = Math.min(Math.max(4, layerTextures.length * 2), maxLayers);
+    Texture2D[] newLayerTextures = new Texture2D[capacity];
+    int[] newLayerFrames = new int[capacity];
+    System.arraycopy(layerTextures, 0, newLayerTextures, 0, layerTextures.length);
+    System.arraycopy(layerFrames, 0, newLayerFrames, 0, layerFrames.length);
+    layerTextures = newLayerTextures;
+    layerFrames = newLayerFrames;
+  }
+  
+  private int findLeastRecentlyUsedLayer()
+  {
+    int leastRecentlyUsed = NO_LAYER;
+    
+    for (int i = 0; i < numLayers; i++)
+    {
+      if ((layerFrames[i] != frame) && 
+          ((leastRecentlyUsed == NO_LAYER) || (layerFrames[i] - layerFrames[leastRecentlyUsed] < 0)))
+      {
+        leastRecentlyUsed = i;
+      }
+    }
+    
+    return leastRecentlyUsed;
+  }
+  
+  /**
+   * @return The number of layers.
+   */  
+  public int getNumLayers()
+  {
+    return numLayers;
+  }
+  
+  /**
+   * @return The TextureArray containing the textures of all layers, 
+   * null if there are none.
+   */  
+  public TextureArray getTextureArray()
+  {
+    if (numLayers == 0)
+    {
+      return null;
+    }
+    
+    if (textureArray == null)
+    {
+      // Layers beyond the used ones repeat the first, so the array only has 
+      // to be rebuilt when the layer arrays grow.
+      ArrayList<Image> images = new ArrayList<Image>(layerTextures.length);
+      
+      for (int i = 0; i < layerTextures.length; i++)
+      {
+        images.add(layerTextures[(i < numLayers) ? i : 0].getImage());
+      }
+      
+      Texture2D first = firstTexture;
+      textureArray = new TextureArray(images);
+      textureArray.setMinFilter(first.getMinFilter());
+      textureArray.setMagFilter(first.getMagFilter());
+      textureArray.setAnisotropicFilter(first.getAnisotropicFilter());
+      textureArray.setWrap(Texture.WrapAxis.S, first.getWrap(Texture.WrapAxis.S));
+      textureArray.setWrap(Texture.WrapAxis.T, first.getWrap(Texture.WrapAxis.T));
+    }
+    else if (dirty)
+    {
+      textureArray.getImage().setUpdateNeeded();
+    }
+    
+    dirty = false;
+    return textureArray;
+  }
+  
+  /**
+   * Removes all textures.
+   */  
+  public synchronized void clear()
+  {
+    layers.clear();
+    layerTextures = new Texture2D[0];
+    layerFrames = new int[0];
+    numLayers = 0;
+    textureArray = null;
+    firstTexture = null;
+    dirty = false;
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Vector4f;
+import com.jme3.renderer.Camera;
+import java.nio.FloatBuffer;
+
+/**
+ * Divides the screen into square tiles and keeps a list of the 
+ * TextureProjectors touching each tile. A projector touches the tiles 
+ * covered by the screen space bounding rectangle of its frustum, clamped 
+ * to the screen. Projectors whose frustum reaches behind the camera touch 
+ * all tiles.
+ * 
+ * @author survivor
+ * @see ClusteredTextureProjectorRenderer
+ */
+public class ProjectorTileGrid 
+{
+  private static final float MIN_CLIP_W = 1e-4f;
+  
+  private final int tileSize;
+  private final int maxProjectorsPerTile;
+  private final Matrix4f inverseProjectorMatrix;
+  private final Vector4f corner;
+  private final Vector4f clipCorner;
+  private int numTilesX;
+  private int numTilesY;
+  private int[] tileCounts;
+  private int[] tileProjectors;
+  private int numDroppedEntries;
+  
+  /**
+   * Creates an empty grid, call resize() before adding projectors.
+   * @param tileSize The edge length of a tile in pixels.
+   * @param maxProjectorsPerTile The number of projectors a tile can hold.
+   */  
+  public ProjectorTileGrid(int tileSize, int maxProjectorsPerTile)
+  {
+    if ((tileSize <= 0) || (maxProjectorsPerTile <= 0))
+    {
+      throw new IllegalArgumentException("tileSize and maxProjectorsPerTile must be positive");
+    }
+    
+    this.tileSize = tileSize;
+    this.maxProjectorsPerTile = maxProjectorsPerTile;
+    this.inverseProjectorMatrix = new Matrix4f();
+    this.corner = new Vector4f();
+    this.clipCorner = new Vector4f();
+    resize(0, 0);
+  }
+  
+  /**
+   * Adapts the grid to the size of the ViewPort and clears it.
+   * @param width The width of the ViewPort in pixels.
+   * @param height The height of the ViewPort in pixels.
+   */  
+  public final void resize(int width, int height)
+  {
+    numTilesX = Math.max(1, (width + tileSize - 1) / tileSize);
+    numTilesY = Math.max(1, (height + tileSize - 1) / tileSize);
+    tileCounts = new int[numTilesX * numTilesY];
+    tileProjectors = new int[numTilesX * numTilesY * maxProjectorsPerTile];
+    numDroppedEntries = 0;
+  }
+  
+  /**
+   * Removes all projectors from the tiles.
+   */  
+  public void clear()
+  {
+    for (int i = 0; i < tileCounts.length; i++)
+    {
+      tileCounts[i] = 0;
+    }
+    
+    numDroppedEntries = 0;
+  }
+  
+  /**
+   * Adds the TextureProjector to the tiles it touches on the screen of the 
+   * camera. Tiles that are full drop the projector.
+   * @param projectorIndex The index stored in the tiles.
+   * @param textureProjector The TextureProjector.
+   * @param camera The camera of the ViewPort.
+   */  
+  public void add(int projectorIndex, TextureProjector textureProjector, Camera camera)
+  {
+    int minTileX = 0;
+    int minTileY = 0;
+    int maxTileX = numTilesX - 1;
+    int maxTileY = numTilesY - 1;
+    
+    // The frustum corners are the unit cube corners of the biased projector space.
+    inverseProjectorMatrix.set(textureProjector.getProjectorViewProjectionMatrix()).invertLocal();
+    Matrix4f viewProjectionMatrix = camera.getViewProjectionMatrix();
+    float minX = Float.MAX_VALUE;
+    float minY = Float.MAX_VALUE;
+    float maxX = -Float.MAX_VALUE;
+    float maxY = -Float.MAX_VALUE;
+    boolean behindCamera = false;
+    
+    for (int i = 0; i < 8; i++)
+    {
+      corner.set(i & 1, (i >> 1) & 1, (i >> 2) & 1, 1f);
+      inverseProjectorMatrix.mult(corner, corner);
+      corner.multLocal(1f / corner.w);
+      viewProjectionMatrix.mult(corner, clipCorner);
+      
+      if (clipCorner.w < MIN_CLIP_W)
+      {
+        behindCamera = true;
+        break;
+      }
+      
+      float x = clipCorner.x / clipCorner.w;
+      float y = clipCorner.y / clipCorner.w;
+      minX = Math.min(minX, x);
+      minY = Math.min(minY, y);
+      maxX = Math.max(maxX, x);
+      maxY = Math.max(maxY, y);
+    }
+    
+    if (!behindCamera)
+    {
+      if ((minX > 1f) || (minY > 1f) || (maxX < -1f) || (maxY < -1f))
+      {
+        return;
+      }
+      
+      float width = camera.getWidth() * (camera.getViewPortRight() - camera.getViewPortLeft());
+      float height = camera.getHeight() * (camera.getViewPortTop() - camera.getViewPortBottom());
+      minTileX = Math.max(minTileX, (int) ((minX * 0.5f + 0.5f) * width / tileSize));
+      minTileY = Math.max(minTileY, (int) ((minY * 0.5f + 0.5f) * height / tileSize));
+      maxTileX = Math.min(maxTileX, (int) ((maxX * 0.5f + 0.5f) * width / tileSize));
+      maxTileY = Math.min(maxTileY, (int) ((maxY * 0.5f + 0.5f) * height / tileSize));
+    }
+    
+    for (int y = minTileY; y <= maxTileY; y++)
+    {
+      for (int x = minTileX; x <= maxTileX; x++)
+      {
+        int tile = y * numTilesX + x;
+        int count = tileCounts[tile];
+        
+        if (count == maxProjectorsPerTile)
+        {
+          numDroppedEntries++;
+          continue;
+        }
+        
+        tileProjectors[tile * maxProjectorsPerTile + count] = projectorIndex;
+        tileCounts[tile] = count + 1;
+      }
+    }
+  }
+  
+  /**
+   * @return The number of RGBA texels used per tile by write().
+   */  
+  public int getTexelsPerTile()
+  {
+    return (maxProjectorsPerTile + 4) / 4;
+  }
+  
+  /**
+   * Writes the tiles as RGBA float texels, tile after tile and row after row. 
+   * The first component of a tile holds its projector count, the projector 
+   * indices follow.
+   * @param store The buffer to write to, it needs room for 
+   * numTilesX * numTilesY * getTexelsPerTile() * 4 floats.
+   */  
+  public void write(FloatBuffer store)
+  {
+    int floatsPerTile = getTexelsPerTile() * 4;
+    store.clear();
+    
+    for (int tile = 0; tile < tileCounts.length; tile++)
+    {
+      int count = tileCounts[tile];
+      int offset = tile * maxProjectorsPerTile;
+      store.put(count);
+      
+      for (int i = 0; i < count; i++)
+      {
+        store.put(tileProjectors[offset + i]);
+      }
+      
+      for (int i = count + 1; i < floatsPerTile; i++)
+      {
+        store.put(0f);
+      }
+    }
+    
+    store.flip();
+  }
+  
+  /**
+   * @param tileX The horizontal tile index.
+   * @param tileY The vertical tile index.
+   * @return The number of projectors touching the tile.
+   */  
+  public int getNumProjectors(int tileX, int tileY)
+  {
+    return tileCounts[tileY * numTilesX + tileX];
+  }
+  
+  /**
+   * @return The number of times a projector was dropped by a full tile 
+   * since the last call to clear().
+   */  
+  public int getNumDroppedEntries()
+  {
+    return numDroppedEntries;
+  }
+  
+  /**
+   * @return The edge length of a tile in pixels.
+   */  
+  public int getTileSize()
+  {
+    return tileSize;
+  }
+  
+  /**
+   * @return The number of projectors a tile can hold.
+   */  
+  public int getMaxProjectorsPerTile()
+  {
+    return maxProjectorsPerTile;
+  }
+  
+  /**
+   * @return The number of tile columns.
+   */  
+  public int getNumTilesX()
+  {
+    return numTilesX;
+  }
+  
+  /**
+   * @return The number of tile rows.
+   */  
+  public int getNumTilesY()
+  {
+    return numTilesY;
+  }
+}
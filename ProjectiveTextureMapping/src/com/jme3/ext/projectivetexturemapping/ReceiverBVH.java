@@ -0,0 +1,612 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera.FrustumIntersect;
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.renderer.queue.RenderQueue.Bucket;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * An incrementally updated bounding volume hierarchy over the world bounds 
+ * of receiver geometry. TextureProjector renderers query it with each 
+ * projector frustum to find the geometry a projector can reach, instead of 
+ * testing every projector against every geometry.
+ * <p>
+ * Every leaf stores a slightly enlarged ("fat") box around its geometry's 
+ * world bound. update() only touches the leaves whose geometry moved out of 
+ * their fat box: these are removed and reinserted, refitting the nodes on 
+ * their path to the root. Everything else is left alone.
+ * <p>
+ * Every add, remove and refit is recorded in a change log, so the receiver 
+ * sets kept per projector (see ProjectorReceiverSet) only re-evaluate the 
+ * geometry that changed since they were last synchronized.
+ * 
+ * @author survivor
+ */
+public class ReceiverBVH 
+{
+  private static final float DEFAULT_MARGIN = 0.1f;
+  private static final int MIN_CHANGE_LOG_SIZE = 1024;
+  
+  private final IdentityHashMap<Geometry, BVHNode> leafMap;
+  private final ArrayList<BVHNode> leafList;
+  private final ArrayList<Geometry> changeLog;
+  private final Vector3f tempMin;
+  private final Vector3f tempMax;
+  private BVHNode root;
+  private BVHNode spareNode;
+  private float margin;
+  private int numRefittedLeaves;
+  private int changeLogStart;
+  
+  public ReceiverBVH()
+  {
+    leafMap = new IdentityHashMap<Geometry, BVHNode>();
+    leafList = new ArrayList<BVHNode>();
+    changeLog = new ArrayList<Geometry>();
+    tempMin = new Vector3f();
+    tempMax = new Vector3f();
+    root = null;
+    margin = DEFAULT_MARGIN;
+    numRefittedLeaves = 0;
+    changeLogStart = 0;
+  }
+  
+  /**
+   * Sets the distance by which the leaf boxes are enlarged. Geometry moving 
+   * less than the margin does not cause any refit. The default is 0.1f.
+   * @param margin The margin in world units.
+   */  
+  public void setMargin(float margin)
+  {
+    this.margin = margin;
+  }
+  
+  /**
+   * @return The distance by which the leaf boxes are enlarged.
+   */  
+  public float getMargin()
+  {
+    return margin;
+  }
+  
+  /**
+   * Adds a receiver. The geometry's world bound must be up to date.
+   * @param geometry The receiver geometry.
+   * @return false, if the geometry was already indexed.
+   */  
+  public boolean add(Geometry geometry)
+  {
+    if (leafMap.containsKey(geometry))
+    {
+      return false;
+    }
+    
+    BVHNode leaf = new BVHNode();
+    leaf.geometry = geometry;
+    leaf.leafIndex = leafList.size();
+    setFatBound(leaf, geometry.getWorldBound());
+    insertLeaf(leaf);
+    leafMap.put(geometry, leaf);
+    leafList.add(leaf);
+    changeLog.add(geometry);
+    return true;
+  }
+  
+  /**
+   * Adds all geometry below the spatial as receivers. Gui and Sky bucket 
+   * geometry is skipped. The world bounds must be up to date.
+   * @param spatial The spatial, e.g. a scene of the ViewPort.
+   * @return The number of geometries that were added.
+   */  
+  public int addAll(Spatial spatial)
+  {
+    if (spatial instanceof Node)
+    {
+      List<Spatial> children = ((Node) spatial).getChildren();
+      int numAdded = 0;
+      
+      for (int i = 0, n = children.size(); i < n; i++)
+      {
+        numAdded += addAll(children.get(i));
+      }
+      
+      return numAdded;
+    }
+    
+    if (spatial instanceof Geometry)
+    {
+      Bucket bucket = spatial.getQueueBucket();
+      
+      if ((bucket != Bucket.Gui) && (bucket != Bucket.Sky) && add((Geometry) spatial))
+      {
+        return 1;
+      }
+    }
+    
+    return 0;
+  }
+  
+  /**
+   * Removes all geometry below the spatial, e.g. when it is detached.
+   * @param spatial The spatial.
+   * @return The number of geometries that were removed.
+   */  
+  public int removeAll(Spatial spatial)
+  {
+    if (spatial instanceof Node)
+    {
+      List<Spatial> children = ((Node) spatial).getChildren();
+      int numRemoved = 0;
+      
+      for (int i = 0, n = children.size(); i < n; i++)
+      {
+        numRemoved += removeAll(children.get(i));
+      }
+      
+      return numRemoved;
+    }
+    
+    if ((spatial instanceof Geometry) && remove((Geometry) spatial))
+    {
+      return 1;
+    }
+    
+    return 0;
+  }
+  
+  /**
+   * Removes a receiver.
+   * @param geometry The receiver geometry.
+   * @return false, if the geometry was not indexed.
+   */  
+  public boolean remove(Geometry geometry)
+  {
+    BVHNode leaf = leafMap.remove(geometry);
+    
+    if (leaf == null)
+    {
+      return false;
+    }
+    
+    removeLeaf(leaf);
+    BVHNode last = leafList.remove(leafList.size() - 1);
+    
+    if (last != leaf)
+    {
+      last.leafIndex = leaf.leafIndex;
+      leafList.set(leaf.leafIndex, last);
+    }
+    
+    changeLog.add(geometry);
+    return true;
+  }
+  
+  /**
+   * @param geometry The receiver geometry.
+   * @return true, if the geometry is indexed.
+   */  
+  public boolean contains(Geometry geometry)
+  {
+    return leafMap.containsKey(geometry);
+  }
+  
+  /**
+   * @return The number of indexed receivers.
+   */  
+  public int size()
+  {
+    return leafList.size();
+  }
+  
+  /**
+   * Removes all receivers.
+   */  
+  public void clear()
+  {
+    for (int i = 0, n = leafList.size(); i < n; i++)
+    {
+      changeLog.add(leafList.get(i).geometry);
+    }
+    
+    leafMap.clear();
+    leafList.clear();
+    root = null;
+    spareNode = null;
+  }
+  
+  /**
+   * Refits the hierarchy for the receivers that moved out of their fat box. 
+   * Should be called once per frame after the geometric state is updated.
+   * @return The number of leaves that were refitted.
+   */  
+  public int update()
+  {
+    numRefittedLeaves = 0;
+    
+    // Receiver sets that fell this far behind are rebuilt instead.
+    if (changeLog.size() > Math.max(MIN_CHANGE_LOG_SIZE, 2 * leafList.size()))
+    {
+      changeLogStart += changeLog.size();
+      changeLog.clear();
+    }
+    
+    for (int i = 0, n = leafList.size(); i < n; i++)
+    {
+      BVHNode leaf = leafList.get(i);
+      BoundingVolume bound = leaf.geometry.getWorldBound();
+      getMinMax(bound, tempMin, tempMax);
+      
+      if (!leaf.contains(tempMin, tempMax))
+      {
+        removeLeaf(leaf);
+        setFatBound(leaf, bound);
+        insertLeaf(leaf);
+        changeLog.add(leaf.geometry);
+        numRefittedLeaves++;
+      }
+    }
+    
+    return numRefittedLeaves;
+  }
+  
+  /**
+   * @return The number of leaves refitted by the last call to update().
+   */  
+  public int getNumRefittedLeaves()
+  {
+    return numRefittedLeaves;
+  }
+  
+  /**
+   * @return The version of this index. It is incremented by every add, 
+   * remove and refit of a receiver.
+   */  
+  public int getVersion()
+  {
+    return changeLogStart + changeLog.size();
+  }
+  
+  /**
+   * @return The oldest version whose change is still logged. Changes before 
+   * it were discarded.
+   */  
+  public int getChangeLogStart()
+  {
+    return changeLogStart;
+  }
+  
+  /**
+   * Returns the geometry that was added, removed or refitted by a change.
+   * @param version The version of the change, from getChangeLogStart() up 
+   * to getVersion() exclusive.
+   * @return The changed geometry.
+   */  
+  public Geometry getChange(int version)
+  {
+    return changeLog.get(version - changeLogStart);
+  }
+  
+  /**
+   * Tests the box enclosing all receivers against the frustum.
+   * @param frustum The projector frustum.
+   * @return false, if the frustum cannot reach any receiver.
+   */  
+  public boolean intersects(ProjectorFrustum frustum)
+  {
+    return (root != null) && (frustum.contains(root.minX, root.minY, root.minZ, 
+      root.maxX, root.maxY, root.maxZ) != FrustumIntersect.Outside);
+  }
+  
+  /**
+   * Tests the enlarged leaf box of a receiver against the frustum. Unlike 
+   * the world bound, the leaf box only changes with a logged change.
+   * @param frustum The projector frustum.
+   * @param geometry The receiver geometry.
+   * @return true, if the geometry is indexed and its leaf box intersects the frustum.
+   */  
+  public boolean intersectsLeaf(ProjectorFrustum frustum, Geometry geometry)
+  {
+    BVHNode leaf = leafMap.get(geometry);
+    return (leaf != null) && (frustum.contains(leaf.minX, leaf.minY, leaf.minZ, 
+      leaf.maxX, leaf.maxY, leaf.maxZ) != FrustumIntersect.Outside);
+  }
+  
+  /**
+   * Adds all receivers whose enlarged leaf box intersects the frustum to the 
+   * store. This is a superset of query(), which also tests the world bounds.
+   * The queries keep no state of their own, so several threads may query 
+   * the index at once, as long as it is not modified or updated meanwhile.
+   * @param frustum The projector frustum.
+   * @param store The list receiving the geometry, it is not cleared.
+   */  
+  public void queryLeaves(ProjectorFrustum frustum, GeometryList store)
+  {
+    if (root != null)
+    {
+      queryLeaves(root, frustum, store);
+    }
+  }
+  
+  private void queryLeaves(BVHNode node, ProjectorFrustum frustum, GeometryList store)
+  {
+    FrustumIntersect intersect = frustum.contains(
+      node.minX, node.minY, node.minZ, node.maxX, node.maxY, node.maxZ);
+    
+    if (intersect == FrustumIntersect.Outside)
+    {
+      return;
+    }
+    
+    if ((node.geometry != null) || (intersect == FrustumIntersect.Inside))
+    {
+      addLeaves(node, store);
+    }
+    else
+    {
+      queryLeaves(node.left, frustum, store);
+      queryLeaves(node.right, frustum, store);
+    }
+  }
+  
+  /**
+   * Adds all receivers whose world bound intersects the frustum to the store.
+   * @param frustum The projector frustum.
+   * @param store The list receiving the geometry, it is not cleared.
+   */  
+  public void query(ProjectorFrustum frustum, GeometryList store)
+  {
+    if (root != null)
+    {
+      query(root, frustum, store);
+    }
+  }
+  
+  private void query(BVHNode node, ProjectorFrustum frustum, GeometryList store)
+  {
+    FrustumIntersect intersect = frustum.contains(
+      node.minX, node.minY, node.minZ, node.maxX, node.maxY, node.maxZ);
+    
+    if (intersect == FrustumIntersect.Outside)
+    {
+      return;
+    }
+    
+    if (node.geometry != null)
+    {
+      if ((intersect == FrustumIntersect.Inside) || 
+          frustum.intersects(node.geometry.getWorldBound()))
+      {
+        store.add(node.geometry);
+      }
+    }
+    else if (intersect == FrustumIntersect.Inside)
+    {
+      addLeaves(node, store);
+    }
+    else
+    {
+      query(node.left, frustum, store);
+      query(node.right, frustum, store);
+    }
+  }
+  
+  private void addLeaves(BVHNode node, GeometryList store)
+  {
+    if (node.geometry != null)
+    {
+      store.add(node.geometry);
+    }
+    else
+    {
+      addLeaves(node.left, store);
+      addLeaves(node.right, store);
+    }
+  }
+  
+  private void insertLeaf(BVHNode leaf)
+  {
+    if (root == null)
+    {
+      root = leaf;
+      leaf.parent = null;
+      return;
+    }
+    
+    // Descend to the sibling that grows the least by adding the leaf.
+    BVHNode sibling = root;
+    
+    while (sibling.geometry == null)
+    {
+      float leftCost = sibling.left.unionArea(leaf) - sibling.left.area();
+      float rightCost = sibling.right.unionArea(leaf) - sibling.right.area();
+      sibling = (leftCost <= rightCost) ? sibling.left : sibling.right;
+    }
+    
+    // Reuse the parent freed by removeLeaf(), so refitting does not allocate.
+    BVHNode oldParent = sibling.parent;
+    BVHNode newParent = (spareNode != null) ? spareNode : new BVHNode();
+    spareNode = null;
+    newParent.parent = oldParent;
+    newParent.left = sibling;
+    newParent.right = leaf;
+    sibling.parent = newParent;
+    leaf.parent = newParent;
+    
+    if (oldParent == null)
+    {
+      root = newParent;
+    }
+    else if (oldParent.left == sibling)
+    {
+      oldParent.left = newParent;
+    }
+    else
+    {
+      oldParent.right = newParent;
+    }
+    
+    refit(newParent);
+  }
+  
+  private void removeLeaf(BVHNode leaf)
+  {
+    if (leaf == root)
+    {
+      root = null;
+      return;
+    }
+    
+    BVHNode parent = leaf.parent;
+    BVHNode grandParent = parent.parent;
+    BVHNode sibling = (parent.left == leaf) ? parent.right : parent.left;
+    
+    if (grandParent == null)
+    {
+      root = sibling;
+      sibling.parent = null;
+    }
+    else
+    {
+      if (grandParent.left == parent)
+      {
+        grandParent.left = sibling;
+      }
+      else
+      {
+        grandParent.right = sibling;
+      }
+      
+      sibling.parent = grandParent;
+      refit(grandParent);
+    }
+    
+    parent.parent = null;
+    parent.left = null;
+    parent.right = null;
+    spareNode = parent;
+    leaf.parent = null;
+  }
+  
+  private void refit(BVHNode node)
+  {
+    while (node != null)
+    {
+      node.setUnion(node.left, node.right);
+      node = node.parent;
+    }
+  }
+  
+  private void setFatBound(BVHNode leaf, BoundingVolume bound)
+  {
+    getMinMax(bound, tempMin, tempMax);
+    leaf.minX = tempMin.x - margin;
+    leaf.minY = tempMin.y - margin;
+    leaf.minZ = tempMin.z - margin;
+    leaf.maxX = tempMax.x + margin;
+    leaf.maxY = tempMax.y + margin;
+    leaf.maxZ = tempMax.z + margin;
+  }
+  
+  private static void getMinMax(BoundingVolume bound, Vector3f min, Vector3f max)
+  {
+    if (bound instanceof BoundingBox)
+    {
+      ((BoundingBox) bound).getMin(min);
+      ((BoundingBox) bound).getMax(max);
+    }
+    else if (bound instanceof BoundingSphere)
+    {
+      float radius = ((BoundingSphere) bound).getRadius();
+      Vector3f center = bound.getCenter();
+      min.set(center.x - radius, center.y - radius, center.z - radius);
+      max.set(center.x + radius, center.y + radius, center.z + radius);
+    }
+    else
+    {
+      min.set(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+      max.set(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
+    }
+  }
+  
+  private static class BVHNode
+  {
+    float minX, minY, minZ, maxX, maxY, maxZ;
+    BVHNode parent;
+    BVHNode left;
+    BVHNode right;
+    Geometry geometry;
+    int leafIndex;
+    
+    boolean contains(Vector3f min, Vector3f max)
+    {
+      return (min.x >= minX) && (min.y >= minY) && (min.z >= minZ) && 
+             (max.x <= maxX) && (max.y <= maxY) && (max.z <= maxZ);
+    }
+    
+    void setUnion(BVHNode a, BVHNode b)
+    {
+      minX = Math.min(a.minX, b.minX);
+      minY = Math.min(a.minY, b.minY);
+      minZ = Math.min(a.minZ, b.minZ);
+      maxX = Math.max(a.maxX, b.maxX);
+      maxY = Math.max(a.maxY, b.maxY);
+      maxZ = Math.max(a.maxZ, b.maxZ);
+    }
+    
+    float area()
+    {
+      float dx = maxX - minX;
+      float dy = maxY - minY;
+      float dz = maxZ - minZ;
+      return 2f * (dx * dy + dy * dz + dz * dx);
+    }
+    
+    float unionArea(BVHNode other)
+    {
+      float dx = Math.max(maxX, other.maxX) - Math.min(minX, other.minX);
+      float dy = Math.max(maxY, other.maxY) - Math.min(minY, other.minY);
+      float dz = Math.max(maxZ, other.maxZ) - Math.min(minZ, other.minZ);
+      return 2f * (dx * dy + dy * dz + dz * dx);
+    }
+  }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.math.Plane;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera.FrustumIntersect;
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.scene.Geometry;
+import java.util.Arrays;
+
+/**
+ * The world bounds of a list of receivers, copied into primitive arrays 
+ * (structure of arrays), so many projector frustums can be tested against 
+ * them without calling BoundingVolume.whichSide() per plane and receiver.
+ * <p>
+ * A box is stored as center and extents, a sphere as center and radius, 
+ * a missing bound as an infinite radius. cull() runs one branch free loop 
+ * per frustum plane over all receivers, which the JIT can unroll and 
+ * vectorize, and keeps the smallest signed distance per receiver. The 
+ * result matches ProjectorFrustum.intersects(). Several threads can cull 
+ * against one loaded buffer, if each passes its own distance array.
+ * <p>
+ * load() also keeps the box enclosing all receivers, so a frustum missing 
+ * every receiver can be rejected with one test by intersects().
+ * 
+ * @author survivor
+ */
+public class ReceiverBoundsBuffer 
+{
+  private Geometry[] geometries;
+  private float[] centerX;
+  private float[] centerY;
+  private float[] centerZ;
+  private float[] extentX;
+  private float[] extentY;
+  private float[] extentZ;
+  private float[] radius;
+  private float[] distance;
+  private GeometryList source;
+  private int size;
+  private float minX, minY, minZ, maxX, maxY, maxZ;
+  private boolean unbounded;
+  
+  public ReceiverBoundsBuffer()
+  {
+    allocate(16);
+    source = null;
+    size = 0;
+    unbounded = false;
+  }
+  
+  private void allocate(int capacity)
+  {
+    geometries = new Geometry[capacity];
+    centerX = new float[capacity];
+    centerY = new float[capacity];
+    centerZ = new float[capacity];
+    extentX = new float[capacity];
+    extentY = new float[capacity];
+    extentZ = new float[capacity];
+    radius = new float[capacity];
+    distance = new float[capacity];
+  }
+  
+  /**
+   * Copies the world bounds of the geometry. The arrays only grow, so 
+   * reloading a list of similar size does not allocate.
+   * @param geometryList The receivers, their world bounds must be up to date.
+   */  
+  public void load(GeometryList geometryList)
+  {
+    size = geometryList.size();
+    source = geometryList;
+    
+    if (size > geometries.length)
+    {
+      allocate(Math.max(size, geometries.length * 2));
+    }
+    
+    minX = minY = minZ = Float.POSITIVE_INFINITY;
+    maxX = maxY = maxZ = Float.NEGATIVE_INFINITY;
+    unbounded = false;
+    
+    for (int i = 0; i < size; i++)
+    {
+      Geometry geometry = geometryList.get(i);
+      BoundingVolume bound = geometry.getWorldBound();
+      geometries[i] = geometry;
+      
+      if (bound instanceof BoundingBox)
+      {
+        BoundingBox box = (BoundingBox) bound;
+        setCenter(i, box.getCenter());
+        extentX[i] = box.getXExtent();
+        extentY[i] = box.getYExtent();
+        extentZ[i] = box.getZExtent();
+        radius[i] = 0f;
+      }
+      else if (bound instanceof BoundingSphere)
+      {
+        setCenter(i, bound.getCenter());
+        extentX[i] = 0f;
+        extentY[i] = 0f;
+        extentZ[i] = 0f;
+        radius[i] = ((BoundingSphere) bound).getRadius();
+      }
+      else
+      {
+        centerX[i] = 0f;
+        centerY[i] = 0f;
+        centerZ[i] = 0f;
+        extentX[i] = 0f;
+        extentY[i] = 0f;
+        extentZ[i] = 0f;
+        radius[i] = Float.POSITIVE_INFINITY;
+        unbounded = true;
+        continue;
+      }
+      
+      float r = radius[i];
+      minX = Math.min(minX, centerX[i] - extentX[i] - r);
+      minY = Math.min(minY, centerY[i] - extentY[i] - r);
+      minZ = Math.min(minZ, centerZ[i] - extentZ[i] - r);
+      maxX = Math.max(maxX, centerX[i] + extentX[i] + r);
+      maxY = Math.max(maxY, centerY[i] + extentY[i] + r);
+      maxZ = Math.max(maxZ, centerZ[i] + extentZ[i] + r);
+    }
+    
+    // Drop references to geometry of a longer list loaded before.
+    Arrays.fill(geometries, size, geometries.length, null);
+  }
+  
+  private void setCenter(int i, Vector3f center)
+  {
+    centerX[i] = center.x;
+    centerY[i] = center.y;
+    centerZ[i] = center.z;
+  }
+  
+  /**
+   * @return The list loaded last, or null.
+   */  
+  public GeometryList getSource()
+  {
+    return source;
+  }
+  
+  /**
+   * @return The number of loaded receivers.
+   */  
+  public int size()
+  {
+    return size;
+  }
+  
+  /**
+   * Forgets the loaded receivers.
+   */  
+  public void clear()
+  {
+    Arrays.fill(geometries, 0, size, null);
+    source = null;
+    size = 0;
+  }
+  
+  /**
+   * Tests the frustum against the box enclosing all loaded receivers.
+   * @param frustum The projector frustum.
+   * @return false, if cull() would not find any receiver, true if it may.
+   */  
+  public boolean intersects(ProjectorFrustum frustum)
+  {
+    if (unbounded)
+    {
+      return true;
+    }
+    
+    if (size == 0)
+    {
+      return false;
+    }
+    
+    return frustum.contains(minX, minY, minZ, maxX, maxY, maxZ) != FrustumIntersect.Outside;
+  }
+  
+  /**
+   * Adds the loaded receivers whose bound intersects the frustum to the store.
+   * @param frustum The projector frustum.
+   * @param store The list receiving the geometry, it is not cleared.
+   */  
+  public void cull(ProjectorFrustum frustum, GeometryList store)
+  {
+    cull(frustum, store, distance);
+  }
+  
+  /**
+   * Adds the loaded receivers whose bound intersects the frustum to the 
+   * store, keeping the distances in the given array. Only reads this buffer, 
+   * so several threads may call it at once with an array each.
+   * @param frustum The projector frustum.
+   * @param store The list receiving the geometry, it is not cleared.
+   * @param distance An array of at least size() floats.
+   */  
+  public void cull(ProjectorFrustum frustum, GeometryList store, float[] distance)
+  {
+    Arrays.fill(distance, 0, size, Float.POSITIVE_INFINITY);
+    
+    for (int p = 0; p < ProjectorFrustum.NUM_PLANES; p++)
+    {
+      Plane plane = frustum.getPlane(p);
+      Vector3f normal = plane.getNormal();
+      float nx = normal.x;
+      float ny = normal.y;
+      float nz = normal.z;
+      float ax = Math.abs(nx);
+      float ay = Math.abs(ny);
+      float az = Math.abs(nz);
+      float constant = plane.getConstant();
+      
+      // The signed distance of the point of the bound furthest along the 
+      // plane normal. Negative for any plane means outside.
+      for (int i = 0; i < size; i++)
+      {
+        float d = nx * centerX[i] + ny * centerY[i] + nz * centerZ[i] - constant + 
+                  ax * extentX[i] + ay * extentY[i] + az * extentZ[i] + radius[i];
+        distance[i] = Math.min(distance[i], d);
+      }
+    }
+    
+    for (int i = 0; i < size; i++)
+    {
+      if (distance[i] >= 0f)
+      {
+        store.add(geometries[i]);
+      }
+    }
+  }
+}
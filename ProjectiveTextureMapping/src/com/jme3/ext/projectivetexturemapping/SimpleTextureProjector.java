@@ -32,7 +32,6 @@
 package com.jme3.ext.projectivetexturemapping;
 
 import com.jme3.math.Matrix4f;
-import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
 import com.jme3.renderer.queue.GeometryList;
@@ -52,11 +51,15 @@ public class SimpleTextureProjector implements TextureProjector
                                                           0.0f, 0.0f, 0.0f, 1.0f);
   private Camera projectorCamera;
   private Matrix4f projectorViewProjectionMatrix;
+  private Matrix4f cameraViewProjectionMatrix;
+  private Matrix4f inverseViewProjectionMatrix;
+  private Vector3f projectorDirection;
   private Texture2D projectiveTextureMap;
   private GeometryList targetGeometryList;
   private float fallOffDistance;
   private float fallOffPower;
   private HashMap<Object, Object> parameters;
+  private int version;
     
 /**
  * Crates a new instance.
@@ -67,6 +70,10 @@ public class SimpleTextureProjector implements TextureProjector
   public SimpleTextureProjector(Texture2D projectiveTextureMap)
   {
     this.projectorViewProjectionMatrix = new Matrix4f();
+    this.cameraViewProjectionMatrix = new Matrix4f();
+    this.cameraViewProjectionMatrix.zero();
+    this.inverseViewProjectionMatrix = new Matrix4f();
+    this.projectorDirection = new Vector3f();
     this.projectiveTextureMap = projectiveTextureMap;
     this.projectorCamera = new Camera(
       projectiveTextureMap.getImage().getWidth(), 
@@ -74,6 +81,7 @@ public class SimpleTextureProjector implements TextureProjector
     this.fallOffDistance = Float.MAX_VALUE;
     this.fallOffPower = 3f;
     this.parameters = new HashMap<Object, Object>();
+    this.version = 0;
   }
   
 /**
@@ -85,6 +93,7 @@ public class SimpleTextureProjector implements TextureProjector
   public void setProjectiveTextureMap(Texture2D projectiveTextureMap)
   {
     this.projectiveTextureMap = projectiveTextureMap;
+    this.version++;
   }
   
   /**
@@ -104,7 +113,7 @@ public class SimpleTextureProjector implements TextureProjector
   @Override
   public Vector3f getProjectorDirection() 
   {
-    return this.projectorCamera.getDirection();
+    return this.projectorCamera.getDirection(this.projectorDirection);
   }
   
   /**
@@ -114,11 +123,38 @@ public class SimpleTextureProjector implements TextureProjector
   @Override
   public Matrix4f getProjectorViewProjectionMatrix()
   {
-    this.projectorViewProjectionMatrix.set(biasMatrix);
-    this.projectorViewProjectionMatrix.multLocal(this.projectorCamera.getViewProjectionMatrix());
+    updateViewProjectionMatrix();
     return this.projectorViewProjectionMatrix;
   }
   
+  /**
+   * Recomputes the biased matrix only if the camera changed since the last call.
+   */  
+  private void updateViewProjectionMatrix()
+  {
+    Matrix4f viewProjectionMatrix = this.projectorCamera.getViewProjectionMatrix();
+    
+    if (!this.cameraViewProjectionMatrix.equals(viewProjectionMatrix))
+    {
+      this.cameraViewProjectionMatrix.set(viewProjectionMatrix);
+      this.projectorViewProjectionMatrix.set(biasMatrix);
+      this.projectorViewProjectionMatrix.multLocal(viewProjectionMatrix);
+      this.version++;
+    }
+  }
+  
+  /**
+   * @return A number that changes whenever the projector camera, the texture, 
+   * the fall off, the target geometry or a custom parameter changes.
+   * @see TextureProjector
+   */  
+  @Override
+  public int getVersion()
+  {
+    updateViewProjectionMatrix();
+    return this.version;
+  }
+  
   /**
    * @return true, if this TextureProjector uses parallel projection.
    * @see TextureProjector
@@ -158,6 +194,7 @@ public class SimpleTextureProjector implements TextureProjector
   public void setTargetGeometryList(GeometryList targetGeometryList) 
   {
     this.targetGeometryList = targetGeometryList;
+    this.version++;
   }
   
   /**
@@ -175,6 +212,7 @@ public class SimpleTextureProjector implements TextureProjector
   public void setFallOffDistance(float fallOffDistance)
   {
     this.fallOffDistance = fallOffDistance;
+    this.version++;
   }
   
   /**
@@ -191,6 +229,7 @@ public class SimpleTextureProjector implements TextureProjector
   public void setFallOffPower(float fallOffPower)
   {
     this.fallOffPower = fallOffPower;
+    this.version++;
   }
   
   /**
@@ -217,6 +256,7 @@ public class SimpleTextureProjector implements TextureProjector
   public void setParameter(Object key, Object value)
   {
     this.parameters.put(key, value);
+    this.version++;
   }
     
   /**
@@ -230,14 +270,28 @@ public class SimpleTextureProjector implements TextureProjector
     final float n = 0;
     final float f = 1f;
     
-    points[0].set(projectorCamera.getWorldCoordinates(new Vector2f(0, 0), n));
-    points[1].set(projectorCamera.getWorldCoordinates(new Vector2f(0, h), n));
-    points[2].set(projectorCamera.getWorldCoordinates(new Vector2f(w, h), n));
-    points[3].set(projectorCamera.getWorldCoordinates(new Vector2f(w, 0), n));
+    // Camera.getWorldCoordinates() allocates an inverse matrix per call.
+    inverseViewProjectionMatrix.set(projectorCamera.getViewProjectionMatrix()).invertLocal();
+    
+    getWorldCoordinates(0, 0, n, points[0]);
+    getWorldCoordinates(0, h, n, points[1]);
+    getWorldCoordinates(w, h, n, points[2]);
+    getWorldCoordinates(w, 0, n, points[3]);
 
-    points[4].set(projectorCamera.getWorldCoordinates(new Vector2f(0, 0), f));
-    points[5].set(projectorCamera.getWorldCoordinates(new Vector2f(0, h), f));
-    points[6].set(projectorCamera.getWorldCoordinates(new Vector2f(w, h), f));
-    points[7].set(projectorCamera.getWorldCoordinates(new Vector2f(w, 0), f));
+    getWorldCoordinates(0, 0, f, points[4]);
+    getWorldCoordinates(0, h, f, points[5]);
+    getWorldCoordinates(w, h, f, points[6]);
+    getWorldCoordinates(w, 0, f, points[7]);
+  }
+  
+  private void getWorldCoordinates(float x, float y, float projectionZPos, Vector3f store)
+  {
+    Camera c = projectorCamera;
+    store.set(
+      (x / c.getWidth() - c.getViewPortLeft()) / (c.getViewPortRight() - c.getViewPortLeft()) * 2 - 1,
+      (y / c.getHeight() - c.getViewPortBottom()) / (c.getViewPortTop() - c.getViewPortBottom()) * 2 - 1,
+      projectionZPos * 2 - 1);
+    float pw = inverseViewProjectionMatrix.multProj(store, store);
+    store.multLocal(1f / pw);
   }
 }
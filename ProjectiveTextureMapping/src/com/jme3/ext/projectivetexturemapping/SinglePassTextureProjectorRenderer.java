@@ -0,0 +1,564 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.material.MatParam;
+import com.jme3.material.MatParamOverride;
+import com.jme3.material.Material;
+import com.jme3.material.MaterialDef;
+import com.jme3.material.TechniqueDef;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Vector3f;
+import com.jme3.math.Vector4f;
+import com.jme3.post.SceneProcessor;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.renderer.queue.OpaqueComparator;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.shader.VarType;
+import com.jme3.texture.FrameBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A SceneProcessor that applies TextureProjectors in the main pass, inside 
+ * the receivers' own materials, instead of drawing the receivers a second 
+ * time with a blended projection material.
+ * <p>
+ * inject() swaps the materials of the receivers for copies whose material 
+ * definition was injected by the ProjectiveReceiverLocator, e.g. Lighting.j3md 
+ * or Unshaded.j3md. Each frame, up to numProjectorsPerReceiver projectors are 
+ * assigned to every receiver they reach, and handed to its shader through 
+ * MatParamOverrides of the geometry, so receivers sharing a material can 
+ * still receive different projectors. Further projectors reaching a full 
+ * receiver are not applied to it. No geometry is submitted by this processor.
+ * SinglePass lighting techniques of the injected definitions get a 
+ * ProjectiveReceiverLightingLogic, so the projection is blended only once 
+ * when a receiver is lit by more than one batch of lights.
+ * 
+ * @author survivor
+ * @see ProjectiveReceiverLocator
+ */
+public class SinglePassTextureProjectorRenderer implements SceneProcessor 
+{
+  /**
+   * The number of projectors per receiver used by the default constructor.
+   */  
+  public static final int DEFAULT_NUM_PROJECTORS_PER_RECEIVER = 4;
+  
+  private ViewPort viewPort;
+  private final AssetManager assetManager;
+  private final int numProjectorsPerReceiver;
+  private final ProjectorRegistry projectorRegistry;
+  private final List<TextureProjector> textureProjectors;
+  private final TargetGeometryCuller targetGeometryCuller;
+  private final ProjectorRenderStats stats;
+  private ProjectorLodPolicy lodPolicy;
+  private final IdentityHashMap<Material, Material> injectedMaterials;
+  private final IdentityHashMap<Geometry, Receiver> receiverMap;
+  private final ArrayList<Receiver> receiverList;
+  private final GeometryList receiverGeometryList;
+  private boolean receiverGeometryListChanged;
+
+  public SinglePassTextureProjectorRenderer(AssetManager assetManager) 
+  { 
+    this(assetManager, DEFAULT_NUM_PROJECTORS_PER_RECEIVER);
+  }
+  
+  /**
+   * Creates a new instance.
+   * @param assetManager The AssetManager.
+   * @param numProjectorsPerReceiver The number of projectors a receiver can 
+   * be hit by. Each value compiles its own shaders.
+   */  
+  public SinglePassTextureProjectorRenderer(AssetManager assetManager, int numProjectorsPerReceiver) 
+  { 
+    ProjectiveReceiverLocator.register(assetManager);
+    this.assetManager = assetManager;
+    this.numProjectorsPerReceiver = numProjectorsPerReceiver;
+    projectorRegistry = new ProjectorRegistry();
+    textureProjectors = projectorRegistry.getSnapshot();
+    targetGeometryCuller = new TargetGeometryCuller();
+    stats = new ProjectorRenderStats();
+    lodPolicy = null;
+    injectedMaterials = new IdentityHashMap<Material, Material>();
+    receiverMap = new IdentityHashMap<Geometry, Receiver>();
+    receiverList = new ArrayList<Receiver>();
+    receiverGeometryList = new GeometryList(new OpaqueComparator());
+    receiverGeometryListChanged = false;
+    viewPort = null;
+  }
+  
+  /**
+   * @return The metrics of the last frame. No passes are rendered.
+   */  
+  public ProjectorRenderStats getStats()
+  {
+    return stats;
+  }
+  
+  /**
+   * @return A list of TextureProjectors rendered by this instance, a 
+   * ProjectorRegistry. It may be changed from any thread. Changes are taken 
+   * over by the next preFrame(), so a change made while a frame renders shows 
+   * one frame later. While another thread holds the registry's lock, they 
+   * may be deferred by up to getMaxDeferredSnapshots() more frames.
+   * @see ProjectorRegistry#setMaxDeferredSnapshots(int)
+   */  
+  public List<TextureProjector> getTextureProjectors()
+  {
+    return projectorRegistry;
+  }
+  
+  /**
+   * @return The number of projectors a receiver can be hit by.
+   */  
+  public int getNumProjectorsPerReceiver()
+  {
+    return numProjectorsPerReceiver;
+  }
+  
+  /**
+   * Sets the policy that skips small TextureProjectors. Projectors at reduced 
+   * quality are applied like the others.
+   * @param lodPolicy The level of detail policy or null to apply all projectors.
+   */  
+  public void setLodPolicy(ProjectorLodPolicy lodPolicy)
+  {
+    this.lodPolicy = lodPolicy;
+  }
+  
+  /**
+   * @return The level of detail policy or null.
+   */  
+  public ProjectorLodPolicy getLodPolicy()
+  {
+    return lodPolicy;
+  }
+  
+  /**
+   * Makes all geometry below the spatial a receiver. Its material is replaced 
+   * by a copy using the injected material definition, geometry sharing a 
+   * material shares the copy as well. Must be called before the geometric 
+   * state of the spatial is updated.
+   * @param spatial The spatial, e.g. a scene of the ViewPort.
+   * @return The number of geometries that became receivers.
+   */  
+  public int inject(Spatial spatial)
+  {
+    if (spatial instanceof Node)
+    {
+      List<Spatial> children = ((Node) spatial).getChildren();
+      int numInjected = 0;
+      
+      for (int i = 0, n = children.size(); i < n; i++)
+      {
+        numInjected += inject(children.get(i));
+      }
+      
+      return numInjected;
+    }
+    
+    if (!(spatial instanceof Geometry) || receiverMap.containsKey((Geometry) spatial))
+    {
+      return 0;
+    }
+    
+    Geometry geometry = (Geometry) spatial;
+    Material material = geometry.getMaterial();
+    
+    if ((material == null) || (material.getMaterialDef().getAssetName() == null))
+    {
+      return 0;
+    }
+    
+    Material injectedMaterial = injectedMaterials.get(material);
+    
+    if (injectedMaterial == null)
+    {
+      injectedMaterial = createInjectedMaterial(material);
+      injectedMaterials.put(material, injectedMaterial);
+    }
+    
+    Receiver receiver = new Receiver(geometry, material, numProjectorsPerReceiver);
+    geometry.setMaterial(injectedMaterial);
+    receiver.addOverrides();
+    receiverMap.put(geometry, receiver);
+    receiverList.add(receiver);
+    receiverGeometryListChanged = true;
+    return 1;
+  }
+  
+  private Material createInjectedMaterial(Material material)
+  {
+    Material injectedMaterial = new Material(assetManager, ProjectiveReceiverLocator.getMaterialDefName(
+      material.getMaterialDef().getAssetName(), numProjectorsPerReceiver));
+    
+    for (MatParam param : material.getParams())
+    {
+      injectedMaterial.setParam(param.getName(), param.getVarType(), param.getValue());
+    }
+    
+    injectedMaterial.setName(material.getName());
+    injectedMaterial.getAdditionalRenderState().set(material.getAdditionalRenderState());
+    injectedMaterial.setTransparent(material.isTransparent());
+    injectedMaterial.setReceivesShadows(material.isReceivesShadows());
+    installLightingLogic(injectedMaterial.getMaterialDef());
+    return injectedMaterial;
+  }
+  
+  // The MaterialDef is shared by all materials loaded from it, so the logic 
+  // is installed once.
+  private static void installLightingLogic(MaterialDef materialDef)
+  {
+    List<TechniqueDef> techniqueDefs = materialDef.getTechniqueDefs(TechniqueDef.DEFAULT_TECHNIQUE_NAME);
+    
+    for (int i = 0, n = (techniqueDefs == null) ? 0 : techniqueDefs.size(); i < n; i++)
+    {
+      TechniqueDef techniqueDef = techniqueDefs.get(i);
+      
+      if ((techniqueDef.getLightMode() == TechniqueDef.LightMode.SinglePass) && 
+          !(techniqueDef.getLogic() instanceof ProjectiveReceiverLightingLogic))
+      {
+        techniqueDef.setLogic(new ProjectiveReceiverLightingLogic(techniqueDef.getLogic()));
+      }
+    }
+  }
+  
+  /**
+   * Restores the original material of the receivers below the spatial. 
+   * Must be called before the geometric state of the spatial is updated.
+   * @param spatial The spatial.
+   * @return The number of geometries that were restored.
+   */  
+  public int restore(Spatial spatial)
+  {
+    if (spatial instanceof Node)
+    {
+      List<Spatial> children = ((Node) spatial).getChildren();
+      int numRestored = 0;
+      
+      for (int i = 0, n = children.size(); i < n; i++)
+      {
+        numRestored += restore(children.get(i));
+      }
+      
+      return numRestored;
+    }
+    
+    Receiver receiver = (spatial instanceof Geometry) ? receiverMap.remove((Geometry) spatial) : null;
+    
+    if (receiver == null)
+    {
+      return 0;
+    }
+    
+    receiver.removeOverrides();
+    receiver.geometry.setMaterial(receiver.originalMaterial);
+    receiverList.remove(receiver);
+    receiverGeometryListChanged = true;
+    return 1;
+  }
+  
+  /**
+   * @return The number of receivers.
+   */  
+  public int getNumReceivers()
+  {
+    return receiverList.size();
+  }
+  
+  /**
+   * Initializes this instance.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void initialize(RenderManager rm, ViewPort vp) 
+  {
+    viewPort = vp;
+  }
+
+  /**
+   * @return true, if this instance is initialized, false otherwise.
+   * @see SceneProcessor
+   */  
+  @Override
+  public boolean isInitialized() 
+  {
+    return viewPort != null;
+  }
+
+  /**
+   * Takes the snapshot of the TextureProjectors rendered in this frame.
+   * Called before the a frame is rendered.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void preFrame(float tpf) 
+  { 
+    stats.beginFrame();
+    projectorRegistry.updateSnapshot();
+    stats.pauseFrame();
+  }
+  
+  /**
+   * Assigns the TextureProjectors to the receivers they reach, before the 
+   * receivers are rendered with the render queue.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void postQueue(RenderQueue rq) 
+  { 
+    stats.beginDraws();
+    targetGeometryCuller.beginFrame(viewPort);
+    
+    if (receiverGeometryListChanged)
+    {
+      receiverGeometryList.clear();
+      
+      for (int i = 0, n = receiverList.size(); i < n; i++)
+      {
+        receiverGeometryList.add(receiverList.get(i).geometry);
+      }
+      
+      receiverGeometryListChanged = false;
+    }
+    
+    for (int i = 0, n = receiverList.size(); i < n; i++)
+    {
+      receiverList.get(i).numProjectors = 0;
+    }
+    
+    if (lodPolicy != null)
+    {
+      lodPolicy.update(viewPort.getCamera(), textureProjectors, targetGeometryCuller, 
+        receiverGeometryList, Integer.MAX_VALUE);
+    }
+    
+    for (int p = 0, n = textureProjectors.size(); p < n; p++)
+    {
+      TextureProjector textureProjector = textureProjectors.get(p);
+      ProjectorLodPolicy.Level level = (lodPolicy != null) ? lodPolicy.getLevel(p) : null;
+      
+      if (level == ProjectorLodPolicy.Level.SKIPPED)
+      {
+        stats.onProjectorSkipped();
+        continue;
+      }
+      
+      // The level of detail policy already culled the invisible projectors.
+      if ((level == ProjectorLodPolicy.Level.CULLED) || 
+          ((level == null) && !targetGeometryCuller.isVisible(textureProjector, receiverGeometryList)))
+      {
+        stats.onProjectorCulled();
+        continue;
+      }
+      
+      GeometryList culledGeometryList = targetGeometryCuller.cull(textureProjector, receiverGeometryList);
+      
+      if (culledGeometryList.size() == 0)
+      {
+        stats.onProjectorCulled();
+        continue;
+      }
+      
+      boolean assigned = false;
+      
+      for (int i = 0, m = culledGeometryList.size(); i < m; i++)
+      {
+        Receiver receiver = receiverMap.get(culledGeometryList.get(i));
+        
+        if (receiver.numProjectors < numProjectorsPerReceiver)
+        {
+          receiver.setProjector(receiver.numProjectors++, textureProjector);
+          stats.onParamUpdates(1);
+          assigned = true;
+        }
+      }
+      
+      if (assigned)
+      {
+        stats.onProjectorDrawn();
+      }
+      else
+      {
+        stats.onProjectorSkipped();
+      }
+    }
+    
+    for (int i = 0, n = receiverList.size(); i < n; i++)
+    {
+      receiverList.get(i).updateOverrides();
+    }
+    
+    stats.endFrame();
+  }
+
+  /**
+   * Called after a frame has been rendered. 
+   * @see SceneProcessor
+   */  
+  @Override
+  public void postFrame(FrameBuffer out) { }
+
+  /**
+   * Cleans up this instance.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void cleanup() 
+  {
+  }
+
+  /**
+   * Called if the shape of the ViewPort changed.
+   * @see SceneProcessor
+   */  
+  @Override
+  public void reshape(ViewPort vp, int w, int h) 
+  {
+  }
+  
+  /**
+   * The projector slots of one receiver geometry. The overrides are added 
+   * once, later frames only change their values and enabled state, which 
+   * does not need a geometric state update.
+   */  
+  private static class Receiver
+  {
+    final Geometry geometry;
+    final Material originalMaterial;
+    final Matrix4f[] matrices;
+    final Vector4f[] locations;
+    final Vector4f[] params;
+    final MatParamOverride numProjectorsOverride;
+    final MatParamOverride[] projectiveMapOverrides;
+    final MatParamOverride[] arrayOverrides;
+    int numProjectors;
+    
+    Receiver(Geometry geometry, Material originalMaterial, int numSlots)
+    {
+      this.geometry = geometry;
+      this.originalMaterial = originalMaterial;
+      matrices = new Matrix4f[numSlots];
+      locations = new Vector4f[numSlots];
+      params = new Vector4f[numSlots];
+      projectiveMapOverrides = new MatParamOverride[numSlots];
+      
+      for (int i = 0; i < numSlots; i++)
+      {
+        matrices[i] = new Matrix4f();
+        locations[i] = new Vector4f();
+        params[i] = new Vector4f();
+        projectiveMapOverrides[i] = new MatParamOverride(VarType.Texture2D, "ProjectiveMap" + i, null);
+        projectiveMapOverrides[i].setEnabled(false);
+      }
+      
+      numProjectorsOverride = new MatParamOverride(VarType.Int, "NumProjectors", Integer.valueOf(0));
+      numProjectorsOverride.setEnabled(false);
+      arrayOverrides = new MatParamOverride[] {
+        new MatParamOverride(VarType.Matrix4Array, "ProjectorViewProjectionMatrices", matrices), 
+        new MatParamOverride(VarType.Vector4Array, "ProjectorLocations", locations), 
+        new MatParamOverride(VarType.Vector4Array, "ProjectorParams", params)
+      };
+      numProjectors = 0;
+    }
+    
+    void addOverrides()
+    {
+      geometry.addMatParamOverride(numProjectorsOverride);
+      
+      for (int i = 0; i < projectiveMapOverrides.length; i++)
+      {
+        geometry.addMatParamOverride(projectiveMapOverrides[i]);
+      }
+      
+      for (int i = 0; i < arrayOverrides.length; i++)
+      {
+        geometry.addMatParamOverride(arrayOverrides[i]);
+      }
+    }
+    
+    void removeOverrides()
+    {
+      geometry.removeMatParamOverride(numProjectorsOverride);
+      
+      for (int i = 0; i < projectiveMapOverrides.length; i++)
+      {
+        geometry.removeMatParamOverride(projectiveMapOverrides[i]);
+      }
+      
+      for (int i = 0; i < arrayOverrides.length; i++)
+      {
+        geometry.removeMatParamOverride(arrayOverrides[i]);
+      }
+    }
+    
+    void setProjector(int i, TextureProjector textureProjector)
+    {
+      matrices[i].set(textureProjector.getProjectorViewProjectionMatrix());
+      
+      if (textureProjector.isParallelProjection())
+      {
+        Vector3f direction = textureProjector.getProjectorDirection();
+        locations[i].set(-direction.x, -direction.y, -direction.z, 0f);
+      }
+      else
+      {
+        Vector3f location = textureProjector.getProjectorLocation();
+        locations[i].set(location.x, location.y, location.z, 1f);
+      }
+      
+      params[i].set(textureProjector.getFallOffDistance(), textureProjector.getFallOffPower(), 0f, 0f);
+      projectiveMapOverrides[i].setValue(textureProjector.getProjectiveTexture());
+    }
+    
+    // NUM_PROJECTORS follows the number of assigned projectors, so receivers 
+    // without any keep the shader of the original material definition.
+    void updateOverrides()
+    {
+      numProjectorsOverride.setEnabled(numProjectors > 0);
+      numProjectorsOverride.setValue(Integer.valueOf(numProjectors));
+      
+      for (int i = 0; i < projectiveMapOverrides.length; i++)
+      {
+        projectiveMapOverrides[i].setEnabled(i < numProjectors);
+      }
+    }
+  }
+}
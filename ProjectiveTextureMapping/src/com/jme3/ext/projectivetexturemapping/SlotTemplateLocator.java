@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetLoadException;
+import com.jme3.asset.AssetLocator;
+import com.jme3.asset.AssetManager;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An AssetLocator generating material definitions and shaders for a given 
+ * number of projector slots from a template. A request for 
+ * "assets/ProjectiveMultiTextureMapping16.frag" is answered by expanding 
+ * "assets/templates/ProjectiveMultiTextureMapping.frag" with 16 slots.
+ * The templates live in a folder of their own, so they cannot be loaded 
+ * by mistake. "assets/ProjectiveMultiTextureMapping.j3md" is the template 
+ * expanded with 8 slots, which can be loaded without this locator.
+ * <p>
+ * Inside a template, the lines between "//#slot" and "//#endslot" are 
+ * repeated for every slot with "$i" replaced by the slot index. 
+ * "$n" is replaced by the number of slots everywhere.
+ * 
+ * @author survivor
+ */
+public class SlotTemplateLocator implements AssetLocator
+{
+  public static final String ASSET_FOLDER = "com/jme3/ext/projectivetexturemapping/assets/";
+  public static final String TEMPLATE_FOLDER = ASSET_FOLDER + "templates/";
+  
+  private static final Pattern ASSET_NAME_PATTERN = Pattern.compile(
+    "^/?" + Pattern.quote(ASSET_FOLDER) + "([A-Za-z]+)([0-9]+)\\.(j3md|vert|frag|glsllib)$");
+  private static final String SLOT_BEGIN = "//#slot";
+  private static final String SLOT_END = "//#endslot";
+  
+  /**
+   * Registers this locator with the AssetManager, if not yet done.
+   * @param assetManager The AssetManager.
+   */  
+  public static void register(AssetManager assetManager)
+  {
+    assetManager.unregisterLocator("/", SlotTemplateLocator.class);
+    assetManager.registerLocator("/", SlotTemplateLocator.class);
+  }
+  
+  /**
+   * @param templateName The name of the template without folder and extension, 
+   * e.g. "ProjectiveMultiTextureMapping".
+   * @param numSlots The number of slots.
+   * @param extension The extension of the asset, e.g. "j3md".
+   * @return The name of the asset to be loaded.
+   */  
+  public static String getAssetName(String templateName, int numSlots, String extension)
+  {
+    return ASSET_FOLDER + templateName + numSlots + "." + extension;
+  }
+  
+  /**
+   * Expands a template.
+   * @param template The template source.
+   * @param numSlots The number of slots.
+   * @return The expanded source.
+   */  
+  public static String expand(String template, int numSlots)
+  {
+    StringBuilder result = new StringBuilder(template.length() * 2);
+    StringBuilder slot = null;
+    String[] lines = template.split("\r?\n", -1);
+    
+    for (int l = 0; l < lines.length; l++)
+    {
+      String line = lines[l];
+      String trimmedLine = line.trim();
+      
+      if (trimmedLine.equals(SLOT_BEGIN))
+      {
+        slot = new StringBuilder();
+      }
+      else if (trimmedLine.equals(SLOT_END))
+      {
+        if (slot == null)
+        {
+          throw new IllegalArgumentException(SLOT_END + " without " + SLOT_BEGIN + " in line " + (l + 1));
+        }
+        
+        for (int i = 0; i < numSlots; i++)
+        {
+          result.append(slot.toString().replace("$i", String.valueOf(i)));
+        }
+        
+        slot = null;
+      }
+      else if (slot != null)
+      {
+        slot.append(line).append('\n');
+      }
+      else
+      {
+        result.append(line);
+        
+        if (l < lines.length - 1)
+        {
+          result.append('\n');
+        }
+      }
+    }
+    
+    if (slot != null)
+    {
+      throw new IllegalArgumentException(SLOT_BEGIN + " without " + SLOT_END);
+    }
+    
+    return result.toString().replace("$n", String.valueOf(numSlots));
+  }
+  
+  @Override
+  public void setRootPath(String rootPath) { }
+
+  @Override
+  public AssetInfo locate(AssetManager manager, AssetKey key) 
+  {
+    Matcher matcher = ASSET_NAME_PATTERN.matcher(key.getName());
+    
+    if (!matcher.matches())
+    {
+      return null;
+    }
+    
+    String templateName = TEMPLATE_FOLDER + matcher.group(1) + "." + matcher.group(3);
+    int numSlots = Integer.parseInt(matcher.group(2));
+    InputStream in = SlotTemplateLocator.class.getClassLoader().getResourceAsStream(templateName);
+    
+    if (in == null)
+    {
+      return null;
+    }
+    
+    try
+    {
+      final byte[] expanded = expand(readFully(in), numSlots).getBytes("UTF-8");
+      
+      return new AssetInfo(manager, key) 
+      {
+        @Override
+        public InputStream openStream() 
+        {
+          return new ByteArrayInputStream(expanded);
+        }
+      };
+    }
+    catch (IOException ex)
+    {
+      throw new AssetLoadException("Failed to expand template " + templateName, ex);
+    }
+  }
+  
+  static String readFully(InputStream in) throws IOException, UnsupportedEncodingException
+  {
+    try
+    {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int numBytes;
+      
+      while ((numBytes = in.read(buffer)) != -1)
+      {
+        out.write(buffer, 0, numBytes);
+      }
+      
+      return out.toString("UTF-8");
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,749 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.math.Plane;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.renderer.queue.OpaqueComparator;
+import com.jme3.renderer.queue.RenderQueue.Bucket;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.Spatial.CullHint;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Culls target geometry against the frustum of a TextureProjector, so each 
+ * projector only submits the geometry it can actually reach.
+ * If a TextureProjector has no target GeometryList, its receivers are 
+ * taken from the ReceiverBVH, if one is set. Each projector keeps its own 
+ * receiver set, which is only updated for the receivers and projectors that 
+ * changed. Otherwise the geometry visible in the ViewPort is collected once 
+ * per frame and used instead.
+ * <p>
+ * GeometryLists are culled through ReceiverBoundsBuffers. Each list gets a 
+ * buffer of its own per frame, from a pool keyed by identity, so a target 
+ * GeometryList shared by several projectors only has its bounds read once, 
+ * in whatever order the projectors use the lists.
+ * <p>
+ * isVisible() rejects projectors that cannot change the rendered image, 
+ * because their frustum misses the view frustum or all of their receivers, 
+ * before any receiver is culled.
+ * <p>
+ * A ParallelProjectorPreparer culls several projectors at once through 
+ * cullConcurrently(). The bounds buffers are then loaded on the rendering 
+ * thread before the projectors are culled.
+ * 
+ * @author survivor
+ */
+public class TargetGeometryCuller 
+{
+  private final ProjectorStateCache projectorStateCache;
+  private final GeometryList visibleGeometryList;
+  private final GeometryList culledGeometryList;
+  private final GeometryList unionGeometryList;
+  private final IdentityHashMap<Geometry, Boolean> unionGeometrySet;
+  private final ReceiverBoundsBuffer visibleBoundsBuffer;
+  private final IdentityHashMap<GeometryList, ReceiverBoundsBuffer> targetBoundsBuffers;
+  private final ArrayList<ReceiverBoundsBuffer> targetBoundsBufferPool;
+  private int numTargetBoundsBuffers;
+  private int maxConcurrentBoundsSize;
+  private final float[] viewCorners;
+  private final Vector3f viewDirection;
+  private final Vector3f viewLeft;
+  private final Vector3f viewUp;
+  private ReceiverBVH receiverIndex;
+  private ViewPort viewPort;
+  private boolean visibleGeometryCollected;
+  private int numRebuiltReceiverSets;
+  private int numUpdatedPairs;
+  
+  public TargetGeometryCuller()
+  {
+    projectorStateCache = new ProjectorStateCache();
+    visibleGeometryList = new GeometryList(new OpaqueComparator());
+    culledGeometryList = new GeometryList(new OpaqueComparator());
+    unionGeometryList = new GeometryList(new OpaqueComparator());
+    unionGeometrySet = new IdentityHashMap<Geometry, Boolean>();
+    visibleBoundsBuffer = new ReceiverBoundsBuffer();
+    targetBoundsBuffers = new IdentityHashMap<GeometryList, ReceiverBoundsBuffer>();
+    targetBoundsBufferPool = new ArrayList<ReceiverBoundsBuffer>();
+    numTargetBoundsBuffers = 0;
+    maxConcurrentBoundsSize = 0;
+    viewCorners = new float[8 * 3];
+    viewDirection = new Vector3f();
+    viewLeft = new Vector3f();
+    viewUp = new Vector3f();
+    receiverIndex = null;
+    viewPort = null;
+    visibleGeometryCollected = false;
+    numRebuiltReceiverSets = 0;
+    numUpdatedPairs = 0;
+  }
+  
+  /**
+   * Sets the spatial index used to find the receivers of TextureProjectors 
+   * without a target GeometryList. The index can be shared by several 
+   * renderers, it is updated by beginFrame(). Indexed geometry that is 
+   * culled with CullHint.Always or not attached to a scene of the ViewPort 
+   * does not receive projections.
+   * @param receiverIndex The receiver index or null to use the visible geometry of the ViewPort.
+   */  
+  public void setReceiverIndex(ReceiverBVH receiverIndex)
+  {
+    this.receiverIndex = receiverIndex;
+  }
+  
+  /**
+   * @return The receiver index or null, if the visible geometry of the ViewPort is used.
+   */  
+  public ReceiverBVH getReceiverIndex()
+  {
+    return receiverIndex;
+  }
+  
+  /**
+   * Prepares this instance for a new frame. Must be called before cull().
+   * @param viewPort The ViewPort that is being rendered.
+   */  
+  public void beginFrame(ViewPort viewPort)
+  {
+    this.viewPort = viewPort;
+    visibleGeometryCollected = false;
+    numRebuiltReceiverSets = 0;
+    numUpdatedPairs = 0;
+    visibleBoundsBuffer.clear();
+    
+    for (int i = 0; i < numTargetBoundsBuffers; i++)
+    {
+      targetBoundsBufferPool.get(i).clear();
+    }
+    
+    targetBoundsBuffers.clear();
+    numTargetBoundsBuffers = 0;
+    maxConcurrentBoundsSize = 0;
+    projectorStateCache.beginFrame();
+    updateViewCorners(viewPort.getCamera());
+    
+    if (receiverIndex != null)
+    {
+      receiverIndex.update();
+    }
+  }
+  
+  private void updateViewCorners(Camera camera)
+  {
+    Vector3f location = camera.getLocation();
+    // The getters without a store allocate a new vector.
+    Vector3f direction = camera.getDirection(viewDirection);
+    Vector3f left = camera.getLeft(viewLeft);
+    Vector3f up = camera.getUp(viewUp);
+    float near = camera.getFrustumNear();
+    float far = camera.getFrustumFar();
+    
+    for (int i = 0; i < 8; i++)
+    {
+      float depth = ((i & 4) == 0) ? near : far;
+      float scale = (camera.isParallelProjection() || (near <= 0f)) ? 1f : depth / near;
+      float x = (((i & 1) == 0) ? camera.getFrustumLeft() : camera.getFrustumRight()) * scale;
+      float y = (((i & 2) == 0) ? camera.getFrustumBottom() : camera.getFrustumTop()) * scale;
+      // The left vector points to negative frustum x.
+      viewCorners[i * 3]     = location.x + direction.x * depth - left.x * x + up.x * y;
+      viewCorners[i * 3 + 1] = location.y + direction.y * depth - left.y * x + up.y * y;
+      viewCorners[i * 3 + 2] = location.z + direction.z * depth - left.z * x + up.z * y;
+    }
+  }
+  
+  /**
+   * Returns the state of the TextureProjector. Its frustum is only updated, 
+   * if the projector's version changed since the last frame.
+   * @param textureProjector The TextureProjector.
+   * @return The state of the TextureProjector.
+   */  
+  public ProjectorState getProjectorState(TextureProjector textureProjector)
+  {
+    return projectorStateCache.get(textureProjector);
+  }
+  
+  /**
+   * @return The number of TextureProjectors whose state was refreshed in the 
+   * current frame, because they are new or changed.
+   */  
+  public int getNumRefreshedProjectors()
+  {
+    return projectorStateCache.getNumRefreshedProjectors();
+  }
+  
+  /**
+   * @return The number of receiver sets that were queried from scratch in 
+   * the current frame, because their TextureProjector is new or changed.
+   */  
+  public int getNumRebuiltReceiverSets()
+  {
+    return numRebuiltReceiverSets;
+  }
+  
+  /**
+   * @return The number of projector/receiver pairs evaluated in the current 
+   * frame to keep the receiver sets up to date.
+   */  
+  public int getNumUpdatedPairs()
+  {
+    return numUpdatedPairs;
+  }
+  
+  /**
+   * Culls the receivers of the TextureProjector against its frustum. These 
+   * are its target GeometryList, its receiver set in the receiver index 
+   * or the visible geometry of the ViewPort, in this order.
+   * The returned list is reused by the next call.
+   * @param textureProjector The TextureProjector to cull against.
+   * @return The geometry that should be rendered for the TextureProjector.
+   */  
+  public GeometryList cull(TextureProjector textureProjector)
+  {
+    GeometryList targetGeometryList = textureProjector.getTargetGeometryList();
+    
+    if (targetGeometryList != null)
+    {
+      return cull(textureProjector, targetGeometryList);
+    }
+    
+    if (receiverIndex != null)
+    {
+      ProjectorState state = getProjectorState(textureProjector);
+      ProjectorReceiverSet receiverSet = state.getReceiverSet();
+      
+      if (receiverSet.update(receiverIndex, state))
+      {
+        numRebuiltReceiverSets++;
+      }
+      
+      numUpdatedPairs += receiverSet.getNumUpdatedPairs();
+      culledGeometryList.clear();
+      addVisibleGeometry(state.getProjectorFrustum(), receiverSet.getReceivers(), culledGeometryList);
+      return culledGeometryList;
+    }
+    
+    if (!visibleGeometryCollected)
+    {
+      collectVisibleGeometry(viewPort);
+      visibleGeometryCollected = true;
+    }
+    
+    return cull(textureProjector, visibleGeometryList);
+  }
+  
+  /**
+   * Tests whether the TextureProjector can change the rendered image. Its 
+   * frustum must intersect the view frustum of the ViewPort's camera and 
+   * the box enclosing its receivers, as chosen by cull(TextureProjector).
+   * This is much cheaper than cull(), so an off-screen projector costs 
+   * next to nothing.
+   * @param textureProjector The TextureProjector to test.
+   * @return false, if cull() would return an empty list or only geometry 
+   * the projector cannot reach on screen.
+   */  
+  public boolean isVisible(TextureProjector textureProjector)
+  {
+    GeometryList targetGeometryList = textureProjector.getTargetGeometryList();
+    
+    if (targetGeometryList != null)
+    {
+      return isVisible(textureProjector, targetGeometryList);
+    }
+    
+    ProjectorState state = getProjectorState(textureProjector);
+    
+    if (receiverIndex != null)
+    {
+      // The receiver set is created with the first test, not in whatever 
+      // later frame the projector first reaches a receiver.
+      state.getReceiverSet();
+    }
+    
+    if (!intersectsView(state))
+    {
+      return false;
+    }
+    
+    if (receiverIndex != null)
+    {
+      return receiverIndex.intersects(state.getProjectorFrustum());
+    }
+    
+    if (!visibleGeometryCollected)
+    {
+      collectVisibleGeometry(viewPort);
+      visibleGeometryCollected = true;
+    }
+    
+    return loadBounds(visibleGeometryList).intersects(state.getProjectorFrustum());
+  }
+  
+  /**
+   * Tests whether the TextureProjector can change the rendered image, when 
+   * the source geometry is culled against it.
+   * @param textureProjector The TextureProjector to test.
+   * @param sourceGeometryList The geometry that will be culled.
+   * @return false, if the projector frustum misses the view frustum or the 
+   * box enclosing the source geometry.
+   * @see #isVisible(TextureProjector)
+   */  
+  public boolean isVisible(TextureProjector textureProjector, GeometryList sourceGeometryList)
+  {
+    ProjectorState state = getProjectorState(textureProjector);
+    return intersectsView(state) && 
+      loadBounds(sourceGeometryList).intersects(state.getProjectorFrustum());
+  }
+  
+  private boolean intersectsView(ProjectorState state)
+  {
+    // The bounding sphere of the projector frustum against the camera 
+    // planes, then the camera frustum corners against the projector planes. 
+    // Either finding a separating plane proves the frustums disjoint.
+    Camera camera = viewPort.getCamera();
+    Vector3f center = state.getBoundCenter();
+    float radius = state.getBoundRadius();
+    
+    // The camera keeps its six frustum planes as world planes 0 to 5.
+    for (int i = 0; i < 6; i++)
+    {
+      if (camera.getWorldPlane(i).pseudoDistance(center) < -radius)
+      {
+        return false;
+      }
+    }
+    
+    ProjectorFrustum projectorFrustum = state.getProjectorFrustum();
+    
+    for (int p = 0; p < ProjectorFrustum.NUM_PLANES; p++)
+    {
+      Plane plane = projectorFrustum.getPlane(p);
+      Vector3f normal = plane.getNormal();
+      float constant = plane.getConstant();
+      boolean outside = true;
+      
+      for (int i = 0; (i < 8) && outside; i++)
+      {
+        outside = normal.x * viewCorners[i * 3] + normal.y * viewCorners[i * 3 + 1] + 
+                  normal.z * viewCorners[i * 3 + 2] - constant < 0f;
+      }
+      
+      if (outside)
+      {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  private ReceiverBoundsBuffer loadBounds(GeometryList sourceGeometryList)
+  {
+    if (sourceGeometryList != visibleGeometryList)
+    {
+      return loadTargetBounds(sourceGeometryList);
+    }
+    
+    if (visibleBoundsBuffer.getSource() != sourceGeometryList)
+    {
+      visibleBoundsBuffer.load(sourceGeometryList);
+    }
+    
+    return visibleBoundsBuffer;
+  }
+  
+  private void addVisibleGeometry(ProjectorFrustum projectorFrustum, 
+    GeometryList sourceGeometryList, GeometryList store)
+  {
+    Camera camera = viewPort.getCamera();
+    
+    for (int i = 0, n = sourceGeometryList.size(); i < n; i++)
+    {
+      Geometry geometry = sourceGeometryList.get(i);
+      
+      if (!projectorFrustum.intersects(geometry.getWorldBound()))
+      {
+        continue;
+      }
+      
+      if (!isShown(geometry))
+      {
+        continue;
+      }
+      
+      if ((geometry.getWorldBound() == null) || !isOutsideView(camera, geometry.getWorldBound()))
+      {
+        store.add(geometry);
+      }
+    }
+  }
+  
+  // The receiver index may still hold geometry that is hidden by its own or 
+  // an ancestor's CullHint.Always, or that was detached from the scenes of 
+  // the ViewPort. collectVisibleGeometry() skips such geometry as well.
+  private boolean isShown(Geometry geometry)
+  {
+    Spatial root = geometry;
+    
+    for (Spatial spatial = geometry; spatial != null; spatial = spatial.getParent())
+    {
+      if (spatial.getLocalCullHint() == CullHint.Always)
+      {
+        return false;
+      }
+      
+      root = spatial;
+    }
+    
+    List<Spatial> scenes = viewPort.getScenes();
+    
+    for (int i = 0, n = scenes.size(); i < n; i++)
+    {
+      if (scenes.get(i) == root)
+      {
+        return true;
+      }
+    }
+    
+    return false;
+  }
+  
+  // Camera.contains() keeps state in the camera and in the bound, so the 
+  // planes are tested directly, which several threads may do at once.
+  private static boolean isOutsideView(Camera camera, BoundingVolume bound)
+  {
+    for (int i = 0; i < 6; i++)
+    {
+      if (bound.whichSide(camera.getWorldPlane(i)) == Plane.Side.Negative)
+      {
+        return true;
+      }
+    }
+    
+    return false;
+  }
+  
+  /**
+   * Returns the state of the TextureProjector without refreshing it and 
+   * creates what cullConcurrently() would otherwise create on first use.
+   * Must be called after beginFrame() and from the rendering thread.
+   * @param textureProjector The TextureProjector.
+   * @return Its state, to be passed to refreshConcurrently().
+   */  
+  ProjectorState prepareConcurrentCull(TextureProjector textureProjector)
+  {
+    ProjectorState state = projectorStateCache.acquire(textureProjector);
+    GeometryList targetGeometryList = textureProjector.getTargetGeometryList();
+    
+    if (targetGeometryList != null)
+    {
+      loadTargetBounds(targetGeometryList);
+    }
+    else if (receiverIndex != null)
+    {
+      state.getReceiverSet();
+    }
+    else
+    {
+      if (!visibleGeometryCollected)
+      {
+        collectVisibleGeometry(viewPort);
+        visibleGeometryCollected = true;
+      }
+      
+      maxConcurrentBoundsSize = Math.max(maxConcurrentBoundsSize, loadBounds(visibleGeometryList).size());
+    }
+    
+    return state;
+  }
+  
+  private ReceiverBoundsBuffer loadTargetBounds(GeometryList sourceGeometryList)
+  {
+    ReceiverBoundsBuffer boundsBuffer = targetBoundsBuffers.get(sourceGeometryList);
+    
+    if (boundsBuffer != null)
+    {
+      return boundsBuffer;
+    }
+    
+    if (numTargetBoundsBuffers == targetBoundsBufferPool.size())
+    {
+      targetBoundsBufferPool.add(new ReceiverBoundsBuffer());
+    }
+    
+    boundsBuffer = targetBoundsBufferPool.get(numTargetBoundsBuffers++);
+    boundsBuffer.load(sourceGeometryList);
+    targetBoundsBuffers.put(sourceGeometryList, boundsBuffer);
+    maxConcurrentBoundsSize = Math.max(maxConcurrentBoundsSize, boundsBuffer.size());
+    return boundsBuffer;
+  }
+  
+  /**
+   * @return The number of distances cullConcurrently() needs, once all 
+   * projectors of the frame passed through prepareConcurrentCull().
+   */  
+  int getConcurrentCullScratchSize()
+  {
+    return maxConcurrentBoundsSize;
+  }
+  
+  /**
+   * Refreshes a state returned by prepareConcurrentCull(). May be called 
+   * from any thread, for different projectors at once.
+   * @param state The state.
+   * @return true, if the state was refreshed.
+   */  
+  boolean refreshConcurrently(ProjectorState state)
+  {
+    return projectorStateCache.refresh(state);
+  }
+  
+  /**
+   * Thread safe counterpart of isVisible(). May be called from any thread, 
+   * for different projectors at once, once their state is refreshed.
+   * @param state The state returned by prepareConcurrentCull().
+   * @return false, if cullConcurrently() would find no receiver.
+   */  
+  boolean isVisibleConcurrently(ProjectorState state)
+  {
+    if (!intersectsView(state))
+    {
+      return false;
+    }
+    
+    ProjectorFrustum projectorFrustum = state.getProjectorFrustum();
+    GeometryList targetGeometryList = state.getTextureProjector().getTargetGeometryList();
+    
+    if (targetGeometryList != null)
+    {
+      return targetBoundsBuffers.get(targetGeometryList).intersects(projectorFrustum);
+    }
+    
+    if (receiverIndex != null)
+    {
+      return receiverIndex.intersects(projectorFrustum);
+    }
+    
+    return visibleBoundsBuffer.intersects(projectorFrustum);
+  }
+  
+  /**
+   * Thread safe counterpart of isVisible() followed by cull(). Stores the 
+   * receivers and the visibility in the packet. May be called from any 
+   * thread, for different projectors at once, once their state is refreshed.
+   * @param packet The packet of the TextureProjector.
+   * @param distance The scratch array of the calling thread, with at least 
+   * getConcurrentCullScratchSize() floats.
+   */  
+  void cullConcurrently(ProjectorDrawPacket packet, float[] distance)
+  {
+    ProjectorState state = packet.getState();
+    GeometryList store = packet.getReceivers();
+    store.clear();
+    packet.setVisible(false);
+    
+    if (!intersectsView(state))
+    {
+      return;
+    }
+    
+    ProjectorFrustum projectorFrustum = state.getProjectorFrustum();
+    GeometryList targetGeometryList = state.getTextureProjector().getTargetGeometryList();
+    
+    if (targetGeometryList != null)
+    {
+      ReceiverBoundsBuffer boundsBuffer = targetBoundsBuffers.get(targetGeometryList);
+      
+      if (boundsBuffer.intersects(projectorFrustum))
+      {
+        boundsBuffer.cull(projectorFrustum, store, distance);
+      }
+    }
+    else if (receiverIndex != null)
+    {
+      if (!receiverIndex.intersects(projectorFrustum))
+      {
+        return;
+      }
+      
+      ProjectorReceiverSet receiverSet = state.getReceiverSet();
+      boolean rebuilt = receiverSet.update(receiverIndex, state);
+      packet.onReceiverSetUpdated(rebuilt, receiverSet.getNumUpdatedPairs());
+      addVisibleGeometry(projectorFrustum, receiverSet.getReceivers(), store);
+    }
+    else if (visibleBoundsBuffer.intersects(projectorFrustum))
+    {
+      visibleBoundsBuffer.cull(projectorFrustum, store, distance);
+    }
+    
+    packet.setVisible(store.size() > 0);
+  }
+  
+  /**
+   * Adds the counts of concurrently prepared projectors to the counters of 
+   * this frame.
+   */  
+  void onConcurrentCulls(int numRefreshedProjectors, int numRebuiltReceiverSets, int numUpdatedPairs)
+  {
+    projectorStateCache.onRefreshed(numRefreshedProjectors);
+    this.numRebuiltReceiverSets += numRebuiltReceiverSets;
+    this.numUpdatedPairs += numUpdatedPairs;
+  }
+  
+  /**
+   * Collects the geometry of the ViewPort's scenes that is inside the 
+   * ViewPort's camera frustum. Gui and Sky bucket geometry is skipped.
+   * @param viewPort The ViewPort to collect the geometry from.
+   * @return The visible geometry.
+   */  
+  public GeometryList collectVisibleGeometry(ViewPort viewPort)
+  {
+    visibleGeometryList.clear();
+    visibleBoundsBuffer.clear();
+    Camera camera = viewPort.getCamera();
+    List<Spatial> scenes = viewPort.getScenes();
+    
+    for (int i = 0, n = scenes.size(); i < n; i++)
+    {
+      collectVisibleGeometry(scenes.get(i), camera);
+    }
+    
+    return visibleGeometryList;
+  }
+  
+  private void collectVisibleGeometry(Spatial spatial, Camera camera)
+  {
+    CullHint cullHint = spatial.getCullHint();
+    
+    if (cullHint == CullHint.Always)
+    {
+      return;
+    }
+    
+    if (cullHint != CullHint.Never)
+    {
+      camera.setPlaneState(0);
+      
+      if ((spatial.getWorldBound() != null) && 
+          (camera.contains(spatial.getWorldBound()) == Camera.FrustumIntersect.Outside))
+      {
+        return;
+      }
+    }
+    
+    if (spatial instanceof Node)
+    {
+      List<Spatial> children = ((Node) spatial).getChildren();
+      
+      for (int i = 0, n = children.size(); i < n; i++)
+      {
+        collectVisibleGeometry(children.get(i), camera);
+      }
+    }
+    else if (spatial instanceof Geometry)
+    {
+      Bucket bucket = spatial.getQueueBucket();
+      
+      if ((bucket != Bucket.Gui) && (bucket != Bucket.Sky))
+      {
+        visibleGeometryList.add((Geometry) spatial);
+      }
+    }
+  }
+  
+  /**
+   * @return The geometry collected by the last call to collectVisibleGeometry().
+   */  
+  public GeometryList getVisibleGeometryList()
+  {
+    return visibleGeometryList;
+  }
+  
+  /**
+   * Culls the source geometry against the frustum of the TextureProjector.
+   * The bounds of the source are read by the first call in a frame, the 
+   * list must not change afterwards until the next frame.
+   * The returned list is reused by the next call.
+   * @param textureProjector The TextureProjector to cull against.
+   * @param sourceGeometryList The geometry to be culled.
+   * @return The geometry whose world bound intersects the projector frustum.
+   */  
+  public GeometryList cull(TextureProjector textureProjector, GeometryList sourceGeometryList)
+  {
+    culledGeometryList.clear();
+    loadBounds(sourceGeometryList).cull(getProjectorState(textureProjector).getProjectorFrustum(), culledGeometryList);
+    return culledGeometryList;
+  }
+  
+  /**
+   * Clears the union of culled geometry, e.g. at the start of a render pass 
+   * serving several TextureProjectors.
+   */  
+  public void clearUnion()
+  {
+    unionGeometryList.clear();
+    unionGeometrySet.clear();
+  }
+  
+  /**
+   * Adds geometry to the union, skipping geometry already contained.
+   * @param geometryList The geometry to add, e.g. as returned by cull().
+   */  
+  public void addToUnion(GeometryList geometryList)
+  {
+    for (int i = 0, n = geometryList.size(); i < n; i++)
+    {
+      Geometry geometry = geometryList.get(i);
+      
+      if (unionGeometrySet.put(geometry, Boolean.TRUE) == null)
+      {
+        unionGeometryList.add(geometry);
+      }
+    }
+  }
+  
+  /**
+   * @return The union of the geometry added since the last call to clearUnion().
+   */  
+  public GeometryList getUnion()
+  {
+    return unionGeometryList;
+  }
+}
@@ -90,4 +90,11 @@ public interface TextureProjector
    * @return A custom parameter value.
    */  
   public Object getParameter(Object key);
+  
+  /**
+   * @return A number that changes whenever the view projection matrix, the 
+   * texture or another property of this TextureProjector changes. Renderers 
+   * use it to skip work for unchanged projectors.
+   */  
+  public int getVersion();
 }
@@ -31,7 +31,6 @@
  */
 package com.jme3.ext.projectivetexturemapping;
 
-import com.jme3.material.Material;
 import com.jme3.renderer.queue.RenderQueue;
 import com.jme3.asset.AssetManager;
 import com.jme3.post.SceneProcessor;
@@ -42,10 +41,13 @@ import com.jme3.renderer.queue.GeometryList;
 import com.jme3.texture.FrameBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A SceneProcessor that renders TextureProjectors, which means it projects 
  * textures on scene geometry.
+ * With a ForkJoinPool, the projectors are prepared in parallel in postQueue() 
+ * and postFrame() only submits the prepared geometry.
  * 
  * @author survivor
  */
@@ -53,26 +55,166 @@ public class TextureProjectorRenderer implements SceneProcessor
 {
   private RenderManager renderManager;
   private ViewPort viewPort;
-  private Material textureMat;
-  private ArrayList<TextureProjector> textureProjectors;
+  private ProjectorMaterialVariants materialVariants;
+  private final ProjectorRegistry projectorRegistry;
+  private final List<TextureProjector> textureProjectors;
+  private TargetGeometryCuller targetGeometryCuller;
+  private ProjectorRenderStats stats;
+  private ProjectorDepthAtlas depthAtlas;
+  private ProjectorLodPolicy lodPolicy;
+  private ParallelProjectorPreparer preparer;
+  private boolean prepared;
+  private int[] signatures;
+  private final ArrayList<TextureProjector> drawnProjectors;
 
   public TextureProjectorRenderer(AssetManager assetManager) 
   { 
-    textureMat = new Material(assetManager, "com/jme3/ext/projectivetexturemapping/assets/ProjectiveTextureMapping.j3md");
-    textureProjectors = new ArrayList<TextureProjector>();
+    materialVariants = new ProjectorMaterialVariants(assetManager, "com/jme3/ext/projectivetexturemapping/assets/ProjectiveTextureMapping.j3md");
+    projectorRegistry = new ProjectorRegistry();
+    textureProjectors = projectorRegistry.getSnapshot();
+    targetGeometryCuller = new TargetGeometryCuller();
+    stats = new ProjectorRenderStats();
+    depthAtlas = null;
+    lodPolicy = null;
+    preparer = null;
+    prepared = false;
+    signatures = new int[16];
+    drawnProjectors = new ArrayList<TextureProjector>();
     renderManager = null;
     viewPort = null;
     setPolyOffset(-0.1f, -0.1f);
   }
   
   /**
-   * @return A list of TextureProjectors rendered by this instance.
+   * @return The number of TextureProjectors that were refreshed in the last 
+   * frame, because they are new or changed.
+   */  
+  public int getNumRefreshedProjectors()
+  {
+    return targetGeometryCuller.getNumRefreshedProjectors();
+  }
+  
+  /**
+   * @return The metrics of the last frame rendered by this instance.
+   */  
+  public ProjectorRenderStats getStats()
+  {
+    return stats;
+  }
+  
+  /**
+   * @return A list of TextureProjectors rendered by this instance, a 
+   * ProjectorRegistry. It may be changed from any thread. Changes are taken 
+   * over by the next preFrame(), so a change made while a frame renders shows 
+   * one frame later. While another thread holds the registry's lock, they 
+   * may be deferred by up to getMaxDeferredSnapshots() more frames.
+   * @see ProjectorRegistry#setMaxDeferredSnapshots(int)
    */  
   public List<TextureProjector> getTextureProjectors()
   {
-    return textureProjectors;
+    return projectorRegistry;
   }
 
+  /**
+   * Sets the spatial index used to find the receivers of TextureProjectors 
+   * without a target GeometryList. The index may be shared by several renderers.
+   * @param receiverIndex The receiver index or null to use the visible geometry of the ViewPort.
+   */  
+  public void setReceiverIndex(ReceiverBVH receiverIndex)
+  {
+    targetGeometryCuller.setReceiverIndex(receiverIndex);
+  }
+  
+  /**
+   * @return The receiver index or null, if the visible geometry of the ViewPort is used.
+   */  
+  public ReceiverBVH getReceiverIndex()
+  {
+    return targetGeometryCuller.getReceiverIndex();
+  }
+  
+  /**
+   * Sets the depth atlas that shadows the TextureProjectors of this instance, 
+   * so they do not project through the occluders of the ViewPort's scenes.
+   * The atlas must not be shared with other renderers.
+   * @param depthAtlas The depth atlas or null to disable shadows.
+   */  
+  public void setDepthAtlas(ProjectorDepthAtlas depthAtlas)
+  {
+    if (this.depthAtlas != null)
+    {
+      this.depthAtlas.clear();
+    }
+    
+    this.depthAtlas = depthAtlas;
+    
+    if (depthAtlas != null && renderManager != null)
+    {
+      depthAtlas.preload(renderManager);
+    }
+  }
+  
+  /**
+   * @return The depth atlas or null, if the TextureProjectors are not shadowed.
+   */  
+  public ProjectorDepthAtlas getDepthAtlas()
+  {
+    return depthAtlas;
+  }
+  
+  /**
+   * Sets the policy that skips small TextureProjectors and draws mid-sized 
+   * ones with a cheaper shader variant.
+   * @param lodPolicy The level of detail policy or null to draw all 
+   * projectors at full quality.
+   */  
+  public void setLodPolicy(ProjectorLodPolicy lodPolicy)
+  {
+    this.lodPolicy = lodPolicy;
+  }
+  
+  /**
+   * @return The level of detail policy or null.
+   */  
+  public ProjectorLodPolicy getLodPolicy()
+  {
+    return lodPolicy;
+  }
+  
+  /**
+   * Sets the pool the TextureProjectors are prepared on. Their matrices, 
+   * frustums, levels of detail and receivers are then found in parallel in 
+   * postQueue(), see ParallelProjectorPreparer for the restrictions.
+   * The pool should be dedicated to this renderer, e.g. 
+   * new ForkJoinPool(n), not ForkJoinPool.commonPool(). On a pool busy with 
+   * other tasks the rendering thread does not wait for helpers that have 
+   * not started, it prepares their share itself, so the frame is no faster 
+   * than without a pool.
+   * @param pool The pool or null to prepare the projectors in postFrame() 
+   * on the rendering thread.
+   */  
+  public void setForkJoinPool(ForkJoinPool pool)
+  {
+    preparer = (pool != null) ? new ParallelProjectorPreparer(pool) : null;
+    prepared = false;
+  }
+  
+  /**
+   * @return The pool the TextureProjectors are prepared on or null.
+   */  
+  public ForkJoinPool getForkJoinPool()
+  {
+    return (preparer != null) ? preparer.getPool() : null;
+  }
+  
+  /**
+   * @return The preparer used with a ForkJoinPool or null.
+   */  
+  public ParallelProjectorPreparer getPreparer()
+  {
+    return preparer;
+  }
+  
   /**
    * Offsets the on-screen z-order of the texture material's polygons, 
    * to combat visual artefacts like stitching, bleeding and z-fighting 
@@ -90,11 +232,11 @@ public class TextureProjectorRenderer implements SceneProcessor
    */
   public final void setPolyOffset(float factor, float units)
   {
-    textureMat.getAdditionalRenderState().setPolyOffset(factor, units);
+    materialVariants.setPolyOffset(factor, units);
   }
   
   /**
-   * Initializes this instance.
+   * Initializes this instance and compiles the shader variants.
    * @see SceneProcessor
    */  
   @Override
@@ -102,6 +244,12 @@ public class TextureProjectorRenderer implements SceneProcessor
   {
     renderManager = rm;
     viewPort = vp;
+    materialVariants.preload(rm);
+    
+    if (depthAtlas != null)
+    {
+      depthAtlas.preload(rm);
+    }
   }
 
   /**
@@ -115,70 +263,202 @@ public class TextureProjectorRenderer implements SceneProcessor
   }
 
   /**
+   * Takes the snapshot of the TextureProjectors rendered in this frame.
    * Called before the a frame is rendered.
    * @see SceneProcessor
    */  
   @Override
-  public void preFrame(float tpf) { }
+  public void preFrame(float tpf) 
+  { 
+    stats.beginFrame();
+    projectorRegistry.updateSnapshot();
+    stats.pauseFrame();
+  }
   
   /**
+   * Prepares the TextureProjectors, if a ForkJoinPool is set.
    * Called before the render queue is flushed.
    * @see SceneProcessor
    */  
   @Override
-  public void postQueue(RenderQueue rq) { }
+  public void postQueue(RenderQueue rq) 
+  { 
+    stats.resumeFrame();
+    
+    if (preparer != null)
+    {
+      preparer.prepare(viewPort, textureProjectors, targetGeometryCuller, lodPolicy, Integer.MAX_VALUE);
+      prepared = true;
+    }
+    
+    stats.pauseFrame();
+  }
 
   /**
    * Renders each TextureProjector with its corresponding material parameters.
+   * Projectors are rendered grouped by their define signature, which the 
+   * level of detail policy may reduce.
+   * Projectors outside the view frustum are dropped before their receivers 
+   * are culled, and nothing is submitted if none is left.
+   * The depth atlas then renders the due depth maps of the remaining 
+   * projectors only.
+   * Only the target geometry intersecting a projector's frustum is submitted.
+   * With a ForkJoinPool, the projectors were prepared by postQueue().
    * Called after a frame has been rendered. 
    * @see SceneProcessor
    */  
   @Override
   public void postFrame(FrameBuffer out) 
   { 
-    renderManager.setForcedMaterial(textureMat);
-    renderManager.getRenderer().setFrameBuffer(out); // ToDo: check if needed
+    stats.beginDraws();
+    int numProjectors = textureProjectors.size();
+    
+    if (preparer == null)
+    {
+      targetGeometryCuller.beginFrame(viewPort);
       
-    for (TextureProjector textureProjector : textureProjectors)
-    { 
-      float fallOffDistance = textureProjector.getFallOffDistance();
-      textureMat.setTexture("ProjectiveMap", textureProjector.getProjectiveTexture());
-      textureMat.setMatrix4("ProjectorViewProjectionMatrix", textureProjector.getProjectorViewProjectionMatrix());      
-
-      if (textureProjector.isParallelProjection())
-      {
-        textureMat.clearParam("ProjectorLocation");
-        textureMat.setVector3("ProjectorDirection", textureProjector.getProjectorDirection());
-      }
-      else
+      if (lodPolicy != null)
       {
-        textureMat.clearParam("ProjectorDirection");
-        textureMat.setVector3("ProjectorLocation", textureProjector.getProjectorLocation());        
+        lodPolicy.update(viewPort.getCamera(), textureProjectors, targetGeometryCuller);
       }
-      
-      if (fallOffDistance != Float.MAX_VALUE)
+    }
+    else if (!prepared)
+    {
+      preparer.prepare(viewPort, textureProjectors, targetGeometryCuller, lodPolicy, Integer.MAX_VALUE);
+    }
+    
+    prepared = false;
+    
+    if (signatures.length < numProjectors)
+    {
+      signatures = new int[Math.max(numProjectors, signatures.length * 2)];
+    }
+    
+    drawnProjectors.clear();
+    
+    for (int i = 0; i < numProjectors; i++)
+    {
+      if (isDrawn(i))
       {
-        textureMat.setFloat("FallOffDistance", textureProjector.getFallOffDistance());
-        textureMat.setFloat("FallOffPower", textureProjector.getFallOffPower());          
+        signatures[i] = 0;
+        drawnProjectors.add(textureProjectors.get(i));
       }
       else
       {
-        textureMat.clearParam("FallOffDistance");        
-        textureMat.clearParam("FallOffPower");
+        signatures[i] = -1;
       }
-
-      GeometryList targetGeometryList = textureProjector.getTargetGeometryList();
-      if (targetGeometryList != null)
+    }
+    
+    // Nothing is submitted, if no projector can reach the rendered image.
+    if (drawnProjectors.isEmpty())
+    {
+      stats.endFrame();
+      return;
+    }
+    
+    // Restores the output FrameBuffer and the camera of the ViewPort.
+    if (depthAtlas != null)
+    {
+      depthAtlas.update(renderManager, viewPort, drawnProjectors);
+    }
+    
+    // The SHADOW bit depends on the depth maps just rendered.
+    for (int i = 0; i < numProjectors; i++)
+    {
+      if (signatures[i] == 0)
       {
-        renderManager.renderGeometryList(targetGeometryList);
+        signatures[i] = getSignature(i);
+      }
+    }
+    
+    renderManager.getRenderer().setFrameBuffer(out); // ToDo: check if needed
+      
+    // Projectors are grouped by define signature, so the shader changes at 
+    // most once per signature and frame.
+    for (int signature = 0; signature < ProjectorMaterialVariants.NUM_SIGNATURES; signature++)
+    {
+      for (int i = 0; i < numProjectors; i++)
+      { 
+        if (signatures[i] != signature)
+        {
+          continue;
+        }
+        
+        TextureProjector textureProjector = textureProjectors.get(i);
+        GeometryList culledGeometryList = (preparer != null) ? 
+          preparer.getPacket(i).getReceivers() : targetGeometryCuller.cull(textureProjector);
+        
+        if (culledGeometryList.size() == 0)
+        {
+          stats.onProjectorCulled();
+          continue;
+        }
+        
+        if ((signature & ProjectorMaterialVariants.HARD_EDGE) != 0)
+        {
+          stats.onProjectorReduced();
+        }
+        
+        renderManager.setForcedMaterial(materialVariants.apply(textureProjector, signature, depthAtlas));
+        renderManager.renderGeometryList(culledGeometryList);
+        stats.onProjectorDrawn();
+        stats.onParamUpdates(ProjectorMaterialVariants.getNumAppliedParams(signature));
+        stats.onPass(culledGeometryList.size());
       }
-      else
-      {
-        renderManager.renderViewPortRaw(viewPort);
-      }      
     }
     
     renderManager.setForcedMaterial(null);
+    stats.endFrame();
+  }
+
+  /**
+   * @param index The index of a TextureProjector.
+   * @return true, if the TextureProjector is neither culled nor skipped in 
+   * the current frame.
+   */  
+  private boolean isDrawn(int index)
+  {
+    ProjectorLodPolicy.Level level = (lodPolicy != null) ? lodPolicy.getLevel(index) : null;
+    
+    if (level == ProjectorLodPolicy.Level.CULLED)
+    {
+      stats.onProjectorCulled();
+      return false;
+    }
+    
+    if (level == ProjectorLodPolicy.Level.SKIPPED)
+    {
+      stats.onProjectorSkipped();
+      return false;
+    }
+    
+    // The level of detail policy already culled the invisible projectors.
+    boolean visible = (preparer != null) ? preparer.getPacket(index).isVisible() : 
+      ((lodPolicy != null) || targetGeometryCuller.isVisible(textureProjectors.get(index)));
+    
+    if (!visible)
+    {
+      stats.onProjectorCulled();
+    }
+    
+    return visible;
+  }
+  
+  /**
+   * @param index The index of a drawn TextureProjector.
+   * @return The signature the TextureProjector is drawn with in the current 
+   * frame.
+   */  
+  private int getSignature(int index)
+  {
+    int signature = ProjectorMaterialVariants.getSignature(textureProjectors.get(index), depthAtlas);
+    
+    if ((lodPolicy != null) && (lodPolicy.getLevel(index) == ProjectorLodPolicy.Level.REDUCED))
+    {
+      return ProjectorMaterialVariants.getReducedSignature(signature);
+    }
+    
+    return signature;
   }
 
   /**
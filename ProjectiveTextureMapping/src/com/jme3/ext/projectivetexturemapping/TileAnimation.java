@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.ext.projectivetexturemapping;
+
+import com.jme3.math.Vector4f;
+
+/**
+ * The sprite sheet animation of a projected texture. The sheet is divided 
+ * into numTilesU x numTilesV tiles, which are played row by row, starting 
+ * with the top left tile. The current tile is available as a UV rect for 
+ * the shader.
+ * Set an instance as the TILE_ANIMATION parameter of a TextureProjector to 
+ * animate it with an AnimatedTextureProjectorRenderer. An instance may be 
+ * shared by several projectors.
+ * 
+ * @author survivor
+ */
+public class TileAnimation 
+{
+  public enum LoopMode
+  {
+    /**
+     * Restarts with the first frame after the last.
+     */  
+    LOOP,
+    /**
+     * Stops at the last frame.
+     */  
+    CLAMP,
+    /**
+     * Plays forward and backward.
+     */  
+    PING_PONG
+  }
+  
+  private final int numTilesU;
+  private final int numTilesV;
+  private final Vector4f tileRect;
+  private int numFrames;
+  private float framesPerSecond;
+  private float startTime;
+  private LoopMode loopMode;
+  private int frameIndex;
+  private float lastUpdateTime;
+
+  /**
+   * Creates a looping animation over all tiles of the sheet.
+   * @param numTilesU The number of tile columns.
+   * @param numTilesV The number of tile rows.
+   * @param framesPerSecond The playback speed.
+   */  
+  public TileAnimation(int numTilesU, int numTilesV, float framesPerSecond)
+  {
+    if ((numTilesU <= 0) || (numTilesV <= 0))
+    {
+      throw new IllegalArgumentException("The number of tiles must be positive");
+    }
+    
+    this.numTilesU = numTilesU;
+    this.numTilesV = numTilesV;
+    this.numFrames = numTilesU * numTilesV;
+    this.framesPerSecond = framesPerSecond;
+    this.startTime = 0f;
+    this.loopMode = LoopMode.LOOP;
+    this.tileRect = new Vector4f(0f, 1f - 1f / numTilesV, 1f / numTilesU, 1f / numTilesV);
+    this.frameIndex = 0;
+    this.lastUpdateTime = Float.NaN;
+  }
+  
+  /**
+   * @return The number of tile columns.
+   */  
+  public int getNumTilesU()
+  {
+    return numTilesU;
+  }
+  
+  /**
+   * @return The number of tile rows.
+   */  
+  public int getNumTilesV()
+  {
+    return numTilesV;
+  }
+  
+  /**
+   * Limits the animation to the first frames of the sheet, e.g. if the last 
+   * row is not full.
+   * @param numFrames The number of frames, at most numTilesU * numTilesV.
+   */  
+  public void setNumFrames(int numFrames)
+  {
+    if ((numFrames <= 0) || (numFrames > numTilesU * numTilesV))
+    {
+      throw new IllegalArgumentException("numFrames must be in [1, numTilesU * numTilesV]");
+    }
+    
+    this.numFrames = numFrames;
+  }
+  
+  /**
+   * @return The number of frames played, numTilesU * numTilesV by default.
+   */  
+  public int getNumFrames()
+  {
+    return numFrames;
+  }
+  
+  /**
+   * Sets the playback speed. Takes effect with the next update(), the frame 
+   * is computed from the start time, so the animation may jump.
+   * @param framesPerSecond The number of frames per second.
+   */  
+  public void setFramesPerSecond(float framesPerSecond)
+  {
+    this.framesPerSecond = framesPerSecond;
+  }
+  
+  /**
+   * @return The number of frames per second.
+   */  
+  public float getFramesPerSecond()
+  {
+    return framesPerSecond;
+  }
+  
+  /**
+   * Sets the time at which the first frame is shown. Different start times 
+   * keep projectors sharing a sheet out of sync.
+   * @param startTime The start time in seconds of the renderer's Timer.
+   */  
+  public void setStartTime(float startTime)
+  {
+    this.startTime = startTime;
+  }
+  
+  /**
+   * @return The time in seconds at which the first frame is shown, 0 by 
+   * default.
+   */  
+  public float getStartTime()
+  {
+    return startTime;
+  }
+  
+  /**
+   * Sets what happens after the last frame.
+   * @param loopMode The loop mode, not null.
+   */  
+  public void setLoopMode(LoopMode loopMode)
+  {
+    this.loopMode = loopMode;
+  }
+  
+  /**
+   * @return The loop mode, LOOP by default.
+   */  
+  public LoopMode getLoopMode()
+  {
+    return loopMode;
+  }
+  
+  /**
+   * @return The linear index of the current frame, set by update().
+   */  
+  public int getFrameIndex()
+  {
+    return frameIndex;
+  }
+  
+  /**
+   * @return The current tile as (offset u, offset v, size u, size v) in 
+   * texture coordinates, set by update().
+   */  
+  public Vector4f getTileRect()
+  {
+    return tileRect;
+  }
+  
+  /**
+   * Selects the frame for the given time. Repeated calls with the same 
+   * time return immediately, so shared instances are updated once.
+   * @param time The current time in seconds.
+   */  
+  public void update(float time)
+  {
+    if (time == lastUpdateTime)
+    {
+      return;
+    }
+    
+    lastUpdateTime = time;
+    int frame = (int) Math.max(0f, (time - startTime) * framesPerSecond);
+    
+    switch (loopMode)
+    {
+      case LOOP:
+        frame %= numFrames;
+        break;
+      case CLAMP:
+        frame = Math.min(frame, numFrames - 1);
+        break;
+      case PING_PONG:
+        if (numFrames == 1)
+        {
+          frame = 0;
+          break;
+        }
+        
+        int period = 2 * numFrames - 2;
+        frame %= period;
+        if (frame >= numFrames)
+        {
+          frame = period - frame;
+        }
+        break;
+    }
+    
+    frameIndex = frame;
+    int column = frame % numTilesU;
+    int row = frame / numTilesU;
+    // Texture coordinates start at the bottom, rows are counted from the top.
+    tileRect.x = (float) column / numTilesU;
+    tileRect.y = (float) (numTilesV - 1 - row) / numTilesV;
+  }
+}
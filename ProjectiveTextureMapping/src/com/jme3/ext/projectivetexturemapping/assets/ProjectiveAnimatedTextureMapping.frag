@@ -2,14 +2,15 @@ varying vec4 projCoord;
 varying float cosAngle;
  
 uniform sampler2D m_ProjectiveMap;
-uniform int m_NumTilesU;
-uniform int m_NumTilesV;
-uniform int m_SelectedTileU;
-uniform int m_SelectedTileV;
+uniform vec4 m_TileRect;
 
-#ifdef FALL_OFF
+#if defined(FALL_OFF)
+  uniform vec2 m_FallOff;
+  #define FALL_OFF_PARAMS m_FallOff
+#elif defined(FALL_OFF_DISTANCE)
   uniform float m_FallOffDistance;
   uniform float m_FallOffPower;
+  #define FALL_OFF_PARAMS vec2(m_FallOffDistance, m_FallOffPower)
 #endif
  
 const float SOFTNESS = 0.1;
@@ -22,31 +23,29 @@ void main()
   if ((projCoord.w > 0.0) && 
       (cosAngle > 0.0))
   {
-    vec2 lowBounds = vec2(float(m_SelectedTileU) / float(m_NumTilesU),
-                          float(m_SelectedTileV) / float(m_NumTilesV));
-
-    vec2 highBounds = vec2(float(m_SelectedTileU+1) / float(m_NumTilesU),
-                           float(m_SelectedTileV+1) / float(m_NumTilesV));
-
-    if ((projCoord.x >= lowBounds.x) && (projCoord.x <= highBounds.x) &&
-        (projCoord.y >= lowBounds.y) && (projCoord.y <= highBounds.y))
-    {  
-      vec4 projColor = texture2DProj(m_ProjectiveMap, projCoord);
+    // Texture coordinates outside of the projection would sample the 
+    // neighbouring tiles, they are masked out instead of branched around.
+    vec2 texCoord = projCoord.xy / projCoord.w;
+    vec2 inside = step(vec2(0.0), texCoord) * step(texCoord, vec2(1.0));
+    vec4 projColor = texture2D(m_ProjectiveMap, texCoord * m_TileRect.zw + m_TileRect.xy);
+    projColor.a *= inside.x * inside.y;
  
+    #ifndef HARD_EDGE
       if (cosAngle < SOFTNESS)
       {
         projColor.a *= cosAngle * SOFTNESS_INV;
       }
-       
-      #ifdef FALL_OFF
-        if (projCoord.w > m_FallOffDistance)
-        {
-          float maxDist = m_FallOffDistance + 1.0;
-          projColor.a *= clamp(pow(maxDist - projCoord.w, m_FallOffPower), 0.0, 1.0);
-        }       
-      #endif
+    #endif
+     
+    #ifdef FALL_OFF_PARAMS
+      vec2 fallOff = FALL_OFF_PARAMS;
+      if (projCoord.w > fallOff.x)
+      {
+        float maxDist = fallOff.x + 1.0;
+        projColor.a *= clamp(pow(maxDist - projCoord.w, fallOff.y), 0.0, 1.0);
+      }       
+    #endif
  
-      gl_FragColor = projColor;
-    }
+    gl_FragColor = projColor;
   } 
 }
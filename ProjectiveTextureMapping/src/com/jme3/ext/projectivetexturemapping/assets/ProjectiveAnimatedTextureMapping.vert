@@ -12,11 +12,6 @@ uniform mat4 m_ProjectorViewProjectionMatrix;
   uniform vec3 m_ProjectorLocation;
 #endif
  
-uniform int m_NumTilesU;
-uniform int m_NumTilesV;
-uniform int m_SelectedTileU;
-uniform int m_SelectedTileV;
- 
 varying vec4 projCoord;
 varying float cosAngle; 
  
@@ -27,8 +22,6 @@ void main()
   vec3 wsNormal = g_WorldMatrixInverseTranspose * inNormal;
  
   projCoord = m_ProjectorViewProjectionMatrix * wsPosition;
-  projCoord.x = (((projCoord.x + float(m_SelectedTileU)) / float(m_NumTilesU)));
-  projCoord.y = (((projCoord.y + float(m_SelectedTileV)) / float(m_NumTilesV)));
  
   #ifdef IS_PARALLEL_PROJECTION
     cosAngle = dot(wsNormal, -m_ProjectorDirection);
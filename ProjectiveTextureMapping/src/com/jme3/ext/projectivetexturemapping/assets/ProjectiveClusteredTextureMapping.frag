@@ -0,0 +1,112 @@
+#extension GL_EXT_texture_array : enable
+
+#define BLEND_COLOR_ADD_ALPHA 0.0
+#define BLEND_ALL 1.0
+#define TEXELS_PER_PROJECTOR 6.0
+
+uniform sampler2DArray m_ProjectiveMapArray;
+uniform sampler2D m_ProjectorData;
+uniform sampler2D m_TileData;
+uniform vec4 m_TileParams;
+uniform vec4 m_DataParams;
+
+varying vec4 wsPosition;
+varying vec3 wsNormal;
+
+const float SOFTNESS = 0.1;
+const float SOFTNESS_INV = 1.0 / SOFTNESS;
+
+vec4 fetchProjectorData(float index, float texel)
+{
+  return texture2D(m_ProjectorData, 
+    vec2((texel + 0.5) / TEXELS_PER_PROJECTOR, (index + 0.5) * m_DataParams.x));
+}
+
+vec4 fetchTileData(float texel, float row)
+{
+  return texture2D(m_TileData, 
+    vec2((texel + 0.5) * m_DataParams.y, (row + 0.5) * m_DataParams.z));
+}
+
+void main() 
+{
+  gl_FragColor = vec4(0.0);
+  vec3 normal = normalize(wsNormal);
+  vec2 tile = floor((gl_FragCoord.xy - m_TileParams.xy) * m_TileParams.z);
+  float firstTexel = tile.x * m_TileParams.w;
+  vec4 entries = fetchTileData(firstTexel, tile.y);
+  float count = entries.x;
+  bool accepted = false;
+
+  // Entry k of a tile is stored in component (k + 1) % 4 of texel (k + 1) / 4, 
+  // the count takes component 0 of the first texel.
+  for (int k = 0; k < MAX_PROJECTORS_PER_TILE; k++)
+  {
+    if (float(k) >= count)
+    {
+      break;
+    }
+
+    int entry = k + 1;
+    int component = entry - (entry / 4) * 4;
+
+    if (component == 0)
+    {
+      entries = fetchTileData(firstTexel + float(entry / 4), tile.y);
+    }
+
+    float index = (component == 0) ? entries.x : 
+                  (component == 1) ? entries.y : 
+                  (component == 2) ? entries.z : entries.w;
+
+    vec4 projCoord = vec4(
+      dot(fetchProjectorData(index, 0.0), wsPosition), 
+      dot(fetchProjectorData(index, 1.0), wsPosition), 
+      dot(fetchProjectorData(index, 2.0), wsPosition), 
+      dot(fetchProjectorData(index, 3.0), wsPosition));
+    vec4 location = fetchProjectorData(index, 4.0);
+    // Parallel projectors store the negated direction with w = 0.
+    float cosAngle = dot(normal, normalize(location.xyz - wsPosition.xyz * location.w));
+
+    if ((projCoord.w > 0.0) && (cosAngle > 0.0))
+    {
+      vec2 texCoord = projCoord.xy / projCoord.w;
+
+      if ((texCoord.x >= 0.0) && (texCoord.x <= 1.0) && 
+          (texCoord.y >= 0.0) && (texCoord.y <= 1.0))
+      {
+        vec4 params = fetchProjectorData(index, 5.0);
+        vec4 projColor = clamp(texture2DArray(m_ProjectiveMapArray, vec3(texCoord, params.z)), 0.0, 1.0);
+
+        if (cosAngle < SOFTNESS)
+        {
+          projColor.a *= cosAngle * SOFTNESS_INV;
+        }
+
+        if (projCoord.w > params.x)
+        {
+          float maxDist = params.x + 1.0;
+          projColor.a *= clamp(pow(max(maxDist - projCoord.w, 0.0), params.y), 0.0, 1.0);
+        }
+
+        // The first projector that covers the fragment starts the blend.
+        if (!accepted)
+        {
+          gl_FragColor = projColor;
+          accepted = true;
+        }
+        else if (params.w == BLEND_ALL)
+        {
+          gl_FragColor = mix(gl_FragColor, projColor, projColor.a);
+        }
+        else // BLEND_COLOR_ADD_ALPHA
+        {
+          gl_FragColor.xyz = mix(gl_FragColor.xyz, projColor.xyz, projColor.a);
+          gl_FragColor.a += projColor.a;
+        }
+      }
+    }
+  }
+
+  gl_FragColor = clamp(gl_FragColor, 0.0, 1.0);
+}
@@ -0,0 +1,58 @@
+uniform sampler2D m_DepthTexture;
+uniform vec2 m_DepthTexelSize;
+uniform sampler2D m_ProjectiveMap;
+uniform mat4 g_ViewProjectionMatrixInverse;
+uniform vec4 g_ViewPort;
+uniform mat4 m_ProjectorViewProjectionMatrix;
+uniform vec4 m_ProjectorLocation;
+uniform vec4 m_ProjectorParams;
+
+const float SOFTNESS = 0.1;
+const float SOFTNESS_INV = 1.0 / SOFTNESS;
+
+void main() 
+{
+  // Reconstruct the world position of the scene surface behind this fragment.
+  // The depth texture covers the whole output, the ViewPort may be a part of it.
+  float depth = texture2D(m_DepthTexture, gl_FragCoord.xy * m_DepthTexelSize).r;
+  vec2 screenCoord = (gl_FragCoord.xy - g_ViewPort.xy) / g_ViewPort.zw;
+  vec4 wsPosition = g_ViewProjectionMatrixInverse * vec4(vec3(screenCoord, depth) * 2.0 - 1.0, 1.0);
+  wsPosition /= wsPosition.w;
+  // Derived before any fragment of the quad is discarded.
+  vec3 normal = normalize(cross(dFdx(wsPosition.xyz), dFdy(wsPosition.xyz)));
+
+  vec4 projCoord = m_ProjectorViewProjectionMatrix * wsPosition;
+  vec3 texCoord = projCoord.xyz / projCoord.w;
+
+  // A depth of 1 is the cleared background, e.g. the sky.
+  if ((depth >= 1.0) || 
+      (projCoord.w <= 0.0) || 
+      any(lessThan(texCoord, vec3(0.0))) || 
+      any(greaterThan(texCoord, vec3(1.0))))
+  {
+    discard;
+  }
+
+  // Parallel projectors store the negated direction with w = 0.
+  float cosAngle = dot(normal, normalize(m_ProjectorLocation.xyz - wsPosition.xyz * m_ProjectorLocation.w));
+
+  if (cosAngle <= 0.0)
+  {
+    discard;
+  }
+
+  vec4 projColor = texture2D(m_ProjectiveMap, texCoord.xy);
+
+  if (cosAngle < SOFTNESS)
+  {
+    projColor.a *= cosAngle * SOFTNESS_INV;
+  }
+
+  if (projCoord.w > m_ProjectorParams.x)
+  {
+    float maxDist = m_ProjectorParams.x + 1.0;
+    projColor.a *= clamp(pow(max(maxDist - projCoord.w, 0.0), m_ProjectorParams.y), 0.0, 1.0);
+  }
+
+  gl_FragColor = projColor;
+}
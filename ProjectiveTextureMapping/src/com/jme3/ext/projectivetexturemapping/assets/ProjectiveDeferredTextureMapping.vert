@@ -0,0 +1,10 @@
+attribute vec3 inPosition;
+
+uniform mat4 g_ViewProjectionMatrix;
+uniform mat4 m_ProjectorViewProjectionMatrixInverse;
+
+void main() 
+{
+  vec4 wsPosition = m_ProjectorViewProjectionMatrixInverse * vec4(inPosition, 1.0);
+  gl_Position = g_ViewProjectionMatrix * vec4(wsPosition.xyz / wsPosition.w, 1.0);
+}
@@ -3,9 +3,19 @@ varying float cosAngle;
 
 uniform sampler2D m_ProjectiveMap;
 
-#ifdef FALL_OFF
+#if defined(FALL_OFF)
+  uniform vec2 m_FallOff;
+  #define FALL_OFF_PARAMS m_FallOff
+#elif defined(FALL_OFF_DISTANCE)
   uniform float m_FallOffDistance;
   uniform float m_FallOffPower;
+  #define FALL_OFF_PARAMS vec2(m_FallOffDistance, m_FallOffPower)
+#endif
+
+#ifdef SHADOW
+  uniform sampler2D m_ProjectorShadowMap;
+  uniform vec4 m_ProjectorShadowRect;
+  uniform float m_ShadowBias;
 #endif
 
 const float SOFTNESS = 0.1;
@@ -21,19 +31,34 @@ void main()
     {   
       vec4 projColor = texture2DProj(m_ProjectiveMap, projCoord);
 
-      if (cosAngle < SOFTNESS)
-      {
-        projColor.a *= cosAngle * SOFTNESS_INV;
-      }
+      #ifndef HARD_EDGE
+        if (cosAngle < SOFTNESS)
+        {
+          projColor.a *= cosAngle * SOFTNESS_INV;
+        }
+      #endif
       
-      #ifdef FALL_OFF
-        if (projCoord.w > m_FallOffDistance)
+      #ifdef FALL_OFF_PARAMS
+        vec2 fallOff = FALL_OFF_PARAMS;
+        if (projCoord.w > fallOff.x)
         {
-          float maxDist = m_FallOffDistance + 1.0;
-          projColor.a *= clamp(pow(maxDist - projCoord.w, m_FallOffPower), 0.0, 1.0);
+          float maxDist = fallOff.x + 1.0;
+          projColor.a *= clamp(pow(maxDist - projCoord.w, fallOff.y), 0.0, 1.0);
         }        
       #endif
 
+      #ifdef SHADOW
+        // Clamped to the tile, so no neighbouring depth map is sampled. 
+        // Outside of the tile there is no depth to compare with, so the 
+        // projection ends at the frustum border whatever the wrap mode.
+        vec3 shadowCoord = projCoord.xyz / projCoord.w;
+        vec2 inside = step(vec2(0.0), shadowCoord.xy) * step(shadowCoord.xy, vec2(1.0));
+        projColor.a *= inside.x * inside.y;
+        vec2 atlasCoord = clamp(shadowCoord.xy, 0.0, 1.0) * m_ProjectorShadowRect.zw + m_ProjectorShadowRect.xy;
+        float occluderDepth = texture2D(m_ProjectorShadowMap, atlasCoord).r;
+        projColor.a *= step(shadowCoord.z - m_ShadowBias, occluderDepth);
+      #endif
+
       gl_FragColor = projColor;
     }
   }  
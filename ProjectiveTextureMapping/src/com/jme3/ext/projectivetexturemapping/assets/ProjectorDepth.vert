@@ -0,0 +1,11 @@
+attribute vec3 inPosition;
+
+uniform mat4 g_WorldMatrix;
+uniform mat4 m_ProjectorViewProjectionMatrix;
+
+void main() 
+{
+  // Undo the bias of the projector matrix to get back to clip space.
+  vec4 projCoord = m_ProjectorViewProjectionMatrix * (g_WorldMatrix * vec4(inPosition, 1.0));
+  gl_Position = vec4(projCoord.xyz * 2.0 - projCoord.w, projCoord.w);
+}
@@ -0,0 +1,73 @@
+// Template, see ProjectiveAnimatedMultiTextureMapping.j3md.
+// projCoord.z holds the cosine between surface normal and projection direction.
+#define BLEND_COLOR_ADD_ALPHA 0.0
+#define BLEND_ALL 1.0
+
+uniform sampler2D m_ProjectiveMap;
+uniform vec4 m_ProjectorParams[$n];
+uniform vec4 m_ProjectorTileRects[$n];
+
+//#slot
+#if NUM_PROJECTORS > $i
+  varying vec4 projCoord$i;
+#endif
+
+//#endslot
+const float SOFTNESS = 0.1;
+const float SOFTNESS_INV = 1.0 / SOFTNESS;
+
+void main() 
+{
+  gl_FragColor = vec4(0.0);
+  vec4 projColor;
+  vec4 params;
+  vec4 tileRect;
+  vec2 texCoord;
+  vec2 inside;
+
+  //#slot
+  #if NUM_PROJECTORS > $i
+    if (projCoord$i.w > 0.0)
+    {
+      if (projCoord$i.z > 0.0)
+      {   
+        params = m_ProjectorParams[$i];
+        tileRect = m_ProjectorTileRects[$i];
+        // Coordinates outside of the projection would sample the 
+        // neighbouring tiles, they are masked out.
+        texCoord = projCoord$i.xy / projCoord$i.w;
+        inside = step(vec2(0.0), texCoord) * step(texCoord, vec2(1.0));
+        projColor = clamp(texture2D(m_ProjectiveMap, texCoord * tileRect.zw + tileRect.xy), 0.0, 1.0);
+        projColor.a *= inside.x * inside.y;
+
+        if (projCoord$i.z < SOFTNESS)
+        {
+          projColor.a *= projCoord$i.z * SOFTNESS_INV;
+        }
+
+        if (projCoord$i.w > params.x)
+        {
+          float maxDist = params.x + 1.0;
+          projColor.a *= clamp(pow(max(maxDist - projCoord$i.w, 0.0), params.y), 0.0, 1.0);
+        }        
+
+        #if $i == 0
+          gl_FragColor = projColor;
+        #else
+          if (params.w == BLEND_ALL)
+          {
+            gl_FragColor = mix(gl_FragColor, projColor, projColor.a);
+          }
+          else // BLEND_COLOR_ADD_ALPHA
+          {
+            gl_FragColor.xyz = mix(gl_FragColor.xyz, projColor.xyz, projColor.a);
+            gl_FragColor.a += projColor.a;
+          }
+        #endif
+      }
+    }
+  #endif
+
+  //#endslot
+  gl_FragColor = clamp(gl_FragColor, 0.0, 1.0);
+}
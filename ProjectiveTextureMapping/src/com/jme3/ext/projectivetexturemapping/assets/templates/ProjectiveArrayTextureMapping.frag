@@ -0,0 +1,69 @@
+// Template, see ProjectiveArrayTextureMapping.j3md.
+#extension GL_EXT_texture_array : enable
+
+#define BLEND_COLOR_ADD_ALPHA 0.0
+#define BLEND_ALL 1.0
+
+uniform sampler2DArray m_ProjectiveMapArray;
+uniform mat4 m_ProjectorViewProjectionMatrices[$n];
+uniform vec4 m_ProjectorLocations[$n];
+uniform vec4 m_ProjectorParams[$n];
+
+varying vec4 wsPosition;
+varying vec3 wsNormal;
+
+const float SOFTNESS = 0.1;
+const float SOFTNESS_INV = 1.0 / SOFTNESS;
+
+void main() 
+{
+  gl_FragColor = vec4(0.0);
+  vec3 normal = normalize(wsNormal);
+
+  for (int i = 0; i < NUM_PROJECTORS; i++)
+  {
+    vec4 projCoord = m_ProjectorViewProjectionMatrices[i] * wsPosition;
+    vec4 location = m_ProjectorLocations[i];
+    // Parallel projectors store the negated direction with w = 0.
+    float cosAngle = dot(normal, normalize(location.xyz - wsPosition.xyz * location.w));
+
+    if ((projCoord.w > 0.0) && (cosAngle > 0.0))
+    {
+      vec2 texCoord = projCoord.xy / projCoord.w;
+
+      if ((texCoord.x >= 0.0) && (texCoord.x <= 1.0) && 
+          (texCoord.y >= 0.0) && (texCoord.y <= 1.0))
+      {
+        vec4 params = m_ProjectorParams[i];
+        vec4 projColor = clamp(texture2DArray(m_ProjectiveMapArray, vec3(texCoord, params.z)), 0.0, 1.0);
+
+        if (cosAngle < SOFTNESS)
+        {
+          projColor.a *= cosAngle * SOFTNESS_INV;
+        }
+
+        if (projCoord.w > params.x)
+        {
+          float maxDist = params.x + 1.0;
+          projColor.a *= clamp(pow(max(maxDist - projCoord.w, 0.0), params.y), 0.0, 1.0);
+        }
+
+        if (i == 0)
+        {
+          gl_FragColor = projColor;
+        }
+        else if (params.w == BLEND_ALL)
+        {
+          gl_FragColor = mix(gl_FragColor, projColor, projColor.a);
+        }
+        else // BLEND_COLOR_ADD_ALPHA
+        {
+          gl_FragColor.xyz = mix(gl_FragColor.xyz, projColor.xyz, projColor.a);
+          gl_FragColor.a += projColor.a;
+        }
+      }
+    }
+  }
+
+  gl_FragColor = clamp(gl_FragColor, 0.0, 1.0);
+}
@@ -0,0 +1,19 @@
+// Template, see ProjectiveArrayTextureMapping.j3md.
+// The projection is done per fragment, so the number of projectors per pass 
+// is not limited by the number of varyings.
+attribute vec3 inPosition;
+attribute vec3 inNormal;
+
+uniform mat4 g_WorldViewProjectionMatrix;
+uniform mat4 g_WorldMatrix;
+uniform mat3 g_WorldMatrixInverseTranspose;
+
+varying vec4 wsPosition;
+varying vec3 wsNormal;
+
+void main() 
+{
+  gl_Position = g_WorldViewProjectionMatrix * vec4(inPosition, 1.0);
+  wsPosition = g_WorldMatrix * vec4(inPosition, 1.0);
+  wsNormal = g_WorldMatrixInverseTranspose * inNormal;
+}
@@ -0,0 +1,63 @@
+// Template, see ProjectiveMultiTextureMapping.j3md.
+// projCoord.z holds the cosine between surface normal and projection direction.
+#define BLEND_COLOR_ADD_ALPHA 0.0
+#define BLEND_ALL 1.0
+
+uniform vec4 m_ProjectorParams[$n];
+
+//#slot
+#if NUM_PROJECTORS > $i
+  varying vec4 projCoord$i;
+  uniform sampler2D m_ProjectiveMap$i;
+#endif
+
+//#endslot
+const float SOFTNESS = 0.1;
+const float SOFTNESS_INV = 1.0 / SOFTNESS;
+
+void main() 
+{
+  gl_FragColor = vec4(0.0);
+  vec4 projColor;
+  vec4 params;
+
+  //#slot
+  #if NUM_PROJECTORS > $i
+    if (projCoord$i.w > 0.0)
+    {
+      if (projCoord$i.z > 0.0)
+      {   
+        params = m_ProjectorParams[$i];
+        projColor = clamp(texture2DProj(m_ProjectiveMap$i, projCoord$i), 0.0, 1.0);
+
+        if (projCoord$i.z < SOFTNESS)
+        {
+          projColor.a *= projCoord$i.z * SOFTNESS_INV;
+        }
+
+        if (projCoord$i.w > params.x)
+        {
+          float maxDist = params.x + 1.0;
+          projColor.a *= clamp(pow(max(maxDist - projCoord$i.w, 0.0), params.y), 0.0, 1.0);
+        }        
+
+        #if $i == 0
+          gl_FragColor = projColor;
+        #else
+          if (params.w == BLEND_ALL)
+          {
+            gl_FragColor = mix(gl_FragColor, projColor, projColor.a);
+          }
+          else // BLEND_COLOR_ADD_ALPHA
+          {
+            gl_FragColor.xyz = mix(gl_FragColor.xyz, projColor.xyz, projColor.a);
+            gl_FragColor.a += projColor.a;
+          }
+        #endif
+      }
+    }
+  #endif
+
+  //#endslot
+  gl_FragColor = clamp(gl_FragColor, 0.0, 1.0);
+}
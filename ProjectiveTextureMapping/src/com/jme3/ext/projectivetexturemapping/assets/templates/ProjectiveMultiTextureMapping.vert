@@ -0,0 +1,36 @@
+// Template, see ProjectiveMultiTextureMapping.j3md.
+// The cosine between the surface normal and the projection direction is 
+// passed in projCoord.z, which texture2DProj() ignores for 2D textures, so 
+// each slot costs a single varying vector.
+attribute vec3 inPosition;
+attribute vec3 inNormal;
+
+uniform mat4 g_WorldViewProjectionMatrix;
+uniform mat4 g_WorldMatrix;
+uniform mat3 g_WorldMatrixInverseTranspose;
+
+uniform mat4 m_ProjectorViewProjectionMatrices[$n];
+uniform vec4 m_ProjectorLocations[$n];
+
+//#slot
+#if NUM_PROJECTORS > $i
+  varying vec4 projCoord$i;
+#endif
+//#endslot
+
+void main() 
+{
+  gl_Position = g_WorldViewProjectionMatrix * vec4(inPosition, 1.0);
+  vec4 wsPosition = g_WorldMatrix * vec4(inPosition, 1.0);
+  vec3 wsNormal = g_WorldMatrixInverseTranspose * inNormal;
+
+  //#slot
+  #if NUM_PROJECTORS > $i
+    projCoord$i = m_ProjectorViewProjectionMatrices[$i] * wsPosition;
+    // Parallel projectors store the negated direction with w = 0.
+    projCoord$i.z = dot(wsNormal, normalize(m_ProjectorLocations[$i].xyz - 
+                                            wsPosition.xyz * m_ProjectorLocations[$i].w));
+  #endif
+
+  //#endslot
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.ext.projectivetexturemapping.ProjectorLodPolicy;
+import com.jme3.ext.projectivetexturemapping.ProjectorRenderStats;
+import com.jme3.ext.projectivetexturemapping.SimpleTextureProjector;
+import com.jme3.ext.projectivetexturemapping.TextureProjectorRenderer;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.texture.Texture2D;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * CPU only benchmark of the parallel preparation of the 
+ * TextureProjectorRenderer. 2000 projectors move every frame and each one 
+ * culls the whole grid, so refreshing the matrices and frustums, level of 
+ * detail scoring and culling dominate. Reports the ms per frame spent in 
+ * postQueue(), where the projectors are prepared, and in postFrame(), where 
+ * the geometry is submitted, for the serial renderer and for pools of 1 to 8 
+ * threads. The speedup is relative to the pool with 1 thread and cannot 
+ * exceed the number of available processors. Equal drawn projector and 
+ * geometry counts show that all variants draw the same.
+ * @author survivor
+ */
+public class BenchmarkParallelPrepare 
+{
+  private static final int GRID_SIZE = 32;
+  private static final int NUM_PROJECTORS = 2000;
+  private static final int[] PARALLELISMS = { 0, 1, 2, 4, 8 };
+  private static final int NUM_FRAMES = 20;
+  
+  private final HeadlessFixture fixture;
+  private final GeometryList targetGeometryList;
+  private final Texture2D texture;
+
+  public static void main(String[] args) 
+  {
+    BenchmarkParallelPrepare benchmark = new BenchmarkParallelPrepare();
+    
+    // A silent round compiles the serial and the parallel code paths first.
+    for (int i = 0; i < PARALLELISMS.length; i++)
+    {
+      benchmark.run(PARALLELISMS[i], 0, false);
+    }
+    
+    System.out.println("available processors: " + Runtime.getRuntime().availableProcessors());
+    System.out.println("threads  prepare ms/frame  submit ms/frame  speedup  drawn  geometries");
+    double baseNanos = 0;
+    
+    for (int i = 0; i < PARALLELISMS.length; i++)
+    {
+      baseNanos = benchmark.run(PARALLELISMS[i], baseNanos, true);
+    }
+  }
+  
+  public BenchmarkParallelPrepare()
+  {
+    fixture = new HeadlessFixture();
+    fixture.lookAt(new Vector3f(GRID_SIZE * 0.5f, GRID_SIZE, GRID_SIZE * 1.5f), 
+      new Vector3f(GRID_SIZE * 0.5f, 0f, GRID_SIZE * 0.5f));
+    targetGeometryList = fixture.addReceiverGrid(GRID_SIZE, 1f);
+    texture = HeadlessFixture.createTexture(4);
+  }
+  
+  // Runs the renderer with a pool of the given parallelism, 0 for none, and 
+  // returns the prepare time of the pool with 1 thread.
+  private double run(int parallelism, double baseNanos, boolean print)
+  {
+    Random random = new Random(NUM_PROJECTORS);
+    TextureProjectorRenderer ptr = new TextureProjectorRenderer(fixture.getAssetManager());
+    ForkJoinPool pool = (parallelism > 0) ? new ForkJoinPool(parallelism) : null;
+    ptr.setForkJoinPool(pool);
+    ProjectorLodPolicy lodPolicy = new ProjectorLodPolicy();
+    lodPolicy.setMinScreenSize(0.01f);
+    ptr.setLodPolicy(lodPolicy);
+    SimpleTextureProjector[] projectors = new SimpleTextureProjector[NUM_PROJECTORS];
+    
+    for (int i = 0; i < NUM_PROJECTORS; i++)
+    {
+      projectors[i] = HeadlessFixture.createProjector(texture, 30f, 10f, 
+        random.nextFloat() * GRID_SIZE, 5f, random.nextFloat() * GRID_SIZE);
+      projectors[i].setTargetGeometryList(targetGeometryList);
+      ptr.getTextureProjectors().add(projectors[i]);
+    }
+    
+    ViewPort viewPort = fixture.getViewPort();
+    ptr.initialize(fixture.getRenderManager(), viewPort);
+    long prepareNanos = 0;
+    long submitNanos = 0;
+    
+    for (int frame = 0; frame < NUM_FRAMES * 2; frame++)
+    {
+      // All projectors move, so every state is refreshed.
+      for (int i = 0; i < NUM_PROJECTORS; i++)
+      {
+        Camera projectorCamera = projectors[i].getProjectorCamera();
+        Vector3f location = projectorCamera.getLocation();
+        projectorCamera.setLocation(location.set(location.x, ((frame & 1) == 0) ? 5.5f : 5f, location.z));
+      }
+      
+      long start = System.nanoTime();
+      ptr.preFrame(0.016f);
+      ptr.postQueue(viewPort.getQueue());
+      long prepared = System.nanoTime();
+      ptr.postFrame(viewPort.getOutputFrameBuffer());
+      long end = System.nanoTime();
+      
+      // The first half warms up the JIT and the pool.
+      if (frame >= NUM_FRAMES)
+      {
+        prepareNanos += prepared - start;
+        submitNanos += end - prepared;
+      }
+    }
+    
+    ptr.cleanup();
+    
+    if (pool != null)
+    {
+      pool.shutdown();
+    }
+    
+    if (!print)
+    {
+      return baseNanos;
+    }
+    
+    // Without a pool, the projectors are prepared in postFrame().
+    String threads = (parallelism > 0) ? Integer.toString(parallelism) : "serial";
+    double speedup = (parallelism > 1) ? baseNanos / prepareNanos : 1.0;
+    ProjectorRenderStats stats = ptr.getStats();
+    System.out.println(String.format("%-7s  %16.2f  %15.2f  %7.2f  %5d  %10d", 
+      threads, prepareNanos / 1e6 / NUM_FRAMES, submitNanos / 1e6 / NUM_FRAMES, speedup, 
+      stats.getNumProjectorsDrawn(), stats.getNumGeometriesSubmitted()));
+    return (parallelism == 1) ? prepareNanos : baseNanos;
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.ext.projectivetexturemapping.MultiTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.ProjectorRenderStats;
+import com.jme3.ext.projectivetexturemapping.SimpleTextureProjector;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.system.NullRenderer;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * CPU only benchmark of the packing strategies of the 
+ * MultiTextureProjectorRenderer. The projectors pick one of a few textures 
+ * and CombineModes at random, so list order packing keeps binding other 
+ * textures to the slots. Reports ns per frame, the texture binds per frame 
+ * and the binds saved compared to list order, and the passes of the last 
+ * frame. The binds are counted by the renderer, which like the GLRenderer 
+ * only binds an image to a texture unit that does not already hold it.
+ * @author survivor
+ */
+public class BenchmarkProjectorPacking 
+{
+  private static final int GRID_SIZE = 32;
+  private static final int[] NUM_PROJECTORS = { 10, 100, 1000 };
+  private static final int[] NUM_TEXTURES = { 2, 4, 16 };
+  private static final int NUM_FRAMES = 200;
+  
+  private final BindCountingRenderer renderer;
+  private final HeadlessFixture fixture;
+  private final GeometryList targetGeometryList;
+
+  public static void main(String[] args) 
+  {
+    BenchmarkProjectorPacking benchmark = new BenchmarkProjectorPacking();
+    System.out.println("strategy     projectors  textures   ns/frame  binds  saved  passes");
+    MultiTextureProjectorRenderer.PackingStrategy[] strategies = 
+      MultiTextureProjectorRenderer.PackingStrategy.values();
+    
+    for (int p = 0; p < NUM_PROJECTORS.length; p++)
+    {
+      for (int t = 0; t < NUM_TEXTURES.length; t++)
+      {
+        int listOrderBinds = 0;
+        
+        for (int s = 0; s < strategies.length; s++)
+        {
+          int binds = benchmark.run(strategies[s], NUM_PROJECTORS[p], NUM_TEXTURES[t], listOrderBinds);
+          
+          if (strategies[s] == MultiTextureProjectorRenderer.PackingStrategy.LIST_ORDER)
+          {
+            listOrderBinds = binds;
+          }
+        }
+      }
+    }
+  }
+  
+  public BenchmarkProjectorPacking()
+  {
+    renderer = new BindCountingRenderer();
+    fixture = new HeadlessFixture(renderer);
+    fixture.lookAt(new Vector3f(GRID_SIZE * 0.5f, GRID_SIZE, GRID_SIZE * 1.5f), 
+      new Vector3f(GRID_SIZE * 0.5f, 0f, GRID_SIZE * 0.5f));
+    targetGeometryList = fixture.addReceiverGrid(GRID_SIZE, 1f);
+  }
+  
+  private int run(MultiTextureProjectorRenderer.PackingStrategy strategy, int numProjectors, 
+    int numTextures, int listOrderBinds)
+  {
+    Random random = new Random(numProjectors * 31 + numTextures);
+    Texture2D[] textures = new Texture2D[numTextures];
+    
+    for (int i = 0; i < numTextures; i++)
+    {
+      textures[i] = HeadlessFixture.createTexture(4);
+    }
+    
+    MultiTextureProjectorRenderer mptr = new MultiTextureProjectorRenderer(fixture.getAssetManager(), 8);
+    mptr.setPackingStrategy(strategy);
+    mptr.setTargetGeometryList(targetGeometryList);
+    MultiTextureProjectorRenderer.CombineMode[] combineModes = MultiTextureProjectorRenderer.CombineMode.values();
+    
+    for (int i = 0; i < numProjectors; i++)
+    {
+      SimpleTextureProjector projector = HeadlessFixture.createProjector(textures[random.nextInt(numTextures)], 
+        30f, 10f, random.nextFloat() * GRID_SIZE, 5f, random.nextFloat() * GRID_SIZE);
+      projector.setParameter("CombineMode", combineModes[random.nextInt(combineModes.length)]);
+      mptr.getTextureProjectors().add(projector);
+    }
+    
+    ViewPort viewPort = fixture.getViewPort();
+    mptr.initialize(fixture.getRenderManager(), viewPort);
+    long nanos = 0;
+    
+    for (int frame = 0; frame < NUM_FRAMES * 2; frame++)
+    {
+      mptr.preFrame(0.016f);
+      long start = System.nanoTime();
+      mptr.postFrame(viewPort.getOutputFrameBuffer());
+      long end = System.nanoTime();
+      
+      // The first half warms up the JIT and the renderer's caches.
+      if (frame == NUM_FRAMES - 1)
+      {
+        renderer.numBinds = 0;
+      }
+      else if (frame >= NUM_FRAMES)
+      {
+        nanos += end - start;
+      }
+    }
+    
+    mptr.cleanup();
+    ProjectorRenderStats stats = mptr.getStats();
+    int binds = renderer.numBinds / NUM_FRAMES;
+    System.out.println(String.format("%-11s  %10d  %8d  %9d  %5d  %5d  %6d", 
+      strategy, numProjectors, numTextures, nanos / NUM_FRAMES, binds, 
+      (strategy == MultiTextureProjectorRenderer.PackingStrategy.LIST_ORDER) ? 0 : listOrderBinds - binds, 
+      stats.getNumPasses()));
+    return binds;
+  }
+  
+  // Counts the texture binds the GLRenderer would issue, it skips a unit 
+  // that already holds the image.
+  private static class BindCountingRenderer extends NullRenderer
+  {
+    private Image[] boundImages = new Image[16];
+    private int numBinds;
+
+    @Override
+    public void setTexture(int unit, Texture texture) 
+    {
+      if (unit >= boundImages.length)
+      {
+        boundImages = Arrays.copyOf(boundImages, unit * 2);
+      }
+      
+      if (boundImages[unit] != texture.getImage())
+      {
+        boundImages[unit] = texture.getImage();
+        numBinds++;
+      }
+    }
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.ext.projectivetexturemapping.AnimatedMultiTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.AnimatedTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.ClusteredTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.DeferredTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.MultiTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.ProjectorLodPolicy;
+import com.jme3.ext.projectivetexturemapping.ProjectorRenderStats;
+import com.jme3.ext.projectivetexturemapping.SimpleTextureProjector;
+import com.jme3.ext.projectivetexturemapping.TextureProjector;
+import com.jme3.ext.projectivetexturemapping.TextureProjectorRenderer;
+import com.jme3.math.Vector3f;
+import com.jme3.post.SceneProcessor;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.renderer.queue.OpaqueComparator;
+import com.jme3.system.NanoTimer;
+import com.jme3.texture.Texture2D;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * CPU only benchmark of the postFrame() overhead of the projector renderers. 
+ * The renderers run against a NullRenderer, so the numbers contain the 
+ * culling, state tracking and material updates, but no driver work.
+ * Every projector targets a GeometryList of the given size and one projector 
+ * moves per frame. Reports ns and allocated bytes per frame and the passes 
+ * and submitted geometries of the last frame, read through the renderer's 
+ * ProjectorRenderStats. The budgeted multi pass renderer draws at most 4 
+ * passes, chosen by screen size, to show that its cost stays bounded.
+ * A last set of runs places all projectors behind the camera, where they 
+ * should be rejected before any receiver is culled.
+ * @author survivor
+ */
+public class BenchmarkProjectorRenderers 
+{
+  private static final int GRID_SIZE = 32;
+  private static final int[] NUM_PROJECTORS = { 1, 10, 100, 1000 };
+  private static final int[] NUM_TARGETS = { 10, 100, 1000 };
+  private static final String[] RENDERERS = 
+  { 
+    "TextureProjectorRenderer", 
+    "AnimatedTextureProjectorRenderer", 
+    "MultiTextureProjectorRenderer",
+    "MultiTextureProjectorRenderer/4 passes",
+    "AnimatedMultiTextureProjectorRenderer",
+    "ClusteredTextureProjectorRenderer",
+    "DeferredTextureProjectorRenderer"
+  };
+  // Number of projector-target tests per measurement, the frame count is 
+  // derived from it so that large configurations don't run for minutes.
+  private static final int TESTS_PER_RUN = 4000000;
+  private static final int MIN_FRAMES = 20;
+  private static final int MAX_FRAMES = 2000;
+  
+  private final com.sun.management.ThreadMXBean threadBean;
+  private final HeadlessFixture fixture;
+  private final GeometryList receivers;
+  private final Texture2D texture;
+  private ProjectorRenderStats stats;
+
+  public static void main(String[] args) 
+  {
+    if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+    {
+      System.out.println("Thread allocation counters are not supported by this JVM");
+      return;
+    }
+    
+    BenchmarkProjectorRenderers benchmark = new BenchmarkProjectorRenderers();
+    System.out.println("renderer                                projectors  targets     ns/frame  bytes/frame  passes  geometries");
+    
+    for (int r = 0; r < RENDERERS.length; r++)
+    {
+      for (int p = 0; p < NUM_PROJECTORS.length; p++)
+      {
+        for (int t = 0; t < NUM_TARGETS.length; t++)
+        {
+          benchmark.run(RENDERERS[r], NUM_PROJECTORS[p], NUM_TARGETS[t], false);
+        }
+      }
+    }
+    
+    System.out.println("all projectors off screen:");
+    
+    for (int r = 0; r < RENDERERS.length; r++)
+    {
+      benchmark.run(RENDERERS[r], NUM_PROJECTORS[NUM_PROJECTORS.length - 1], 
+        NUM_TARGETS[NUM_TARGETS.length - 1], true);
+    }
+  }
+  
+  public BenchmarkProjectorRenderers()
+  {
+    threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    fixture = new HeadlessFixture();
+    fixture.lookAt(new Vector3f(GRID_SIZE * 0.5f, GRID_SIZE, GRID_SIZE * 1.5f), 
+      new Vector3f(GRID_SIZE * 0.5f, 0f, GRID_SIZE * 0.5f));
+    receivers = fixture.addReceiverGrid(GRID_SIZE, 1f);
+    texture = HeadlessFixture.createTexture(4);
+  }
+  
+  private SceneProcessor createRenderer(String name, SimpleTextureProjector[] projectors)
+  {
+    AssetManager assetManager = fixture.getAssetManager();
+    List<TextureProjector> textureProjectors;
+    SceneProcessor processor;
+    
+    if (name.equals("TextureProjectorRenderer"))
+    {
+      TextureProjectorRenderer ptr = new TextureProjectorRenderer(assetManager);
+      stats = ptr.getStats();
+      textureProjectors = ptr.getTextureProjectors();
+      processor = ptr;
+    }
+    else if (name.equals("AnimatedTextureProjectorRenderer"))
+    {
+      AnimatedTextureProjectorRenderer aptr = new AnimatedTextureProjectorRenderer(
+        assetManager, new NanoTimer(), 4, 4, 5);
+      stats = aptr.getStats();
+      textureProjectors = aptr.getTextureProjectors();
+      processor = aptr;
+    }
+    else if (name.equals("MultiTextureProjectorRenderer"))
+    {
+      MultiTextureProjectorRenderer mptr = new MultiTextureProjectorRenderer(assetManager, 8);
+      stats = mptr.getStats();
+      textureProjectors = mptr.getTextureProjectors();
+      processor = mptr;
+    }
+    else if (name.equals("MultiTextureProjectorRenderer/4 passes"))
+    {
+      ProjectorLodPolicy lodPolicy = new ProjectorLodPolicy();
+      lodPolicy.setMinScreenSize(0f);
+      lodPolicy.setReducedScreenSize(0f);
+      MultiTextureProjectorRenderer mptr = new MultiTextureProjectorRenderer(assetManager, 8);
+      mptr.setLodPolicy(lodPolicy);
+      mptr.setMaxPasses(4);
+      stats = mptr.getStats();
+      textureProjectors = mptr.getTextureProjectors();
+      processor = mptr;
+    }
+    else if (name.equals("AnimatedMultiTextureProjectorRenderer"))
+    {
+      AnimatedMultiTextureProjectorRenderer amptr = new AnimatedMultiTextureProjectorRenderer(
+        assetManager, new NanoTimer(), 4, 4, 5, 8);
+      stats = amptr.getStats();
+      textureProjectors = amptr.getTextureProjectors();
+      processor = amptr;
+    }
+    else if (name.equals("ClusteredTextureProjectorRenderer"))
+    {
+      ClusteredTextureProjectorRenderer cptr = new ClusteredTextureProjectorRenderer(assetManager);
+      stats = cptr.getStats();
+      textureProjectors = cptr.getTextureProjectors();
+      processor = cptr;
+    }
+    else
+    {
+      DeferredTextureProjectorRenderer dptr = new DeferredTextureProjectorRenderer(assetManager);
+      stats = dptr.getStats();
+      textureProjectors = dptr.getTextureProjectors();
+      processor = dptr;
+    }
+    
+    for (int i = 0; i < projectors.length; i++)
+    {
+      textureProjectors.add(projectors[i]);
+    }
+    
+    return processor;
+  }
+  
+  private void run(String name, int numProjectors, int numTargets, boolean offScreen)
+  {
+    Random random = new Random(numProjectors * 31 + numTargets);
+    GeometryList targetGeometryList = new GeometryList(new OpaqueComparator());
+    int stride = Math.max(1, receivers.size() / numTargets);
+    
+    for (int i = 0; i < numTargets; i++)
+    {
+      targetGeometryList.add(receivers.get((i * stride) % receivers.size()));
+    }
+    
+    SimpleTextureProjector[] projectors = new SimpleTextureProjector[numProjectors];
+    
+    for (int i = 0; i < numProjectors; i++)
+    {
+      // The camera looks at the grid from positive z, off screen projectors 
+      // are placed behind it.
+      float x = random.nextFloat() * GRID_SIZE;
+      float z = random.nextFloat() * GRID_SIZE + (offScreen ? GRID_SIZE * 3 : 0f);
+      projectors[i] = HeadlessFixture.createProjector(texture, 30f, 10f, x, 5f, z);
+      projectors[i].setTargetGeometryList(targetGeometryList);
+    }
+    
+    SceneProcessor processor = createRenderer(name, projectors);
+    fixture.getViewPort().addProcessor(processor);
+    int numFrames = Math.max(MIN_FRAMES, Math.min(MAX_FRAMES, TESTS_PER_RUN / (numProjectors * numTargets)));
+    long threadId = Thread.currentThread().getId();
+    long nanos = 0;
+    long allocatedBytes = 0;
+    
+    for (int frame = 0; frame < numFrames * 2; frame++)
+    {
+      Camera movingCamera = projectors[frame % numProjectors].getProjectorCamera();
+      Vector3f location = movingCamera.getLocation();
+      movingCamera.setLocation(location.set(location.x, ((frame & 1) == 0) ? 5.5f : 5f, location.z));
+      long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      fixture.renderFrame();
+      long end = System.nanoTime();
+      long endBytes = threadBean.getThreadAllocatedBytes(threadId);
+      
+      // The first half warms up the JIT and the renderers' caches.
+      if (frame >= numFrames)
+      {
+        nanos += end - start;
+        allocatedBytes += endBytes - startBytes;
+      }
+    }
+    
+    fixture.getViewPort().removeProcessor(processor);
+    System.out.println(String.format("%-38s  %10d  %7d  %11d  %11.1f  %6d  %10d", 
+      name, numProjectors, numTargets, nanos / numFrames, ((double) allocatedBytes) / numFrames, 
+      stats.getNumPasses(), stats.getNumGeometriesSubmitted()));
+  }
+}
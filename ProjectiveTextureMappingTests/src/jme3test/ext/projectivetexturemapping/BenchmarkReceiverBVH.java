@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.ext.projectivetexturemapping.ProjectorFrustum;
+import com.jme3.ext.projectivetexturemapping.ProjectorState;
+import com.jme3.ext.projectivetexturemapping.ProjectorStateCache;
+import com.jme3.ext.projectivetexturemapping.ReceiverBVH;
+import com.jme3.ext.projectivetexturemapping.SimpleTextureProjector;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.renderer.queue.OpaqueComparator;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.shape.Box;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture2D;
+import java.util.Random;
+
+/**
+ * CPU only benchmark comparing projector receiver queries through the 
+ * ReceiverBVH with testing every geometry against every projector frustum.
+ * Receivers are scattered on a ground plane at constant density, so the 
+ * number of receivers per projector stays constant while the scene grows.
+ * The incremental column keeps a receiver set per projector, which only 
+ * re-evaluates the receivers refitted since the last frame.
+ * @author survivor
+ */
+public class BenchmarkReceiverBVH 
+{
+  private static final int NUM_PROJECTORS = 64;
+  private static final int NUM_ITERATIONS = 50;
+  private static final float SPACING = 2f;
+  
+  public static void main(String[] args) 
+  {
+    System.out.println("receivers  linear ns/query  bvh ns/query  speedup  incremental ns/query  bvh refit ns (1% moving)");
+    
+    for (int numReceivers = 1000; numReceivers <= 128000; numReceivers *= 2)
+    {
+      run(numReceivers);
+    }
+  }
+  
+  private static void run(int numReceivers)
+  {
+    Random random = new Random(numReceivers);
+    float size = FastMath.sqrt(numReceivers) * SPACING;
+    Box box = new Box(0.5f, 0.5f, 0.5f);
+    Geometry[] receivers = new Geometry[numReceivers];
+    GeometryList receiverList = new GeometryList(new OpaqueComparator());
+    ReceiverBVH receiverIndex = new ReceiverBVH();
+    
+    for (int i = 0; i < numReceivers; i++)
+    {
+      receivers[i] = new Geometry("Receiver" + i, box);
+      receivers[i].setLocalTranslation(random.nextFloat() * size, 0f, random.nextFloat() * size);
+      receivers[i].updateGeometricState();
+      receiverList.add(receivers[i]);
+      receiverIndex.add(receivers[i]);
+    }
+    
+    ProjectorFrustum[] frustums = new ProjectorFrustum[NUM_PROJECTORS];
+    ProjectorState[] states = new ProjectorState[NUM_PROJECTORS];
+    ProjectorStateCache stateCache = new ProjectorStateCache();
+    stateCache.beginFrame();
+    Texture2D texture = new Texture2D(64, 64, Image.Format.RGBA8);
+    
+    for (int i = 0; i < NUM_PROJECTORS; i++)
+    {
+      SimpleTextureProjector projector = new SimpleTextureProjector(texture);
+      Camera projectorCamera = projector.getProjectorCamera();
+      projectorCamera.setFrustumPerspective(30f, 1f, 1f, 10f);
+      projectorCamera.setLocation(new Vector3f(random.nextFloat() * size, 5f, random.nextFloat() * size));
+      projectorCamera.lookAtDirection(Vector3f.UNIT_Y.negate(), Vector3f.UNIT_X.clone());
+      frustums[i] = new ProjectorFrustum();
+      frustums[i].update(projector);
+      states[i] = stateCache.get(projector);
+    }
+    
+    GeometryList store = new GeometryList(new OpaqueComparator());
+    long linearNanos = 0;
+    long bvhNanos = 0;
+    long incrementalNanos = 0;
+    long refitNanos = 0;
+    int numMoving = Math.max(1, numReceivers / 100);
+    
+    for (int iteration = 0; iteration < NUM_ITERATIONS * 2; iteration++)
+    {
+      boolean measure = iteration >= NUM_ITERATIONS;
+      long start = System.nanoTime();
+      
+      for (int p = 0; p < NUM_PROJECTORS; p++)
+      {
+        store.clear();
+        
+        for (int i = 0; i < numReceivers; i++)
+        {
+          Geometry receiver = receiverList.get(i);
+          
+          if (frustums[p].intersects(receiver.getWorldBound()))
+          {
+            store.add(receiver);
+          }
+        }
+      }
+      
+      long linearEnd = System.nanoTime();
+      
+      for (int p = 0; p < NUM_PROJECTORS; p++)
+      {
+        store.clear();
+        receiverIndex.query(frustums[p], store);
+      }
+      
+      long bvhEnd = System.nanoTime();
+      
+      for (int p = 0; p < NUM_PROJECTORS; p++)
+      {
+        states[p].getReceiverSet().update(receiverIndex, states[p]);
+      }
+      
+      long incrementalEnd = System.nanoTime();
+      
+      for (int i = 0; i < numMoving; i++)
+      {
+        Geometry receiver = receivers[random.nextInt(numReceivers)];
+        receiver.move(random.nextFloat() * SPACING, 0f, random.nextFloat() * SPACING);
+        receiver.updateGeometricState();
+      }
+      
+      long refitStart = System.nanoTime();
+      receiverIndex.update();
+      long refitEnd = System.nanoTime();
+      
+      if (measure)
+      {
+        linearNanos += linearEnd - start;
+        bvhNanos += bvhEnd - linearEnd;
+        incrementalNanos += incrementalEnd - bvhEnd;
+        refitNanos += refitEnd - refitStart;
+      }
+    }
+    
+    long numQueries = (long) NUM_ITERATIONS * NUM_PROJECTORS;
+    System.out.println(String.format("%9d  %15d  %12d  %7.1f  %20d  %d", 
+      numReceivers, 
+      linearNanos / numQueries, 
+      bvhNanos / numQueries, 
+      ((double) linearNanos) / bvhNanos, 
+      incrementalNanos / numQueries, 
+      refitNanos / NUM_ITERATIONS));
+  }
+}
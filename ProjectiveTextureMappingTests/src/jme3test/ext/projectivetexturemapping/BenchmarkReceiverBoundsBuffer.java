@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.ext.projectivetexturemapping.ProjectorFrustum;
+import com.jme3.ext.projectivetexturemapping.ReceiverBoundsBuffer;
+import com.jme3.ext.projectivetexturemapping.SimpleTextureProjector;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.renderer.queue.OpaqueComparator;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.shape.Box;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture2D;
+import java.util.Random;
+
+/**
+ * CPU only benchmark comparing the ReceiverBoundsBuffer with testing every 
+ * receiver's BoundingVolume against every frustum, once through 
+ * ProjectorFrustum and once through Camera.contains(). The buffer time 
+ * includes loading the bounds once per frame. Half of the receivers have a 
+ * bounding box, the other half a bounding sphere. All three paths must find 
+ * the same number of pairs.
+ * @author survivor
+ */
+public class BenchmarkReceiverBoundsBuffer 
+{
+  private static final int NUM_PROJECTORS = 64;
+  private static final int NUM_ITERATIONS = 50;
+  private static final float SPACING = 2f;
+  
+  public static void main(String[] args) 
+  {
+    System.out.println("receivers  camera ns/pair  frustum ns/pair  buffer ns/pair  speedup  pairs found");
+    
+    for (int numReceivers = 500; numReceivers <= 32000; numReceivers *= 2)
+    {
+      run(numReceivers);
+    }
+  }
+  
+  private static void run(int numReceivers)
+  {
+    Random random = new Random(numReceivers);
+    float size = FastMath.sqrt(numReceivers) * SPACING;
+    Box box = new Box(0.5f, 0.5f, 0.5f);
+    GeometryList receiverList = new GeometryList(new OpaqueComparator());
+    
+    for (int i = 0; i < numReceivers; i++)
+    {
+      Geometry receiver = new Geometry("Receiver" + i, box);
+      
+      if ((i & 1) == 1)
+      {
+        receiver.setModelBound(new BoundingSphere());
+        receiver.updateModelBound();
+      }
+      
+      receiver.setLocalTranslation(random.nextFloat() * size, 0f, random.nextFloat() * size);
+      receiver.updateGeometricState();
+      receiverList.add(receiver);
+    }
+    
+    // Wide projectors, so a good share of the pairs is not trivially outside.
+    Camera[] cameras = new Camera[NUM_PROJECTORS];
+    ProjectorFrustum[] frustums = new ProjectorFrustum[NUM_PROJECTORS];
+    Texture2D texture = new Texture2D(64, 64, Image.Format.RGBA8);
+    
+    for (int i = 0; i < NUM_PROJECTORS; i++)
+    {
+      SimpleTextureProjector projector = new SimpleTextureProjector(texture);
+      cameras[i] = projector.getProjectorCamera();
+      cameras[i].setFrustumPerspective(60f, 1f, 1f, size * 0.25f);
+      cameras[i].setLocation(new Vector3f(random.nextFloat() * size, size * 0.1f, random.nextFloat() * size));
+      cameras[i].lookAtDirection(Vector3f.UNIT_Y.negate(), Vector3f.UNIT_X.clone());
+      cameras[i].update();
+      frustums[i] = new ProjectorFrustum();
+      frustums[i].update(projector);
+    }
+    
+    GeometryList store = new GeometryList(new OpaqueComparator());
+    ReceiverBoundsBuffer boundsBuffer = new ReceiverBoundsBuffer();
+    long cameraNanos = 0;
+    long frustumNanos = 0;
+    long bufferNanos = 0;
+    int numCameraPairs = 0;
+    int numFrustumPairs = 0;
+    int numBufferPairs = 0;
+    
+    for (int iteration = 0; iteration < NUM_ITERATIONS * 2; iteration++)
+    {
+      boolean measure = iteration >= NUM_ITERATIONS;
+      numCameraPairs = 0;
+      numFrustumPairs = 0;
+      numBufferPairs = 0;
+      long start = System.nanoTime();
+      
+      for (int p = 0; p < NUM_PROJECTORS; p++)
+      {
+        store.clear();
+        
+        for (int i = 0; i < numReceivers; i++)
+        {
+          Geometry receiver = receiverList.get(i);
+          cameras[p].setPlaneState(0);
+          
+          if (cameras[p].contains(receiver.getWorldBound()) != Camera.FrustumIntersect.Outside)
+          {
+            store.add(receiver);
+          }
+        }
+        
+        numCameraPairs += store.size();
+      }
+      
+      long cameraEnd = System.nanoTime();
+      
+      for (int p = 0; p < NUM_PROJECTORS; p++)
+      {
+        store.clear();
+        
+        for (int i = 0; i < numReceivers; i++)
+        {
+          Geometry receiver = receiverList.get(i);
+          
+          if (frustums[p].intersects(receiver.getWorldBound()))
+          {
+            store.add(receiver);
+          }
+        }
+        
+        numFrustumPairs += store.size();
+      }
+      
+      long frustumEnd = System.nanoTime();
+      boundsBuffer.load(receiverList);
+      
+      for (int p = 0; p < NUM_PROJECTORS; p++)
+      {
+        store.clear();
+        boundsBuffer.cull(frustums[p], store);
+        numBufferPairs += store.size();
+      }
+      
+      long bufferEnd = System.nanoTime();
+      
+      if (measure)
+      {
+        cameraNanos += cameraEnd - start;
+        frustumNanos += frustumEnd - cameraEnd;
+        bufferNanos += bufferEnd - frustumEnd;
+      }
+    }
+    
+    if ((numFrustumPairs != numBufferPairs) || (numCameraPairs != numBufferPairs))
+    {
+      throw new IllegalStateException("Pairs differ, camera: " + numCameraPairs + 
+        ", frustum: " + numFrustumPairs + ", buffer: " + numBufferPairs);
+    }
+    
+    double numPairs = ((double) NUM_ITERATIONS) * NUM_PROJECTORS * numReceivers;
+    System.out.println(String.format("%9d  %14.2f  %15.2f  %14.2f  %7.1f  %d", 
+      numReceivers, 
+      cameraNanos / numPairs, 
+      frustumNanos / numPairs, 
+      bufferNanos / numPairs, 
+      ((double) frustumNanos) / bufferNanos, 
+      numBufferPairs));
+  }
+}
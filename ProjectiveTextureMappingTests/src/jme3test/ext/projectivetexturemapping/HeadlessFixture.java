@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.ext.projectivetexturemapping.SimpleTextureProjector;
+import com.jme3.material.Material;
+import com.jme3.math.Vector3f;
+import com.jme3.post.SceneProcessor;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.Caps;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.renderer.queue.OpaqueComparator;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.shape.Box;
+import com.jme3.system.NullRenderer;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture2D;
+import com.jme3.texture.image.ColorSpace;
+import com.jme3.util.BufferUtils;
+import com.jme3.util.SafeArrayList;
+
+/**
+ * The setup shared by the headless checks and benchmarks: a RenderManager on 
+ * a NullRenderer with the capabilities the renderers ask for, and a main 
+ * ViewPort showing a scene of receivers with an Unshaded material. No 
+ * display or OpenGL context is needed. RenderManager.renderViewPort() returns 
+ * early for a NullRenderer, so renderFrame() drives the SceneProcessors of a 
+ * ViewPort the same way. check() records failed conditions and finish() 
+ * exits with status 1 if one failed.
+ * @author survivor
+ */
+public class HeadlessFixture 
+{
+  private final AssetManager assetManager;
+  private final NullRenderer renderer;
+  private final RenderManager renderManager;
+  private final Camera camera;
+  private final Node scene;
+  private final Material receiverMaterial;
+  private final ViewPort viewPort;
+  private boolean passed;
+  
+  public HeadlessFixture()
+  {
+    this(new NullRenderer());
+  }
+  
+  /**
+   * Creates a new instance.
+   * @param renderer The NullRenderer, e.g. a subclass recording the draws.
+   */  
+  public HeadlessFixture(NullRenderer renderer)
+  {
+    assetManager = new DesktopAssetManager(true);
+    this.renderer = renderer;
+    renderer.getCaps().add(Caps.GLSL100);
+    renderer.getCaps().add(Caps.TextureArray);
+    renderer.getCaps().add(Caps.FloatTexture);
+    renderer.getCaps().add(Caps.FrameBufferBlit);
+    renderManager = new RenderManager(renderer);
+    camera = new Camera(640, 480);
+    camera.setFrustumPerspective(45f, 640f / 480f, 1f, 1000f);
+    lookAt(new Vector3f(0f, 10f, 10f), Vector3f.ZERO);
+    scene = new Node("Scene");
+    receiverMaterial = new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md");
+    viewPort = createViewPort("Main");
+    passed = true;
+  }
+  
+  /**
+   * @return The AssetManager.
+   */  
+  public AssetManager getAssetManager()
+  {
+    return assetManager;
+  }
+  
+  /**
+   * @return The NullRenderer, e.g. to change its Limits.
+   */  
+  public NullRenderer getRenderer()
+  {
+    return renderer;
+  }
+  
+  /**
+   * @return The RenderManager.
+   */  
+  public RenderManager getRenderManager()
+  {
+    return renderManager;
+  }
+  
+  /**
+   * @return The camera of the main ViewPort, 640 x 480 pixels.
+   */  
+  public Camera getCamera()
+  {
+    return camera;
+  }
+  
+  /**
+   * @return The main ViewPort.
+   */  
+  public ViewPort getViewPort()
+  {
+    return viewPort;
+  }
+  
+  /**
+   * @return The scene of the ViewPorts.
+   */  
+  public Node getScene()
+  {
+    return scene;
+  }
+  
+  /**
+   * Moves the camera, which looks at the origin from (0, 10, 10) at first.
+   * @param location The new location.
+   * @param target The point to look at.
+   */  
+  public final void lookAt(Vector3f location, Vector3f target)
+  {
+    camera.setLocation(location);
+    camera.lookAt(target, Vector3f.UNIT_Y);
+  }
+  
+  /**
+   * Creates another main ViewPort with the same camera and scene.
+   * @param name The name of the ViewPort.
+   * @return The ViewPort.
+   */  
+  public final ViewPort createViewPort(String name)
+  {
+    ViewPort newViewPort = renderManager.createMainView(name, camera);
+    newViewPort.attachScene(scene);
+    return newViewPort;
+  }
+  
+  /**
+   * Adds a receiver to the scene and updates its geometric state.
+   * @param mesh The mesh of the receiver.
+   * @param x The x coordinate of the receiver.
+   * @param y The y coordinate of the receiver.
+   * @param z The z coordinate of the receiver.
+   * @return The receiver.
+   */  
+  public Geometry addReceiver(Mesh mesh, float x, float y, float z)
+  {
+    Geometry receiver = new Geometry("Receiver" + scene.getQuantity(), mesh);
+    receiver.setMaterial(receiverMaterial);
+    receiver.setLocalTranslation(x, y, z);
+    scene.attachChild(receiver);
+    scene.updateGeometricState();
+    return receiver;
+  }
+  
+  /**
+   * Adds a grid of boxes of size 0.8 on the xz plane to the scene, the first 
+   * one at the origin.
+   * @param size The number of boxes per row and column.
+   * @param spacing The distance between neighbouring boxes.
+   * @return The boxes, e.g. to be used as a target geometry list.
+   */  
+  public GeometryList addReceiverGrid(int size, float spacing)
+  {
+    GeometryList receivers = new GeometryList(new OpaqueComparator());
+    Box box = new Box(0.4f, 0.4f, 0.4f);
+    
+    for (int i = 0; i < size * size; i++)
+    {
+      Geometry receiver = new Geometry("Receiver" + scene.getQuantity(), box);
+      receiver.setMaterial(receiverMaterial);
+      receiver.setLocalTranslation((i % size) * spacing, 0f, (i / size) * spacing);
+      scene.attachChild(receiver);
+      receivers.add(receiver);
+    }
+    
+    scene.updateGeometricState();
+    return receivers;
+  }
+  
+  /**
+   * Renders a frame of the SceneProcessors of the main ViewPort.
+   */  
+  public void renderFrame()
+  {
+    renderFrame(viewPort);
+  }
+  
+  /**
+   * Renders a frame of the SceneProcessors of a ViewPort like 
+   * RenderManager.renderViewPort(), initializing those that are not yet. 
+   * ViewPort.removeProcessor() cleans a processor up again.
+   * @param renderedViewPort The ViewPort.
+   */  
+  public void renderFrame(ViewPort renderedViewPort)
+  {
+    SafeArrayList<SceneProcessor> processors = renderedViewPort.getProcessors();
+    
+    for (int i = 0; i < processors.size(); i++)
+    {
+      if (!processors.get(i).isInitialized())
+      {
+        processors.get(i).initialize(renderManager, renderedViewPort);
+      }
+      
+      processors.get(i).preFrame(0.016f);
+    }
+    
+    for (int i = 0; i < processors.size(); i++)
+    {
+      processors.get(i).postQueue(renderedViewPort.getQueue());
+    }
+    
+    for (int i = 0; i < processors.size(); i++)
+    {
+      processors.get(i).postFrame(renderedViewPort.getOutputFrameBuffer());
+    }
+  }
+  
+  /**
+   * Prints the name of a failed check and remembers the failure.
+   * @param name The name of the check.
+   * @param condition The checked condition.
+   * @return The condition.
+   */  
+  public boolean check(String name, boolean condition)
+  {
+    if (!condition)
+    {
+      System.out.println("FAILED: " + name);
+      passed = false;
+    }
+    
+    return condition;
+  }
+  
+  /**
+   * Prints the overall result and exits with status 1 if a check failed.
+   */  
+  public void finish()
+  {
+    System.out.println(passed ? "ok" : "FAILED");
+    
+    if (!passed)
+    {
+      System.exit(1);
+    }
+  }
+  
+  /**
+   * @param size The width and height.
+   * @return An RGBA8 texture with a zeroed data buffer.
+   */  
+  public static Texture2D createTexture(int size)
+  {
+    return new Texture2D(new Image(Image.Format.RGBA8, size, size, 
+      BufferUtils.createByteBuffer(size * size * 4), ColorSpace.sRGB));
+  }
+  
+  /**
+   * Creates a perspective projector with a near plane at 1, which points 
+   * down the y axis.
+   * @param texture The projected texture.
+   * @param fovY The vertical field of view in degrees.
+   * @param far The far plane.
+   * @param x The x coordinate of the projector.
+   * @param y The y coordinate of the projector.
+   * @param z The z coordinate of the projector.
+   * @return The projector.
+   */  
+  public static SimpleTextureProjector createProjector(Texture2D texture, float fovY, float far, 
+    float x, float y, float z)
+  {
+    SimpleTextureProjector projector = new SimpleTextureProjector(texture);
+    Camera projectorCamera = projector.getProjectorCamera();
+    projectorCamera.setFrustumPerspective(fovY, 1f, 1f, far);
+    projectorCamera.setLocation(new Vector3f(x, y, z));
+    projectorCamera.lookAtDirection(Vector3f.UNIT_Y.negate(), Vector3f.UNIT_X.clone());
+    return projector;
+  }
+}
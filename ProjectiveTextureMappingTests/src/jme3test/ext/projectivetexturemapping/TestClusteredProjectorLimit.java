@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.ext.projectivetexturemapping.ClusteredTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.ProjectorRenderStats;
+import com.jme3.renderer.Limits;
+import com.jme3.scene.shape.Box;
+import com.jme3.texture.Texture2D;
+
+/**
+ * Checks that ClusteredTextureProjectorRenderer does not grow its projector 
+ * data texture beyond Limits.TextureSize and skips the projectors that do 
+ * not fit.
+ * @author survivor
+ */
+public class TestClusteredProjectorLimit 
+{
+  private static final int TEXTURE_SIZE = 128;
+  private static final int NUM_PROJECTORS = 200;
+  private static final int NUM_FRAMES = 3;
+  
+  public static void main(String[] args) 
+  {
+    HeadlessFixture fixture = new HeadlessFixture();
+    fixture.getRenderer().getLimits().put(Limits.TextureSize, TEXTURE_SIZE);
+    fixture.addReceiver(new Box(2f, 0.1f, 2f), 0f, 0f, 0f);
+    ClusteredTextureProjectorRenderer cptr = new ClusteredTextureProjectorRenderer(fixture.getAssetManager());
+    Texture2D texture = HeadlessFixture.createTexture(4);
+    
+    for (int i = 0; i < NUM_PROJECTORS; i++)
+    {
+      cptr.getTextureProjectors().add(HeadlessFixture.createProjector(texture, 90f, 10f, 0f, 5f, 0f));
+    }
+    
+    fixture.getViewPort().addProcessor(cptr);
+    ProjectorRenderStats stats = cptr.getStats();
+    
+    for (int frame = 0; frame < NUM_FRAMES; frame++)
+    {
+      fixture.renderFrame();
+      System.out.println("frame " + frame + ": " + stats.getNumProjectorsDrawn() + " drawn, " + 
+        stats.getNumProjectorsSkipped() + " skipped");
+      fixture.check("projectors drawn up to the limit", 
+        (stats.getNumProjectorsDrawn() == TEXTURE_SIZE) && 
+        (stats.getNumProjectorsSkipped() == NUM_PROJECTORS - TEXTURE_SIZE));
+    }
+    
+    fixture.check("projector capacity", cptr.getMaxProjectors() == TEXTURE_SIZE);
+    fixture.getViewPort().removeProcessor(cptr);
+    fixture.finish();
+  }
+}
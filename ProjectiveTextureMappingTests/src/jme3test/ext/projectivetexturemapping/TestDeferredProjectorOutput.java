@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.ext.projectivetexturemapping.DeferredTextureProjectorRenderer;
+import com.jme3.post.FilterPostProcessor;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.shape.Box;
+import com.jme3.texture.FrameBuffer;
+
+/**
+ * Checks how DeferredTextureProjectorRenderer shares the output FrameBuffer 
+ * of its ViewPort: a FilterPostProcessor added before or after it is 
+ * rejected, a reshape keeps the redirection and cleanup restores the 
+ * original output.
+ * @author survivor
+ */
+public class TestDeferredProjectorOutput 
+{
+  public static void main(String[] args) 
+  {
+    HeadlessFixture fixture = new HeadlessFixture();
+    AssetManager assetManager = fixture.getAssetManager();
+    RenderManager renderManager = fixture.getRenderManager();
+    fixture.addReceiver(new Box(2f, 0.1f, 2f), 0f, 0f, 0f);
+    
+    ViewPort viewPort = fixture.createViewPort("FilterPostProcessor first");
+    viewPort.addProcessor(new FilterPostProcessor(assetManager));
+    viewPort.addProcessor(new DeferredTextureProjectorRenderer(assetManager));
+    fixture.check("FilterPostProcessor first is rejected", rendersWithIllegalState(fixture, viewPort));
+    renderManager.removeMainView(viewPort);
+    
+    viewPort = fixture.createViewPort("FilterPostProcessor last");
+    viewPort.addProcessor(new DeferredTextureProjectorRenderer(assetManager));
+    viewPort.addProcessor(new FilterPostProcessor(assetManager));
+    fixture.check("FilterPostProcessor last is rejected", rendersWithIllegalState(fixture, viewPort));
+    renderManager.removeMainView(viewPort);
+    
+    viewPort = fixture.getViewPort();
+    FrameBuffer output = viewPort.getOutputFrameBuffer();
+    DeferredTextureProjectorRenderer dptr = new DeferredTextureProjectorRenderer(assetManager);
+    viewPort.addProcessor(dptr);
+    fixture.check("renders alone", !rendersWithIllegalState(fixture, viewPort));
+    renderManager.notifyReshape(800, 600);
+    fixture.check("reshape keeps the redirection", !rendersWithIllegalState(fixture, viewPort));
+    fixture.check("depth texture is resized", dptr.getDepthTexture().getImage().getWidth() == 800);
+    viewPort.removeProcessor(dptr);
+    fixture.check("cleanup restores the output", viewPort.getOutputFrameBuffer() == output);
+    fixture.finish();
+  }
+  
+  private static boolean rendersWithIllegalState(HeadlessFixture fixture, ViewPort viewPort)
+  {
+    try
+    {
+      fixture.renderFrame(viewPort);
+      fixture.renderFrame(viewPort);
+      return false;
+    }
+    catch (IllegalStateException expected)
+    {
+      return true;
+    }
+  }
+}
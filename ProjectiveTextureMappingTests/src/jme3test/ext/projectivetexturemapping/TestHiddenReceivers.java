@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.ext.projectivetexturemapping.MultiTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.ProjectorRenderStats;
+import com.jme3.ext.projectivetexturemapping.ReceiverBVH;
+import com.jme3.ext.projectivetexturemapping.SimpleTextureProjector;
+import com.jme3.ext.projectivetexturemapping.TextureProjectorRenderer;
+import com.jme3.math.Vector3f;
+import com.jme3.post.SceneProcessor;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial.CullHint;
+import com.jme3.scene.shape.Box;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that receivers found through a ReceiverBVH are skipped while they 
+ * are hidden with CullHint.Always, directly or by an ancestor, or detached 
+ * from the scene, although they stay in the index. One projector covers 
+ * four receivers, which are hidden one after the other.
+ * @author survivor
+ */
+public class TestHiddenReceivers 
+{
+  private final HeadlessFixture fixture;
+  private final Node group;
+  private final Geometry[] receivers;
+  private final ReceiverBVH receiverIndex;
+  private final SimpleTextureProjector projector;
+
+  public static void main(String[] args) 
+  {
+    TestHiddenReceivers test = new TestHiddenReceivers();
+    
+    TextureProjectorRenderer ptr = new TextureProjectorRenderer(test.fixture.getAssetManager());
+    ptr.setReceiverIndex(test.receiverIndex);
+    ptr.getTextureProjectors().add(test.projector);
+    test.run("TextureProjectorRenderer", ptr, ptr.getStats());
+    
+    ForkJoinPool pool = new ForkJoinPool(2);
+    TextureProjectorRenderer pptr = new TextureProjectorRenderer(test.fixture.getAssetManager());
+    pptr.setForkJoinPool(pool);
+    pptr.setReceiverIndex(test.receiverIndex);
+    pptr.getTextureProjectors().add(test.projector);
+    test.run("Parallel TextureProjectorRenderer", pptr, pptr.getStats());
+    pool.shutdown();
+    
+    MultiTextureProjectorRenderer mptr = new MultiTextureProjectorRenderer(test.fixture.getAssetManager());
+    mptr.setReceiverIndex(test.receiverIndex);
+    mptr.getTextureProjectors().add(test.projector);
+    test.run("MultiTextureProjectorRenderer", mptr, mptr.getStats());
+    test.fixture.finish();
+  }
+  
+  public TestHiddenReceivers()
+  {
+    fixture = new HeadlessFixture();
+    fixture.lookAt(new Vector3f(1.5f, 10f, 10f), new Vector3f(1.5f, 0f, 0f));
+    group = new Node("Group");
+    fixture.getScene().attachChild(group);
+    Box box = new Box(0.4f, 0.4f, 0.4f);
+    receivers = new Geometry[4];
+    
+    for (int i = 0; i < receivers.length; i++)
+    {
+      receivers[i] = fixture.addReceiver(box, i, 0f, 0f);
+    }
+    
+    // Receiver 1 is hidden through its parent.
+    group.attachChild(receivers[1]);
+    fixture.getScene().updateGeometricState();
+    receiverIndex = new ReceiverBVH();
+    receiverIndex.addAll(fixture.getScene());
+    projector = HeadlessFixture.createProjector(HeadlessFixture.createTexture(4), 90f, 10f, 1.5f, 5f, 0f);
+  }
+  
+  // Hides one more receiver per step and checks the submitted geometry.
+  private void run(String name, SceneProcessor processor, ProjectorRenderStats stats)
+  {
+    Node scene = fixture.getScene();
+    receivers[0].setCullHint(CullHint.Inherit);
+    group.setCullHint(CullHint.Inherit);
+    scene.attachChild(receivers[2]);
+    fixture.getViewPort().addProcessor(processor);
+    StringBuilder counts = new StringBuilder();
+    boolean passed = true;
+    
+    for (int step = 0; step < 4; step++)
+    {
+      if (step == 1)
+      {
+        receivers[0].setCullHint(CullHint.Always);
+      }
+      else if (step == 2)
+      {
+        group.setCullHint(CullHint.Always);
+      }
+      else if (step == 3)
+      {
+        receivers[2].removeFromParent();
+      }
+      
+      scene.updateGeometricState();
+      fixture.renderFrame();
+      passed &= (stats.getNumGeometriesSubmitted() == 4 - step);
+      counts.append(' ').append(stats.getNumGeometriesSubmitted());
+    }
+    
+    fixture.getViewPort().removeProcessor(processor);
+    System.out.println(String.format("%-34s submitted%s", name, counts));
+    fixture.check(name + " skips hidden receivers", passed);
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.ext.projectivetexturemapping.AnimatedMultiTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.AnimatedTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.DeferredTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.MultiTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.ProjectorDepthAtlas;
+import com.jme3.ext.projectivetexturemapping.ProjectorLodPolicy;
+import com.jme3.ext.projectivetexturemapping.ReceiverBVH;
+import com.jme3.ext.projectivetexturemapping.SimpleTextureProjector;
+import com.jme3.ext.projectivetexturemapping.SinglePassTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.TextureProjector;
+import com.jme3.ext.projectivetexturemapping.TextureProjectorRenderer;
+import com.jme3.math.Vector3f;
+import com.jme3.post.SceneProcessor;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Node;
+import com.jme3.system.NanoTimer;
+import com.jme3.texture.Texture2D;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that the preFrame, postQueue and postFrame hot paths of the 
+ * renderers and SimpleTextureProjector.updateFrustumPoints() do not allocate 
+ * at steady state. The bytes allocated by the current thread are read from 
+ * the HotSpot ThreadMXBean. One receiver per frame moves up and back down 
+ * in the next frame, so the receiver index is refitted, while the scene 
+ * stays the same. Level of detail policies skip and reduce some projectors 
+ * of the single and multi pass renderers. The parallel renderer prepares 
+ * its projectors on a pool, only the rendering thread is measured. The 
+ * depth maps of the shadowed renderer are rendered once during the warmup, 
+ * as neither projectors nor occluders move and refreshing by age is 
+ * disabled. When compiled code is deoptimized, the JVM allocates the objects 
+ * it had scalar replaced on the measured thread, so a window of frames that 
+ * allocated is measured again before the hot path fails.
+ * @author survivor
+ */
+public class TestHotPathAllocation 
+{
+  private static final int NUM_PROJECTORS = 16;
+  private static final int GRID_SIZE = 16;
+  private static final int NUM_WARMUP_FRAMES = 2000;
+  private static final int NUM_FRAMES = 1000;
+  private static final int MAX_WINDOWS = 5;
+  
+  public static void main(String[] args) 
+  {
+    if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+    {
+      System.out.println("Thread allocation counters are not supported by this JVM");
+      return;
+    }
+    
+    HeadlessFixture fixture = new HeadlessFixture();
+    AssetManager assetManager = fixture.getAssetManager();
+    fixture.lookAt(new Vector3f(GRID_SIZE, 20f, GRID_SIZE * 3), new Vector3f(GRID_SIZE, 0f, GRID_SIZE));
+    fixture.addReceiverGrid(GRID_SIZE, 1f);
+    fixture.getScene().setShadowMode(RenderQueue.ShadowMode.CastAndReceive);
+    ReceiverBVH receiverIndex = new ReceiverBVH();
+    receiverIndex.addAll(fixture.getScene());
+    
+    Texture2D texture = HeadlessFixture.createTexture(4);
+    SimpleTextureProjector[] projectors = new SimpleTextureProjector[NUM_PROJECTORS];
+    for (int i = 0; i < NUM_PROJECTORS; i++)
+    {
+      // Mix projection types and fall off, so every define signature is used.
+      projectors[i] = HeadlessFixture.createProjector(texture, 30f, 20f, 
+        (i % 4) * GRID_SIZE / 2f, 8f, (i / 4) * GRID_SIZE / 2f);
+      
+      if ((i & 1) != 0)
+      {
+        projectors[i].setFallOffDistance(10f);
+      }
+      
+      if ((i & 2) != 0)
+      {
+        Camera projectorCamera = projectors[i].getProjectorCamera();
+        projectorCamera.setParallelProjection(true);
+        projectorCamera.setFrustum(1f, 20f, -2f, 2f, 2f, -2f);
+      }
+    }
+    
+    TextureProjectorRenderer ptr = new TextureProjectorRenderer(assetManager);
+    TextureProjectorRenderer pptr = new TextureProjectorRenderer(assetManager);
+    pptr.setForkJoinPool(new ForkJoinPool(2));
+    pptr.getPreparer().setMinProjectorsPerTask(4);
+    AnimatedTextureProjectorRenderer aptr = new AnimatedTextureProjectorRenderer(
+      assetManager, new NanoTimer(), 4, 4, 5);
+    MultiTextureProjectorRenderer mptr = new MultiTextureProjectorRenderer(assetManager, 4);
+    AnimatedMultiTextureProjectorRenderer amptr = new AnimatedMultiTextureProjectorRenderer(
+      assetManager, new NanoTimer(), 4, 4, 5, 4);
+    DeferredTextureProjectorRenderer dptr = new DeferredTextureProjectorRenderer(assetManager);
+    TextureProjectorRenderer sptr = new TextureProjectorRenderer(assetManager);
+    ProjectorDepthAtlas depthAtlas = new ProjectorDepthAtlas(assetManager, 1024, 256);
+    depthAtlas.setRefreshInterval(-1f);
+    sptr.setDepthAtlas(depthAtlas);
+    SinglePassTextureProjectorRenderer spptr = new SinglePassTextureProjectorRenderer(assetManager);
+    ptr.setLodPolicy(createLodPolicy());
+    pptr.setLodPolicy(createLodPolicy());
+    aptr.setLodPolicy(createLodPolicy());
+    mptr.setLodPolicy(createLodPolicy());
+    ptr.setReceiverIndex(receiverIndex);
+    pptr.setReceiverIndex(receiverIndex);
+    aptr.setReceiverIndex(receiverIndex);
+    mptr.setReceiverIndex(receiverIndex);
+    amptr.setReceiverIndex(receiverIndex);
+    sptr.setReceiverIndex(receiverIndex);
+    addProjectors(ptr.getTextureProjectors(), projectors);
+    addProjectors(pptr.getTextureProjectors(), projectors);
+    addProjectors(aptr.getTextureProjectors(), projectors);
+    addProjectors(mptr.getTextureProjectors(), projectors);
+    addProjectors(amptr.getTextureProjectors(), projectors);
+    addProjectors(dptr.getTextureProjectors(), projectors);
+    addProjectors(sptr.getTextureProjectors(), projectors);
+    addProjectors(spptr.getTextureProjectors(), projectors);
+    
+    check(fixture, "SimpleTextureProjector", null, projectors);
+    check(fixture, "TextureProjectorRenderer", ptr, projectors);
+    check(fixture, "Parallel TextureProjectorRenderer", pptr, projectors);
+    check(fixture, "AnimatedTextureProjectorRenderer", aptr, projectors);
+    check(fixture, "MultiTextureProjectorRenderer", mptr, projectors);
+    check(fixture, "AnimatedMultiTextureProjectorRenderer", amptr, projectors);
+    check(fixture, "DeferredTextureProjectorRenderer", dptr, projectors);
+    check(fixture, "Shadowed TextureProjectorRenderer", sptr, projectors);
+    spptr.inject(fixture.getScene());
+    check(fixture, "SinglePassTextureProjectorRenderer", spptr, projectors);
+    fixture.finish();
+  }
+  
+  private static ProjectorLodPolicy createLodPolicy()
+  {
+    ProjectorLodPolicy lodPolicy = new ProjectorLodPolicy();
+    lodPolicy.setReducedScreenSize(0.3f);
+    lodPolicy.setMaxProjectors(NUM_PROJECTORS - 2);
+    return lodPolicy;
+  }
+  
+  private static void addProjectors(List<TextureProjector> list, SimpleTextureProjector[] projectors)
+  {
+    for (int i = 0; i < projectors.length; i++)
+    {
+      list.add(projectors[i]);
+    }
+  }
+  
+  private static void check(HeadlessFixture fixture, String name, SceneProcessor processor, 
+    SimpleTextureProjector[] projectors)
+  {
+    com.sun.management.ThreadMXBean threadBean = 
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    Node scene = fixture.getScene();
+    Vector3f[] frustumPoints = new Vector3f[8];
+    
+    for (int i = 0; i < frustumPoints.length; i++)
+    {
+      frustumPoints[i] = new Vector3f();
+    }
+    
+    if (processor != null)
+    {
+      fixture.getViewPort().addProcessor(processor);
+    }
+    
+    long allocatedBytes = 0;
+    int numWindows = 0;
+    
+    for (int frame = 0; frame < NUM_WARMUP_FRAMES + NUM_FRAMES * MAX_WINDOWS; frame++)
+    {
+      scene.getChild((frame / 2) % scene.getQuantity()).move(0f, ((frame & 1) == 0) ? 1f : -1f, 0f);
+      scene.updateGeometricState();
+      long start = threadBean.getThreadAllocatedBytes(threadId);
+      
+      if (processor != null)
+      {
+        fixture.renderFrame();
+      }
+      else
+      {
+        for (int i = 0; i < projectors.length; i++)
+        {
+          projectors[i].getProjectorViewProjectionMatrix();
+          projectors[i].updateFrustumPoints(frustumPoints);
+        }
+      }
+      
+      if (frame >= NUM_WARMUP_FRAMES)
+      {
+        allocatedBytes += threadBean.getThreadAllocatedBytes(threadId) - start;
+        
+        // A window ends after an even number of frames, with the scene as before.
+        if ((frame - NUM_WARMUP_FRAMES + 1) % NUM_FRAMES == 0)
+        {
+          numWindows++;
+          
+          if (allocatedBytes == 0)
+          {
+            break;
+          }
+          
+          if (numWindows < MAX_WINDOWS)
+          {
+            allocatedBytes = 0;
+          }
+        }
+      }
+    }
+    
+    if (processor != null)
+    {
+      fixture.getViewPort().removeProcessor(processor);
+    }
+    
+    double bytesPerFrame = ((double) allocatedBytes) / NUM_FRAMES;
+    System.out.println(String.format("%-38s %8.1f bytes/frame in window %d", name, bytesPerFrame, numWindows));
+    fixture.check(name + " does not allocate", allocatedBytes == 0);
+  }
+}
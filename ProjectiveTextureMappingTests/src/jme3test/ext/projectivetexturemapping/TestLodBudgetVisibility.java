@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.ext.projectivetexturemapping.ClusteredTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.MultiTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.ProjectorDepthAtlas;
+import com.jme3.ext.projectivetexturemapping.ProjectorLodPolicy;
+import com.jme3.ext.projectivetexturemapping.ProjectorRenderStats;
+import com.jme3.ext.projectivetexturemapping.SimpleTextureProjector;
+import com.jme3.ext.projectivetexturemapping.TextureProjector;
+import com.jme3.ext.projectivetexturemapping.TextureProjectorRenderer;
+import com.jme3.math.Vector3f;
+import com.jme3.post.SceneProcessor;
+import com.jme3.scene.shape.Box;
+import com.jme3.texture.Texture2D;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that projectors outside the view frustum do not take places in the 
+ * projector budget of a ProjectorLodPolicy. Two large projectors behind the 
+ * camera would have the highest priority, two small ones cover the visible 
+ * receiver. With a budget of two, both visible projectors must be drawn, 
+ * and a ProjectorDepthAtlas must only hold the maps of these two.
+ * @author survivor
+ */
+public class TestLodBudgetVisibility 
+{
+  private static final int BUDGET = 2;
+  
+  private final HeadlessFixture fixture;
+  private final SimpleTextureProjector[] projectors;
+
+  public static void main(String[] args) 
+  {
+    TestLodBudgetVisibility test = new TestLodBudgetVisibility();
+    
+    TextureProjectorRenderer ptr = new TextureProjectorRenderer(test.fixture.getAssetManager());
+    ptr.setLodPolicy(createLodPolicy());
+    test.run("TextureProjectorRenderer", ptr, ptr.getTextureProjectors(), ptr.getStats());
+    
+    ProjectorDepthAtlas depthAtlas = new ProjectorDepthAtlas(test.fixture.getAssetManager(), 256, 64);
+    TextureProjectorRenderer sptr = new TextureProjectorRenderer(test.fixture.getAssetManager());
+    sptr.setLodPolicy(createLodPolicy());
+    sptr.setDepthAtlas(depthAtlas);
+    test.run("Shadowed TextureProjectorRenderer", sptr, sptr.getTextureProjectors(), sptr.getStats());
+    test.fixture.check("depth maps only for drawn projectors", depthAtlas.getNumCachedMaps() == BUDGET);
+    
+    ForkJoinPool pool = new ForkJoinPool(2);
+    TextureProjectorRenderer pptr = new TextureProjectorRenderer(test.fixture.getAssetManager());
+    pptr.setForkJoinPool(pool);
+    pptr.getPreparer().setMinProjectorsPerTask(1);
+    pptr.setLodPolicy(createLodPolicy());
+    test.run("Parallel TextureProjectorRenderer", pptr, pptr.getTextureProjectors(), pptr.getStats());
+    pool.shutdown();
+    
+    MultiTextureProjectorRenderer mptr = new MultiTextureProjectorRenderer(test.fixture.getAssetManager());
+    mptr.setLodPolicy(createLodPolicy());
+    test.run("MultiTextureProjectorRenderer", mptr, mptr.getTextureProjectors(), mptr.getStats());
+    
+    ClusteredTextureProjectorRenderer cptr = new ClusteredTextureProjectorRenderer(test.fixture.getAssetManager());
+    cptr.setLodPolicy(createLodPolicy());
+    test.run("ClusteredTextureProjectorRenderer", cptr, cptr.getTextureProjectors(), cptr.getStats());
+    test.fixture.finish();
+  }
+  
+  private static ProjectorLodPolicy createLodPolicy()
+  {
+    ProjectorLodPolicy lodPolicy = new ProjectorLodPolicy();
+    lodPolicy.setMinScreenSize(0f);
+    lodPolicy.setMaxProjectors(BUDGET);
+    return lodPolicy;
+  }
+  
+  public TestLodBudgetVisibility()
+  {
+    fixture = new HeadlessFixture();
+    fixture.addReceiver(new Box(2f, 0.1f, 2f), 0f, 0f, 0f);
+    Texture2D texture = HeadlessFixture.createTexture(4);
+    projectors = new SimpleTextureProjector[4];
+    
+    // Projectors 0 and 1 point away from the scene behind the camera.
+    for (int i = 0; i < 2; i++)
+    {
+      projectors[i] = HeadlessFixture.createProjector(texture, 90f, 20f, i * 2f - 1f, 10f, 14f);
+      projectors[i].getProjectorCamera().lookAtDirection(Vector3f.UNIT_Z.clone(), Vector3f.UNIT_Y.clone());
+    }
+    
+    for (int i = 2; i < 4; i++)
+    {
+      projectors[i] = HeadlessFixture.createProjector(texture, 30f, 4f, i - 2.5f, 2f, 0f);
+    }
+  }
+  
+  private void run(String name, SceneProcessor processor, List<TextureProjector> textureProjectors, 
+    ProjectorRenderStats stats)
+  {
+    for (int i = 0; i < projectors.length; i++)
+    {
+      textureProjectors.add(projectors[i]);
+    }
+    
+    fixture.getViewPort().addProcessor(processor);
+    fixture.renderFrame();
+    fixture.getViewPort().removeProcessor(processor);
+    System.out.println(String.format("%-34s %d drawn %d culled %d skipped", name, 
+      stats.getNumProjectorsDrawn(), stats.getNumProjectorsCulled(), stats.getNumProjectorsSkipped()));
+    fixture.check(name + " spends the budget on visible projectors", 
+      (stats.getNumProjectorsDrawn() == BUDGET) && (stats.getNumProjectorsCulled() == 2) && 
+      (stats.getNumProjectorsSkipped() == 0));
+  }
+}
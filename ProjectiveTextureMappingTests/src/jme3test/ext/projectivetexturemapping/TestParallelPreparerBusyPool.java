@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.ext.projectivetexturemapping.ProjectorRenderStats;
+import com.jme3.ext.projectivetexturemapping.TextureProjectorRenderer;
+import com.jme3.math.Vector3f;
+import com.jme3.texture.Texture2D;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that the parallel TextureProjectorRenderer finishes its frames 
+ * while every thread of its pool is blocked by unrelated tasks, so its 
+ * helpers never start, and that it draws the same as the serial renderer 
+ * before and after the pool is free again. The frames run on a separate 
+ * thread, a frame that does not finish within the time limit fails.
+ * @author survivor
+ */
+public class TestParallelPreparerBusyPool 
+{
+  private static final int GRID_SIZE = 8;
+  private static final int NUM_FRAMES = 20;
+  private static final long TIME_LIMIT_MILLIS = 10000;
+  
+  private final HeadlessFixture fixture;
+
+  public static void main(String[] args) throws InterruptedException
+  {
+    TestParallelPreparerBusyPool test = new TestParallelPreparerBusyPool();
+    TextureProjectorRenderer ptr = test.createRenderer();
+    test.render();
+    test.fixture.getViewPort().removeProcessor(ptr);
+    int expectedProjectors = ptr.getStats().getNumProjectorsDrawn();
+    int expectedGeometries = ptr.getStats().getNumGeometriesSubmitted();
+    
+    ForkJoinPool pool = new ForkJoinPool(2);
+    TextureProjectorRenderer pptr = test.createRenderer();
+    pptr.setForkJoinPool(pool);
+    pptr.getPreparer().setMinProjectorsPerTask(4);
+    
+    // Both threads of the pool wait for the latch, the helpers stay queued.
+    final CountDownLatch release = new CountDownLatch(1);
+    
+    for (int i = 0; i < pool.getParallelism(); i++)
+    {
+      pool.execute(new Runnable() 
+      {
+        @Override
+        public void run() 
+        {
+          try
+          {
+            release.await();
+          }
+          catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+    }
+    
+    test.renderWithTimeLimit(pptr, "busy pool", expectedProjectors, expectedGeometries);
+    release.countDown();
+    test.renderWithTimeLimit(pptr, "free pool", expectedProjectors, expectedGeometries);
+    pool.shutdown();
+    test.fixture.finish();
+  }
+  
+  public TestParallelPreparerBusyPool()
+  {
+    fixture = new HeadlessFixture();
+    fixture.lookAt(new Vector3f(7f, 20f, 27f), new Vector3f(7f, 0f, 7f));
+    fixture.addReceiverGrid(GRID_SIZE, 2f);
+  }
+  
+  // One projector above every receiver.
+  private TextureProjectorRenderer createRenderer()
+  {
+    TextureProjectorRenderer renderer = new TextureProjectorRenderer(fixture.getAssetManager());
+    Texture2D texture = HeadlessFixture.createTexture(4);
+    
+    for (int i = 0; i < GRID_SIZE * GRID_SIZE; i++)
+    {
+      renderer.getTextureProjectors().add(HeadlessFixture.createProjector(
+        texture, 45f, 10f, (i % GRID_SIZE) * 2f, 4f, (i / GRID_SIZE) * 2f));
+    }
+    
+    fixture.getViewPort().addProcessor(renderer);
+    return renderer;
+  }
+  
+  // Renders the frames of the renderer in the main ViewPort.
+  private void render()
+  {
+    for (int frame = 0; frame < NUM_FRAMES; frame++)
+    {
+      fixture.renderFrame();
+    }
+  }
+  
+  private void renderWithTimeLimit(TextureProjectorRenderer renderer, String name, 
+    int expectedProjectors, int expectedGeometries) throws InterruptedException
+  {
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread renderThread = new Thread(new Runnable() 
+    {
+      @Override
+      public void run() 
+      {
+        render();
+        done.countDown();
+      }
+    });
+    
+    renderThread.setDaemon(true);
+    renderThread.start();
+    boolean finished = done.await(TIME_LIMIT_MILLIS, TimeUnit.MILLISECONDS);
+    ProjectorRenderStats stats = renderer.getStats();
+    System.out.println(String.format("%-10s %s  %d drawn  %d geometries", name, 
+      finished ? "finished" : "timed out", stats.getNumProjectorsDrawn(), stats.getNumGeometriesSubmitted()));
+    fixture.check(name, finished && 
+      (stats.getNumProjectorsDrawn() == expectedProjectors) && 
+      (stats.getNumGeometriesSubmitted() == expectedGeometries));
+  }
+}
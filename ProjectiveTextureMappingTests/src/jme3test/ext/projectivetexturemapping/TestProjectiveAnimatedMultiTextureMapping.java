@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.app.SimpleApplication;
+import com.jme3.ext.projectivetexturemapping.AnimatedMultiTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.AnimatedTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.SimpleTextureProjector;
+import com.jme3.ext.projectivetexturemapping.TileAnimation;
+import com.jme3.light.AmbientLight;
+import com.jme3.light.DirectionalLight;
+import com.jme3.material.Material;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.shape.Box;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Test application for batched animated Projective Texture Mapping. A grid 
+ * of projectors shares one sprite sheet, each with its own start time, and 
+ * is rendered in a few passes.
+ * @author survivor
+ */
+public class TestProjectiveAnimatedMultiTextureMapping extends SimpleApplication 
+{
+  private static final int GRID_SIZE = 6;
+  private static final float SPACING = 2f;
+  
+  private AnimatedMultiTextureProjectorRenderer ptr;
+
+  public static void main(String[] args) 
+  {
+    TestProjectiveAnimatedMultiTextureMapping app = new TestProjectiveAnimatedMultiTextureMapping();
+    app.start();
+    Logger.getLogger("").setLevel(Level.SEVERE);
+  }
+
+  @Override
+  public void simpleInitApp() 
+  {
+    setPauseOnLostFocus(false);
+    flyCam.setMoveSpeed(10f);
+    flyCam.setDragToRotate(true);
+    
+    Material mat = new Material(assetManager, "Common/MatDefs/Light/Lighting.j3md");
+    mat.setColor("Diffuse", ColorRGBA.LightGray);
+    mat.setColor("Ambient", ColorRGBA.LightGray);
+    mat.setBoolean("UseMaterialColors", true);
+    
+    float halfSize = GRID_SIZE * SPACING * 0.5f + 2f;
+    Box floor = new Box(halfSize, 0.1f, halfSize);
+    Geometry floorGeom = new Geometry("Floor", floor);
+    floorGeom.setMaterial(mat);
+    rootNode.attachChild(floorGeom);
+
+    float ar = ((float) settings.getWidth()) / ((float) settings.getHeight());
+    cam.setFrustumPerspective(45, ar, 0.1f, 1000.0f);
+    cam.setLocation(new Vector3f(0f, 12f, 12f));
+    cam.lookAt(new Vector3f(0, 0, 0), Vector3f.UNIT_Y.clone());
+    
+    AmbientLight al = new AmbientLight();
+    al.setColor(new ColorRGBA(0.1f, 0.1f, 0.1f, 1.0f));
+    rootNode.addLight(al);
+    
+    DirectionalLight dl = new DirectionalLight();
+    dl.setDirection(new Vector3f(-0.3f, -1f, -0.5f).normalizeLocal());
+    dl.setColor(new ColorRGBA(0.8f, 0.8f, 0.8f, 1f));
+    rootNode.addLight(dl);
+            
+    Texture2D sheet = (Texture2D) assetManager.loadTexture("Textures/simbolo1 animado.png");
+    sheet.setMinFilter(Texture.MinFilter.BilinearNoMipMaps);
+    sheet.setMagFilter(Texture.MagFilter.Bilinear);
+    sheet.setWrap(Texture.WrapMode.EdgeClamp);
+    
+    ptr = new AnimatedMultiTextureProjectorRenderer(assetManager, timer, 6, 1, 10);
+    
+    for (int i = 0; i < GRID_SIZE * GRID_SIZE; i++)
+    {
+      SimpleTextureProjector projector = new SimpleTextureProjector(sheet);
+      Camera projectorCamera = projector.getProjectorCamera();
+      projectorCamera.setFrustumPerspective(30f, 1f, 1f, 5f);
+      projectorCamera.setLocation(new Vector3f(
+        ((i % GRID_SIZE) - GRID_SIZE * 0.5f + 0.5f) * SPACING, 2f, 
+        ((i / GRID_SIZE) - GRID_SIZE * 0.5f + 0.5f) * SPACING));
+      projectorCamera.lookAtDirection(Vector3f.UNIT_Y.negate(), Vector3f.UNIT_X.clone());
+      
+      TileAnimation animation = new TileAnimation(6, 1, 5f + (i % 3) * 5f);
+      animation.setStartTime(i * 0.1f);
+      animation.setLoopMode((i % 2 == 0) ? TileAnimation.LoopMode.LOOP : TileAnimation.LoopMode.PING_PONG);
+      projector.setParameter(AnimatedTextureProjectorRenderer.TILE_ANIMATION, animation);
+      ptr.getTextureProjectors().add(projector);
+    }
+    
+    Logger.getLogger("").severe("NUM_PROJECTORS: " + ptr.getTextureProjectors().size() + 
+      ", NUM_PASSES: " + ((ptr.getTextureProjectors().size() + ptr.getNumProjectorsPerPass() - 1) / ptr.getNumProjectorsPerPass()));
+    viewPort.addProcessor(ptr);
+  }
+}
@@ -34,6 +34,7 @@ package jme3test.ext.projectivetexturemapping;
 import com.jme3.app.SimpleApplication;
 import com.jme3.ext.projectivetexturemapping.AnimatedTextureProjectorRenderer;
 import com.jme3.ext.projectivetexturemapping.SimpleTextureProjector;
+import com.jme3.ext.projectivetexturemapping.TileAnimation;
 import com.jme3.light.AmbientLight;
 import com.jme3.light.DirectionalLight;
 import com.jme3.material.Material;
@@ -133,6 +134,10 @@ public class TestProjectiveAnimatedTextureMapping extends SimpleApplication
     pd2.projector.setTargetGeometryList(gl);
     pd2.projector.getProjectorCamera().setFrustumPerspective(90f, 1f, 1f, 5f);
     pd2.projector.getProjectorCamera().setParallelProjection(true);
+    
+    final TileAnimation animation = new TileAnimation(6, 1, 10);
+    animation.setLoopMode(TileAnimation.LoopMode.PING_PONG);
+    pd2.projector.setParameter(AnimatedTextureProjectorRenderer.TILE_ANIMATION, animation);
 
     aptr = new AnimatedTextureProjectorRenderer(assetManager, timer, 6, 1, 20);
     aptr.getTextureProjectors().add(pd2.projector);
@@ -168,13 +168,18 @@ public class TestProjectiveMultiTextureMapping extends SimpleApplication
       (ptr1.getTextureProjectors().size() + 
        ptr2.getTextureProjectors().size()) + 
       ", NUM_PASSES: " + 
-      (((ptr1.getTextureProjectors().size() + 7) / 8) + 
-       ((ptr2.getTextureProjectors().size() + 7) / 8)));
+      (getNumPasses(ptr1) + getNumPasses(ptr2)));
     
     viewPort.addProcessor(ptr1);
     viewPort.addProcessor(ptr2);
   }
   
+  private int getNumPasses(MultiTextureProjectorRenderer ptr)
+  {
+    int numProjectorsPerPass = ptr.getNumProjectorsPerPass();
+    return (ptr.getTextureProjectors().size() + numProjectorsPerPass - 1) / numProjectorsPerPass;
+  }
+  
   private void initProjectorData(ProjectorData pd, Vector3f location, Texture2D texture)
   {
     texture.setMinFilter(Texture.MinFilter.Trilinear);
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.app.SimpleApplication;
+import com.jme3.ext.projectivetexturemapping.ProjectorDepthAtlas;
+import com.jme3.ext.projectivetexturemapping.SimpleTextureProjector;
+import com.jme3.ext.projectivetexturemapping.TextureProjectorRenderer;
+import com.jme3.light.AmbientLight;
+import com.jme3.light.DirectionalLight;
+import com.jme3.material.Material;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.queue.RenderQueue.ShadowMode;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.shape.Box;
+import com.jme3.scene.shape.Sphere;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Test application for shadowed Projective Texture Mapping. A sphere orbits 
+ * below two projectors and blocks their projection onto the floor. The depth 
+ * map of the moving projector is rendered every frame, the one of the still 
+ * projector only when it ages, so its shadow lags behind the sphere.
+ * @author survivor
+ */
+public class TestProjectiveShadowedTextureMapping extends SimpleApplication 
+{
+  private SimpleTextureProjector movingProjector;
+  private Geometry sphereGeom;
+  private TextureProjectorRenderer ptr;
+
+  public static void main(String[] args) 
+  {
+    TestProjectiveShadowedTextureMapping app = new TestProjectiveShadowedTextureMapping();
+    app.start();
+    Logger.getLogger("").setLevel(Level.SEVERE);
+  }
+
+  @Override
+  public void simpleInitApp() 
+  {
+    setPauseOnLostFocus(false);
+    flyCam.setMoveSpeed(3f);
+    flyCam.setDragToRotate(true);
+    
+    Material mat = new Material(assetManager, "Common/MatDefs/Light/Lighting.j3md");
+    mat.setColor("Diffuse", ColorRGBA.LightGray);
+    mat.setColor("Ambient", ColorRGBA.LightGray);
+    mat.setBoolean("UseMaterialColors", true);
+    
+    Box floor = new Box(4f, 0.1f, 4f);
+    Geometry floorGeom = new Geometry("Floor", floor);
+    floorGeom.setMaterial(mat);
+    floorGeom.setShadowMode(ShadowMode.Receive);
+    rootNode.attachChild(floorGeom);
+
+    Material mat2 = new Material(assetManager, "Common/MatDefs/Light/Lighting.j3md");
+    mat2.setColor("Diffuse", ColorRGBA.Orange);
+    mat2.setColor("Ambient", ColorRGBA.Orange);
+    mat2.setBoolean("UseMaterialColors", true);
+    
+    Sphere sphere = new Sphere(32, 32, 0.5f);
+    sphereGeom = new Geometry("Sphere", sphere);
+    sphereGeom.setMaterial(mat2);
+    sphereGeom.setShadowMode(ShadowMode.Cast);
+    rootNode.attachChild(sphereGeom);
+
+    float ar = ((float) settings.getWidth()) / ((float) settings.getHeight());
+    cam.setFrustumPerspective(45, ar, 0.1f, 1000.0f);
+    cam.setLocation(new Vector3f(0f, 6f, 8f));
+    cam.lookAt(new Vector3f(0, 0, 0), Vector3f.UNIT_Y.clone());
+    
+    AmbientLight al = new AmbientLight();
+    al.setColor(new ColorRGBA(0.1f, 0.1f, 0.1f, 1.0f));
+    rootNode.addLight(al);
+    
+    DirectionalLight dl = new DirectionalLight();
+    dl.setDirection(new Vector3f(-0.3f, -1f, -0.5f).normalizeLocal());
+    dl.setColor(new ColorRGBA(0.8f, 0.8f, 0.8f, 1f));
+    rootNode.addLight(dl);
+            
+    Texture2D texture1 = (Texture2D) assetManager.loadTexture("Textures/Monkey4.png");
+    Texture2D texture2 = (Texture2D) assetManager.loadTexture("Textures/rune.png");
+    
+    movingProjector = createProjector(new Vector3f(-1.5f, 4f, 0f), texture1);
+    SimpleTextureProjector stillProjector = createProjector(new Vector3f(1.5f, 4f, 0f), texture2);
+    
+    ProjectorDepthAtlas depthAtlas = new ProjectorDepthAtlas(assetManager, 1024, 512);
+    depthAtlas.setRefreshInterval(0.5f);
+    
+    ptr = new TextureProjectorRenderer(assetManager);
+    ptr.setDepthAtlas(depthAtlas);
+    ptr.getTextureProjectors().add(movingProjector);
+    ptr.getTextureProjectors().add(stillProjector);
+    
+    Logger.getLogger("").severe(
+      "NUM_PROJECTORS: " + ptr.getTextureProjectors().size() + 
+      ", NUM_DEPTH_MAPS: " + depthAtlas.getNumTiles());
+    
+    viewPort.addProcessor(ptr);        
+  }
+  
+  private SimpleTextureProjector createProjector(Vector3f location, Texture2D texture)
+  {
+    texture.setMinFilter(Texture.MinFilter.Trilinear);
+    texture.setMagFilter(Texture.MagFilter.Bilinear);
+    texture.setWrap(Texture.WrapMode.EdgeClamp);
+    
+    SimpleTextureProjector projector = new SimpleTextureProjector(texture);
+    Camera projectorCamera = projector.getProjectorCamera();
+    projectorCamera.setFrustumPerspective(60f, 1f, 1f, 10f);
+    projectorCamera.setLocation(location);
+    projectorCamera.lookAtDirection(Vector3f.UNIT_Y.negate(), Vector3f.UNIT_X.clone());
+    return projector;
+  }
+
+  @Override
+  public void simpleUpdate(float tpf) 
+  {
+    float time = timer.getTimeInSeconds();
+    sphereGeom.setLocalTranslation(FastMath.cos(time) * 1.5f, 1.5f, FastMath.sin(time) * 1.5f);
+    movingProjector.getProjectorCamera().setLocation(new Vector3f(-1.5f, 4f, FastMath.sin(time * 0.5f)));
+  }
+}
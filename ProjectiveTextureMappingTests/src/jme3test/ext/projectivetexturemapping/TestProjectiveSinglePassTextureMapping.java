@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.app.SimpleApplication;
+import com.jme3.ext.projectivetexturemapping.SinglePassTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.SimpleTextureProjector;
+import com.jme3.light.AmbientLight;
+import com.jme3.light.DirectionalLight;
+import com.jme3.material.Material;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.shape.Box;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Test application for single pass Projective Texture Mapping. The projection 
+ * is sampled inside the floor tiles' own Lighting material, so no extra pass 
+ * is drawn.
+ * @author survivor
+ */
+public class TestProjectiveSinglePassTextureMapping extends SimpleApplication 
+{
+  private static final int GRID_SIZE = 4;
+  private static final int NUM_TILES = 8;
+  private static final float SPACING = 5f;
+  
+  private SimpleTextureProjector[] projectors;
+  private SinglePassTextureProjectorRenderer ptr;
+
+  public static void main(String[] args) 
+  {
+    TestProjectiveSinglePassTextureMapping app = new TestProjectiveSinglePassTextureMapping();
+    app.start();
+    Logger.getLogger("").setLevel(Level.SEVERE);
+  }
+
+  @Override
+  public void simpleInitApp() 
+  {
+    setPauseOnLostFocus(false);
+    flyCam.setMoveSpeed(10f);
+    flyCam.setDragToRotate(true);
+    
+    Material mat = new Material(assetManager, "Common/MatDefs/Light/Lighting.j3md");
+    mat.setColor("Diffuse", ColorRGBA.LightGray);
+    mat.setColor("Ambient", ColorRGBA.LightGray);
+    mat.setBoolean("UseMaterialColors", true);
+    
+    float tileSize = (GRID_SIZE * SPACING + 4f) / NUM_TILES;
+    Box tile = new Box(tileSize * 0.5f, 0.1f, tileSize * 0.5f);
+    
+    for (int i = 0; i < NUM_TILES * NUM_TILES; i++)
+    {
+      Geometry tileGeom = new Geometry("Tile" + i, tile);
+      tileGeom.setMaterial(mat);
+      tileGeom.setLocalTranslation(
+        ((i % NUM_TILES) - NUM_TILES * 0.5f + 0.5f) * tileSize, 0f, 
+        ((i / NUM_TILES) - NUM_TILES * 0.5f + 0.5f) * tileSize);
+      rootNode.attachChild(tileGeom);
+    }
+
+    float ar = ((float) settings.getWidth()) / ((float) settings.getHeight());
+    cam.setFrustumPerspective(45, ar, 0.1f, 1000.0f);
+    cam.setLocation(new Vector3f(0f, 25f, 25f));
+    cam.lookAt(new Vector3f(0, 0, 0), Vector3f.UNIT_Y.clone());
+    
+    AmbientLight al = new AmbientLight();
+    al.setColor(new ColorRGBA(0.1f, 0.1f, 0.1f, 1.0f));
+    rootNode.addLight(al);
+    
+    DirectionalLight dl = new DirectionalLight();
+    dl.setDirection(new Vector3f(-0.3f, -1f, -0.5f).normalizeLocal());
+    dl.setColor(new ColorRGBA(0.8f, 0.8f, 0.8f, 1f));
+    rootNode.addLight(dl);
+            
+    Texture2D texture = (Texture2D) assetManager.loadTexture("Textures/Monkey4.png");
+    texture.setMinFilter(Texture.MinFilter.Trilinear);
+    texture.setMagFilter(Texture.MagFilter.Bilinear);
+    texture.setWrap(Texture.WrapMode.EdgeClamp);
+    
+    ptr = new SinglePassTextureProjectorRenderer(assetManager);
+    projectors = new SimpleTextureProjector[GRID_SIZE * GRID_SIZE];
+    
+    for (int i = 0; i < projectors.length; i++)
+    {
+      projectors[i] = new SimpleTextureProjector(texture);
+      Camera projectorCamera = projectors[i].getProjectorCamera();
+      projectorCamera.setFrustumPerspective(45f, 1f, 1f, 10f);
+      projectorCamera.lookAtDirection(Vector3f.UNIT_Y.negate(), Vector3f.UNIT_X.clone());
+      ptr.getTextureProjectors().add(projectors[i]);
+    }
+    
+    ptr.inject(rootNode);
+    Logger.getLogger("").severe("NUM_PROJECTORS: " + projectors.length + ", NUM_PASSES: 0");
+    viewPort.addProcessor(ptr);
+  }
+
+  @Override
+  public void simpleUpdate(float tpf) 
+  {
+    float time = timer.getTimeInSeconds();
+    
+    for (int i = 0; i < projectors.length; i++)
+    {
+      float x = ((i % GRID_SIZE) - GRID_SIZE * 0.5f) * SPACING;
+      float z = ((i / GRID_SIZE) - GRID_SIZE * 0.5f) * SPACING;
+      float s = FastMath.sin(time + i * 0.5f) * 2f;
+      projectors[i].getProjectorCamera().setLocation(new Vector3f(x + s, 4f, z));
+    }
+  }
+}
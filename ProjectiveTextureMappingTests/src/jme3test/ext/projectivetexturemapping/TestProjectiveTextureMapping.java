@@ -32,6 +32,7 @@
 package jme3test.ext.projectivetexturemapping;
 
 import com.jme3.app.SimpleApplication;
+import com.jme3.ext.projectivetexturemapping.ReceiverBVH;
 import com.jme3.ext.projectivetexturemapping.SimpleTextureProjector;
 import com.jme3.ext.projectivetexturemapping.TextureProjectorRenderer;
 import com.jme3.light.AmbientLight;
@@ -56,12 +57,15 @@ import java.util.logging.Logger;
 
 /**
  * Test application for Projective Texture Mapping.
+ * The receivers are found through a ReceiverBVH. Box3 is hidden every other 
+ * two seconds, while it stays indexed, and must not show a projection then.
  * @author survivor
  */
 public class TestProjectiveTextureMapping extends SimpleApplication 
 {
   private ProjectorData pd1, pd2;
   private TextureProjectorRenderer ptr;
+  private Geometry geom3;
 
   public static void main(String[] args) 
   {
@@ -88,7 +92,7 @@ public class TestProjectiveTextureMapping extends SimpleApplication
     rootNode.attachChild(geom1);
 
     Box box3 = new Box(new Vector3f(0, 3, 0), 2f, 0.1f, 2f);
-    Geometry geom3 = new Geometry("Box3", box3);
+    geom3 = new Geometry("Box3", box3);
     geom3.rotate(0f, 0f, -0.7f);
     geom3.setMaterial(mat);
     rootNode.attachChild(geom3);
@@ -107,6 +111,9 @@ public class TestProjectiveTextureMapping extends SimpleApplication
     Geometry geom2 = new Geometry("Sphere1", sphere1);
     geom2.setMaterial(mat2);
     rootNode.attachChild(geom2);
+    rootNode.updateGeometricState();
+    ReceiverBVH receiverIndex = new ReceiverBVH();
+    receiverIndex.addAll(rootNode);
 
     float ar = ((float) settings.getWidth()) / ((float) settings.getHeight());
     cam.setFrustumPerspective(45, ar, 0.1f, 1000.0f);
@@ -140,6 +147,7 @@ public class TestProjectiveTextureMapping extends SimpleApplication
     pd2.projector.getProjectorCamera().setParallelProjection(true);
     
     ptr = new TextureProjectorRenderer(assetManager);
+    ptr.setReceiverIndex(receiverIndex);
     ptr.getTextureProjectors().add(pd1.projector);
 //    ptr.getTextureProjectors().add(pd1.projector);
 //    ptr.getTextureProjectors().add(pd1.projector);
@@ -215,6 +223,9 @@ public class TestProjectiveTextureMapping extends SimpleApplication
     pd1.frustum.update(pd1.frustumPoints);
     pd2.projector.updateFrustumPoints(pd2.frustumPoints);
     pd2.frustum.update(pd2.frustumPoints);
+    
+    boolean hidden = (((int) (timer.getTimeInSeconds() * 0.5f)) & 1) != 0;
+    geom3.setCullHint(hidden ? Spatial.CullHint.Always : Spatial.CullHint.Inherit);
   }
   
   private class ProjectorData
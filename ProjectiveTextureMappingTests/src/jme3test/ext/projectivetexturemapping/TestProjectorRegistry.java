@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.ext.projectivetexturemapping.ProjectorRegistry;
+import com.jme3.ext.projectivetexturemapping.ProjectorRenderStats;
+import com.jme3.ext.projectivetexturemapping.SimpleTextureProjector;
+import com.jme3.ext.projectivetexturemapping.TextureProjector;
+import com.jme3.ext.projectivetexturemapping.TextureProjectorRenderer;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.texture.Texture2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that the TextureProjectors of a renderer can be added and removed 
+ * from other threads while frames render. Spawner threads add projectors in 
+ * bursts of hundreds, one by one and with addAll(), and remove half of them 
+ * again, while the rendering thread runs frames of the serial and of the 
+ * parallel TextureProjectorRenderer. The spawners and the rendering thread 
+ * start together, and the spawners keep adding and removing bursts until 
+ * at least MIN_FRAMES frames rendered alongside them. Every frame must draw 
+ * exactly the projectors of its snapshot, and once the spawners are done, 
+ * the next frame must draw exactly the projectors left in the list. 
+ * Finally a thread holds the registry's lock across frames: the snapshot 
+ * must be kept for getMaxDeferredSnapshots() frames and taken over by the 
+ * frame after, which waits for the lock.
+ * @author survivor
+ */
+public class TestProjectorRegistry 
+{
+  private static final int GRID_SIZE = 8;
+  private static final int NUM_SPAWNERS = 4;
+  private static final int NUM_BURSTS = 20;
+  private static final int BURST_SIZE = 200;
+  private static final int MIN_FRAMES = 100;
+  private static final long TIME_LIMIT_MILLIS = 60000L;
+  private static final long HOLD_MILLIS = 200L;
+  
+  private final HeadlessFixture fixture;
+  private final GeometryList targetGeometryList;
+  private final Texture2D texture;
+  private volatile Throwable spawnerFailure;
+  private volatile int numFrames;
+  private volatile long deadline;
+
+  public static void main(String[] args) throws InterruptedException 
+  {
+    TestProjectorRegistry test = new TestProjectorRegistry();
+    test.run("TextureProjectorRenderer", null);
+    ForkJoinPool pool = new ForkJoinPool(2);
+    test.run("Parallel TextureProjectorRenderer", pool);
+    pool.shutdown();
+    test.runHeldLock();
+    test.fixture.finish();
+  }
+  
+  public TestProjectorRegistry()
+  {
+    fixture = new HeadlessFixture();
+    fixture.lookAt(new Vector3f(GRID_SIZE * 0.5f, GRID_SIZE, GRID_SIZE * 1.5f), 
+      new Vector3f(GRID_SIZE * 0.5f, 0f, GRID_SIZE * 0.5f));
+    targetGeometryList = fixture.addReceiverGrid(GRID_SIZE, 1f);
+    texture = HeadlessFixture.createTexture(4);
+  }
+  
+  private void run(String name, ForkJoinPool pool) throws InterruptedException
+  {
+    TextureProjectorRenderer ptr = new TextureProjectorRenderer(fixture.getAssetManager());
+    ptr.setForkJoinPool(pool);
+    fixture.getViewPort().addProcessor(ptr);
+    ProjectorRegistry projectorRegistry = (ProjectorRegistry) ptr.getTextureProjectors();
+    ProjectorRenderStats stats = ptr.getStats();
+    Thread[] spawners = new Thread[NUM_SPAWNERS];
+    CyclicBarrier start = new CyclicBarrier(NUM_SPAWNERS + 1);
+    spawnerFailure = null;
+    numFrames = 0;
+    deadline = System.currentTimeMillis() + TIME_LIMIT_MILLIS;
+    
+    for (int i = 0; i < NUM_SPAWNERS; i++)
+    {
+      spawners[i] = new Thread(new Spawner(projectorRegistry, start, i), "Spawner" + i);
+      spawners[i].start();
+    }
+    
+    int numMismatches = 0;
+    
+    try
+    {
+      start.await();
+      
+      while (isAlive(spawners))
+      {
+        fixture.renderFrame();
+        numFrames++;
+        
+        // The snapshot is only replaced by the next preFrame().
+        if (stats.getNumProjectorsDrawn() != projectorRegistry.getSnapshot().size())
+        {
+          numMismatches++;
+        }
+      }
+      
+      fixture.renderFrame();
+    }
+    catch (BrokenBarrierException exception)
+    {
+      fixture.check(name + " starts the spawners", false);
+    }
+    catch (RuntimeException exception)
+    {
+      exception.printStackTrace();
+      fixture.check(name + " renders while projectors change", false);
+    }
+    
+    for (int i = 0; i < NUM_SPAWNERS; i++)
+    {
+      spawners[i].join();
+    }
+    
+    fixture.getViewPort().removeProcessor(ptr);
+    
+    if (spawnerFailure != null)
+    {
+      spawnerFailure.printStackTrace();
+      fixture.check(name + " spawners", false);
+    }
+    
+    int expected = NUM_SPAWNERS * NUM_BURSTS * BURST_SIZE / 2;
+    System.out.println(String.format("%-34s %5d frames  %3d mismatched  %6d registered  %6d drawn", 
+      name, numFrames, numMismatches, projectorRegistry.size(), stats.getNumProjectorsDrawn()));
+    fixture.check(name + " renders alongside the spawners", numFrames >= MIN_FRAMES);
+    fixture.check(name + " draws every snapshot", numMismatches == 0);
+    fixture.check(name + " draws the remaining projectors", 
+      (projectorRegistry.size() == expected) && (stats.getNumProjectorsDrawn() == expected));
+  }
+  
+  private void runHeldLock() throws InterruptedException
+  {
+    TextureProjectorRenderer ptr = new TextureProjectorRenderer(fixture.getAssetManager());
+    fixture.getViewPort().addProcessor(ptr);
+    final ProjectorRegistry projectorRegistry = (ProjectorRegistry) ptr.getTextureProjectors();
+    ProjectorRenderStats stats = ptr.getStats();
+    SimpleTextureProjector projector = HeadlessFixture.createProjector(texture, 30f, 10f, 
+      GRID_SIZE * 0.5f, 5f, GRID_SIZE * 0.5f);
+    projector.setTargetGeometryList(targetGeometryList);
+    projectorRegistry.add(projector);
+    
+    // contains() calls equals() with the lock held.
+    final CountDownLatch locked = new CountDownLatch(1);
+    final Object holder = new Object()
+    {
+      @Override
+      public boolean equals(Object other)
+      {
+        locked.countDown();
+        
+        try
+        {
+          Thread.sleep(HOLD_MILLIS);
+        }
+        catch (InterruptedException exception)
+        {
+          Thread.currentThread().interrupt();
+        }
+        
+        return false;
+      }
+      
+      @Override
+      public int hashCode()
+      {
+        return 0;
+      }
+    };
+    
+    Thread thread = new Thread(new Runnable()
+    {
+      @Override
+      public void run() 
+      {
+        projectorRegistry.contains(holder);
+      }
+    }, "Holder");
+    thread.start();
+    locked.await(TIME_LIMIT_MILLIS, TimeUnit.MILLISECONDS);
+    boolean deferred = true;
+    
+    for (int i = 0; i < projectorRegistry.getMaxDeferredSnapshots(); i++)
+    {
+      fixture.renderFrame();
+      deferred &= thread.isAlive() && (stats.getNumProjectorsDrawn() == 0);
+    }
+    
+    fixture.renderFrame();
+    int drawn = stats.getNumProjectorsDrawn();
+    thread.join();
+    fixture.getViewPort().removeProcessor(ptr);
+    System.out.println(String.format("%-34s %5d deferred frames  %6d drawn", 
+      "Held lock", projectorRegistry.getMaxDeferredSnapshots(), drawn));
+    fixture.check("Held lock defers the snapshot", deferred);
+    fixture.check("Held lock bounds the delay", drawn == 1);
+  }
+  
+  private static boolean isAlive(Thread[] threads)
+  {
+    for (int i = 0; i < threads.length; i++)
+    {
+      if (threads[i].isAlive())
+      {
+        return true;
+      }
+    }
+    
+    return false;
+  }
+  
+  // Adds bursts of projectors above the grid, every other burst with 
+  // addAll(), and removes every second projector of each of the first 
+  // NUM_BURSTS bursts again. Then adds and removes whole bursts until 
+  // MIN_FRAMES frames rendered or the time limit is reached.
+  private class Spawner implements Runnable
+  {
+    private final List<TextureProjector> textureProjectors;
+    private final CyclicBarrier start;
+    private final Random random;
+    
+    public Spawner(List<TextureProjector> textureProjectors, CyclicBarrier start, int seed)
+    {
+      this.textureProjectors = textureProjectors;
+      this.start = start;
+      this.random = new Random(seed);
+    }
+
+    @Override
+    public void run() 
+    {
+      try
+      {
+        ArrayList<TextureProjector> burst = new ArrayList<TextureProjector>();
+        start.await();
+        
+        for (int b = 0; (b < NUM_BURSTS) || 
+          ((numFrames < MIN_FRAMES) && (System.currentTimeMillis() < deadline)); b++)
+        {
+          burst.clear();
+          
+          for (int i = 0; i < BURST_SIZE; i++)
+          {
+            SimpleTextureProjector projector = HeadlessFixture.createProjector(texture, 30f, 10f, 
+              random.nextFloat() * GRID_SIZE, 5f, random.nextFloat() * GRID_SIZE);
+            projector.setTargetGeometryList(targetGeometryList);
+            burst.add(projector);
+            
+            if ((b & 1) == 0)
+            {
+              textureProjectors.add(projector);
+            }
+          }
+          
+          if ((b & 1) == 1)
+          {
+            textureProjectors.addAll(burst);
+          }
+          
+          int step = (b < NUM_BURSTS) ? 2 : 1;
+          
+          for (int i = 0; i < BURST_SIZE; i += step)
+          {
+            textureProjectors.remove(burst.get(i));
+          }
+          
+          Thread.sleep(1);
+        }
+      }
+      catch (Throwable throwable)
+      {
+        spawnerFailure = throwable;
+      }
+    }
+  }
+}
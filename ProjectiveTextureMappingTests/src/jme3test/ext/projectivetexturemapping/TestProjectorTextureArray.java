@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.ext.projectivetexturemapping.MultiTextureProjectorRenderer;
+import com.jme3.ext.projectivetexturemapping.ProjectorTextureArray;
+import com.jme3.scene.shape.Box;
+import com.jme3.texture.Texture2D;
+import com.jme3.texture.TextureArray;
+
+/**
+ * Checks the layer management of ProjectorTextureArray: the layer cap, 
+ * least recently used eviction that spares the layers of the current frame, 
+ * updating layers in place and rejecting mismatching textures when a 
+ * projector is added to a MultiTextureProjectorRenderer. The renderer then 
+ * draws more textures than layers without failing.
+ * @author survivor
+ */
+public class TestProjectorTextureArray 
+{
+  private static final int MAX_LAYERS = 4;
+  private static final int NUM_TEXTURES = 8;
+  
+  public static void main(String[] args) 
+  {
+    HeadlessFixture fixture = new HeadlessFixture();
+    Texture2D[] textures = new Texture2D[NUM_TEXTURES];
+    
+    for (int i = 0; i < NUM_TEXTURES; i++)
+    {
+      textures[i] = HeadlessFixture.createTexture(4);
+      textures[i].setName("Texture" + i);
+    }
+    
+    ProjectorTextureArray array = new ProjectorTextureArray();
+    array.setMaxLayers(MAX_LAYERS);
+    
+    // Frame 1 fills all layers, frame 2 uses texture 0 again, so texture 1 
+    // is the least recently used and replaced by texture 4.
+    array.beginFrame();
+    
+    for (int i = 0; i < MAX_LAYERS; i++)
+    {
+      fixture.check("layer of texture " + i, array.getLayer(textures[i]) == i);
+    }
+    
+    TextureArray textureArray = array.getTextureArray();
+    array.beginFrame();
+    fixture.check("layer of texture 0 is kept", array.getLayer(textures[0]) == 0);
+    fixture.check("texture 4 replaces texture 1", array.getLayer(textures[4]) == 1);
+    fixture.check("texture array is updated in place", array.getTextureArray() == textureArray);
+    fixture.check("layer data is replaced", textureArray.getImage().getData(1) == textures[4].getImage().getData(0));
+    fixture.check("layer count is capped", array.getNumLayers() == MAX_LAYERS);
+    
+    // Frame 3 uses four textures, a fifth finds no free layer.
+    array.beginFrame();
+    
+    for (int i = 4; i < NUM_TEXTURES; i++)
+    {
+      fixture.check("layer of texture " + i, array.getLayer(textures[i]) >= 0);
+    }
+    
+    fixture.check("no layer while all are used", array.getLayer(textures[0]) == -1);
+    fixture.check("mismatching texture gets no layer", array.getLayer(HeadlessFixture.createTexture(2)) == -1);
+    
+    // The renderer rejects a mismatching texture when it is added.
+    MultiTextureProjectorRenderer mptr = new MultiTextureProjectorRenderer(fixture.getAssetManager(), 2, true);
+    mptr.getProjectorTextureArray().setMaxLayers(MAX_LAYERS);
+    
+    for (int i = 0; i < NUM_TEXTURES; i++)
+    {
+      mptr.getTextureProjectors().add(HeadlessFixture.createProjector(textures[i], 90f, 10f, 0f, 5f, 0f));
+    }
+    
+    try
+    {
+      mptr.getTextureProjectors().add(HeadlessFixture.createProjector(
+        HeadlessFixture.createTexture(2), 90f, 10f, 0f, 5f, 0f));
+      fixture.check("mismatching projector is rejected", false);
+    }
+    catch (IllegalArgumentException expected)
+    {
+      fixture.check("mismatching projector is rejected", mptr.getTextureProjectors().size() == NUM_TEXTURES);
+    }
+    
+    // All eight projectors are visible, four of them get a layer.
+    fixture.addReceiver(new Box(2f, 0.1f, 2f), 0f, 0f, 0f);
+    fixture.getViewPort().addProcessor(mptr);
+    fixture.renderFrame();
+    fixture.getViewPort().removeProcessor(mptr);
+    fixture.check("drawn projectors", mptr.getStats().getNumProjectorsDrawn() == MAX_LAYERS);
+    fixture.check("skipped projectors", mptr.getStats().getNumProjectorsSkipped() == NUM_TEXTURES - MAX_LAYERS);
+    fixture.finish();
+  }
+}
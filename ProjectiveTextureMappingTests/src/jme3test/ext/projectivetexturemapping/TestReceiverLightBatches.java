@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2009-2010 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3test.ext.projectivetexturemapping;
+
+import com.jme3.ext.projectivetexturemapping.ProjectiveReceiverLightingLogic;
+import com.jme3.ext.projectivetexturemapping.SinglePassTextureProjectorRenderer;
+import com.jme3.light.AmbientLight;
+import com.jme3.light.PointLight;
+import com.jme3.material.Material;
+import com.jme3.material.RenderState;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.RenderManager;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.shape.Box;
+import com.jme3.shader.Shader;
+import com.jme3.shader.Uniform;
+import com.jme3.system.NullRenderer;
+import java.util.ArrayList;
+
+/**
+ * Checks that a receiver injected by the SinglePassTextureProjectorRenderer 
+ * blends the projection only in the first batch of SinglePass lighting. A 
+ * Lighting receiver lit by an ambient and three point lights is drawn with 
+ * light batches of one and of four lights. Only the draws after the first 
+ * one may set the additive batch uniform, and they must be blended additive.
+ * @author survivor
+ */
+public class TestReceiverLightBatches 
+{
+  public static void main(String[] args) 
+  {
+    RecordingRenderer renderer = new RecordingRenderer();
+    HeadlessFixture fixture = new HeadlessFixture(renderer);
+    RenderManager renderManager = fixture.getRenderManager();
+    renderManager.setLightFilter(null);
+    renderManager.setCamera(fixture.getCamera(), false);
+    Node scene = fixture.getScene();
+    
+    Material material = new Material(fixture.getAssetManager(), "Common/MatDefs/Light/Lighting.j3md");
+    Geometry receiver = new Geometry("Receiver", new Box(1f, 1f, 1f));
+    receiver.setMaterial(material);
+    scene.attachChild(receiver);
+    scene.addLight(new AmbientLight());
+    
+    for (int i = 0; i < 3; i++)
+    {
+      PointLight light = new PointLight();
+      light.setPosition(new Vector3f(i * 2f, 3f, 0f));
+      scene.addLight(light);
+    }
+    
+    scene.updateGeometricState();
+    SinglePassTextureProjectorRenderer sptr = new SinglePassTextureProjectorRenderer(fixture.getAssetManager());
+    fixture.check("receiver injected", sptr.inject(scene) == 1);
+    
+    renderManager.setSinglePassLightBatchSize(1);
+    renderManager.renderGeometry(receiver);
+    System.out.println("batch size 1: " + renderer.draws);
+    fixture.check("batch size 1 draws 3 times", renderer.draws.size() == 3);
+    
+    for (int i = 0; i < renderer.draws.size(); i++)
+    {
+      boolean additive = (i > 0);
+      fixture.check("batch size 1 draw " + i, renderer.draws.get(i).equals(additive + " " + 
+        (additive ? RenderState.BlendMode.AlphaAdditive : RenderState.BlendMode.Off)));
+    }
+    
+    renderer.draws.clear();
+    renderManager.setSinglePassLightBatchSize(4);
+    renderManager.renderGeometry(receiver);
+    System.out.println("batch size 4: " + renderer.draws);
+    fixture.check("batch size 4 draws once", renderer.draws.size() == 1);
+    fixture.check("batch size 4 draw 0", renderer.draws.get(0).equals(false + " " + RenderState.BlendMode.Off));
+    fixture.finish();
+  }
+  
+  // Records the additive batch uniform and the blend mode of every draw.
+  private static class RecordingRenderer extends NullRenderer
+  {
+    private final ArrayList<String> draws = new ArrayList<String>();
+    private Shader shader;
+    private RenderState.BlendMode blendMode;
+
+    @Override
+    public void setShader(Shader shader) 
+    {
+      this.shader = shader;
+    }
+
+    @Override
+    public void applyRenderState(RenderState state) 
+    {
+      blendMode = state.getBlendMode();
+    }
+
+    @Override
+    public void renderMesh(Mesh mesh, int lod, int count, VertexBuffer[] instanceData) 
+    {
+      Uniform uniform = shader.getUniformMap().get(ProjectiveReceiverLightingLogic.ADDITIVE_BATCH_UNIFORM);
+      draws.add(Boolean.TRUE.equals((uniform != null) ? uniform.getValue() : null) + " " + blendMode);
+    }
+  }
+}